@@ -24,6 +24,8 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import pl.pwr.hiervis.hierarchy.reader.HierarchyReaderType;
+
 
 /**
  * Class storing the configuration of the visualizer at runtime
@@ -69,6 +71,14 @@ public class HVConfig
 	private String preferredLookAndFeel;
 	@SerializableField
 	private boolean stopXfceLafChange;
+	@SerializableField
+	private String hierarchyReader;
+	@SerializableField
+	private int featureMemoryBudget;
+	@SerializableField
+	private boolean compactInstances;
+	@SerializableField
+	private int measureComputeThreads;
 
 	// ---------------------------------------
 	// HK++ properties
@@ -119,6 +129,10 @@ public class HVConfig
 
 		preferredLookAndFeel = "";
 		stopXfceLafChange = false;
+		hierarchyReader = HierarchyReaderType.PARALLEL.name();
+		featureMemoryBudget = 0;
+		compactInstances = false;
+		measureComputeThreads = 0;
 
 		hkClusters = 2;
 		hkIterations = 10;
@@ -535,6 +549,68 @@ public class HVConfig
 		return this.stopXfceLafChange;
 	}
 
+	public void setHierarchyReader( HierarchyReaderType readerType )
+	{
+		this.hierarchyReader = readerType.name();
+	}
+
+	public HierarchyReaderType getHierarchyReader()
+	{
+		return HierarchyReaderType.fromName( hierarchyReader );
+	}
+
+	/**
+	 * @param megabytes
+	 *            memory budget for instance features that are loaded on demand, in megabytes.
+	 *            0 means that all features are loaded into memory.
+	 */
+	public void setFeatureMemoryBudget( int megabytes )
+	{
+		this.featureMemoryBudget = megabytes;
+	}
+
+	public int getFeatureMemoryBudget()
+	{
+		return featureMemoryBudget;
+	}
+
+	/**
+	 * @param compact
+	 *            whether instances of loaded hierarchies are to be held in a column-oriented store,
+	 *            which uses less memory, but makes reading all features of an instance slower.
+	 */
+	public void setCompactInstances( boolean compact )
+	{
+		this.compactInstances = compact;
+	}
+
+	public boolean isCompactInstances()
+	{
+		return compactInstances;
+	}
+
+	/**
+	 * @param threads
+	 *            number of threads computing measures. 0 means one thread per available processor.
+	 */
+	public void setMeasureComputeThreads( int threads )
+	{
+		this.measureComputeThreads = threads;
+	}
+
+	public int getMeasureComputeThreads()
+	{
+		return measureComputeThreads;
+	}
+
+	/**
+	 * @return number of threads computing measures, with 0 resolved to the number of available processors
+	 */
+	public int getEffectiveMeasureComputeThreads()
+	{
+		return measureComputeThreads > 0 ? measureComputeThreads : Runtime.getRuntime().availableProcessors();
+	}
+
 	/*
 	 * -----------------------------------
 	 * HK++ config's getters and setters.
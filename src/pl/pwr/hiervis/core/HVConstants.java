@@ -8,6 +8,7 @@ public class HVConstants
 	public static final String PREFUSE_NODE_ID_COLUMN_NAME = "id";
 	public static final String PREFUSE_NODE_ROLE_COLUMN_NAME = "role";
 
+	/** Instance table column holding rows of instances' nodes in the hierarchy tree (-1 if not found) */
 	public static final String PREFUSE_INSTANCE_NODE_COLUMN_NAME = "node";
 	public static final String PREFUSE_INSTANCE_TRUENODE_ID_COLUMN_NAME = "truenode";
 	public static final String PREFUSE_INSTANCE_LABEL_COLUMN_NAME = "label";
@@ -5,7 +5,11 @@ import java.awt.Window;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.SwingUtilities;
 
@@ -15,16 +19,24 @@ import org.apache.logging.log4j.Logger;
 
 import basic_hierarchy.common.HierarchyBuilder;
 import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import pl.pwr.hiervis.hierarchy.BatchHierarchyLoader;
 import pl.pwr.hiervis.hierarchy.HierarchyLoaderThread;
+import pl.pwr.hiervis.hierarchy.HierarchySnapshot;
 import pl.pwr.hiervis.hierarchy.HierarchyProcessor;
 import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.hierarchy.reader.CSVFileFollower;
+import pl.pwr.hiervis.hierarchy.reader.CSVFileProfile;
 import pl.pwr.hiervis.hk.HKPlusPlusWrapper;
+import pl.pwr.hiervis.measures.MeasureComputeExecutor;
 import pl.pwr.hiervis.measures.MeasureManager;
+import pl.pwr.hiervis.ui.BatchLoadingDialog;
 import pl.pwr.hiervis.ui.FileLoadingOptionsDialog;
 import pl.pwr.hiervis.ui.HierarchyStatisticsFrame;
 import pl.pwr.hiervis.ui.InstanceVisualizationsFrame;
 import pl.pwr.hiervis.ui.VisualizerFrame;
 import pl.pwr.hiervis.util.Event;
+import pl.pwr.hiervis.util.HierarchyUtils;
 import pl.pwr.hiervis.util.SwingUIUtils;
 import pl.pwr.hiervis.util.ui.OperationProgressFrame;
 import prefuse.Visualization;
@@ -53,6 +65,12 @@ public class HVContext
 	/** Sent when the loaded hierarchy has changed. */
 	public final Event<LoadedHierarchy> hierarchyChanged = new Event<>();
 
+	/**
+	 * Sent when the data of an open hierarchy has been modified in place, eg. when rows were appended
+	 * to the file it is following. Not necessarily the current hierarchy.
+	 */
+	public final Event<LoadedHierarchy> hierarchyUpdated = new Event<>();
+
 	/** Sent when the loaded hierarchy is about to be closed. */
 	public final Event<LoadedHierarchy> hierarchyClosing = new Event<>();
 	/** Sent when the loaded hierarchy has been closed. */
@@ -68,12 +86,15 @@ public class HVContext
 
 	private HVConfig config = null;
 	private MeasureManager measureManager = null;
+	/** Runs stages of hierarchy processing started as soon as hierarchies are loaded */
+	private ExecutorService processingExecutor = null;
 
 	/** The raw hierarchy data, as it was loaded from the file. */
 	private LoadedHierarchy currentHierarchy = null;
 	private HKPlusPlusWrapper currentHKWrapper = null;
 
 	private List<LoadedHierarchy> hierarchyList = new ArrayList<>();
+	private Map<LoadedHierarchy, CSVFileFollower> followers = new HashMap<>();
 
 	private VisualizerFrame hierarchyFrame;
 	private HierarchyStatisticsFrame statsFrame;
@@ -84,9 +105,18 @@ public class HVContext
 	{
 		setConfig( new HVConfig() );
 
-		measureManager = new MeasureManager();
+		measureManager = new MeasureManager( new MeasureComputeExecutor( config.getEffectiveMeasureComputeThreads() ) );
+		processingExecutor = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(),
+			r -> {
+				Thread t = new Thread( r, "HierarchyProcessingThread" );
+				t.setDaemon( true );
+				return t;
+			}
+		);
 
 		hierarchyChanged.addListener( this::onHierarchyChanged );
+		configChanged.addListener( cfg -> measureManager.setWorkerCount( cfg.getEffectiveMeasureComputeThreads() ) );
 	}
 
 	public void createGUI( String subtitle )
@@ -147,7 +177,8 @@ public class HVContext
 				else {
 					SwingUIUtils.executeAsyncWithWaitWindow(
 						null, "Processing hierarchy data...", log, true,
-						() -> hierarchy.processHierarchy( config ),
+						// Usually processing has been started right after loading, and this only waits for it to finish
+						() -> hierarchy.processHierarchy( config, processingExecutor ),
 						() -> hierarchyChanged.broadcast( hierarchy ),
 						null
 					);
@@ -255,16 +286,29 @@ public class HVContext
 	{
 		log.trace( String.format( "Selected file: '%s'", file ) );
 
+		if ( HierarchySnapshot.isSnapshot( file ) ) {
+			// Snapshots store the options they were created with, no need to ask the user.
+			try {
+				loadFile( window, file, HierarchySnapshot.readOptions( file ) );
+			}
+			catch ( IOException e ) {
+				onFileError( e );
+			}
+			return;
+		}
+
 		LoadedHierarchy.Options options = null;
+		CSVFileProfile profile = null;
 		try {
-			options = LoadedHierarchy.Options.detect( file );
+			profile = CSVFileProfile.sample( file );
+			options = profile.toOptions();
 		}
 		catch ( IOException e ) {
 			// Something went wrong, just roll with previous options.
 			options = getHierarchyOptions();
 		}
 
-		FileLoadingOptionsDialog optionsDialog = new FileLoadingOptionsDialog( this, window, options );
+		FileLoadingOptionsDialog optionsDialog = new FileLoadingOptionsDialog( this, window, options, profile );
 		optionsDialog.setLocationRelativeTo( window );
 		optionsDialog.setVisible( true );
 
@@ -273,7 +317,7 @@ public class HVContext
 			log.trace( "Loading aborted." );
 		}
 		else {
-			loadFile( window, file, options );
+			loadFile( window, file, options, profile );
 		}
 	}
 
@@ -322,12 +366,40 @@ public class HVContext
 	 */
 	public void loadFile( Window window, File file, LoadedHierarchy.Options options )
 	{
-		HierarchyLoaderThread thread = new HierarchyLoaderThread( file, options );
+		loadFile( window, file, options, null );
+	}
+
+	/**
+	 * Same as {@link #loadFile(Window, File, LoadedHierarchy.Options)}, except this method reuses
+	 * the profile that the file has already been sampled into, instead of sampling it again.
+	 * 
+	 * @param window
+	 *            a window, used to anchor dialog windows with file loading options / error messages.
+	 *            Typically this is the window from which the loading command was issued.
+	 * @param file
+	 *            the file to load
+	 * @param options
+	 *            the options to use with the specified file
+	 * @param profile
+	 *            profile of the specified file, or null if it has not been sampled
+	 */
+	public void loadFile( Window window, File file, LoadedHierarchy.Options options, CSVFileProfile profile )
+	{
+		HierarchyLoaderThread thread = new HierarchyLoaderThread(
+			file, options,
+			config.getHierarchyReader().createReader()
+		);
+		thread.setFeatureMemoryBudget( (long)config.getFeatureMemoryBudget() << 20 );
+		thread.setCompactInstances( config.isCompactInstances() );
+		if ( profile != null ) {
+			thread.setExpectedRowCount( profile.getEstimatedRowCount() );
+		}
 
 		OperationProgressFrame progressFrame = new OperationProgressFrame( window, "Loading..." );
 		progressFrame.setProgressUpdateCallback( thread::getProgress );
 		progressFrame.setStatusUpdateCallback( thread::getStatusMessage );
 		progressFrame.setProgressPollInterval( 100 );
+		progressFrame.setShowRemainingTime( true );
 		progressFrame.setModal( true );
 		progressFrame.setAbortOperation(
 			e -> {
@@ -348,6 +420,138 @@ public class HVContext
 		progressFrame.setVisible( true );
 	}
 
+	/**
+	 * Loads all of the specified files at the same time, using the same options for each of them.
+	 * Each hierarchy is added as a new tab as soon as it has been loaded.
+	 * 
+	 * @param window
+	 *            a window, used to anchor dialog windows with file loading options / progress.
+	 *            Typically this is the window from which the loading command was issued.
+	 * @param files
+	 *            the files to load
+	 */
+	public void loadFiles( Window window, List<File> files )
+	{
+		if ( files.isEmpty() ) {
+			return;
+		}
+		if ( files.size() == 1 ) {
+			loadFile( window, files.get( 0 ) );
+			return;
+		}
+
+		log.trace( String.format( "Selected %s files.", files.size() ) );
+
+		// Snapshots store their own options, so the user only needs to be asked about CSV files.
+		File firstCSV = null;
+		for ( File file : files ) {
+			if ( !HierarchySnapshot.isSnapshot( file ) ) {
+				firstCSV = file;
+				break;
+			}
+		}
+
+		LoadedHierarchy.Options options = getHierarchyOptions();
+		CSVFileProfile profile = null;
+		if ( firstCSV != null ) {
+			try {
+				profile = CSVFileProfile.sample( firstCSV );
+				options = profile.toOptions();
+			}
+			catch ( IOException e ) {
+				// Something went wrong, just roll with previous options.
+			}
+
+			FileLoadingOptionsDialog optionsDialog = new FileLoadingOptionsDialog( this, window, options, profile );
+			optionsDialog.setLocationRelativeTo( window );
+			optionsDialog.setVisible( true );
+
+			options = optionsDialog.getOptions();
+			if ( options == null ) {
+				log.trace( "Loading aborted." );
+				return;
+			}
+		}
+
+		loadFiles( window, files, options, firstCSV, profile );
+	}
+
+	/**
+	 * Same as {@link #loadFiles(Window, List)}, except this method allows to specify the options
+	 * to use while loading the files.
+	 * 
+	 * @param window
+	 *            a window, used to anchor the progress dialog.
+	 *            Typically this is the window from which the loading command was issued.
+	 * @param files
+	 *            the files to load
+	 * @param options
+	 *            the options to use with each of the specified files
+	 */
+	public void loadFiles( Window window, List<File> files, LoadedHierarchy.Options options )
+	{
+		loadFiles( window, files, options, null, null );
+	}
+
+	/**
+	 * Same as {@link #loadFiles(Window, List, LoadedHierarchy.Options)}, except this method reuses
+	 * the profile that one of the files has already been sampled into, instead of sampling it again.
+	 * 
+	 * @param window
+	 *            a window, used to anchor the progress dialog.
+	 *            Typically this is the window from which the loading command was issued.
+	 * @param files
+	 *            the files to load
+	 * @param options
+	 *            the options to use with each of the specified files
+	 * @param profiledFile
+	 *            the file that has been sampled, or null if none
+	 * @param profile
+	 *            profile of the sampled file, or null if none
+	 */
+	public void loadFiles(
+		Window window, List<File> files, LoadedHierarchy.Options options,
+		File profiledFile, CSVFileProfile profile )
+	{
+		BatchHierarchyLoader loader = new BatchHierarchyLoader(
+			files, options,
+			config.getHierarchyReader()::createReader
+		);
+		loader.setFeatureMemoryBudget( (long)config.getFeatureMemoryBudget() << 20 );
+		loader.setCompactInstances( config.isCompactInstances() );
+		if ( profiledFile != null && profile != null ) {
+			loader.setExpectedRowCount( profiledFile, profile.getEstimatedRowCount() );
+		}
+
+		loader.fileLoaded.addListener( args -> startProcessing( args.getRight() ) );
+		loader.fileLoaded.addListener(
+			args -> SwingUtilities.invokeLater( () -> addHierarchy( args.getLeft().getName(), args.getRight() ) )
+		);
+
+		BatchLoadingDialog dialog = new BatchLoadingDialog( window, loader );
+		dialog.setSize( new Dimension( 500, 300 ) );
+		dialog.setLocationRelativeTo( window );
+		dialog.setVisible( true );
+
+		loader.start();
+	}
+
+	/**
+	 * Creates a new tab for the specified hierarchy, without making it the current hierarchy,
+	 * unless no other hierarchy is open.
+	 * 
+	 * @param tabName
+	 *            the name of the tab in the GUI
+	 * @param hierarchy
+	 *            the hierarchy to associate with the tab
+	 */
+	public void addHierarchy( String tabName, LoadedHierarchy hierarchy )
+	{
+		hierarchyList.add( hierarchy );
+		// Adding the first tab selects it, which in turn makes the hierarchy current.
+		hierarchyFrame.createHierarchyTab( tabName );
+	}
+
 	/**
 	 * Loads the specified hierarchy and creates a new tab for it with the specified name
 	 * 
@@ -358,17 +562,94 @@ public class HVContext
 	 */
 	public void loadHierarchy( String tabName, LoadedHierarchy hierarchy )
 	{
-		hierarchyList.add( hierarchy );
-		hierarchyFrame.createHierarchyTab( tabName );
+		addHierarchy( tabName, hierarchy );
 
 		setHierarchy( hierarchy );
 	}
 
+	/**
+	 * @return true if the specified hierarchy can follow its source file, ie. has been loaded from a CSV file,
+	 *         and keeps its instance features in memory.
+	 */
+	public boolean canFollow( LoadedHierarchy hierarchy )
+	{
+		return hierarchy.getSourceFile() != null && hierarchy.getFeatureStore() == null;
+	}
+
+	public boolean isFollowing( LoadedHierarchy hierarchy )
+	{
+		return followers.containsKey( hierarchy );
+	}
+
+	/**
+	 * Starts or stops following the source file of the specified hierarchy. While following, rows appended
+	 * to the file are added to the hierarchy as they are written, and {@link #hierarchyUpdated} is sent.
+	 * 
+	 * @param hierarchy
+	 *            the hierarchy to update
+	 * @param follow
+	 *            whether the hierarchy should follow its source file
+	 * @see #canFollow(LoadedHierarchy)
+	 */
+	public void setFollowing( LoadedHierarchy hierarchy, boolean follow )
+	{
+		if ( follow == isFollowing( hierarchy ) ) {
+			return;
+		}
+
+		if ( follow ) {
+			if ( !canFollow( hierarchy ) ) {
+				throw new IllegalArgumentException( "Hierarchy cannot follow its source file." );
+			}
+
+			int featureCount = HierarchyUtils.getFeatureCount( hierarchy.getMainHierarchy() );
+			CSVFileFollower follower = hierarchy.getSourceLength() >= 0
+				? new CSVFileFollower( hierarchy.getSourceFile(), hierarchy.options, featureCount, hierarchy.getSourceLength() )
+				: CSVFileFollower.afterLines( hierarchy.getSourceFile(), hierarchy.options, featureCount, hierarchy.getSourceLineCount() );
+
+			follower.rowsAppended.addListener(
+				args -> SwingUtilities.invokeLater( () -> onRowsAppended( hierarchy, follower, args ) )
+			);
+			follower.errorOcurred.addListener(
+				e -> SwingUtilities.invokeLater( () -> onFollowError( hierarchy, follower, e ) )
+			);
+
+			try {
+				follower.start();
+				followers.put( hierarchy, follower );
+			}
+			catch ( IOException e ) {
+				log.error( "Could not start following " + hierarchy.getSourceFile() + "\n", e );
+				SwingUIUtils.showErrorDialog( "Could not start following the file:\n" + e.getMessage() );
+			}
+		}
+		else {
+			followers.remove( hierarchy ).stop();
+		}
+	}
+
+	/**
+	 * Starts processing the specified hierarchy in the background, and posts its auto-compute measures,
+	 * so that by the time the user switches to the hierarchy, it is likely to be ready to be visualized.
+	 * Can be called from any thread.
+	 * 
+	 * @param hierarchy
+	 *            the hierarchy to process
+	 */
+	public void startProcessing( LoadedHierarchy hierarchy )
+	{
+		hierarchy.startProcessing( config, processingExecutor );
+		measureManager.postAutoComputeTasksFor( hierarchy.measureHolder, hierarchy.getMainHierarchy() );
+	}
+
 	// -------------------------------------------------------------------------------------------
 	// Listeners
 
 	private void onFileLoaded( Pair<File, LoadedHierarchy> args )
 	{
+		// Called on the loader thread - start processing right away, instead of waiting for the tab to be created.
+		startProcessing( args.getRight() );
+
 		SwingUtilities.invokeLater(
 			() -> {
 				File file = args.getLeft();
@@ -391,6 +672,46 @@ public class HVContext
 		);
 	}
 
+	private void onRowsAppended( LoadedHierarchy h, CSVFileFollower follower, Pair<List<Instance>, Long> args )
+	{
+		if ( followers.get( h ) != follower ) {
+			// Stopped following while the rows were in flight. The source length still ends before them,
+			// so they'll be read again if the hierarchy starts following the file again.
+			return;
+		}
+
+		try {
+			h.appendInstances( args.getLeft() );
+			// The follower might have read further batches by now, so only count up to the end of this one.
+			h.setSourceLength( args.getRight() );
+		}
+		catch ( RuntimeException e ) {
+			onFollowError( h, follower, e );
+			return;
+		}
+
+		hierarchyUpdated.broadcast( h );
+
+		if ( h == currentHierarchy ) {
+			measureManager.postAutoComputeTasksFor( h.measureHolder, h.getMainHierarchy() );
+		}
+	}
+
+	private void onFollowError( LoadedHierarchy h, CSVFileFollower follower, Exception ex )
+	{
+		if ( followers.get( h ) != follower ) {
+			return;
+		}
+
+		setFollowing( h, false );
+		hierarchyUpdated.broadcast( h );
+
+		SwingUIUtils.showInfoDialog(
+			"Stopped following the file '" + h.getSourceFile().getName() + "', because an error ocurred " +
+				"while reading rows appended to it.\n\nError message:\n" + ex.getMessage()
+		);
+	}
+
 	private void onHierarchyChanged( LoadedHierarchy h )
 	{
 		measureManager.postAutoComputeTasksFor( h.measureHolder, h.getMainHierarchy() );
@@ -409,6 +730,7 @@ public class HVContext
 
 		hierarchyClosing.broadcast( h );
 
+		setFollowing( h, false );
 		hierarchyList.remove( h );
 		h.dispose();
 
@@ -0,0 +1,472 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import basic_hierarchy.common.Utils;
+import pl.pwr.hiervis.hierarchy.reader.HierarchyReader;
+import pl.pwr.hiervis.util.Event;
+
+
+/**
+ * Loads many hierarchy files using the same {@link LoadedHierarchy.Options}, on a bounded pool of threads.
+ *
+ * <p>
+ * Each file is loaded by its own {@link HierarchyLoader}, and reported via {@link #fileLoaded} as soon as it is done,
+ * regardless of the state of other files in the batch. Any subset of the files can be cancelled while the batch
+ * is running - files that have not been started yet are simply skipped, and files that are being loaded have
+ * their loading thread interrupted.
+ * </p>
+ *
+ * <p>
+ * Events are broadcast on the pool's threads (or on the thread that cancelled the file, in case of
+ * {@link FileState#CANCELLED}), so listeners that touch the UI should defer their work to the event dispatch thread.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class BatchHierarchyLoader
+{
+	private static final Logger log = LogManager.getLogger( BatchHierarchyLoader.class );
+
+	/** Sent when a file has been loaded successfully. */
+	public final Event<Pair<File, LoadedHierarchy>> fileLoaded = new Event<>();
+	/** Sent when a file could not be loaded. */
+	public final Event<Pair<File, Exception>> errorOcurred = new Event<>();
+	/** Sent once all files in the batch have been loaded, have failed, or have been cancelled. */
+	public final Event<BatchHierarchyLoader> batchFinished = new Event<>();
+
+	public enum FileState
+	{
+		QUEUED, LOADING, LOADED, FAILED, CANCELLED;
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final Map<File, LoadTask> tasks;
+	private final long totalBytes;
+
+	private final AtomicInteger remaining;
+	private final AtomicLong loadedRows = new AtomicLong();
+	private final AtomicLong loadedBytes = new AtomicLong();
+
+	private volatile long startTime = 0;
+	private volatile long endTime = 0;
+
+
+	/**
+	 * Creates a loader that uses as many threads as there are available processors.
+	 *
+	 * @param files
+	 *            the files to load
+	 * @param options
+	 *            options to use for each of the files
+	 * @param readerFactory
+	 *            creates a new reader for each of the files
+	 */
+	public BatchHierarchyLoader(
+		Collection<File> files, LoadedHierarchy.Options options,
+		Supplier<? extends HierarchyReader> readerFactory )
+	{
+		this( files, options, readerFactory, Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * @param files
+	 *            the files to load
+	 * @param options
+	 *            options to use for each of the files
+	 * @param readerFactory
+	 *            creates a new reader for each of the files
+	 * @param parallelism
+	 *            max number of files that are loaded at the same time
+	 */
+	public BatchHierarchyLoader(
+		Collection<File> files, LoadedHierarchy.Options options,
+		Supplier<? extends HierarchyReader> readerFactory, int parallelism )
+	{
+		if ( files == null || files.isEmpty() ) {
+			throw new IllegalArgumentException( "There must be at least one file to load." );
+		}
+		if ( parallelism <= 0 ) {
+			throw new IllegalArgumentException( "Parallelism must be positive: " + parallelism );
+		}
+
+		tasks = new LinkedHashMap<>();
+		long bytes = 0;
+		for ( File file : files ) {
+			if ( !tasks.containsKey( file ) ) {
+				LoadTask task = new LoadTask( new HierarchyLoader( file, options, readerFactory.get() ), file.length() );
+				tasks.put( file, task );
+				bytes += task.size;
+			}
+		}
+
+		totalBytes = bytes;
+		remaining = new AtomicInteger( tasks.size() );
+
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(
+			parallelism, parallelism, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+			r -> {
+				Thread t = new Thread( r, "BatchHierarchyLoader-" + threadCount.incrementAndGet() );
+				t.setDaemon( true );
+				return t;
+			}
+		);
+	}
+
+	/**
+	 * @param bytes
+	 *            memory budget for instance features of each of the files, see {@link HierarchyLoader#setFeatureMemoryBudget(long)}.
+	 *            Must be called before {@link #start()}.
+	 */
+	public void setFeatureMemoryBudget( long bytes )
+	{
+		for ( LoadTask task : tasks.values() ) {
+			task.loader.setFeatureMemoryBudget( bytes );
+		}
+	}
+
+	/**
+	 * @param compact
+	 *            whether instances of each of the files are to be moved into a column-oriented store,
+	 *            see {@link HierarchyLoader#setCompactInstances(boolean)}. Must be called before {@link #start()}.
+	 */
+	public void setCompactInstances( boolean compact )
+	{
+		for ( LoadTask task : tasks.values() ) {
+			task.loader.setCompactInstances( compact );
+		}
+	}
+
+	/**
+	 * @param file
+	 *            one of the files in the batch
+	 * @param rows
+	 *            estimated number of rows in that file, see {@link HierarchyLoader#setExpectedRowCount(long)}.
+	 *            Must be called before {@link #start()}.
+	 */
+	public void setExpectedRowCount( File file, long rows )
+	{
+		LoadTask task = tasks.get( file );
+		if ( task == null ) {
+			throw new IllegalArgumentException( "File is not part of the batch: " + file );
+		}
+		task.loader.setExpectedRowCount( rows );
+	}
+
+	/**
+	 * Starts loading the files, in the order in which they were passed to the constructor.
+	 */
+	public void start()
+	{
+		if ( startTime != 0 ) {
+			throw new IllegalStateException( "Batch has already been started." );
+		}
+
+		startTime = System.nanoTime();
+		for ( LoadTask task : tasks.values() ) {
+			// Tasks that were cancelled before the batch was started are already accounted for.
+			if ( !task.isDone() ) {
+				executor.execute( task );
+			}
+		}
+	}
+
+	/**
+	 * Cancels loading of the specified file. Does nothing if the file has already been loaded.
+	 *
+	 * @param file
+	 *            the file to cancel
+	 * @return true if the file was cancelled, false if it was not part of this batch, or had already finished loading
+	 */
+	public boolean cancel( File file )
+	{
+		LoadTask task = tasks.get( file );
+		return task != null && task.cancel( true );
+	}
+
+	/**
+	 * @param files
+	 *            the files to cancel
+	 * @return number of files that were cancelled
+	 * @see #cancel(File)
+	 */
+	public int cancel( Collection<File> files )
+	{
+		int result = 0;
+		for ( File file : files ) {
+			if ( cancel( file ) ) {
+				++result;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Cancels all files that have not finished loading yet.
+	 */
+	public void cancelAll()
+	{
+		cancel( tasks.keySet() );
+	}
+
+	/**
+	 * Waits until all files in the batch have finished, or the timeout elapses.
+	 *
+	 * @return true if the batch has finished, false if the timeout elapsed first
+	 */
+	public boolean awaitFinished( long timeout, TimeUnit unit ) throws InterruptedException
+	{
+		// Running tasks that were cancelled might still be winding down, so wait for the pool as well.
+		return executor.awaitTermination( timeout, unit );
+	}
+
+	public boolean isFinished()
+	{
+		return remaining.get() == 0;
+	}
+
+	/**
+	 * @return the files in this batch, in the order in which they are loaded
+	 */
+	public List<File> getFiles()
+	{
+		return Collections.unmodifiableList( new ArrayList<>( tasks.keySet() ) );
+	}
+
+	public FileState getState( File file )
+	{
+		return getTask( file ).state.get();
+	}
+
+	/**
+	 * @return the exception that caused the specified file to fail, or null if it did not fail.
+	 */
+	public Exception getError( File file )
+	{
+		return getTask( file ).error;
+	}
+
+	/**
+	 * @return progress of the specified file, in range [0, 100]
+	 */
+	public int getProgress( File file )
+	{
+		return getTask( file ).getProgress();
+	}
+
+	public String getStatusMessage( File file )
+	{
+		LoadTask task = getTask( file );
+		FileState state = task.state.get();
+		return state == FileState.LOADING ? task.loader.getStatusMessage() : state.toString();
+	}
+
+	/**
+	 * @return progress of the whole batch, in range [0, 100], with each file weighted by its size
+	 */
+	public int getProgress()
+	{
+		if ( totalBytes == 0 ) {
+			return (int)( 100L * ( tasks.size() - remaining.get() ) / tasks.size() );
+		}
+
+		double done = 0;
+		for ( LoadTask task : tasks.values() ) {
+			done += task.size * ( task.getProgress() / 100.0 );
+		}
+		return (int)( 100 * done / totalBytes );
+	}
+
+	/**
+	 * @return number of files in the specified state
+	 */
+	public int getCount( FileState state )
+	{
+		int result = 0;
+		for ( LoadTask task : tasks.values() ) {
+			if ( task.state.get() == state ) {
+				++result;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return average number of instances (rows) loaded per second, counting only files that have been loaded successfully
+	 */
+	public double getRowsPerSecond()
+	{
+		double seconds = getElapsedSeconds();
+		return seconds > 0 ? loadedRows.get() / seconds : 0;
+	}
+
+	/**
+	 * @return average number of megabytes read per second, including estimated progress of files that are being loaded
+	 */
+	public double getMegabytesPerSecond()
+	{
+		double seconds = getElapsedSeconds();
+		if ( seconds <= 0 ) {
+			return 0;
+		}
+
+		double bytes = loadedBytes.get();
+		for ( LoadTask task : tasks.values() ) {
+			if ( task.state.get() == FileState.LOADING ) {
+				bytes += task.size * ( task.getProgress() / 100.0 );
+			}
+		}
+		return bytes / ( 1 << 20 ) / seconds;
+	}
+
+	/**
+	 * @return a summary of the batch's state and throughput
+	 */
+	public String getStatusMessage()
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append( "Loaded " ).append( getCount( FileState.LOADED ) ).append( " of " ).append( tasks.size() ).append( " files" );
+
+		int failed = getCount( FileState.FAILED );
+		int cancelled = getCount( FileState.CANCELLED );
+		if ( failed > 0 || cancelled > 0 ) {
+			buf.append( " (" ).append( failed ).append( " failed, " ).append( cancelled ).append( " cancelled)" );
+		}
+
+		buf.append( String.format( ", %.0f rows/s, %.1f MB/s", getRowsPerSecond(), getMegabytesPerSecond() ) );
+		return buf.toString();
+	}
+
+	private LoadTask getTask( File file )
+	{
+		LoadTask task = tasks.get( file );
+		if ( task == null ) {
+			throw new IllegalArgumentException( "File is not part of this batch: " + file );
+		}
+		return task;
+	}
+
+	private double getElapsedSeconds()
+	{
+		if ( startTime == 0 ) {
+			return 0;
+		}
+		long end = endTime == 0 ? System.nanoTime() : endTime;
+		return ( end - startTime ) / 1e9;
+	}
+
+	private void taskFinished()
+	{
+		if ( remaining.decrementAndGet() == 0 ) {
+			endTime = System.nanoTime();
+			executor.shutdown();
+
+			log.trace( "Batch finished: " + getStatusMessage() );
+			batchFinished.broadcast( this );
+
+			fileLoaded.clearListeners();
+			errorOcurred.clearListeners();
+			batchFinished.clearListeners();
+		}
+	}
+
+
+	private class LoadTask extends FutureTask<LoadedHierarchy>
+	{
+		private final HierarchyLoader loader;
+		private final long size;
+
+		/** Only ever moves from QUEUED to LOADING, or from either to one of the final states */
+		private final AtomicReference<FileState> state = new AtomicReference<>( FileState.QUEUED );
+		private volatile Exception error = null;
+
+
+		public LoadTask( HierarchyLoader loader, long size )
+		{
+			super( loader );
+			this.loader = loader;
+			this.size = size;
+		}
+
+		public int getProgress()
+		{
+			switch ( state.get() ) {
+				case QUEUED:
+					return 0;
+				case LOADING:
+					return Math.max( 0, Math.min( 100, loader.getProgress() ) );
+				default:
+					return 100;
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			// If the task has been cancelled in the meantime, done() has already set the final state.
+			state.compareAndSet( FileState.QUEUED, FileState.LOADING );
+			super.run();
+		}
+
+		@Override
+		protected void done()
+		{
+			File file = loader.getFile();
+
+			try {
+				LoadedHierarchy lh = get();
+
+				loadedRows.addAndGet( lh.getMainHierarchy().getOverallNumberOfInstances() );
+				loadedBytes.addAndGet( size );
+				state.set( FileState.LOADED );
+
+				fileLoaded.broadcast( Pair.of( file, lh ) );
+			}
+			catch ( CancellationException ex ) {
+				log.trace( "Loading of " + file.getAbsolutePath() + " cancelled." );
+				state.set( FileState.CANCELLED );
+			}
+			catch ( ExecutionException ex ) {
+				if ( ex.getCause() instanceof Utils.RuntimeInterruptedException ) {
+					state.set( FileState.CANCELLED );
+				}
+				else {
+					log.error( "Error ocurred while loading " + file.getAbsolutePath() + "\n", ex.getCause() );
+					error = ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex;
+					state.set( FileState.FAILED );
+
+					errorOcurred.broadcast( Pair.of( file, error ) );
+				}
+			}
+			catch ( InterruptedException ex ) {
+				// Can't happen, get() does not block once the task is done.
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				taskFinished();
+			}
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import pl.pwr.hiervis.util.Utils;
+
+
+/**
+ * Recalculates centroids of all nodes in a tree in a single bottom-up pass, processing independent
+ * subtrees in parallel on a {@link ForkJoinPool}.
+ *
+ * <p>
+ * Each node's instances are only read once. When centroids include instances of child nodes, sums of
+ * feature values and instance counts of child subtrees are added to their parent's, instead of each node
+ * scanning all instances in its subtree, like {@link basic_hierarchy.implementation.BasicNode#recalculateCentroid(boolean)}
+ * does.
+ * </p>
+ *
+ * <p>
+ * Centroids are created the same way {@code BasicNode} creates them, so the results are interchangeable.
+ * Centroids of nodes with no instances are empty.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public final class CentroidCalculator
+{
+	/** Name, node id and true class of centroid instances, same as in {@code BasicNode} */
+	private static final String centroidLabel = "centroid";
+	/** Number of queued, not yet stolen tasks above which subtrees are processed without forking more tasks */
+	private static final int surplusTaskThreshold = 3;
+	/** Depth below which subtrees are processed without forking more tasks, limiting the depth of recursion */
+	private static final int forkDepthLimit = 8;
+
+
+	private CentroidCalculator()
+	{
+		// Static class -- disallow instantiation.
+		throw new RuntimeException( "Attempted to instantiate a static class: " + getClass().getName() );
+	}
+
+	/**
+	 * Recalculates centroids of all nodes in the tree with the specified root, using the common pool.
+	 *
+	 * @param root
+	 *            root of the tree
+	 * @param useSubtree
+	 *            whether the centroid calculation should also include child nodes' instances
+	 */
+	public static void recalculateCentroids( Node root, boolean useSubtree )
+	{
+		recalculateCentroids( root, useSubtree, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Recalculates centroids of all nodes in the tree with the specified root.
+	 *
+	 * @param root
+	 *            root of the tree
+	 * @param useSubtree
+	 *            whether the centroid calculation should also include child nodes' instances
+	 * @param pool
+	 *            the pool to process subtrees on
+	 */
+	public static void recalculateCentroids( Node root, boolean useSubtree, ForkJoinPool pool )
+	{
+		if ( pool.getParallelism() == 1 ) {
+			// Nothing to gain from splitting the work into tasks.
+			computeSequentially( root, useSubtree );
+		}
+		else {
+			pool.invoke( new SubtreeTask( root, 0, useSubtree ) );
+		}
+	}
+
+	/**
+	 * Updates centroids of the specified nodes after a subtree below them has been replaced, removed or added.
+	 * Centroids have to include instances of child nodes.
+	 *
+	 * <p>
+	 * Instead of scanning all instances in the nodes' subtrees, sums of feature values are restored from
+	 * the current centroids and instance counts, the removed subtree's sums are subtracted, and the added
+	 * subtree's sums are added. Only instance counts of the subtrees are visited, not feature values.
+	 * </p>
+	 *
+	 * @param path
+	 *            nodes whose centroids are to be updated, starting with the parent of the changed subtree
+	 *            and ending with the root. Each node has to be the parent of the previous one.
+	 * @param added
+	 *            root of the subtree that was added as a child of the first node in the path, or null
+	 * @param removed
+	 *            root of the subtree that was removed from below the first node in the path, or null.
+	 *            Its centroid has to be the centroid of its entire subtree.
+	 * @param removedCount
+	 *            number of instances in the removed subtree
+	 */
+	public static void updateCentroids( List<? extends Node> path, Node added, Node removed, int removedCount )
+	{
+		int addedCount = added == null ? 0 : countInstances( added );
+		Sums addedSums = added == null ? new Sums() : Sums.of( added.getNodeRepresentation(), addedCount );
+		Sums removedSums = removed == null ? new Sums() : Sums.of( removed.getNodeRepresentation(), removedCount );
+
+		Node changedChild = added;
+		int changedCount = addedCount;
+		for ( Node node : path ) {
+			int count = node.getNodeInstances().size();
+			for ( Node child : node.getChildren() ) {
+				count += child == changedChild ? changedCount : countInstances( child );
+			}
+
+			Sums sums = Sums.of( node.getNodeRepresentation(), count - addedCount + removedCount );
+			sums.add( addedSums );
+			sums.subtract( removedSums );
+			node.setRepresentation( sums.toCentroid() );
+
+			changedChild = node;
+			changedCount = count;
+		}
+	}
+
+	/**
+	 * @return number of instances in the subtree of the specified node
+	 */
+	private static int countInstances( Node root )
+	{
+		int result = 0;
+
+		Deque<Node> pending = new ArrayDeque<>();
+		pending.push( root );
+		while ( !pending.isEmpty() ) {
+			Node n = pending.pop();
+			result += n.getNodeInstances().size();
+			n.getChildren().forEach( pending::push );
+		}
+
+		return result;
+	}
+
+	/**
+	 * Recalculates centroids of the subtree sequentially. Nodes are visited in post-order using an explicit
+	 * stack instead of recursion, so that deep trees don't overflow the call stack.
+	 *
+	 * @return sums of the subtree, if {@code useSubtree} is true, or of the node alone otherwise
+	 */
+	private static Sums computeSequentially( Node root, boolean useSubtree )
+	{
+		// Pre-order, reversed, visits every node after all of its descendants.
+		List<Node> preOrder = new ArrayList<>();
+		Deque<Node> pending = new ArrayDeque<>();
+		pending.push( root );
+		while ( !pending.isEmpty() ) {
+			Node n = pending.pop();
+			preOrder.add( n );
+			n.getChildren().forEach( pending::push );
+		}
+
+		// Sums of subtrees whose parents haven't been processed yet
+		Map<Node, Sums> childSums = new IdentityHashMap<>();
+		Sums result = null;
+		for ( int i = preOrder.size() - 1; i >= 0; --i ) {
+			Node node = preOrder.get( i );
+			result = Sums.of( node.getNodeInstances() );
+			for ( Node child : node.getChildren() ) {
+				Sums sums = childSums.remove( child );
+				if ( useSubtree ) {
+					result.add( sums );
+				}
+			}
+			node.setRepresentation( result.toCentroid() );
+			if ( node != root ) {
+				childSums.put( node, result );
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Sum of feature values and number of instances in a node or a subtree.
+	 */
+	private static final class Sums
+	{
+		private double[] sum;
+		private int count;
+
+
+		private static Sums of( List<Instance> instances )
+		{
+			Sums result = new Sums();
+			double[] row = null;
+			for ( Instance in : instances ) {
+				if ( result.sum == null ) {
+					result.sum = new double[in.getData().length];
+				}
+
+				double[] data;
+				if ( in instanceof BasicInstance ) {
+					// Feature values are held in an array, no need to copy them
+					data = in.getData();
+				}
+				else {
+					// Read instances held in a store a whole row at a time, into a reused array
+					if ( row == null ) {
+						row = new double[result.sum.length];
+					}
+					Utils.getFeatures( in, row );
+					data = row;
+				}
+
+				for ( int i = 0; i < result.sum.length; ++i ) {
+					result.sum[i] += data[i];
+				}
+			}
+			result.count = instances.size();
+			return result;
+		}
+
+		/**
+		 * @return sums of instances whose centroid is the specified instance
+		 */
+		private static Sums of( Instance centroid, int count )
+		{
+			Sums result = new Sums();
+			if ( count > 0 ) {
+				double[] data = centroid.getData();
+				result.sum = new double[data.length];
+				for ( int i = 0; i < data.length; ++i ) {
+					result.sum[i] = data[i] * count;
+				}
+				result.count = count;
+			}
+			return result;
+		}
+
+		private void add( Sums other )
+		{
+			if ( other.count == 0 ) {
+				return;
+			}
+			if ( sum == null ) {
+				sum = new double[other.sum.length];
+			}
+			for ( int i = 0; i < sum.length; ++i ) {
+				sum[i] += other.sum[i];
+			}
+			count += other.count;
+		}
+
+		private void subtract( Sums other )
+		{
+			if ( other.count == 0 ) {
+				return;
+			}
+			for ( int i = 0; i < sum.length; ++i ) {
+				sum[i] -= other.sum[i];
+			}
+			count -= other.count;
+		}
+
+		private Instance toCentroid()
+		{
+			double[] data = new double[count == 0 ? 0 : sum.length];
+			for ( int i = 0; i < data.length; ++i ) {
+				data[i] = sum[i] / count;
+			}
+			return new BasicInstance( centroidLabel, centroidLabel, data, centroidLabel );
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class SubtreeTask extends RecursiveTask<Sums>
+	{
+		private final Node node;
+		private final int depth;
+		private final boolean useSubtree;
+
+
+		private SubtreeTask( Node node, int depth, boolean useSubtree )
+		{
+			this.node = node;
+			this.depth = depth;
+			this.useSubtree = useSubtree;
+		}
+
+		@Override
+		protected Sums compute()
+		{
+			List<Node> children = node.getChildren();
+			if ( children.isEmpty() || depth >= forkDepthLimit || getSurplusQueuedTaskCount() > surplusTaskThreshold ) {
+				// Enough tasks are waiting to be stolen already, or the subtree is too deep in the tree to be worth
+				// splitting further; forking more tasks would only add overhead and nest deeper.
+				return computeSequentially( node, useSubtree );
+			}
+
+			List<SubtreeTask> subtasks = new ArrayList<>( children.size() );
+			for ( Node child : children ) {
+				subtasks.add( new SubtreeTask( child, depth + 1, useSubtree ) );
+			}
+			invokeAll( subtasks );
+
+			// Scan this node's instances after the children are done, so that the scan doesn't delay forking.
+			Sums result = Sums.of( node.getNodeInstances() );
+			if ( useSubtree ) {
+				for ( SubtreeTask subtask : subtasks ) {
+					result.add( subtask.join() );
+				}
+			}
+			node.setRepresentation( result.toCentroid() );
+			return result;
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Provides access to instance feature values stored in a column-oriented file, in the layout
+ * used by the {@link HierarchySnapshot snapshot format}'s feature block: one contiguous column
+ * of big-endian doubles per feature.
+ *
+ * <p>
+ * Columns are split into pages of a fixed number of rows, which are read from the file on first access,
+ * and kept in memory until the total size of loaded pages exceeds the memory budget, at which point
+ * the least recently used pages are evicted. The budget is raised to at least a page of every column,
+ * so that reading a whole row with {@link #getRow(int, double[])} never evicts pages the same read needs.
+ * </p>
+ *
+ * <p>
+ * Pages are looked up in an array indexed by feature and page number, and kept in least-recently-used order by
+ * a linked list threaded through arrays of the same size - a few bytes of bookkeeping for every page of the file,
+ * whether loaded or not, in exchange for lookups that neither box keys nor hash them.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class FeatureColumnStore implements AutoCloseable
+{
+	private static final Logger log = LogManager.getLogger( FeatureColumnStore.class );
+
+	/** Number of rows in a single page */
+	public static final int PAGE_ROWS = 1 << 14;
+
+	private final Path file;
+	private final FileChannel channel;
+	private final long blockOffset;
+	private final int instanceCount;
+	private final int featureCount;
+	private final int pagesPerColumn;
+	private final long memoryBudget;
+
+	/** Loaded pages, indexed by {@code feature * pagesPerColumn + page}, or null for pages that aren't loaded */
+	private final double[][] pages;
+	/** Links of loaded pages, indexed like {@link #pages}, from the least to the most recently used; -1 at the ends */
+	private final int[] newer;
+	private final int[] older;
+	private int oldest = -1;
+	private int newest = -1;
+	private int loadedPageCount = 0;
+
+	private final ByteBuffer readBuffer;
+	private long loadedBytes = 0;
+	private boolean deleteOnClose = false;
+
+
+	/**
+	 * @param file
+	 *            the file containing feature columns
+	 * @param blockOffset
+	 *            offset of the first column in the file, in bytes
+	 * @param instanceCount
+	 *            number of values in each column
+	 * @param featureCount
+	 *            number of columns
+	 * @param memoryBudget
+	 *            max total size of loaded pages, in bytes. Raised to the size of a page of every column, if smaller.
+	 * @throws IOException
+	 *             if the file could not be opened
+	 */
+	public FeatureColumnStore( Path file, long blockOffset, int instanceCount, int featureCount, long memoryBudget )
+		throws IOException
+	{
+		this.file = file;
+		this.channel = FileChannel.open( file, StandardOpenOption.READ );
+		this.blockOffset = blockOffset;
+		this.instanceCount = instanceCount;
+		this.featureCount = featureCount;
+		this.pagesPerColumn = ( instanceCount + PAGE_ROWS - 1 ) / PAGE_ROWS;
+
+		long minBudget = (long)featureCount * Math.min( PAGE_ROWS, instanceCount ) * Double.BYTES;
+		if ( memoryBudget < minBudget ) {
+			log.warn(
+				String.format(
+					"Feature memory budget of %s bytes cannot hold a page of each of %s features, using %s bytes instead.",
+					memoryBudget, featureCount, minBudget
+				)
+			);
+		}
+		this.memoryBudget = Math.max( memoryBudget, minBudget );
+
+		long pageCount = (long)featureCount * pagesPerColumn;
+		if ( pageCount > Integer.MAX_VALUE ) {
+			channel.close();
+			throw new IllegalArgumentException( "Too many feature column pages: " + pageCount );
+		}
+		this.pages = new double[(int)pageCount][];
+		this.newer = new int[(int)pageCount];
+		this.older = new int[(int)pageCount];
+
+		this.readBuffer = ByteBuffer.allocate( PAGE_ROWS * Double.BYTES );
+	}
+
+	/**
+	 * @return the file containing feature columns
+	 */
+	public Path getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Marks the file containing feature columns to be deleted when the store is closed.
+	 * Meant for temporary files created only to back the store, eg. when converting CSV files.
+	 */
+	public synchronized void setDeleteOnClose( boolean deleteOnClose )
+	{
+		this.deleteOnClose = deleteOnClose;
+	}
+
+	public int getInstanceCount()
+	{
+		return instanceCount;
+	}
+
+	public int getFeatureCount()
+	{
+		return featureCount;
+	}
+
+	/**
+	 * @return max total size of loaded pages, in bytes
+	 */
+	public long getMemoryBudget()
+	{
+		return memoryBudget;
+	}
+
+	/**
+	 * @return total size of currently loaded pages, in bytes
+	 */
+	public synchronized long getLoadedBytes()
+	{
+		return loadedBytes;
+	}
+
+	/**
+	 * @param feature
+	 *            index of the feature (column)
+	 * @param row
+	 *            index of the instance (row)
+	 * @return value of the specified feature for the specified instance
+	 */
+	public synchronized double get( int feature, int row )
+	{
+		return getPage( feature, row / PAGE_ROWS )[row % PAGE_ROWS];
+	}
+
+	/**
+	 * Copies all feature values of the specified instance into the specified array.
+	 * This touches a page in every column, so prefer {@link #get(int, int)} when only some features are needed,
+	 * but it is cheaper than calling {@link #get(int, int)} for every feature.
+	 *
+	 * @param row
+	 *            index of the instance (row)
+	 * @param dest
+	 *            the array to copy values into. Must have at least {@link #getFeatureCount()} elements.
+	 */
+	public synchronized void getRow( int row, double[] dest )
+	{
+		int page = row / PAGE_ROWS;
+		int index = row % PAGE_ROWS;
+		for ( int f = 0; f < featureCount; ++f ) {
+			dest[f] = getPage( f, page )[index];
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		Arrays.fill( pages, null );
+		oldest = -1;
+		newest = -1;
+		loadedPageCount = 0;
+		loadedBytes = 0;
+		channel.close();
+
+		if ( deleteOnClose ) {
+			Files.deleteIfExists( file );
+		}
+	}
+
+	private double[] getPage( int feature, int page )
+	{
+		if ( feature < 0 || feature >= featureCount ) {
+			throw new IndexOutOfBoundsException( "Feature index out of range: " + feature );
+		}
+
+		if ( page < 0 || page >= pagesPerColumn ) {
+			throw new IndexOutOfBoundsException( "Row index out of range: " + page * PAGE_ROWS );
+		}
+
+		int key = feature * pagesPerColumn + page;
+		double[] result = pages[key];
+
+		if ( result == null ) {
+			result = readPage( feature, page );
+			pages[key] = result;
+			loadedBytes += (long)result.length * Double.BYTES;
+			link( key );
+			evict();
+		}
+		else if ( key != newest ) {
+			unlink( key );
+			link( key );
+		}
+
+		return result;
+	}
+
+	/**
+	 * Appends the page to the newest end of the list of loaded pages.
+	 */
+	private void link( int key )
+	{
+		older[key] = newest;
+		newer[key] = -1;
+		if ( newest >= 0 ) {
+			newer[newest] = key;
+		}
+		else {
+			oldest = key;
+		}
+		newest = key;
+		++loadedPageCount;
+	}
+
+	private void unlink( int key )
+	{
+		int o = older[key];
+		int n = newer[key];
+		if ( o >= 0 ) {
+			newer[o] = n;
+		}
+		else {
+			oldest = n;
+		}
+		if ( n >= 0 ) {
+			older[n] = o;
+		}
+		else {
+			newest = o;
+		}
+		--loadedPageCount;
+	}
+
+	private double[] readPage( int feature, int page )
+	{
+		int firstRow = page * PAGE_ROWS;
+		int rows = Math.min( PAGE_ROWS, instanceCount - firstRow );
+		if ( rows <= 0 ) {
+			throw new IndexOutOfBoundsException( "Row index out of range: " + firstRow );
+		}
+
+		long pos = blockOffset + ( (long)feature * instanceCount + firstRow ) * Double.BYTES;
+
+		readBuffer.clear();
+		readBuffer.limit( rows * Double.BYTES );
+		try {
+			while ( readBuffer.hasRemaining() ) {
+				int read = channel.read( readBuffer, pos + readBuffer.position() );
+				if ( read < 0 ) {
+					throw new IOException( "Unexpected end of feature column file." );
+				}
+			}
+		}
+		catch ( IOException e ) {
+			log.error( "Error while reading feature column page: ", e );
+			throw new UncheckedIOException( e );
+		}
+
+		readBuffer.flip();
+		double[] result = new double[rows];
+		readBuffer.asDoubleBuffer().get( result );
+		return result;
+	}
+
+	private void evict()
+	{
+		while ( loadedBytes > memoryBudget && loadedPageCount > 1 ) {
+			int key = oldest;
+			unlink( key );
+			loadedBytes -= (long)pages[key].length * Double.BYTES;
+			pages[key] = null;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.stream.IntStream;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import pl.pwr.hiervis.util.HierarchyUtils;
+import pl.pwr.hiervis.util.Utils;
+
+
+/**
+ * Smallest and largest values of each feature of a hierarchy's instances, computed once for the whole
+ * hierarchy, so that bounds of instance visualizations don't have to be found by scanning all instances
+ * each time a visualization is created.
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class FeatureExtents
+{
+	private final double[] min;
+	private final double[] max;
+
+
+	/**
+	 * Creates extents with no instances included yet.
+	 *
+	 * @param featureCount
+	 *            number of features of the instances
+	 */
+	public FeatureExtents( int featureCount )
+	{
+		min = new double[featureCount];
+		max = new double[featureCount];
+		Arrays.fill( min, Double.MAX_VALUE );
+		Arrays.fill( max, -Double.MAX_VALUE );
+	}
+
+	/**
+	 * @param h
+	 *            the hierarchy to compute extents for
+	 * @return extents of features of all instances of the specified hierarchy
+	 */
+	public static FeatureExtents of( Hierarchy h )
+	{
+		Collection<Instance> instances = h.getRoot().getSubtreeInstances();
+		if ( instances.isEmpty() ) {
+			return new FeatureExtents( 0 );
+		}
+
+		FeatureExtents result = new FeatureExtents( HierarchyUtils.getFeatureCount( h ) );
+		// Features are independent of each other, and stores keep values of a single feature together
+		IntStream.range( 0, result.getFeatureCount() ).parallel().forEach(
+			feature -> result.include( instances, feature )
+		);
+		return result;
+	}
+
+	/**
+	 * Extends the extents to include the specified instances.
+	 *
+	 * @param instances
+	 *            the instances to include
+	 */
+	public void include( Collection<? extends Instance> instances )
+	{
+		for ( int feature = 0; feature < min.length; ++feature ) {
+			include( instances, feature );
+		}
+	}
+
+	private void include( Collection<? extends Instance> instances, int feature )
+	{
+		double lo = min[feature];
+		double hi = max[feature];
+		for ( Instance instance : instances ) {
+			double value = Utils.getFeature( instance, feature );
+			lo = Math.min( lo, value );
+			hi = Math.max( hi, value );
+		}
+		min[feature] = lo;
+		max[feature] = hi;
+	}
+
+	/**
+	 * @return number of features
+	 */
+	public int getFeatureCount()
+	{
+		return min.length;
+	}
+
+	/**
+	 * @return the smallest value of the specified feature
+	 */
+	public double getMin( int feature )
+	{
+		return min[feature];
+	}
+
+	/**
+	 * @return the largest value of the specified feature
+	 */
+	public double getMax( int feature )
+	{
+		return max[feature];
+	}
+
+	/**
+	 * @param dimX
+	 *            index of the data dimension imaged on the X axis
+	 * @param dimY
+	 *            index of the data dimension imaged on the Y axis
+	 * @return the smallest rectangle containing all instances, projected onto the specified dimensions
+	 */
+	public Rectangle2D getBoundingRect( int dimX, int dimY )
+	{
+		return new Rectangle2D.Double(
+			min[dimX], min[dimY],
+			max[dimX] - min[dimX], max[dimY] - min[dimY]
+		);
+	}
+}
@@ -0,0 +1,228 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import pl.pwr.hiervis.hierarchy.reader.CSVFileProfile;
+import pl.pwr.hiervis.hierarchy.reader.CompressedCSVReader;
+import pl.pwr.hiervis.hierarchy.reader.CompressionType;
+import pl.pwr.hiervis.hierarchy.reader.HierarchyReader;
+import pl.pwr.hiervis.hierarchy.reader.SnapshotReader;
+
+
+/**
+ * Loads a single hierarchy file on the calling thread, and verifies that it has been loaded
+ * with sensible options.
+ *
+ * <p>
+ * This is the part of {@link HierarchyLoaderThread} that does the actual work, so that it can
+ * also be submitted to an executor (see {@link BatchHierarchyLoader}).
+ * Loading can be aborted by interrupting the thread executing {@link #call()}, in which case
+ * {@link basic_hierarchy.common.Utils.RuntimeInterruptedException RuntimeInterruptedException} is thrown.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class HierarchyLoader implements Callable<LoadedHierarchy>
+{
+	private static final Logger log = LogManager.getLogger( HierarchyLoader.class );
+
+	private final File file;
+	private final LoadedHierarchy.Options options;
+
+	private volatile HierarchyReader reader;
+	private long featureMemoryBudget = 0;
+	private boolean compactInstances = false;
+	private long expectedRowCount = -1;
+
+
+	/**
+	 * @param file
+	 *            the file to load
+	 * @param options
+	 *            options describing parameters to use while loading the file
+	 * @param reader
+	 *            the reader that will be used to load the file
+	 */
+	public HierarchyLoader( File file, LoadedHierarchy.Options options, HierarchyReader reader )
+	{
+		this.file = file;
+		this.options = options;
+		this.reader = reader;
+	}
+
+	/**
+	 * @param bytes
+	 *            if positive, instance features are not kept in memory, but loaded on demand from a column cache file,
+	 *            keeping at most this many bytes in memory. CSV files are converted to a snapshot in the temp directory,
+	 *            which serves as the cache file. Must be called before {@link #call()}.
+	 */
+	public void setFeatureMemoryBudget( long bytes )
+	{
+		featureMemoryBudget = bytes;
+	}
+
+	/**
+	 * @param compact
+	 *            whether instances of the loaded hierarchy are to be moved into a column-oriented store,
+	 *            see {@link LoadedHierarchy#compactInstances()}. Must be called before {@link #call()}.
+	 */
+	public void setCompactInstances( boolean compact )
+	{
+		compactInstances = compact;
+	}
+
+	/**
+	 * @param rows
+	 *            estimated number of rows in the file, eg. from the {@link CSVFileProfile} that the loading options
+	 *            were picked from. If not positive, the file is sampled to estimate it. Must be called before {@link #call()}.
+	 */
+	public void setExpectedRowCount( long rows )
+	{
+		expectedRowCount = rows;
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	@Override
+	public LoadedHierarchy call() throws Exception
+	{
+		log.trace( "Parsing..." );
+
+		Hierarchy hierarchy = null;
+		LoadedHierarchy.Options loadOptions = options;
+
+		FeatureColumnStore featureStore = null;
+		long sourceLineCount = -1;
+
+		if ( HierarchySnapshot.isSnapshot( file ) ) {
+			// Snapshots carry their own options, and are not subject to CSV parsing quirks.
+			SnapshotReader snapshotReader = new SnapshotReader( featureMemoryBudget );
+			reader = snapshotReader;
+
+			hierarchy = snapshotReader.load( file.getAbsolutePath() );
+			loadOptions = snapshotReader.getOptions();
+			featureStore = snapshotReader.getFeatureStore();
+		}
+		else {
+			boolean compressed = CompressionType.of( file ) != CompressionType.NONE;
+			if ( compressed ) {
+				// Other readers need random access to the file's contents.
+				reader = new CompressedCSVReader();
+			}
+
+			if ( expectedRowCount > 0 ) {
+				reader.setExpectedRowCount( expectedRowCount );
+			}
+			else {
+				try {
+					reader.setExpectedRowCount( CSVFileProfile.sample( file ).getEstimatedRowCount() );
+				}
+				catch ( IOException | RuntimeException e ) {
+					// Only a hint, the reader will report the actual problem, if any.
+					log.trace( "Failed to estimate row count: ", e );
+				}
+			}
+
+			hierarchy = reader.load(
+				file.getAbsolutePath(),
+				options.hasInstanceNameAttribute,
+				options.hasTrueClassAttribute,
+				options.hasColumnHeader,
+				options.isFillBreadthGaps,
+				options.isUseSubtree
+			);
+
+			if ( !compressed ) {
+				// Rows might have been appended while the file was being loaded, so the file's current size
+				// doesn't tell how much of it has been read. Remember how many lines made it into the hierarchy
+				// instead - finding where they end takes another pass over the file, only worth it when following.
+				sourceLineCount = hierarchy.getOverallNumberOfInstances() + ( options.hasColumnHeader ? 1 : 0 );
+			}
+
+			if ( featureMemoryBudget > 0 ) {
+				log.trace( "Creating feature column cache..." );
+				File cacheFile = File.createTempFile( "hiervis-", "." + HierarchySnapshot.FILE_EXTENSION );
+				// In case the hierarchy is never disposed, or loading fails before the store takes over the file.
+				cacheFile.deleteOnExit();
+				HierarchySnapshot.save( cacheFile.toPath(), hierarchy, options );
+
+				SnapshotReader snapshotReader = new SnapshotReader( featureMemoryBudget );
+				reader = snapshotReader;
+
+				hierarchy = snapshotReader.load( cacheFile.getAbsolutePath() );
+				featureStore = snapshotReader.getFeatureStore();
+				// The cache file is only needed as long as the hierarchy is, which closes the store when disposed.
+				featureStore.setDeleteOnClose( true );
+			}
+		}
+
+		log.trace( "Verifying..." );
+		verify( hierarchy );
+
+		LoadedHierarchy lh = new LoadedHierarchy( hierarchy, loadOptions );
+		lh.setFeatureStore( featureStore );
+
+		if ( compactInstances ) {
+			log.trace( "Compacting instances..." );
+			lh.compactInstances();
+		}
+		if ( sourceLineCount >= 0 ) {
+			lh.setSource( file, sourceLineCount );
+		}
+
+		return lh;
+	}
+
+	public int getProgress()
+	{
+		return reader.getProgress();
+	}
+
+	public String getStatusMessage()
+	{
+		return reader.getStatusMessage();
+	}
+
+	/**
+	 * Perform various tests on the hierarchy, meant to detect whether the input file
+	 * has been loaded with correct options selected.
+	 *
+	 * @param h
+	 *            the hierarchy to verify
+	 */
+	private void verify( Hierarchy h )
+	{
+		int dataDims = h.getRoot().getSubtreeInstances().getFirst().getData().length;
+
+		if ( dataDims == 1 ) {
+			throw new RuntimeException( "Instance data only has 1 feature. Minimum of 2 are required." );
+		}
+
+		String[] dataNames = h.getDataNames();
+		if ( dataNames != null ) {
+			for ( int i = 0; i < dataNames.length; ++i ) {
+				try {
+					Double.parseDouble( dataNames[i] );
+					// It parsed as a double, so most likely incorrect settings were selected.
+					throw new RuntimeException(
+						"One of instance feature column names parsed as a number. " +
+							"Incorrect settings were likely selected."
+					);
+				}
+				catch ( NumberFormatException e ) {
+					// If it failed to parse as double, then it's likely some identifier. All's good.
+				}
+			}
+		}
+	}
+}
@@ -7,8 +7,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import basic_hierarchy.common.Utils;
-import basic_hierarchy.interfaces.Hierarchy;
-import basic_hierarchy.reader.GeneratedCSVReader;
+import pl.pwr.hiervis.hierarchy.reader.HierarchyReader;
+import pl.pwr.hiervis.hierarchy.reader.ParallelCSVReader;
 import pl.pwr.hiervis.util.Event;
 
 
@@ -19,26 +19,67 @@ public class HierarchyLoaderThread extends Thread
 	public final Event<Pair<File, LoadedHierarchy>> fileLoaded = new Event<>();
 	public final Event<Exception> errorOcurred = new Event<>();
 
-	private final File file;
-	private final LoadedHierarchy.Options options;
-
-	private GeneratedCSVReader reader;
+	private final HierarchyLoader loader;
 
 
 	/**
 	 * 
-	 * @param config
-	 *            HVConfig object describing parameters to use while loading the file
 	 * @param file
 	 *            the file to load (CSV format)
+	 * @param options
+	 *            options describing parameters to use while loading the file
 	 */
 	public HierarchyLoaderThread( File file, LoadedHierarchy.Options options )
+	{
+		this( file, options, new ParallelCSVReader() );
+	}
+
+	/**
+	 * 
+	 * @param file
+	 *            the file to load
+	 * @param options
+	 *            options describing parameters to use while loading the file
+	 * @param reader
+	 *            the reader that will be used to load the file
+	 */
+	public HierarchyLoaderThread( File file, LoadedHierarchy.Options options, HierarchyReader reader )
 	{
 		setName( "HierarchyLoaderThread" );
 		setDaemon( true );
 
-		this.file = file;
-		this.options = options;
+		this.loader = new HierarchyLoader( file, options, reader );
+	}
+
+	/**
+	 * @param bytes
+	 *            if positive, instance features are not kept in memory, but loaded on demand from a column cache file,
+	 *            keeping at most this many bytes in memory. CSV files are converted to a snapshot in the temp directory,
+	 *            which serves as the cache file. Must be called before the thread is started.
+	 */
+	public void setFeatureMemoryBudget( long bytes )
+	{
+		loader.setFeatureMemoryBudget( bytes );
+	}
+
+	/**
+	 * @param compact
+	 *            whether instances of the loaded hierarchy are to be moved into a column-oriented store,
+	 *            see {@link HierarchyLoader#setCompactInstances(boolean)}. Must be called before the thread is started.
+	 */
+	public void setCompactInstances( boolean compact )
+	{
+		loader.setCompactInstances( compact );
+	}
+
+	/**
+	 * @param rows
+	 *            estimated number of rows in the file, see {@link HierarchyLoader#setExpectedRowCount(long)}.
+	 *            Must be called before the thread is started.
+	 */
+	public void setExpectedRowCount( long rows )
+	{
+		loader.setExpectedRowCount( rows );
 	}
 
 	@Override
@@ -47,31 +88,14 @@ public class HierarchyLoaderThread extends Thread
 		log.trace( "File loader thread started." );
 
 		try {
-			log.trace( "Parsing..." );
-
-			reader = new GeneratedCSVReader();
-
-			Hierarchy hierarchy = reader.load(
-				file.getAbsolutePath(),
-				options.hasInstanceNameAttribute,
-				options.hasTrueClassAttribute,
-				options.hasColumnHeader,
-				options.isFillBreadthGaps,
-				options.isUseSubtree
-			);
-
-			log.trace( "Verifying..." );
-			verify( hierarchy );
-
-			LoadedHierarchy lh = new LoadedHierarchy( hierarchy, options );
-
-			fileLoaded.broadcast( Pair.of( file, lh ) );
+			LoadedHierarchy lh = loader.call();
+			fileLoaded.broadcast( Pair.of( loader.getFile(), lh ) );
 		}
 		catch ( Utils.RuntimeInterruptedException ex ) {
 			log.trace( "File loading aborted by user." );
 		}
 		catch ( Exception ex ) {
-			log.error( "Error ocurred while loading " + file.getAbsolutePath() + "\n", ex );
+			log.error( "Error ocurred while loading " + loader.getFile().getAbsolutePath() + "\n", ex );
 			errorOcurred.broadcast( ex );
 		}
 
@@ -83,44 +107,11 @@ public class HierarchyLoaderThread extends Thread
 
 	public int getProgress()
 	{
-		return reader == null ? 0 : reader.getProgress();
+		return loader.getProgress();
 	}
 
 	public String getStatusMessage()
 	{
-		return reader == null ? "" : reader.getStatusMessage();
-	}
-
-	/**
-	 * Perform various tests on the hierarchy, meant to detect whether the input file
-	 * has been loaded with correct options selected.
-	 * 
-	 * @param h
-	 *            the hierarchy to verify
-	 */
-	private void verify( Hierarchy h )
-	{
-		int dataDims = h.getRoot().getSubtreeInstances().getFirst().getData().length;
-
-		if ( dataDims == 1 ) {
-			throw new RuntimeException( "Instance data only has 1 feature. Minimum of 2 are required." );
-		}
-
-		String[] dataNames = h.getDataNames();
-		if ( dataNames != null ) {
-			for ( int i = 0; i < dataNames.length; ++i ) {
-				try {
-					Double.parseDouble( dataNames[i] );
-					// It parsed as a double, so most likely incorrect settings were selected.
-					throw new RuntimeException(
-						"One of instance feature column names parsed as a number. " +
-							"Incorrect settings were likely selected."
-					);
-				}
-				catch ( NumberFormatException e ) {
-					// If it failed to parse as double, then it's likely some identifier. All's good.
-				}
-			}
-		}
+		return loader.getStatusMessage();
 	}
 }
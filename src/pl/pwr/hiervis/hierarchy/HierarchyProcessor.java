@@ -3,14 +3,9 @@ package pl.pwr.hiervis.hierarchy;
 import java.awt.Color;
 import java.awt.geom.Rectangle2D;
 import java.text.NumberFormat;
-import java.util.AbstractMap;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Queue;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import org.apache.commons.lang3.tuple.Pair;
 
@@ -20,9 +15,12 @@ import basic_hierarchy.interfaces.Node;
 import pl.pwr.hiervis.core.HVConfig;
 import pl.pwr.hiervis.core.HVConstants;
 import pl.pwr.hiervis.core.HVContext;
+import pl.pwr.hiervis.prefuse.FeatureStoreColumn;
 import pl.pwr.hiervis.prefuse.TableEx;
 import pl.pwr.hiervis.prefuse.action.InstanceColorAction;
 import pl.pwr.hiervis.prefuse.action.NodeColorAction;
+import pl.pwr.hiervis.prefuse.visualization.CachedTreeLayout;
+import pl.pwr.hiervis.prefuse.visualization.LevelOfDetailRendererFactory;
 import pl.pwr.hiervis.prefuse.visualization.NodeRenderer;
 import pl.pwr.hiervis.prefuse.visualization.PointRenderer;
 import pl.pwr.hiervis.prefuse.visualization.TreeLayoutData;
@@ -41,6 +39,8 @@ import prefuse.action.layout.AxisLayout;
 import prefuse.action.layout.graph.NodeLinkTreeLayout;
 import prefuse.data.Table;
 import prefuse.data.Tree;
+import prefuse.data.column.Column;
+import prefuse.data.column.ColumnFactory;
 import prefuse.data.query.NumberRangeModel;
 import prefuse.render.AxisRenderer;
 import prefuse.render.DefaultRendererFactory;
@@ -56,12 +56,25 @@ import prefuse.visual.VisualTable;
 
 public class HierarchyProcessor
 {
+	/**
+	 * Same as {@link #buildHierarchyTree(Node, int, int)}, except the layout area is sized to fit the tree
+	 * (see {@link TreeLayoutData#adaptive(Tree, int, int)}).
+	 * 
+	 * @param sourceRoot
+	 *            the root node of the hierarchy
+	 * @return a tuple of the Tree structure representing the hierarchy, and TreeLayoutData
+	 *         associated with it, containing information as to how visualize the tree.
+	 */
+	public static Pair<Tree, TreeLayoutData> buildHierarchyTree( Node sourceRoot )
+	{
+		Pair<Tree, TreeLayoutData> result = buildHierarchyTree( sourceRoot, 0, 0 );
+		return Pair.of( result.getLeft(), adaptLayoutData( result.getLeft(), result.getRight() ) );
+	}
+
 	/**
 	 * Processes the currently loaded {@link Hierarchy} and creates a {@link Tree} structure
 	 * used to visualize {@link Node}s in that hierarchy.
 	 * 
-	 * @param config
-	 *            the application config
 	 * @param sourceRoot
 	 *            the root node of the hierarchy
 	 * @param availableWidth
@@ -74,57 +87,71 @@ public class HierarchyProcessor
 	public static Pair<Tree, TreeLayoutData> buildHierarchyTree(
 		Node sourceRoot, int availableWidth, int availableHeight )
 	{
-		Tree tree = new Tree();
-		tree.addColumn( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME, String.class );
-		tree.addColumn( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, int.class );
+		// Breadth-first order of groups. Position of a group in this array is also the row of its tree node,
+		// so parents can be referred to by their position.
+		Node[] groups = new Node[64];
+		int[] parents = new int[groups.length];
+		int[] depths = new int[groups.length];
+		int count = 1;
 
-		prefuse.data.Node treeRoot = tree.addRoot();
-		treeRoot.setString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME, sourceRoot.getId() );
-		treeRoot.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.OTHER.getNumber() );
+		groups[0] = sourceRoot;
+		parents[0] = -1;
+		depths[0] = 0;
 
-		// path from node to root
 		int maxTreeDepth = 0;
-		int maxTreeWidth = 0;
-		// TODO: In order to improve performance, it might be better to change this to a LinkedList, because
-		// HashMap is only quick once it is already built, but the building process itself could be slow.
-		HashMap<Integer, Integer> treeLevelToWidth = new HashMap<>();
-		treeLevelToWidth.put( 0, 1 );
-
-		Queue<Map.Entry<prefuse.data.Node, Node>> treeParentToSourceChild = new LinkedList<>();
-		for ( Node sourceChild : sourceRoot.getChildren() ) {
-			treeParentToSourceChild.add( new AbstractMap.SimpleEntry<prefuse.data.Node, Node>( treeRoot, sourceChild ) );
-		}
+		int[] levelWidths = new int[16];
+		levelWidths[0] = 1;
+
+		for ( int head = 0; head < count; ++head ) {
+			int childDepth = depths[head] + 1;
+
+			for ( Node child : groups[head].getChildren() ) {
+				if ( count == groups.length ) {
+					int newLength = count * 2;
+					groups = Arrays.copyOf( groups, newLength );
+					parents = Arrays.copyOf( parents, newLength );
+					depths = Arrays.copyOf( depths, newLength );
+				}
 
-		while ( !treeParentToSourceChild.isEmpty() ) {
-			Entry<prefuse.data.Node, Node> treeParentAndSourceChild = treeParentToSourceChild.remove();
-			Node sourceGroup = treeParentAndSourceChild.getValue();
+				groups[count] = child;
+				parents[count] = head;
+				depths[count] = childDepth;
+				++count;
 
-			// Create a new tree node based on the source group
-			prefuse.data.Node newNode = tree.addChild( treeParentAndSourceChild.getKey() );
-			newNode.setString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME, sourceGroup.getId() );
-			newNode.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.OTHER.getNumber() );
+				// Update the number of nodes on this tree level, for later processing
+				if ( childDepth == levelWidths.length ) {
+					levelWidths = Arrays.copyOf( levelWidths, childDepth * 2 );
+				}
+				++levelWidths[childDepth];
+				maxTreeDepth = Math.max( maxTreeDepth, childDepth );
+			}
+		}
 
-			// Compute new max tree depth
-			int currentNodeDepth = newNode.getDepth();
-			maxTreeDepth = Math.max( maxTreeDepth, currentNodeDepth );
+		int maxTreeWidth = 0;
+		for ( int i = 0; i <= maxTreeDepth; ++i ) {
+			maxTreeWidth = Math.max( maxTreeWidth, levelWidths[i] );
+		}
 
-			// Update the number of nodes on this tree level, for later processing
-			Integer treeLevelWidth = treeLevelToWidth.get( currentNodeDepth );
-			if ( treeLevelWidth == null ) {
-				treeLevelToWidth.put( currentNodeDepth, 1 );
-			}
-			else {
-				treeLevelToWidth.put( currentNodeDepth, treeLevelWidth + 1 );
-			}
+		// Tables of the tree are created with all their rows up front, instead of growing one node at a time
+		Table nodes = new Table( count, 0 );
+		nodes.addColumn( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME, String.class );
+		nodes.addColumn( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, int.class, ElementRole.OTHER.getNumber() );
+		int idCol = nodes.getColumnNumber( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME );
+		for ( int row = 0; row < count; ++row ) {
+			nodes.setString( row, idCol, groups[row].getId() );
+		}
 
-			// Enqueue this group's children for processing
-			for ( Node child : sourceGroup.getChildren() ) {
-				treeParentToSourceChild.add( new AbstractMap.SimpleEntry<prefuse.data.Node, Node>( newNode, child ) );
-			}
+		Table edges = new Table( count - 1, 0 );
+		edges.addColumn( Tree.DEFAULT_SOURCE_KEY, int.class, -1 );
+		edges.addColumn( Tree.DEFAULT_TARGET_KEY, int.class, -1 );
+		int sourceCol = edges.getColumnNumber( Tree.DEFAULT_SOURCE_KEY );
+		int targetCol = edges.getColumnNumber( Tree.DEFAULT_TARGET_KEY );
+		for ( int row = 1; row < count; ++row ) {
+			edges.setInt( row - 1, sourceCol, parents[row] );
+			edges.setInt( row - 1, targetCol, row );
 		}
 
-		// Tree is complete, now find the max tree width
-		maxTreeWidth = Collections.max( treeLevelToWidth.values() );
+		Tree tree = new Tree( nodes, edges );
 
 		TreeLayoutData layoutData = new TreeLayoutData(
 			tree,
@@ -135,107 +162,113 @@ public class HierarchyProcessor
 		return Pair.of( tree, layoutData );
 	}
 
-	@SuppressWarnings("unchecked")
-	public static void updateNodeRoles( HVContext context, int row )
+	/**
+	 * Adds a node representing the specified group to the hierarchy tree.
+	 * 
+	 * @param tree
+	 *            the hierarchy tree
+	 * @param parent
+	 *            the tree node representing the group's parent
+	 * @param sourceGroup
+	 *            the group to add
+	 * @return the created tree node
+	 */
+	public static prefuse.data.Node addTreeNode( Tree tree, prefuse.data.Node parent, Node sourceGroup )
 	{
-		Tree hierarchyTree = context.getHierarchy().getTree();
+		prefuse.data.Node newNode = tree.addChild( parent );
+		newNode.setString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME, sourceGroup.getId() );
+		newNode.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.OTHER.getNumber() );
+		return newNode;
+	}
 
-		// Reset all nodes back to 'other'
-		for ( int i = 0; i < hierarchyTree.getNodeCount(); ++i ) {
-			prefuse.data.Node n = hierarchyTree.getNode( i );
-			n.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.OTHER.getNumber() );
-		}
+	/**
+	 * Computes layout data for the specified hierarchy tree, the same way {@link #buildHierarchyTree(Node)} does.
+	 * Used when the tree has been modified after it was built.
+	 * 
+	 * @param tree
+	 *            the hierarchy tree
+	 * @param intervals
+	 *            intervals of nodes of the tree
+	 * @return the layout data
+	 */
+	public static TreeLayoutData createTreeLayoutData( Tree tree, NodeIntervals intervals )
+	{
+		return adaptLayoutData( tree, createTreeLayoutData( tree, intervals, 0, 0 ) );
+	}
 
-		if ( row < 0 )
-			return;
+	private static TreeLayoutData adaptLayoutData( Tree tree, TreeLayoutData layoutData )
+	{
+		return TreeLayoutData.adaptive( tree, layoutData.getTreeDepth(), layoutData.getTreeWidth() );
+	}
 
-		prefuse.data.Node n = hierarchyTree.getNode( row );
+	/**
+	 * Computes layout data for the specified hierarchy tree, the same way {@link #buildHierarchyTree(Node, int, int)} does.
+	 * Used when the tree has been modified after it was built.
+	 * 
+	 * @param tree
+	 *            the hierarchy tree
+	 * @param intervals
+	 *            intervals of nodes of the tree, providing their depths
+	 * @param availableWidth
+	 *            the width the layout has to work with
+	 * @param availableHeight
+	 *            the height the layout has to work with
+	 * @return the layout data
+	 */
+	public static TreeLayoutData createTreeLayoutData(
+		Tree tree, NodeIntervals intervals,
+		int availableWidth, int availableHeight )
+	{
+		int maxTreeDepth = 0;
+		int[] levelWidths = new int[intervals.size() + 1];
 
-		LinkedList<prefuse.data.Node> stack = new LinkedList<>();
-		stack.add( n );
-		while ( !stack.isEmpty() ) {
-			prefuse.data.Node current = stack.removeFirst();
-			current.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.CHILD.getNumber() );
-			for ( Iterator<prefuse.data.Node> children = current.children(); children.hasNext(); ) {
-				prefuse.data.Node child = children.next();
-				stack.add( child );
+		for ( int i = 0; i < intervals.size(); ++i ) {
+			if ( tree.getNodeTable().isValidRow( i ) ) {
+				int depth = intervals.getDepth( i );
+				maxTreeDepth = Math.max( maxTreeDepth, depth );
+				++levelWidths[depth];
 			}
 		}
 
-		if ( n.getParent() != null ) {
-			stack = new LinkedList<>();
-			// when the parent is empty, then we need to search up in the hierarchy because empty
-			// parents are skipped, but displayed on output images
-			prefuse.data.Node directParent = n.getParent();
-			stack.add( directParent );
-			while ( !stack.isEmpty() ) {
-				prefuse.data.Node current = stack.removeFirst();
-				current.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.INDIRECT_PARENT.getNumber() );
-				if ( current.getParent() != null ) {
-					stack.add( current.getParent() );
-				}
-			}
-
-			directParent.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.DIRECT_PARENT.getNumber() );
+		int maxTreeWidth = 0;
+		for ( int i = 0; i <= maxTreeDepth; ++i ) {
+			maxTreeWidth = Math.max( maxTreeWidth, levelWidths[i] );
 		}
 
-		n.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.CURRENT.getNumber() );
+		return new TreeLayoutData(
+			tree,
+			maxTreeDepth, maxTreeWidth,
+			availableWidth, availableHeight
+		);
 	}
 
-	@SuppressWarnings("unchecked")
-	public static void updateTreeNodeRoles( HVContext context, String currentGroupId )
+	/**
+	 * Updates roles of nodes in the hierarchy tree to reflect the selection of the node at the specified row.
+	 * Only nodes whose role is affected by the change of selection are updated (see {@link NodeRoleTracker}).
+	 * 
+	 * @param context
+	 *            the application context
+	 * @param row
+	 *            row of the selected node in the hierarchy tree, or -1 to clear the selection
+	 */
+	public static void updateNodeRoles( HVContext context, int row )
 	{
-		Tree hierarchyTree = context.getHierarchy().getTree();
+		context.getHierarchy().getNodeRoleTracker().select( row );
+	}
 
+	/**
+	 * Updates roles of nodes in the hierarchy tree to reflect the selection of the group with the specified id.
+	 * 
+	 * @param context
+	 *            the application context
+	 * @param currentGroupId
+	 *            id of the selected group, or null to clear the selection
+	 */
+	public static void updateTreeNodeRoles( HVContext context, String currentGroupId )
+	{
 		if ( context.isHierarchyDataLoaded() ) {
-			boolean found = false;
-
-			for ( int i = 0; i < hierarchyTree.getNodeCount(); ++i ) {
-				prefuse.data.Node n = hierarchyTree.getNode( i );
-
-				// Reset node role to 'other'
-				n.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.OTHER.getNumber() );
-
-				if ( !found && n.getString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME ).equals( currentGroupId ) ) {
-					found = true;
-
-					n.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.CURRENT.getNumber() );
-
-					// Color child groups
-					LinkedList<prefuse.data.Node> stack = new LinkedList<>();
-					stack.add( n );
-
-					while ( !stack.isEmpty() ) {
-						prefuse.data.Node current = stack.removeFirst();
-						current.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.CHILD.getNumber() );
-
-						for ( Iterator<prefuse.data.Node> children = current.children(); children.hasNext(); ) {
-							prefuse.data.Node child = children.next();
-							stack.add( child );
-						}
-					}
-
-					if ( n.getParent() != null ) {
-						stack.clear();
-
-						// IF the parent is empty, then we need to search up in the hierarchy because empty
-						// parents are skipped, but displayed on output images
-						prefuse.data.Node directParent = n.getParent();
-						stack.add( directParent );
-
-						while ( !stack.isEmpty() ) {
-							prefuse.data.Node current = stack.removeFirst();
-							current.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.INDIRECT_PARENT.getNumber() );
-
-							if ( current.getParent() != null ) {
-								stack.add( current.getParent() );
-							}
-						}
-
-						directParent.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.DIRECT_PARENT.getNumber() );
-					}
-				}
-			}
+			LoadedHierarchy lh = context.getHierarchy();
+			lh.getNodeRoleTracker().select( currentGroupId == null ? -1 : lh.getTreeNodeIndex().getRow( currentGroupId ) );
 		}
 	}
 
@@ -262,14 +295,19 @@ public class HierarchyProcessor
 			EdgeRenderer edgeRenderer = new EdgeRenderer( prefuse.Constants.EDGE_TYPE_LINE );
 			edgeRenderer.setDefaultLineWidth( strokeWidth );
 			drf.setDefaultEdgeRenderer( edgeRenderer );
-			vis.setRendererFactory( drf );
 
-			NodeLinkTreeLayout treeLayout = new NodeLinkTreeLayout(
+			LoadedHierarchy lh = context.getHierarchy();
+			vis.setRendererFactory(
+				new LevelOfDetailRendererFactory(
+					drf, lh.getNodeIntervals(), layoutData, lh.getTreeLayoutCache(),
+					row -> lh.getInstanceRows( row ).length
+				)
+			);
+
+			NodeLinkTreeLayout treeLayout = new CachedTreeLayout(
 				HVConstants.HIERARCHY_DATA_NAME,
-				layoutData.getTreeOrientation(),
-				layoutData.getDepthSpace(),
-				layoutData.getSiblingSpace(),
-				layoutData.getSubtreeSpace()
+				layoutData,
+				context.getHierarchy().getTreeLayoutCache()
 			);
 			treeLayout.setRootNodeOffset( 0 );
 			treeLayout.setLayoutBounds(
@@ -340,16 +378,138 @@ public class HierarchyProcessor
 		Utils.waitUntilActivitiesAreFinished();
 	}
 
-	public static TableEx createInstanceTable( HVConfig config, LoadedHierarchy hierarchy, Tree hierarchyTree )
+	/**
+	 * Creates a table holding processed data of all instances of the specified hierarchy.
+	 * 
+	 * <p>
+	 * The table is created with all of its rows up front, and its columns are filled in bulk on the
+	 * common fork-join pool before they're added to the table - feature columns in parallel with
+	 * each other, and the remaining columns in parallel across row ranges. The result is the same as
+	 * if each instance was added with {@link #appendInstanceData(LoadedHierarchy, List, TreeNodeIndex, Table)}.
+	 * </p>
+	 * 
+	 * @param config
+	 *            the application config
+	 * @param hierarchy
+	 *            the hierarchy to process
+	 * @param treeNodeIndex
+	 *            index of nodes of the processed hierarchy tree
+	 * @return the created table
+	 */
+	public static TableEx createInstanceTable( HVConfig config, LoadedHierarchy hierarchy, TreeNodeIndex treeNodeIndex )
 	{
 		String[] dataNames = getFeatureNames( hierarchy );
+		List<Instance> instanceList = hierarchy.getMainHierarchy().getRoot().getSubtreeInstances();
+		Instance[] instances = instanceList.toArray( new Instance[instanceList.size()] );
+		int rowCount = instances.length;
+
+		// When features are loaded on demand, feature columns read directly from the store,
+		// so that only the dimensions that are actually displayed get paged in.
+		FeatureColumnStore store = hierarchy.getFeatureStore();
+		int[] storeRows = getFeatureStoreRows( store, instanceList );
+
+		Column[] featureColumns = new Column[dataNames.length];
+		if ( storeRows == null ) {
+			IntStream.range( 0, featureColumns.length ).parallel().forEach(
+				feature -> {
+					Column column = ColumnFactory.getColumn( double.class, rowCount, null );
+					for ( int row = 0; row < rowCount; ++row ) {
+						column.setDouble( Utils.getFeature( instances[row], feature ), row );
+					}
+					featureColumns[feature] = column;
+				}
+			);
+		}
+		else {
+			for ( int i = 0; i < featureColumns.length; ++i ) {
+				featureColumns[i] = new FeatureStoreColumn( store, i, storeRows );
+			}
+		}
+
+		boolean withTrueClass = hierarchy.options.hasTrueClassAttribute;
+		boolean withLabels = hierarchy.options.hasInstanceNameAttribute;
+
+		// Can't put a reference to the Node in true class column, because ground truth nodes might not exist.
+		// (particularly for flattened hierarchies with true class attribute)
+		Column nodeColumn = ColumnFactory.getColumn( int.class, rowCount, -1 );
+		Column trueClassColumn = withTrueClass ? ColumnFactory.getColumn( String.class, rowCount, null ) : null;
+		Column labelColumn = withLabels ? ColumnFactory.getColumn( String.class, rowCount, null ) : null;
+
+		IntStream.range( 0, rowCount ).parallel().forEach(
+			row -> {
+				Instance instance = instances[row];
+				nodeColumn.setInt( treeNodeIndex.getRow( instance.getNodeId() ), row );
+
+				if ( withTrueClass ) {
+					trueClassColumn.set( instance.getTrueClass(), row );
+				}
+				if ( withLabels ) {
+					labelColumn.set( instance.getInstanceName(), row );
+				}
+			}
+		);
 
-		TableEx table = createEmptyInstanceTable( hierarchy.options, dataNames );
-		processInstanceData( config, hierarchy, hierarchyTree, table );
+		TableEx table = new TableEx( rowCount, dataNames.length + 3 );
+		for ( int i = 0; i < dataNames.length; ++i ) {
+			table.addColumn( dataNames[i], featureColumns[i] );
+		}
+		table.addColumn( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME, nodeColumn );
+		if ( withTrueClass ) {
+			table.addColumn( HVConstants.PREFUSE_INSTANCE_TRUENODE_ID_COLUMN_NAME, trueClassColumn );
+		}
+		if ( withLabels ) {
+			table.addColumn( HVConstants.PREFUSE_INSTANCE_LABEL_COLUMN_NAME, labelColumn );
+		}
 
 		return table;
 	}
 
+	/**
+	 * Appends the specified instances to the hierarchy's instance table.
+	 * The groups the instances belong to must already be present in the hierarchy tree.
+	 * 
+	 * @param hierarchy
+	 *            the hierarchy the instances were added to
+	 * @param instances
+	 *            the instances to append
+	 * @param treeNodeIndex
+	 *            index of nodes of the processed hierarchy tree
+	 * @param table
+	 *            the instance table of the hierarchy
+	 */
+	public static void appendInstanceData(
+		LoadedHierarchy hierarchy, List<? extends Instance> instances,
+		TreeNodeIndex treeNodeIndex, Table table )
+	{
+		processInstanceData( hierarchy, instances, treeNodeIndex, table );
+	}
+
+	/**
+	 * @param store
+	 *            the store holding feature values of the instances, or null
+	 * @param instances
+	 *            instances, in order in which they are added to the instance table
+	 * @return array mapping instance table rows to rows in the store, or null if the store is null,
+	 *         or not all instances read their features from it.
+	 */
+	private static int[] getFeatureStoreRows( FeatureColumnStore store, List<Instance> instances )
+	{
+		if ( store == null ) {
+			return null;
+		}
+
+		int[] result = new int[instances.size()];
+		int row = 0;
+		for ( Instance instance : instances ) {
+			if ( !( instance instanceof LazyInstance ) || ( (LazyInstance)instance ).getStore() != store ) {
+				return null;
+			}
+			result[row++] = ( (LazyInstance)instance ).getIndex();
+		}
+
+		return result;
+	}
+
 	/**
 	 * If the input file had a first row with column names, then this method returns those names.
 	 * If the first row did not contain column names, it creates artificial names ("dimension #")
@@ -380,92 +540,69 @@ public class HierarchyProcessor
 		return dataNames;
 	}
 
-	/**
-	 * Creates a new, empty table used to hold processed instance data.
-	 * 
-	 * @param config
-	 *            the application config
-	 * @param dataNames
-	 *            array of names for instance features
-	 * @return the created table
-	 */
-	private static TableEx createEmptyInstanceTable( LoadedHierarchy.Options options, String[] dataNames )
-	{
-		TableEx table = new TableEx();
-
-		for ( int i = 0; i < dataNames.length; ++i ) {
-			table.addColumn( dataNames[i], double.class );
-		}
-
-		table.addColumn( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME, prefuse.data.Node.class );
-		if ( options.hasTrueClassAttribute ) {
-			// Can't put a reference to the Node, because ground truth nodes might not exist.
-			// (particularly for flattened hierarchies with true class attribute)
-			table.addColumn( HVConstants.PREFUSE_INSTANCE_TRUENODE_ID_COLUMN_NAME, String.class );
-		}
-
-		if ( options.hasInstanceNameAttribute ) {
-			table.addColumn( HVConstants.PREFUSE_INSTANCE_LABEL_COLUMN_NAME, String.class );
-		}
-
-		return table;
-	}
-
 	/**
 	 * Processes raw hierarchy data and saves it in the specified table.
 	 * 
-	 * @param config
-	 *            the application config
 	 * @param hierarchy
 	 *            the hierarchy to process
-	 * @param hierarchyTree
-	 *            the processed hierarchy tree
+	 * @param instances
+	 *            instances of the hierarchy, in order in which they are to be added to the table
+	 * @param treeNodeIndex
+	 *            index of nodes of the processed hierarchy tree
 	 * @param table
 	 *            the table the processed data will be saved in.
 	 */
 	private static void processInstanceData(
-		HVConfig config,
-		LoadedHierarchy hierarchy,
-		Tree hierarchyTree, Table table )
+		LoadedHierarchy hierarchy, List<? extends Instance> instances,
+		TreeNodeIndex treeNodeIndex, Table table )
 	{
 		// TODO: Implement some sort of culling so that we remove overlapping instances?
 		// Could use k-d trees maybe?
 
-		for ( Instance instance : hierarchy.getMainHierarchy().getRoot().getSubtreeInstances() ) {
+		// Columns are looked up once, and written through their primitive setters, to avoid boxing every value.
+		int featureCount = HierarchyUtils.getFeatureCount( hierarchy.getMainHierarchy() );
+		Column[] featureColumns = new Column[featureCount];
+		for ( int i = 0; i < featureCount; ++i ) {
+			featureColumns[i] = table.getColumn( i );
+		}
+		Column nodeColumn = table.getColumn( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME );
+		Column trueClassColumn = hierarchy.options.hasTrueClassAttribute
+			? table.getColumn( HVConstants.PREFUSE_INSTANCE_TRUENODE_ID_COLUMN_NAME )
+			: null;
+		Column labelColumn = hierarchy.options.hasInstanceNameAttribute
+			? table.getColumn( HVConstants.PREFUSE_INSTANCE_LABEL_COLUMN_NAME )
+			: null;
+
+		double[] data = new double[featureCount];
+		for ( Instance instance : instances ) {
 			int row = table.addRow();
 
-			double[] data = instance.getData();
-			for ( int i = 0; i < data.length; ++i ) {
-				table.set( row, i, data[i] );
+			Utils.getFeatures( instance, data );
+			for ( int i = 0; i < featureCount; ++i ) {
+				featureColumns[i].setDouble( data[i], row );
 			}
 
-			prefuse.data.Node node = findGroup( hierarchyTree, instance.getNodeId() );
-			table.set( row, HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME, node );
+			nodeColumn.setInt( treeNodeIndex.getRow( instance.getNodeId() ), row );
 
-			if ( hierarchy.options.hasTrueClassAttribute ) {
-				table.set( row, HVConstants.PREFUSE_INSTANCE_TRUENODE_ID_COLUMN_NAME, instance.getTrueClass() );
+			if ( trueClassColumn != null ) {
+				trueClassColumn.set( instance.getTrueClass(), row );
 			}
-
-			if ( hierarchy.options.hasInstanceNameAttribute ) {
-				table.set( row, HVConstants.PREFUSE_INSTANCE_LABEL_COLUMN_NAME, instance.getInstanceName() );
+			if ( labelColumn != null ) {
+				labelColumn.set( instance.getInstanceName(), row );
 			}
 		}
 	}
 
-	public static prefuse.data.Node findGroup( Tree hierarchyTree, String name )
+	/**
+	 * @param hierarchy
+	 *            the processed hierarchy to look in
+	 * @param name
+	 *            id of the hierarchy group
+	 * @return node representing the group in the hierarchy's tree, or null if not found.
+	 */
+	public static prefuse.data.Node findGroup( LoadedHierarchy hierarchy, String name )
 	{
-		// TODO:
-		// Can potentially speed this up by using a lookup cache in the form of a hash map.
-		// Not sure if worth it, though.
-		int nodeCount = hierarchyTree.getNodeCount();
-		for ( int i = 0; i < nodeCount; ++i ) {
-			prefuse.data.Node n = hierarchyTree.getNode( i );
-			if ( n.getString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME ).equals( name ) ) {
-				return n;
-			}
-		}
-
-		return null;
+		return hierarchy.getTreeNodeIndex().getNode( name );
 	}
 
 	public static Visualization createInstanceVisualization(
@@ -508,8 +645,7 @@ public class HierarchyProcessor
 		Table table = context.getHierarchy().getInstanceTable();
 		vis.addTable( HVConstants.INSTANCE_DATA_NAME, table );
 
-		Node root = context.getHierarchy().getMainHierarchy().getRoot();
-		Rectangle2D bounds = Utils.calculateBoundingRectForCluster( root, dimX, dimY );
+		Rectangle2D bounds = context.getHierarchy().getFeatureExtents().getBoundingRect( dimX, dimY );
 
 		AxisLayout axisX = new AxisLayout(
 			HVConstants.INSTANCE_DATA_NAME,
@@ -0,0 +1,446 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import pl.pwr.hiervis.hierarchy.reader.SnapshotReader;
+import pl.pwr.hiervis.util.HierarchyUtils;
+import pl.pwr.hiervis.util.Utils;
+
+
+/**
+ * Binary snapshot format for {@link Hierarchy} objects, allowing them to be reloaded
+ * without parsing text, rebuilding the hierarchy structure, or recomputing centroids.
+ *
+ * <p>
+ * All values are stored in big-endian byte order. The file consists of:
+ * <ul>
+ * <li>a fixed-size header: magic number, format version, {@link LoadedHierarchy.Options} flags,
+ * feature / node / instance counts and offsets of the feature and centroid blocks</li>
+ * <li>a structure section: data names, true class counts, root index, and for each node:
+ * its id, parent index, child indices, range of its instances and its representation's attributes and length,
+ * followed by name and true class of each instance</li>
+ * <li>a feature block, aligned to 8 bytes: one contiguous column of doubles per feature,
+ * each holding values of all instances, in node order</li>
+ * <li>a centroid block: feature values of node representations, one row per node that has one.
+ * Row lengths are stored in the structure section.</li>
+ * <li>CRC32 checksum of all preceding bytes, stored as a long</li>
+ * </ul>
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public final class HierarchySnapshot
+{
+	public static final String FILE_EXTENSION = "hvs";
+
+	public static final int MAGIC = 0x48565330; // 'HVS0'
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 6 * Integer.BYTES + 2 * Long.BYTES;
+	public static final int CHECKSUM_SIZE = Long.BYTES;
+
+	public static final int FLAG_INSTANCE_NAME = 1;
+	public static final int FLAG_TRUE_CLASS = 1 << 1;
+	public static final int FLAG_HEADER = 1 << 2;
+	public static final int FLAG_FILL_BREADTH_GAPS = 1 << 3;
+	public static final int FLAG_USE_SUBTREE = 1 << 4;
+
+	private static final int bufferSize = 1 << 16;
+
+
+	private HierarchySnapshot()
+	{
+		// Static class -- disallow instantiation.
+		throw new RuntimeException( "Attempted to instantiate a static class: " + getClass().getName() );
+	}
+
+	/**
+	 * Saves the specified hierarchy as a binary snapshot.
+	 *
+	 * @param path
+	 *            path to the destination file
+	 * @param h
+	 *            the hierarchy to save
+	 * @param options
+	 *            options that the hierarchy was loaded with, restored when the snapshot is loaded
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static void save( Path path, Hierarchy h, LoadedHierarchy.Options options ) throws IOException
+	{
+		Node[] nodes = h.getGroups();
+		Map<Node, Integer> nodeIndices = new IdentityHashMap<>( nodes.length );
+		for ( int i = 0; i < nodes.length; ++i ) {
+			nodeIndices.put( nodes[i], i );
+		}
+
+		int featureCount = HierarchyUtils.getFeatureCount( h );
+		int instanceCount = 0;
+		for ( Node n : nodes ) {
+			instanceCount += n.getNodeInstances().size();
+		}
+
+		// Structure section has variable length, so serialize it up front to learn the block offsets.
+		ByteArrayBuilder structure = new ByteArrayBuilder();
+		writeStructure( structure, h, nodes, nodeIndices );
+
+		long featureBlockOffset = align( HEADER_SIZE + structure.size() );
+		long centroidBlockOffset = featureBlockOffset + (long)featureCount * instanceCount * Double.BYTES;
+
+		try ( BlockWriter out = new BlockWriter( path ) ) {
+			out.putInt( MAGIC );
+			out.putInt( VERSION );
+			out.putInt( toFlags( options ) );
+			out.putInt( featureCount );
+			out.putInt( nodes.length );
+			out.putInt( instanceCount );
+			out.putLong( featureBlockOffset );
+			out.putLong( centroidBlockOffset );
+
+			out.putBytes( structure.array(), structure.size() );
+			while ( out.position() < featureBlockOffset ) {
+				out.putByte( (byte)0 );
+			}
+
+			for ( int f = 0; f < featureCount; ++f ) {
+				for ( Node n : nodes ) {
+					for ( Instance instance : n.getNodeInstances() ) {
+						out.putDouble( Utils.getFeature( instance, f ) );
+					}
+				}
+			}
+
+			for ( Node n : nodes ) {
+				Instance repr = n.getNodeRepresentation();
+				if ( repr != null ) {
+					for ( double value : repr.getData() ) {
+						out.putDouble( value );
+					}
+				}
+			}
+
+			out.putChecksum();
+		}
+	}
+
+	/**
+	 * @param file
+	 *            the file to test
+	 * @return true if the file begins with the snapshot magic number, false otherwise.
+	 */
+	public static boolean isSnapshot( File file )
+	{
+		if ( !file.isFile() || file.length() < HEADER_SIZE + CHECKSUM_SIZE ) {
+			return false;
+		}
+
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			ByteBuffer buf = ByteBuffer.allocate( Integer.BYTES );
+			channel.read( buf, 0 );
+			return buf.getInt( 0 ) == MAGIC;
+		}
+		catch ( IOException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the options stored in the header of the specified snapshot file.
+	 *
+	 * @param file
+	 *            the snapshot file
+	 * @return the options that the hierarchy was originally loaded with
+	 * @throws IOException
+	 *             if an I/O error occurs, or the file is not a snapshot.
+	 */
+	public static LoadedHierarchy.Options readOptions( File file ) throws IOException
+	{
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			ByteBuffer buf = ByteBuffer.allocate( 3 * Integer.BYTES );
+			channel.read( buf, 0 );
+			checkHeader( buf.getInt( 0 ), buf.getInt( Integer.BYTES ) );
+			return toOptions( buf.getInt( 2 * Integer.BYTES ) );
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the magic number or format version are not recognized.
+	 */
+	public static void checkHeader( int magic, int version ) throws IOException
+	{
+		if ( magic != MAGIC ) {
+			throw new IOException( "Not a hierarchy snapshot file." );
+		}
+		if ( version != VERSION ) {
+			throw new IOException(
+				String.format( "Unsupported snapshot version: %s (expected %s).", version, VERSION )
+			);
+		}
+	}
+
+	public static int toFlags( LoadedHierarchy.Options o )
+	{
+		int result = 0;
+		if ( o.hasInstanceNameAttribute ) result |= FLAG_INSTANCE_NAME;
+		if ( o.hasTrueClassAttribute ) result |= FLAG_TRUE_CLASS;
+		if ( o.hasColumnHeader ) result |= FLAG_HEADER;
+		if ( o.isFillBreadthGaps ) result |= FLAG_FILL_BREADTH_GAPS;
+		if ( o.isUseSubtree ) result |= FLAG_USE_SUBTREE;
+		return result;
+	}
+
+	public static LoadedHierarchy.Options toOptions( int flags )
+	{
+		return new LoadedHierarchy.Options(
+			( flags & FLAG_INSTANCE_NAME ) != 0,
+			( flags & FLAG_TRUE_CLASS ) != 0,
+			( flags & FLAG_HEADER ) != 0,
+			( flags & FLAG_FILL_BREADTH_GAPS ) != 0,
+			( flags & FLAG_USE_SUBTREE ) != 0
+		);
+	}
+
+	/**
+	 * Rounds the specified offset up to the nearest multiple of 8, so that doubles in the block
+	 * starting at that offset are aligned.
+	 */
+	public static long align( long offset )
+	{
+		return ( offset + 7 ) & ~7L;
+	}
+
+	/**
+	 * @see SnapshotReader
+	 */
+	private static void writeStructure(
+		ByteArrayBuilder out, Hierarchy h,
+		Node[] nodes, Map<Node, Integer> nodeIndices )
+	{
+		String[] dataNames = h.getDataNames();
+		if ( dataNames == null ) {
+			out.putInt( -1 );
+		}
+		else {
+			out.putInt( dataNames.length );
+			for ( String name : dataNames ) {
+				out.putString( name );
+			}
+		}
+
+		String[] classes = h.getClasses();
+		int[] classCounts = h.getClassesCount();
+		int classCount = classes == null ? 0 : classes.length;
+		out.putInt( classCount );
+		for ( int i = 0; i < classCount; ++i ) {
+			out.putString( classes[i] );
+			out.putInt( classCounts[i] );
+		}
+
+		out.putInt( nodeIndices.get( h.getRoot() ) );
+
+		int instanceStart = 0;
+		for ( Node n : nodes ) {
+			out.putString( n.getId() );
+			out.putInt( n.getParent() == null ? -1 : nodeIndices.get( n.getParent() ) );
+
+			List<Node> children = n.getChildren();
+			out.putInt( children.size() );
+			for ( Node child : children ) {
+				out.putInt( nodeIndices.get( child ) );
+			}
+
+			int count = n.getNodeInstances().size();
+			out.putInt( instanceStart );
+			out.putInt( count );
+			instanceStart += count;
+
+			Instance repr = n.getNodeRepresentation();
+			out.putByte( (byte)( repr == null ? 0 : 1 ) );
+			if ( repr != null ) {
+				out.putString( repr.getInstanceName() );
+				out.putString( repr.getNodeId() );
+				out.putString( repr.getTrueClass() );
+				// Representations of empty nodes can have no feature values.
+				out.putInt( repr.getData().length );
+			}
+		}
+
+		for ( Node n : nodes ) {
+			for ( Instance instance : n.getNodeInstances() ) {
+				out.putString( instance.getInstanceName() );
+				out.putString( instance.getTrueClass() );
+			}
+		}
+	}
+
+
+	/**
+	 * Growable in-memory buffer used to serialize the structure section.
+	 */
+	private static final class ByteArrayBuilder
+	{
+		private ByteBuffer buf = ByteBuffer.allocate( bufferSize );
+
+
+		public int size()
+		{
+			return buf.position();
+		}
+
+		public byte[] array()
+		{
+			return buf.array();
+		}
+
+		public void putByte( byte value )
+		{
+			ensureRemaining( 1 ).put( value );
+		}
+
+		public void putInt( int value )
+		{
+			ensureRemaining( Integer.BYTES ).putInt( value );
+		}
+
+		/**
+		 * Strings are stored as their UTF-8 byte length followed by the bytes, or -1 for null strings.
+		 */
+		public void putString( String value )
+		{
+			if ( value == null ) {
+				putInt( -1 );
+			}
+			else {
+				byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+				putInt( bytes.length );
+				ensureRemaining( bytes.length ).put( bytes );
+			}
+		}
+
+		private ByteBuffer ensureRemaining( int bytes )
+		{
+			if ( buf.remaining() < bytes ) {
+				int capacity = Math.max( buf.capacity() * 2, buf.position() + bytes );
+				ByteBuffer newBuf = ByteBuffer.allocate( capacity );
+				buf.flip();
+				newBuf.put( buf );
+				buf = newBuf;
+			}
+			return buf;
+		}
+	}
+
+	/**
+	 * Buffered writer over a {@link FileChannel}, which computes a checksum of all written bytes.
+	 */
+	private static final class BlockWriter implements AutoCloseable
+	{
+		private final FileChannel channel;
+		private final ByteBuffer buf = ByteBuffer.allocate( bufferSize );
+		private final CRC32 crc = new CRC32();
+		private long position = 0;
+
+
+		public BlockWriter( Path path ) throws IOException
+		{
+			channel = FileChannel.open(
+				path,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+			);
+		}
+
+		public long position()
+		{
+			return position + buf.position();
+		}
+
+		public void putByte( byte value ) throws IOException
+		{
+			ensureRemaining( 1 ).put( value );
+		}
+
+		public void putInt( int value ) throws IOException
+		{
+			ensureRemaining( Integer.BYTES ).putInt( value );
+		}
+
+		public void putLong( long value ) throws IOException
+		{
+			ensureRemaining( Long.BYTES ).putLong( value );
+		}
+
+		public void putDouble( double value ) throws IOException
+		{
+			ensureRemaining( Double.BYTES ).putDouble( value );
+		}
+
+		public void putBytes( byte[] bytes, int length ) throws IOException
+		{
+			int offset = 0;
+			while ( offset < length ) {
+				int count = Math.min( length - offset, ensureRemaining( 1 ).remaining() );
+				buf.put( bytes, offset, count );
+				offset += count;
+			}
+		}
+
+		/**
+		 * Writes the checksum of all bytes written so far.
+		 */
+		public void putChecksum() throws IOException
+		{
+			flush();
+			buf.putLong( crc.getValue() );
+			buf.flip();
+			write();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try {
+				flush();
+			}
+			finally {
+				channel.close();
+			}
+		}
+
+		private ByteBuffer ensureRemaining( int bytes ) throws IOException
+		{
+			if ( buf.remaining() < bytes ) {
+				flush();
+			}
+			return buf;
+		}
+
+		private void flush() throws IOException
+		{
+			buf.flip();
+			crc.update( buf.array(), 0, buf.limit() );
+			write();
+		}
+
+		private void write() throws IOException
+		{
+			while ( buf.hasRemaining() ) {
+				position += channel.write( buf );
+			}
+			buf.clear();
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * Holds instances of a hierarchy in a column-oriented layout: a single array per feature,
+ * and dictionary-encoded node id and true class columns. Instances are exposed to the rest
+ * of the application as lightweight {@link StoredInstance} views.
+ *
+ * <p>
+ * Compared to {@link basic_hierarchy.implementation.BasicInstance}, this avoids a separate array
+ * (and its header) for every instance, and a reference to an id string for every instance.
+ * Instance names are kept as they are, since they are usually unique - and if no instance has a name,
+ * the column is not allocated at all.
+ * </p>
+ *
+ * <p>
+ * Rows can only be added, never removed. Adding rows is synchronized, reading them is not - views
+ * must not be handed out to other threads before they're returned by {@link #add(Instance)}.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class InstanceStore
+{
+	private static final int minCapacity = 16;
+
+	private final int featureCount;
+	private int size = 0;
+
+	/** Feature values, indexed [feature][row] */
+	private volatile double[][] features;
+	private volatile int[] nodeIndices;
+	private volatile int[] classIndices;
+	/** Instance names, or null if none of the instances has a name */
+	private volatile String[] names;
+
+	private final Dictionary nodeIds = new Dictionary();
+	private final Dictionary classes = new Dictionary();
+
+
+	/**
+	 * @param featureCount
+	 *            number of features of each instance
+	 * @param capacity
+	 *            number of instances the store is pre-sized for
+	 */
+	public InstanceStore( int featureCount, int capacity )
+	{
+		if ( featureCount < 0 || capacity < 0 ) {
+			throw new IllegalArgumentException( "Feature count and capacity must not be negative!" );
+		}
+
+		this.featureCount = featureCount;
+
+		double[][] columns = new double[featureCount][];
+		for ( int i = 0; i < featureCount; ++i ) {
+			columns[i] = new double[capacity];
+		}
+		this.features = columns;
+		this.nodeIndices = new int[capacity];
+		this.classIndices = new int[capacity];
+	}
+
+	/**
+	 * Moves all instances of the specified hierarchy into a new store, and replaces them in their groups
+	 * with views of the store. Instances keep their order within groups, and the store's rows are ordered
+	 * the same way as the hierarchy's groups.
+	 *
+	 * @param h
+	 *            the hierarchy whose instances are to be moved
+	 * @return the store holding the hierarchy's instances
+	 */
+	public static InstanceStore of( Hierarchy h )
+	{
+		int featureCount = 0;
+		for ( Node n : h.getGroups() ) {
+			if ( !n.getNodeInstances().isEmpty() ) {
+				featureCount = n.getNodeInstances().getFirst().getData().length;
+				break;
+			}
+		}
+
+		InstanceStore store = new InstanceStore( featureCount, h.getOverallNumberOfInstances() );
+		for ( Node n : h.getGroups() ) {
+			// Replaced one group at a time, so that the original instances can be collected as we go.
+			n.setInstances( store.addAll( n.getNodeInstances() ) );
+		}
+
+		return store;
+	}
+
+	/**
+	 * Copies the specified instance into the store.
+	 *
+	 * @param instance
+	 *            the instance to copy
+	 * @return view of the copied instance
+	 */
+	public synchronized StoredInstance add( Instance instance )
+	{
+		double[] data = instance.getData();
+		if ( data.length != featureCount ) {
+			throw new IllegalArgumentException(
+				String.format( "Instance has %s features, expected %s.", data.length, featureCount )
+			);
+		}
+
+		ensureCapacity( size + 1 );
+
+		int row = size;
+		double[][] columns = features;
+		for ( int i = 0; i < featureCount; ++i ) {
+			columns[i][row] = data[i];
+		}
+		nodeIndices[row] = nodeIds.indexOf( instance.getNodeId() );
+		classIndices[row] = classes.indexOf( instance.getTrueClass() );
+
+		String name = instance.getInstanceName();
+		if ( name != null ) {
+			if ( names == null ) {
+				names = new String[nodeIndices.length];
+			}
+			names[row] = name;
+		}
+
+		++size;
+		return new StoredInstance( this, row );
+	}
+
+	/**
+	 * Copies the specified instances into the store.
+	 *
+	 * @param instances
+	 *            the instances to copy
+	 * @return views of the copied instances, in the same order
+	 */
+	public synchronized LinkedList<Instance> addAll( List<? extends Instance> instances )
+	{
+		ensureCapacity( size + instances.size() );
+
+		LinkedList<Instance> result = new LinkedList<>();
+		for ( Instance instance : instances ) {
+			result.add( add( instance ) );
+		}
+		return result;
+	}
+
+	private void ensureCapacity( int capacity )
+	{
+		int current = nodeIndices.length;
+		if ( capacity <= current ) {
+			return;
+		}
+
+		int newCapacity = Math.max( Math.max( minCapacity, capacity ), current + ( current >> 1 ) );
+
+		double[][] columns = new double[featureCount][];
+		for ( int i = 0; i < featureCount; ++i ) {
+			columns[i] = Arrays.copyOf( features[i], newCapacity );
+		}
+		features = columns;
+
+		nodeIndices = Arrays.copyOf( nodeIndices, newCapacity );
+		classIndices = Arrays.copyOf( classIndices, newCapacity );
+		if ( names != null ) {
+			names = Arrays.copyOf( names, newCapacity );
+		}
+	}
+
+	/**
+	 * @return number of instances in the store
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	public int getFeatureCount()
+	{
+		return featureCount;
+	}
+
+	/**
+	 * @param feature
+	 *            index of the feature
+	 * @param row
+	 *            index of the instance
+	 * @return value of the feature of the specified instance
+	 */
+	public double get( int feature, int row )
+	{
+		return features[feature][row];
+	}
+
+	/**
+	 * Copies all feature values of the specified instance into the array.
+	 *
+	 * @param row
+	 *            index of the instance
+	 * @param dest
+	 *            array to copy values to, must be at least {@link #getFeatureCount()} long
+	 */
+	public void getRow( int row, double[] dest )
+	{
+		double[][] columns = features;
+		for ( int i = 0; i < featureCount; ++i ) {
+			dest[i] = columns[i][row];
+		}
+	}
+
+	public String getNodeId( int row )
+	{
+		return nodeIds.get( nodeIndices[row] );
+	}
+
+	public synchronized void setNodeId( int row, String nodeId )
+	{
+		nodeIndices[row] = nodeIds.indexOf( nodeId );
+	}
+
+	public String getTrueClass( int row )
+	{
+		return classes.get( classIndices[row] );
+	}
+
+	public String getInstanceName( int row )
+	{
+		String[] n = names;
+		return n == null ? null : n[row];
+	}
+
+
+	/**
+	 * Maps strings to consecutive indices, so that each distinct string is stored only once.
+	 * Null is mapped to -1.
+	 */
+	private static class Dictionary
+	{
+		private final Map<String, Integer> indices = new HashMap<>();
+		private volatile String[] values = new String[minCapacity];
+
+
+		public int indexOf( String value )
+		{
+			if ( value == null ) {
+				return -1;
+			}
+
+			Integer result = indices.get( value );
+			if ( result == null ) {
+				result = indices.size();
+				indices.put( value, result );
+
+				String[] v = values;
+				if ( result == v.length ) {
+					v = Arrays.copyOf( v, v.length * 2 );
+				}
+				v[result] = value;
+				// Written to the volatile field after the value, so that readers never need to synchronize.
+				values = v;
+			}
+			return result;
+		}
+
+		public String get( int index )
+		{
+			return index < 0 ? null : values[index];
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package pl.pwr.hiervis.hierarchy;
+
+import basic_hierarchy.interfaces.Instance;
+
+
+/**
+ * An {@link Instance} whose feature values are not held in memory, but read from a
+ * {@link FeatureColumnStore} when requested.
+ *
+ * <p>
+ * {@link #getData()} creates a new array on each call, and touches every feature column.
+ * Code that only needs some of the features should use {@link #getFeature(int)} instead,
+ * or {@link pl.pwr.hiervis.util.Utils#getFeature(Instance, int)} when dealing with arbitrary instances.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class LazyInstance implements Instance
+{
+	private final FeatureColumnStore store;
+	private final int index;
+	private final String instanceName;
+	private final String trueClass;
+	private String nodeId;
+
+
+	/**
+	 * @param store
+	 *            the store containing feature values of this instance
+	 * @param index
+	 *            index of this instance's row in the store
+	 * @param instanceName
+	 *            name of the instance, or null
+	 * @param nodeId
+	 *            id of the node this instance belongs to
+	 * @param trueClass
+	 *            true class of this instance, or null
+	 */
+	public LazyInstance( FeatureColumnStore store, int index, String instanceName, String nodeId, String trueClass )
+	{
+		this.store = store;
+		this.index = index;
+		this.instanceName = instanceName;
+		this.nodeId = nodeId;
+		this.trueClass = trueClass;
+	}
+
+	/**
+	 * @return index of this instance's row in the {@link FeatureColumnStore}
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+
+	public FeatureColumnStore getStore()
+	{
+		return store;
+	}
+
+	/**
+	 * @param feature
+	 *            index of the feature
+	 * @return value of the specified feature
+	 */
+	public double getFeature( int feature )
+	{
+		return store.get( feature, index );
+	}
+
+	@Override
+	public double[] getData()
+	{
+		double[] result = new double[store.getFeatureCount()];
+		store.getRow( index, result );
+		return result;
+	}
+
+	@Override
+	public String getInstanceName()
+	{
+		return instanceName;
+	}
+
+	@Override
+	public String getNodeId()
+	{
+		return nodeId;
+	}
+
+	@Override
+	public void setNodeId( String nodeId )
+	{
+		this.nodeId = nodeId;
+	}
+
+	@Override
+	public String getTrueClass()
+	{
+		return trueClass;
+	}
+}
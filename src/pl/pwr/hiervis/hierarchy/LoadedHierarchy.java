@@ -2,23 +2,38 @@ package pl.pwr.hiervis.hierarchy;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.lang3.tuple.Pair;
 
 import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.implementation.BasicHierarchy;
+import basic_hierarchy.implementation.BasicNode;
 import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
 import basic_hierarchy.interfaces.Node;
 import pl.pwr.hiervis.core.HVConfig;
 import pl.pwr.hiervis.core.HVConstants;
+import pl.pwr.hiervis.hierarchy.reader.CSVFileProfile;
 import pl.pwr.hiervis.measures.MeasureResultHolder;
 import pl.pwr.hiervis.prefuse.TableEx;
+import pl.pwr.hiervis.prefuse.visualization.TreeLayoutCache;
 import pl.pwr.hiervis.prefuse.visualization.TreeLayoutData;
 import pl.pwr.hiervis.util.HierarchyUtils;
+import pl.pwr.hiervis.util.LruCache;
 import prefuse.data.Tree;
 
 
@@ -35,13 +50,36 @@ public class LoadedHierarchy
 	public final LoadedHierarchy.Options options;
 	public final MeasureResultHolder measureHolder;
 
-	private final Hierarchy mainHierarchy;
-	private final Map<Pair<Node, Boolean>, Hierarchy> nodeHierarchyMap;
-	private final Map<Pair<Integer, Integer>, VisualizationState> visStateMap;
+	/** Maximum number of node hierarchies kept by {@link #getNodeHierarchy(Node, boolean)} */
+	private static final int nodeHierarchyCacheSize = 64;
+	/** Maximum number of visualization states kept by {@link #getVisualizationStateFor(Pair)} */
+	private static final int visStateCacheSize = 1024;
+
+	private Hierarchy mainHierarchy;
+	/** Groups of the main hierarchy by id, built on first use */
+	private volatile Map<String, Node> groupMap;
+	private final LruCache<Pair<Node, Boolean>, Hierarchy> nodeHierarchyMap;
+	private final LruCache<Pair<Integer, Integer>, VisualizationState> visStateMap;
+
+	private FeatureColumnStore featureStore;
+	private InstanceStore instanceStore;
+	private File sourceFile;
+	private long sourceLength;
+	private long sourceLineCount;
 
 	private Tree hierarchyTree;
+	private TreeNodeIndex treeNodeIndex;
+	private NodeRoleTracker nodeRoleTracker;
+	private NodeIntervals nodeIntervals;
 	private TreeLayoutData hierarchyTreeLayout;
+	private final TreeLayoutCache treeLayoutCache = new TreeLayoutCache();
 	private TableEx instanceTable;
+	private FeatureExtents featureExtents;
+	/** Background processing of the hierarchy, or null if it has not been started */
+	private CompletableFuture<Void> processing;
+	private boolean disposed = false;
+	/** Instance table rows, grouped by tree rows of the nodes the instances belong to. Built on first use. */
+	private int[][] instanceRowsByNode;
 
 	private transient int selectedRow = 0;
 
@@ -57,46 +95,181 @@ public class LoadedHierarchy
 		this.measureHolder = new MeasureResultHolder();
 
 		this.mainHierarchy = h;
-		this.nodeHierarchyMap = new HashMap<>();
-		this.visStateMap = new HashMap<>();
+		// Results of measures computed for evicted hierarchies can no longer be looked up, so drop them as well.
+		this.nodeHierarchyMap = new LruCache<>(
+			nodeHierarchyCacheSize,
+			( key, nodeHierarchy ) -> measureHolder.removeResults( nodeHierarchy )
+		);
+		// Evicted states are recreated with default values when needed again.
+		this.visStateMap = new LruCache<>( visStateCacheSize );
 	}
 
 	/**
 	 * Processes the specified hierarchy, building hierarchy tree and creating instance table
-	 * used in visualizations.
+	 * used in visualizations. If the hierarchy is already being processed in the background
+	 * (see {@link #startProcessing(HVConfig, Executor)}), waits for that to finish instead.
 	 * 
-	 * @param hierarchy
-	 *            the hierarchy to process
+	 * @param config
+	 *            the application config
 	 */
 	public void processHierarchy( HVConfig config )
 	{
-		// TODO:
-		// Might want to use some kind of algorithm to figure out optimal tree layout area?
-		// 1024x1024 seems to work well enough for now.
-		Pair<Tree, TreeLayoutData> treeData = HierarchyProcessor.buildHierarchyTree(
-			mainHierarchy.getRoot(), 2048, 2048
-		);
+		processHierarchy( config, ForkJoinPool.commonPool() );
+	}
+
+	/**
+	 * Same as {@link #processHierarchy(HVConfig)}, except this method allows to specify the executor
+	 * to run processing stages on, if the hierarchy is not being processed yet.
+	 * 
+	 * @param config
+	 *            the application config
+	 * @param executor
+	 *            the executor to run processing stages on
+	 */
+	public void processHierarchy( HVConfig config, Executor executor )
+	{
+		try {
+			startProcessing( config, executor ).join();
+		}
+		catch ( CompletionException e ) {
+			if ( e.getCause() instanceof RuntimeException )
+				throw (RuntimeException)e.getCause();
+			if ( e.getCause() instanceof Error )
+				throw (Error)e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Starts processing the hierarchy in the background, unless it is already being processed, or has been
+	 * processed successfully. Independent stages - the hierarchy tree (followed by the instance table, which
+	 * refers to tree rows), and feature extents - are run concurrently on the specified executor.
+	 * 
+	 * <p>
+	 * Results are only published once all stages have finished, so {@link #isProcessed()} never sees
+	 * a partially processed hierarchy.
+	 * </p>
+	 * 
+	 * @param config
+	 *            the application config
+	 * @param executor
+	 *            the executor to run processing stages on
+	 * @return future completed once the hierarchy has been processed
+	 */
+	public synchronized CompletableFuture<Void> startProcessing( HVConfig config, Executor executor )
+	{
+		if ( processing == null || processing.isCompletedExceptionally() ) {
+			final Hierarchy h = mainHierarchy;
+
+			CompletableFuture<Pair<Tree, TreeLayoutData>> treeStage = CompletableFuture.supplyAsync(
+				() -> HierarchyProcessor.buildHierarchyTree( h.getRoot() ),
+				executor
+			);
+			CompletableFuture<TreeNodeIndex> indexStage = treeStage.thenApply( t -> new TreeNodeIndex( t.getLeft() ) );
+			CompletableFuture<NodeIntervals> intervalsStage = treeStage.thenApplyAsync( t -> NodeIntervals.of( t.getLeft() ), executor );
+			CompletableFuture<TableEx> tableStage = indexStage.thenApplyAsync(
+				index -> HierarchyProcessor.createInstanceTable( config, this, index ),
+				executor
+			);
+			CompletableFuture<FeatureExtents> extentsStage = CompletableFuture.supplyAsync( () -> FeatureExtents.of( h ), executor );
+
+			processing = CompletableFuture.allOf( indexStage, intervalsStage, tableStage, extentsStage ).thenRun(
+				() -> publishProcessedData(
+					treeStage.join(), indexStage.join(), intervalsStage.join(), tableStage.join(), extentsStage.join()
+				)
+			);
+		}
+
+		return processing;
+	}
+
+	private synchronized void publishProcessedData(
+		Pair<Tree, TreeLayoutData> treeData, TreeNodeIndex index, NodeIntervals intervals,
+		TableEx table, FeatureExtents extents )
+	{
+		if ( disposed ) {
+			// Tab was closed while the hierarchy was being processed.
+			return;
+		}
+
 		hierarchyTree = treeData.getLeft();
 		hierarchyTreeLayout = treeData.getRight();
-
-		instanceTable = HierarchyProcessor.createInstanceTable(
-			config, this, hierarchyTree
-		);
+		treeNodeIndex = index;
+		nodeRoleTracker = new NodeRoleTracker( hierarchyTree, intervals );
+		nodeIntervals = intervals;
+		instanceTable = table;
+		featureExtents = extents;
 	}
 
 	/**
 	 * @return true if the hierarchy has been processed, and is ready to be visualized.
 	 */
-	public boolean isProcessed()
+	public synchronized boolean isProcessed()
 	{
 		return hierarchyTree != null && hierarchyTreeLayout != null && instanceTable != null;
 	}
 
+	/**
+	 * Blocks until background processing of the hierarchy finishes, if it is in progress.
+	 * Failures are left for whoever requested the processing to report.
+	 */
+	private void awaitProcessing()
+	{
+		CompletableFuture<Void> f;
+		synchronized ( this ) {
+			f = processing;
+		}
+
+		if ( f != null ) {
+			try {
+				f.join();
+			}
+			catch ( CompletionException | CancellationException e ) {
+				// Ignore.
+			}
+		}
+	}
+
 	public Hierarchy getMainHierarchy()
 	{
 		return mainHierarchy;
 	}
 
+	/**
+	 * @param nodeId
+	 *            id of the group
+	 * @return the group of the main hierarchy with the specified id, or null if not found.
+	 */
+	public Node getGroup( String nodeId )
+	{
+		return getGroupMap().get( nodeId );
+	}
+
+	private Map<String, Node> getGroupMap()
+	{
+		Map<String, Node> result = groupMap;
+		if ( result == null ) {
+			result = new HashMap<>();
+			for ( Node n : mainHierarchy.getGroups() ) {
+				result.put( n.getId(), n );
+			}
+			groupMap = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a read-only hierarchy consisting of the specified group, and optionally its subtree.
+	 * The returned hierarchy is a {@link NodeHierarchyView view} sharing groups and instances with
+	 * the main hierarchy. Recently used views are cached, so that measure results computed for them
+	 * can be found again.
+	 * 
+	 * @param n
+	 *            the group to create the hierarchy for
+	 * @param withSubtree
+	 *            whether to include descendants of the group
+	 * @return the node hierarchy
+	 */
 	public Hierarchy getNodeHierarchy( Node n, boolean withSubtree )
 	{
 		if ( n == null ) {
@@ -105,19 +278,280 @@ public class LoadedHierarchy
 
 		Pair<Node, Boolean> pair = Pair.of( n, withSubtree );
 
-		if ( !nodeHierarchyMap.containsKey( pair ) ) {
-			if ( !HierarchyUtils.contains( mainHierarchy, n ) ) {
-				throw new IllegalArgumentException( "Node does not belong to the hierarchy!" );
+		synchronized ( nodeHierarchyMap ) {
+			Hierarchy result = nodeHierarchyMap.get( pair );
+			if ( result == null ) {
+				if ( getGroup( n.getId() ) != n ) {
+					throw new IllegalArgumentException( "Node does not belong to the hierarchy!" );
+				}
+				result = createNodeHierarchy( n, withSubtree );
+				nodeHierarchyMap.put( pair, result );
 			}
-			Hierarchy h = HierarchyUtils.wrapNode( mainHierarchy, n, withSubtree );
-			nodeHierarchyMap.put( pair, h );
-			return h;
+			return result;
 		}
-		else {
-			return nodeHierarchyMap.get( pair );
+	}
+
+	private Hierarchy createNodeHierarchy( Node n, boolean withSubtree )
+	{
+		return new NodeHierarchyView( n, mainHierarchy.getDataNames(), withSubtree, options.isUseSubtree );
+	}
+
+	/**
+	 * @return the store from which feature values of this hierarchy's instances are loaded on demand,
+	 *         or null if all feature values are held in memory.
+	 */
+	public FeatureColumnStore getFeatureStore()
+	{
+		return featureStore;
+	}
+
+	/**
+	 * @param store
+	 *            the store from which feature values of this hierarchy's instances are loaded on demand.
+	 *            The store is closed when this hierarchy is disposed.
+	 */
+	public void setFeatureStore( FeatureColumnStore store )
+	{
+		featureStore = store;
+	}
+
+	/**
+	 * @return the store holding this hierarchy's instances, or null if they are held as separate objects
+	 * @see #compactInstances()
+	 */
+	public InstanceStore getInstanceStore()
+	{
+		return instanceStore;
+	}
+
+	/**
+	 * Moves all instances of the main hierarchy into a column-oriented {@link InstanceStore}, replacing them
+	 * in their groups with {@link StoredInstance} views. Does nothing if the instances have already been moved,
+	 * or if their features are loaded on demand from a {@link FeatureColumnStore}.
+	 * Must be called before the hierarchy is processed, or any node hierarchies are created.
+	 * 
+	 * <p>
+	 * This saves memory at the cost of speed: each {@link StoredInstance#getData()} call gathers the instance's
+	 * features into a new array, which measures comparing pairs of instances do for every pair.
+	 * </p>
+	 */
+	public void compactInstances()
+	{
+		if ( instanceStore == null && featureStore == null ) {
+			instanceStore = InstanceStore.of( mainHierarchy );
 		}
 	}
 
+	/**
+	 * @return the CSV file this hierarchy was loaded from, or null if it was not loaded from a CSV file.
+	 */
+	public File getSourceFile()
+	{
+		return sourceFile;
+	}
+
+	/**
+	 * @return number of bytes of the {@link #getSourceFile() source file} whose rows are included in this hierarchy,
+	 *         or -1 if it has not been determined yet - in that case, the rows are the first
+	 *         {@link #getSourceLineCount()} lines of the file.
+	 */
+	public long getSourceLength()
+	{
+		return sourceLength;
+	}
+
+	/**
+	 * @return number of lines of the {@link #getSourceFile() source file} (including the column header, if any)
+	 *         that were loaded into this hierarchy, not counting rows appended to it afterwards
+	 */
+	public long getSourceLineCount()
+	{
+		return sourceLineCount;
+	}
+
+	/**
+	 * @param file
+	 *            the CSV file this hierarchy was loaded from
+	 * @param lineCount
+	 *            number of lines of the file (including the column header, if any) that were loaded.
+	 *            The number of bytes they span is left to be determined when it is needed.
+	 */
+	public void setSource( File file, long lineCount )
+	{
+		sourceFile = file;
+		sourceLineCount = lineCount;
+		sourceLength = -1;
+	}
+
+	/**
+	 * @param length
+	 *            number of bytes of the {@link #getSourceFile() source file} whose rows are included in this hierarchy
+	 */
+	public void setSourceLength( long length )
+	{
+		sourceLength = length;
+	}
+
+	/**
+	 * Appends the specified instances to this hierarchy, creating the groups they belong to (along with
+	 * any missing ancestors) if they do not exist yet.
+	 * 
+	 * <p>
+	 * Since {@link Hierarchy} objects are immutable in their group list and instance counts, the main hierarchy
+	 * is replaced with a new object sharing the same nodes. Centroids are recalculated only for the affected groups.
+	 * If this hierarchy has already been processed, new groups and instances are added to the existing
+	 * {@link #getTree() tree} and {@link #getInstanceTable() instance table}, instead of rebuilding them.
+	 * Cached node hierarchies containing any of the affected groups are recreated, and measure results
+	 * computed for them (and for the main hierarchy) are marked as stale in {@link #measureHolder}.
+	 * </p>
+	 * 
+	 * <p>
+	 * This method must be called on the thread that owns this hierarchy (ie. the event dispatch thread).
+	 * Measures might be computed for this hierarchy on other threads at the same time, so instance and child
+	 * lists of groups are never modified in place: they're replaced with modified copies instead.
+	 * </p>
+	 * 
+	 * @param instances
+	 *            the instances to append
+	 * @return true if new groups were created, false if the instances were only added to existing groups
+	 * @throws UnsupportedOperationException
+	 *             if feature values of this hierarchy are loaded on demand from a {@link FeatureColumnStore}
+	 * @throws IllegalArgumentException
+	 *             if an instance has a node id that could not be attached to the hierarchy
+	 */
+	public boolean appendInstances( List<? extends Instance> instances )
+	{
+		if ( featureStore != null ) {
+			throw new UnsupportedOperationException( "Cannot append instances to a hierarchy whose features are loaded on demand." );
+		}
+		if ( instances.isEmpty() ) {
+			return false;
+		}
+
+		// The tree and the instance table must not be modified while they are being built
+		awaitProcessing();
+
+		if ( instanceStore != null ) {
+			instances = instanceStore.addAll( instances );
+		}
+
+		Map<String, Node> nodeMap = new HashMap<>( getGroupMap() );
+		List<Node> groups = new ArrayList<>( Arrays.asList( mainHierarchy.getGroups() ) );
+
+		List<Node> createdNodes = new ArrayList<>();
+		Map<Node, LinkedList<Instance>> instanceLists = new LinkedHashMap<>();
+		Map<String, Integer> classCounts = HierarchyUtils.getClassCountMap( mainHierarchy );
+
+		for ( Instance instance : instances ) {
+			Node node = getOrCreateNode( instance.getNodeId(), nodeMap, groups, createdNodes );
+			instanceLists.computeIfAbsent( node, n -> new LinkedList<>( n.getNodeInstances() ) ).add( instance );
+
+			if ( instance.getTrueClass() != null ) {
+				classCounts.merge( instance.getTrueClass(), 1, Integer::sum );
+			}
+		}
+
+		// Measures might still be computed for this hierarchy in the background, iterating over the old lists.
+		// Swap in the complete copies, instead of adding instances to the lists being iterated.
+		instanceLists.forEach( Node::setInstances );
+		Set<Node> modifiedNodes = instanceLists.keySet();
+
+		// Groups whose own instances have changed, and groups whose subtree has changed.
+		Set<Node> changedNodes = new HashSet<>( modifiedNodes );
+		changedNodes.addAll( createdNodes );
+		Set<Node> subtreeChangedNodes = new HashSet<>();
+		for ( Node n : changedNodes ) {
+			addWithAncestors( subtreeChangedNodes, n );
+		}
+
+		for ( Node n : options.isUseSubtree ? subtreeChangedNodes : changedNodes ) {
+			( (BasicNode)n ).recalculateCentroid( options.isUseSubtree );
+		}
+
+		Hierarchy oldHierarchy = mainHierarchy;
+		mainHierarchy = new BasicHierarchy(
+			oldHierarchy.getRoot(), groups, oldHierarchy.getDataNames(), classCounts,
+			oldHierarchy.getOverallNumberOfInstances() + instances.size()
+		);
+		groupMap = nodeMap;
+		measureHolder.markStale( oldHierarchy, mainHierarchy );
+
+		synchronized ( nodeHierarchyMap ) {
+			for ( Map.Entry<Pair<Node, Boolean>, Hierarchy> entry : nodeHierarchyMap.snapshot().entrySet() ) {
+				Node n = entry.getKey().getLeft();
+				boolean withSubtree = entry.getKey().getRight();
+
+				// Views see the new instances already, but measures have to treat them as a different hierarchy.
+				// Structure of a subtree view only changes when groups are created, which changes the subtree, too.
+				if ( withSubtree ? subtreeChangedNodes.contains( n ) : modifiedNodes.contains( n ) ) {
+					Hierarchy replacement = createNodeHierarchy( n, withSubtree );
+					measureHolder.markStale( entry.getValue(), replacement );
+					nodeHierarchyMap.put( entry.getKey(), replacement );
+				}
+			}
+		}
+
+		if ( isProcessed() ) {
+			if ( !createdNodes.isEmpty() ) {
+				// Parents are always created before their children, so they're guaranteed to be in the tree already.
+				for ( Node n : createdNodes ) {
+					prefuse.data.Node parent = treeNodeIndex.getNode( n.getParent().getId() );
+					treeNodeIndex.add( HierarchyProcessor.addTreeNode( hierarchyTree, parent, n ) );
+				}
+
+				nodeIntervals = NodeIntervals.of( hierarchyTree );
+				nodeRoleTracker.setNodeIntervals( nodeIntervals );
+				hierarchyTreeLayout = HierarchyProcessor.createTreeLayoutData( hierarchyTree, nodeIntervals );
+			}
+
+			HierarchyProcessor.appendInstanceData( this, instances, treeNodeIndex, instanceTable );
+			featureExtents.include( instances );
+			instanceRowsByNode = null;
+		}
+
+		return !createdNodes.isEmpty();
+	}
+
+	private static void addWithAncestors( Set<Node> dest, Node node )
+	{
+		// Once we reach a node that's already in the set, its ancestors are in the set, too.
+		Node current = node;
+		while ( current != null && dest.add( current ) ) {
+			current = current.getParent();
+		}
+	}
+
+	/**
+	 * Finds the group with the specified id, creating it (and its missing ancestors) if it does not exist.
+	 */
+	private Node getOrCreateNode( String nodeId, Map<String, Node> nodeMap, List<Node> groups, List<Node> createdNodes )
+	{
+		Node result = nodeMap.get( nodeId );
+		if ( result != null ) {
+			return result;
+		}
+
+		int separator = nodeId.lastIndexOf( '.' );
+		if ( separator < 0 || nodeId.indexOf( '.' ) == separator ) {
+			// Root-level ids cannot be attached anywhere.
+			throw new IllegalArgumentException( "Cannot attach node '" + nodeId + "' to the hierarchy." );
+		}
+
+		Node parent = getOrCreateNode( nodeId.substring( 0, separator ), nodeMap, groups, createdNodes );
+
+		BasicNode node = new BasicNode( nodeId, parent, options.isUseSubtree );
+		// Copy the children list, since it might be iterated by measures being computed in the background
+		LinkedList<Node> children = new LinkedList<>( parent.getChildren() );
+		children.add( node );
+		parent.setChildren( children );
+
+		nodeMap.put( nodeId, node );
+		groups.add( node );
+		createdNodes.add( node );
+
+		return node;
+	}
+
 	public boolean isOwnerOf( Hierarchy h )
 	{
 		if ( h == null ) {
@@ -128,7 +562,9 @@ public class LoadedHierarchy
 			return true;
 		}
 		else {
-			return nodeHierarchyMap.containsValue( h );
+			synchronized ( nodeHierarchyMap ) {
+				return nodeHierarchyMap.containsValue( h );
+			}
 		}
 	}
 
@@ -145,12 +581,12 @@ public class LoadedHierarchy
 			key = Pair.of( y, x );
 		}
 
-		if ( visStateMap.containsKey( key ) ) {
-			return visStateMap.get( key );
-		}
-		else {
-			VisualizationState result = new VisualizationState();
-			visStateMap.put( key, result );
+		synchronized ( visStateMap ) {
+			VisualizationState result = visStateMap.get( key );
+			if ( result == null ) {
+				result = new VisualizationState();
+				visStateMap.put( key, result );
+			}
 			return result;
 		}
 	}
@@ -164,6 +600,73 @@ public class LoadedHierarchy
 		return hierarchyTree;
 	}
 
+	/**
+	 * @return index of nodes of the {@link #getTree() hierarchy tree} by group id
+	 */
+	public TreeNodeIndex getTreeNodeIndex()
+	{
+		return treeNodeIndex;
+	}
+
+	/**
+	 * @return tracker of roles of nodes in the {@link #getTree() hierarchy tree}
+	 */
+	public NodeRoleTracker getNodeRoleTracker()
+	{
+		return nodeRoleTracker;
+	}
+
+	/**
+	 * @return pre-order intervals of nodes of the {@link #getTree() hierarchy tree}, indexed by tree rows
+	 */
+	public NodeIntervals getNodeIntervals()
+	{
+		return nodeIntervals;
+	}
+
+	/**
+	 * @param treeRow
+	 *            row of a node in the {@link #getTree() hierarchy tree}
+	 * @return rows of the {@link #getInstanceTable() instance table} holding instances that belong to the node.
+	 *         Must not be modified.
+	 */
+	public int[] getInstanceRows( int treeRow )
+	{
+		if ( instanceRowsByNode == null ) {
+			instanceRowsByNode = groupInstanceRows();
+		}
+		return treeRow < instanceRowsByNode.length ? instanceRowsByNode[treeRow] : new int[0];
+	}
+
+	private int[][] groupInstanceRows()
+	{
+		int nodeCol = instanceTable.getColumnNumber( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME );
+		int rowCount = instanceTable.getRowCount();
+		int[] treeRows = new int[rowCount];
+		int[] counts = new int[hierarchyTree.getNodeTable().getMaximumRow() + 1];
+
+		for ( int row = 0; row < rowCount; ++row ) {
+			treeRows[row] = instanceTable.getInt( row, nodeCol );
+			if ( treeRows[row] >= 0 ) {
+				++counts[treeRows[row]];
+			}
+		}
+
+		int[][] result = new int[counts.length][];
+		for ( int i = 0; i < counts.length; ++i ) {
+			result[i] = new int[counts[i]];
+			counts[i] = 0;
+		}
+		for ( int row = 0; row < rowCount; ++row ) {
+			int treeRow = treeRows[row];
+			if ( treeRow >= 0 ) {
+				result[treeRow][counts[treeRow]++] = row;
+			}
+		}
+
+		return result;
+	}
+
 	/**
 	 * @return helper layout data for drawing the tree.
 	 */
@@ -172,6 +675,22 @@ public class LoadedHierarchy
 		return hierarchyTreeLayout;
 	}
 
+	/**
+	 * @return positions of nodes of the {@link #getTree() hierarchy tree}, as computed by the last layout
+	 */
+	public TreeLayoutCache getTreeLayoutCache()
+	{
+		return treeLayoutCache;
+	}
+
+	/**
+	 * @return smallest and largest values of features of the hierarchy's instances
+	 */
+	public FeatureExtents getFeatureExtents()
+	{
+		return featureExtents;
+	}
+
 	/**
 	 * @return table containing processed instance data
 	 */
@@ -199,25 +718,50 @@ public class LoadedHierarchy
 		return selectedRow;
 	}
 
-	public void dispose()
+	public synchronized void dispose()
 	{
+		disposed = true;
+
 		measureHolder.clear();
 
-		nodeHierarchyMap.clear();
-		visStateMap.clear();
+		synchronized ( nodeHierarchyMap ) {
+			nodeHierarchyMap.clear();
+		}
+		synchronized ( visStateMap ) {
+			visStateMap.clear();
+		}
 
-		hierarchyTree.dispose();
-		hierarchyTree.removeAllSets();
-		hierarchyTree.clear();
-		hierarchyTree = null;
+		if ( hierarchyTree != null ) {
+			hierarchyTree.dispose();
+			hierarchyTree.removeAllSets();
+			hierarchyTree.clear();
+			hierarchyTree = null;
+		}
+		treeNodeIndex = null;
+		nodeRoleTracker = null;
+		nodeIntervals = null;
+		featureExtents = null;
 
 		hierarchyTreeLayout = null;
+		treeLayoutCache.clear();
+		groupMap = null;
 
 		if ( instanceTable != null ) {
 			instanceTable.removeAllTableListeners();
 			instanceTable.clear();
 			instanceTable.dispose();
 			instanceTable = null;
+			instanceRowsByNode = null;
+		}
+
+		if ( featureStore != null ) {
+			try {
+				featureStore.close();
+			}
+			catch ( IOException e ) {
+				// Nothing sensible to do here, the store is read-only.
+			}
+			featureStore = null;
 		}
 	}
 
@@ -267,6 +811,7 @@ public class LoadedHierarchy
 
 		/**
 		 * Attempts to detect the appropriate loading options for the specified hierarchy file.
+		 * Rows are sampled from the whole file, see {@link CSVFileProfile}.
 		 * 
 		 * @param file
 		 *            a hierarchy file in CSV format.
@@ -275,36 +820,7 @@ public class LoadedHierarchy
 		 */
 		public static Options detect( File file ) throws IOException
 		{
-			Path path = file.toPath();
-			Object[] lines = Files.lines( path, StandardCharsets.UTF_8 ).limit( 2 ).toArray();
-
-			String firstLine = (String)lines[0];
-			String secondLine = (String)lines[1];
-			String[] columns = firstLine.split( HVConstants.CSV_FILE_SEPARATOR );
-
-			boolean withHeader = !columns[0].startsWith( "gen." );
-
-			if ( withHeader ) {
-				columns = secondLine.split( HVConstants.CSV_FILE_SEPARATOR );
-			}
-
-			boolean withTrueClass = columns[1].startsWith( "gen." );
-
-			boolean withInstanceName = false;
-			try {
-				Double.valueOf( withTrueClass ? columns[2] : columns[1] );
-				// Successfully parsed, meaning that this column contains feature value = no instance name
-				withInstanceName = false;
-			}
-			catch ( NumberFormatException e ) {
-				// Failed to parse, meaning that this column contains some non-digit chars = likely instance name
-				withInstanceName = true;
-			}
-
-			return new Options(
-				withInstanceName, withTrueClass, withHeader,
-				DEFAULT.isFillBreadthGaps, DEFAULT.isUseSubtree
-			);
+			return CSVFileProfile.sample( file ).toOptions();
 		}
 
 		@Override
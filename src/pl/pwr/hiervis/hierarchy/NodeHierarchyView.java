@@ -0,0 +1,362 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import basic_hierarchy.common.StringIdComparator;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import pl.pwr.hiervis.util.Utils;
+
+
+/**
+ * A read-only {@link Hierarchy} consisting of a single group of another hierarchy, and optionally its subtree.
+ * The view shares groups and instances with the source hierarchy instead of copying them, so it is cheap to
+ * create regardless of the number of instances. Changes to the source's groups are visible through the view,
+ * except for class counts, which are computed once on first use.
+ *
+ * <p>
+ * The root of the view is a wrapper around the wrapped group, which has no parent, and - if the subtree
+ * is not included - no children. Other groups are the source's own objects, so the root's children still
+ * report the wrapped group, and not the wrapper, as their parent.
+ * </p>
+ *
+ * <p>
+ * Methods modifying the hierarchy's structure throw {@link UnsupportedOperationException}.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class NodeHierarchyView implements Hierarchy
+{
+	private final Node source;
+	private final boolean withSubtree;
+	private final Node root;
+	private final Node[] groups;
+	private final String[] dataNames;
+	private final int overallNumberOfInstances;
+
+	private String[] classes;
+	private int[] classCounts;
+
+
+	/**
+	 * @param node
+	 *            the group to create the view for
+	 * @param dataNames
+	 *            names of features of the source hierarchy, can be null
+	 * @param withSubtree
+	 *            whether to include descendants of the specified group
+	 * @param subtreeCentroids
+	 *            whether centroids of the source hierarchy's groups include instances of their descendants.
+	 *            If true and the subtree is not included, the view computes the root's centroid from its own
+	 *            instances instead.
+	 */
+	public NodeHierarchyView( Node node, String[] dataNames, boolean withSubtree, boolean subtreeCentroids )
+	{
+		if ( node == null ) {
+			throw new IllegalArgumentException( "Node must not be null!" );
+		}
+
+		this.source = node;
+		this.withSubtree = withSubtree;
+		this.root = new RootNode( node, withSubtree, subtreeCentroids && !withSubtree );
+		this.dataNames = dataNames;
+
+		if ( withSubtree ) {
+			// Breadth-first, to preserve the order of groups of the source hierarchy
+			List<Node> subtree = new ArrayList<>();
+			subtree.add( node );
+			for ( int i = 0; i < subtree.size(); ++i ) {
+				subtree.addAll( subtree.get( i ).getChildren() );
+			}
+			groups = subtree.toArray( new Node[subtree.size()] );
+		}
+		else {
+			groups = new Node[1];
+		}
+		groups[0] = root;
+
+		int instanceCount = 0;
+		for ( Node n : groups ) {
+			instanceCount += n.getNodeInstances().size();
+		}
+		overallNumberOfInstances = instanceCount;
+	}
+
+	/**
+	 * @return the group this view was created for
+	 */
+	public Node getSourceNode()
+	{
+		return source;
+	}
+
+	/**
+	 * @return whether the view includes descendants of the group it was created for
+	 */
+	public boolean isWithSubtree()
+	{
+		return withSubtree;
+	}
+
+	@Override
+	public Node getRoot()
+	{
+		return root;
+	}
+
+	@Override
+	public Node[] getGroups()
+	{
+		return groups;
+	}
+
+	@Override
+	public int getNumberOfGroups()
+	{
+		return groups.length;
+	}
+
+	@Override
+	public String[] getClasses()
+	{
+		ensureClassCounts();
+		return classes;
+	}
+
+	@Override
+	public int getNumberOfClasses()
+	{
+		return getClasses().length;
+	}
+
+	@Override
+	public int getOverallNumberOfInstances()
+	{
+		return overallNumberOfInstances;
+	}
+
+	@Override
+	public int[] getClassesCount()
+	{
+		ensureClassCounts();
+		return classCounts;
+	}
+
+	@Override
+	public int getParticularClassCount( String className, boolean withSubClasses )
+	{
+		ensureClassCounts();
+
+		int index = Arrays.binarySearch( classes, className, new StringIdComparator() );
+		if ( index < 0 ) {
+			return index;
+		}
+		if ( !withSubClasses ) {
+			return classCounts[index];
+		}
+
+		// Classes are sorted by id, so subclasses follow their parent class
+		String prefix = className + ".";
+		int result = classCounts[index];
+		for ( int i = index; i < classCounts.length; ++i ) {
+			if ( className.length() < classes[i].length() && classes[i].startsWith( prefix ) ) {
+				result += classCounts[i];
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Hierarchy getFlatClusteringWithCommonEmptyRoot()
+	{
+		throw new UnsupportedOperationException( "Node hierarchy views cannot be flattened." );
+	}
+
+	@Override
+	public void printTree()
+	{
+		root.printSubtree();
+	}
+
+	@Override
+	public String[] getDataNames()
+	{
+		return dataNames == null ? null : Arrays.copyOf( dataNames, dataNames.length );
+	}
+
+	private synchronized void ensureClassCounts()
+	{
+		if ( classes != null ) {
+			return;
+		}
+
+		Map<String, Integer> counts = new HashMap<>();
+		for ( Node n : groups ) {
+			for ( Instance instance : n.getNodeInstances() ) {
+				if ( instance.getTrueClass() != null ) {
+					counts.merge( instance.getTrueClass(), 1, Integer::sum );
+				}
+			}
+		}
+
+		String[] resultClasses = counts.keySet().toArray( new String[counts.size()] );
+		Arrays.sort( resultClasses, new StringIdComparator() );
+		int[] resultCounts = new int[resultClasses.length];
+		for ( int i = 0; i < resultClasses.length; ++i ) {
+			resultCounts[i] = counts.get( resultClasses[i] );
+		}
+
+		classCounts = resultCounts;
+		classes = resultClasses;
+	}
+
+
+	/**
+	 * Read-only wrapper serving as the root of the view.
+	 */
+	private static class RootNode implements Node
+	{
+		private final Node node;
+		private final boolean withSubtree;
+		private final boolean ownCentroid;
+
+		private Instance representation;
+
+
+		public RootNode( Node node, boolean withSubtree, boolean ownCentroid )
+		{
+			this.node = node;
+			this.withSubtree = withSubtree;
+			this.ownCentroid = ownCentroid;
+		}
+
+		@Override
+		public String getId()
+		{
+			return node.getId();
+		}
+
+		@Override
+		public Node getParent()
+		{
+			return null;
+		}
+
+		@Override
+		public String getParentId()
+		{
+			return null;
+		}
+
+		@Override
+		public LinkedList<Node> getChildren()
+		{
+			return withSubtree ? node.getChildren() : new LinkedList<>();
+		}
+
+		@Override
+		public LinkedList<Instance> getNodeInstances()
+		{
+			return node.getNodeInstances();
+		}
+
+		@Override
+		public LinkedList<Instance> getSubtreeInstances()
+		{
+			return withSubtree ? node.getSubtreeInstances() : new LinkedList<>( node.getNodeInstances() );
+		}
+
+		@Override
+		public synchronized Instance getNodeRepresentation()
+		{
+			if ( !ownCentroid ) {
+				return node.getNodeRepresentation();
+			}
+			if ( representation == null ) {
+				representation = computeCentroid( node.getNodeInstances() );
+			}
+			return representation;
+		}
+
+		@Override
+		public void printSubtree()
+		{
+			if ( withSubtree ) {
+				node.printSubtree();
+			}
+			else {
+				System.out.println( node.getId() );
+			}
+		}
+
+		@Override
+		public void setParent( Node parent )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setChildren( LinkedList<Node> children )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addChild( Node child )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addInstance( Instance instance )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setInstances( LinkedList<Instance> instances )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setRepresentation( Instance representation )
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toString()
+		{
+			return node.toString();
+		}
+
+		private static Instance computeCentroid( List<Instance> instances )
+		{
+			if ( instances.isEmpty() ) {
+				return null;
+			}
+
+			double[] centroid = new double[instances.get( 0 ).getData().length];
+			for ( Instance instance : instances ) {
+				for ( int i = 0; i < centroid.length; ++i ) {
+					centroid[i] += Utils.getFeature( instance, i );
+				}
+			}
+			for ( int i = 0; i < centroid.length; ++i ) {
+				centroid[i] /= instances.size();
+			}
+
+			return new BasicInstance( "centroid", "centroid", centroid, "centroid" );
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Node;
+import prefuse.data.Tree;
+
+
+/**
+ * Pre-order enter/exit indices and depths of nodes of a tree, computed once, so that ancestor/descendant
+ * relationships between nodes can be determined with a couple of integer comparisons, and subtrees enumerated
+ * as contiguous ranges of the pre-order, instead of walking the tree or comparing node ids.
+ *
+ * <p>
+ * Nodes are identified by integer indices, which depend on how the intervals were created: rows of
+ * a hierarchy {@link Tree} (see {@link #of(Tree)}), or positions in a {@link Hierarchy}'s group array
+ * (see {@link #of(Hierarchy)}).
+ * </p>
+ *
+ * <p>
+ * Node {@code a} is a descendant of node {@code b} if {@code enter(b) < enter(a) <= exit(b)}.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class NodeIntervals
+{
+	private final int[] parents;
+	private final int[] enter;
+	private final int[] exit;
+	private final int[] depth;
+	/** Indices of nodes, in pre-order */
+	private final int[] order;
+
+
+	/**
+	 * @param parents
+	 *            array holding index of each node's parent, or -1 for root nodes
+	 */
+	private NodeIntervals( int[] parents )
+	{
+		int count = parents.length;
+		this.parents = parents;
+		this.enter = new int[count];
+		this.exit = new int[count];
+		this.depth = new int[count];
+		this.order = new int[count];
+
+		// Children of each node, laid out contiguously: children of node i are at [childStart[i], childStart[i + 1])
+		int[] childStart = new int[count + 1];
+		for ( int parent : parents ) {
+			if ( parent >= 0 ) {
+				++childStart[parent + 1];
+			}
+		}
+		for ( int i = 0; i < count; ++i ) {
+			childStart[i + 1] += childStart[i];
+		}
+		int[] children = new int[childStart[count]];
+		int[] fill = new int[count];
+		for ( int i = 0; i < count; ++i ) {
+			int parent = parents[i];
+			if ( parent >= 0 ) {
+				children[childStart[parent] + fill[parent]++] = i;
+			}
+		}
+
+		// Iterative pre-order traversal, so that deep trees don't overflow the call stack
+		int[] stack = new int[count];
+		int[] nextChild = new int[count];
+		int counter = 0;
+
+		for ( int root = 0; root < count; ++root ) {
+			if ( parents[root] >= 0 ) {
+				continue;
+			}
+
+			int top = 0;
+			stack[0] = root;
+			order[counter] = root;
+			enter[root] = counter++;
+			depth[root] = 0;
+			nextChild[root] = childStart[root];
+
+			while ( top >= 0 ) {
+				int current = stack[top];
+				if ( nextChild[current] < childStart[current + 1] ) {
+					int child = children[nextChild[current]++];
+					order[counter] = child;
+					enter[child] = counter++;
+					depth[child] = depth[current] + 1;
+					nextChild[child] = childStart[child];
+					stack[++top] = child;
+				}
+				else {
+					exit[current] = counter - 1;
+					--top;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param tree
+	 *            the tree to compute intervals for
+	 * @return intervals of nodes of the specified tree, indexed by node rows
+	 */
+	public static NodeIntervals of( Tree tree )
+	{
+		int[] parents = new int[tree.getNodeTable().getMaximumRow() + 1];
+		for ( int row = 0; row < parents.length; ++row ) {
+			parents[row] = tree.getNodeTable().isValidRow( row ) ? tree.getParent( row ) : -1;
+		}
+		return new NodeIntervals( parents );
+	}
+
+	/**
+	 * @param h
+	 *            the hierarchy to compute intervals for
+	 * @return intervals of groups of the specified hierarchy, indexed by positions in {@link Hierarchy#getGroups()}
+	 */
+	public static NodeIntervals of( Hierarchy h )
+	{
+		Node[] groups = h.getGroups();
+		Map<Node, Integer> indices = new IdentityHashMap<>( groups.length );
+		for ( int i = 0; i < groups.length; ++i ) {
+			indices.put( groups[i], i );
+		}
+
+		int[] parents = new int[groups.length];
+		for ( int i = 0; i < groups.length; ++i ) {
+			Integer parent = indices.get( groups[i].getParent() );
+			parents[i] = parent == null ? -1 : parent;
+		}
+		return new NodeIntervals( parents );
+	}
+
+	/**
+	 * @return number of nodes
+	 */
+	public int size()
+	{
+		return parents.length;
+	}
+
+	/**
+	 * @return index of the node's parent, or -1 if the node is a root
+	 */
+	public int getParent( int index )
+	{
+		return parents[index];
+	}
+
+	/**
+	 * @return position of the node in pre-order traversal of the tree
+	 */
+	public int getEnter( int index )
+	{
+		return enter[index];
+	}
+
+	/**
+	 * @return position of the node's last descendant (or the node itself, if it has none)
+	 *         in pre-order traversal of the tree
+	 */
+	public int getExit( int index )
+	{
+		return exit[index];
+	}
+
+	/**
+	 * @param position
+	 *            position in pre-order traversal of the tree
+	 * @return index of the node at the specified position. Descendants of a node are the nodes
+	 *         at positions from its {@link #getEnter(int) enter} (exclusive) to its {@link #getExit(int) exit}.
+	 */
+	public int getNodeAt( int position )
+	{
+		return order[position];
+	}
+
+	/**
+	 * @return depth of the node, with roots having depth 0
+	 */
+	public int getDepth( int index )
+	{
+		return depth[index];
+	}
+
+	/**
+	 * @param index
+	 *            the node to check
+	 * @param ancestor
+	 *            the potential ancestor
+	 * @return true if the node is a descendant of the specified ancestor, or the ancestor itself
+	 */
+	public boolean isInSubtree( int index, int ancestor )
+	{
+		int e = enter[index];
+		return enter[ancestor] <= e && e <= exit[ancestor];
+	}
+}
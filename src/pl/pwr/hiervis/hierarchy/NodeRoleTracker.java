@@ -0,0 +1,248 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import pl.pwr.hiervis.core.HVConstants;
+import prefuse.data.Table;
+import prefuse.data.Tree;
+
+
+/**
+ * Keeps {@link ElementRole}s of nodes in a hierarchy {@link Tree} up to date with the selected node.
+ *
+ * <p>
+ * Instead of resetting every node back to {@link ElementRole#OTHER} and walking the tree again on each
+ * selection change, the tracker remembers which nodes were assigned a role by the previous selection, and
+ * only touches those, and the subtree and ancestors of the new selection. These are found through the tree's
+ * {@link NodeIntervals}: the subtree is a contiguous range of the pre-order, so it is enumerated without going
+ * through prefuse's child lists. Rows of nodes whose role actually
+ * changed are exposed through {@link #getChangedRows()}, along with a {@link #getRevision() revision number},
+ * so that color actions can recolor only the affected items.
+ * </p>
+ *
+ * <p>
+ * Roles are also kept in a plain array indexed by tree rows (see {@link #getRoles()}), so that roles
+ * of instances can be looked up by their node's row, without going through prefuse tuples.
+ * </p>
+ *
+ * <p>
+ * Nodes are expected to be added to the tree with {@link ElementRole#OTHER} role, and never removed.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class NodeRoleTracker
+{
+	private final Tree tree;
+	private NodeIntervals intervals;
+
+	/** Rows of nodes assigned a role other than {@link ElementRole#OTHER} by the last selection */
+	private int[] markedRows = new int[0];
+	private int[] changedRows = new int[0];
+	/** Role numbers of nodes, indexed by tree rows */
+	private int[] roles = new int[0];
+	private int selectedRow = -1;
+	private int revision = 0;
+
+
+	/**
+	 * @param tree
+	 *            the tree whose node roles are to be tracked. All nodes must have {@link ElementRole#OTHER} role.
+	 * @param intervals
+	 *            intervals of nodes of the tree, indexed by tree rows
+	 */
+	public NodeRoleTracker( Tree tree, NodeIntervals intervals )
+	{
+		if ( tree == null )
+			throw new IllegalArgumentException( "Tree must not be null!" );
+
+		this.tree = tree;
+		setNodeIntervals( intervals );
+		ensureCapacity();
+	}
+
+	/**
+	 * @param intervals
+	 *            intervals of nodes of the tree, indexed by tree rows. Has to be called when nodes are added
+	 *            to the tree, before the next {@link #select(int)}.
+	 */
+	public void setNodeIntervals( NodeIntervals intervals )
+	{
+		if ( intervals == null )
+			throw new IllegalArgumentException( "Intervals must not be null!" );
+
+		this.intervals = intervals;
+	}
+
+	/**
+	 * Updates roles of nodes in the tree to reflect the selection of the specified node.
+	 *
+	 * @param row
+	 *            row of the selected node, or -1 to clear the selection
+	 */
+	public void select( int row )
+	{
+		final int roleCol = tree.getNodeTable().getColumnNumber( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME );
+		final Table nodes = tree.getNodeTable();
+		ensureCapacity();
+
+		IntList newRows = new IntList();
+		IntList newRoles = new IntList();
+
+		if ( row >= 0 ) {
+			// Selected node and its subtree
+			newRows.add( row );
+			newRoles.add( ElementRole.CURRENT.getNumber() );
+			for ( int pos = intervals.getEnter( row ) + 1, exit = intervals.getExit( row ); pos <= exit; ++pos ) {
+				newRows.add( intervals.getNodeAt( pos ) );
+				newRoles.add( ElementRole.CHILD.getNumber() );
+			}
+
+			// Ancestors
+			int parent = intervals.getParent( row );
+			if ( parent >= 0 ) {
+				newRows.add( parent );
+				newRoles.add( ElementRole.DIRECT_PARENT.getNumber() );
+				for ( int ancestor = intervals.getParent( parent ); ancestor >= 0; ancestor = intervals.getParent( ancestor ) ) {
+					newRows.add( ancestor );
+					newRoles.add( ElementRole.INDIRECT_PARENT.getNumber() );
+				}
+			}
+		}
+
+		BitSet newSet = new BitSet();
+		for ( int i = 0; i < newRows.size(); ++i ) {
+			newSet.set( newRows.get( i ) );
+		}
+
+		IntList changed = new IntList();
+
+		// Nodes no longer related to the selection
+		for ( int markedRow : markedRows ) {
+			if ( !newSet.get( markedRow ) && nodes.getInt( markedRow, roleCol ) != ElementRole.OTHER.getNumber() ) {
+				nodes.setInt( markedRow, roleCol, ElementRole.OTHER.getNumber() );
+				roles[markedRow] = ElementRole.OTHER.getNumber();
+				changed.add( markedRow );
+			}
+		}
+
+		// Nodes related to the new selection
+		for ( int i = 0; i < newRows.size(); ++i ) {
+			int newRow = newRows.get( i );
+			int role = newRoles.get( i );
+			if ( nodes.getInt( newRow, roleCol ) != role ) {
+				nodes.setInt( newRow, roleCol, role );
+				roles[newRow] = role;
+				changed.add( newRow );
+			}
+		}
+
+		markedRows = newRows.toArray();
+		changedRows = changed.toArray();
+		selectedRow = row;
+		++revision;
+	}
+
+	/**
+	 * Makes room in the role array for nodes added to the tree since it was last resized.
+	 */
+	private void ensureCapacity()
+	{
+		int size = tree.getNodeTable().getMaximumRow() + 1;
+		if ( size > roles.length ) {
+			int oldSize = roles.length;
+			roles = Arrays.copyOf( roles, size );
+			Arrays.fill( roles, oldSize, size, ElementRole.OTHER.getNumber() );
+		}
+	}
+
+	/**
+	 * @return role numbers of nodes, indexed by tree rows. Nodes added to the tree after the last
+	 *         selection update may not be included yet - their role is {@link ElementRole#OTHER}.
+	 *         Must not be modified.
+	 */
+	public int[] getRoles()
+	{
+		return roles;
+	}
+
+	/**
+	 * @param row
+	 *            row of a node in the tree, or -1
+	 * @return role number of the node, or {@link ElementRole#OTHER} if the row is not valid
+	 */
+	public int getRole( int row )
+	{
+		int[] r = roles;
+		return row >= 0 && row < r.length ? r[row] : ElementRole.OTHER.getNumber();
+	}
+
+	/**
+	 * @return the tree whose node roles are tracked
+	 */
+	public Tree getTree()
+	{
+		return tree;
+	}
+
+	/**
+	 * @return row of the node that was last selected, or -1 if none
+	 */
+	public int getSelectedRow()
+	{
+		return selectedRow;
+	}
+
+	/**
+	 * @return number incremented each time the selection is updated
+	 */
+	public int getRevision()
+	{
+		return revision;
+	}
+
+	/**
+	 * @return rows of nodes whose role was changed by the last selection update (ie. in the current
+	 *         {@link #getRevision() revision}). Must not be modified.
+	 */
+	public int[] getChangedRows()
+	{
+		return changedRows;
+	}
+
+
+	/**
+	 * Minimal growable list of primitive ints.
+	 */
+	private static class IntList
+	{
+		private int[] values = new int[16];
+		private int size = 0;
+
+
+		public void add( int value )
+		{
+			if ( size == values.length ) {
+				values = Arrays.copyOf( values, size * 2 );
+			}
+			values[size++] = value;
+		}
+
+		public int get( int index )
+		{
+			return values[index];
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		public int[] toArray()
+		{
+			return Arrays.copyOf( values, size );
+		}
+	}
+}
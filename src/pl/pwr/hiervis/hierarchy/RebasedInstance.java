@@ -0,0 +1,91 @@
+package pl.pwr.hiervis.hierarchy;
+
+import basic_hierarchy.interfaces.Instance;
+import pl.pwr.hiervis.util.Utils;
+
+
+/**
+ * A copy of an {@link Instance} assigned to a node with a different id, created when nodes are copied
+ * or rebased between hierarchies.
+ *
+ * <p>
+ * Everything except the node id is read from the original instance when requested, so creating the copy
+ * does not copy feature values, and all instances of a node can share a single id string.
+ * </p>
+ *
+ * <p>
+ * The copy is only valid for as long as the original instance is. Instances whose features are read from
+ * a {@link FeatureColumnStore} stop working once the store is closed, so they should be copied with
+ * their feature values instead.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class RebasedInstance implements Instance
+{
+	private final Instance source;
+	private String nodeId;
+
+
+	/**
+	 * @param source
+	 *            the instance to copy
+	 * @param nodeId
+	 *            id of the node the copy belongs to
+	 */
+	public RebasedInstance( Instance source, String nodeId )
+	{
+		// Don't build chains of copies when a hierarchy is rebased repeatedly
+		this.source = source instanceof RebasedInstance ? ( (RebasedInstance)source ).source : source;
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * @return the original instance
+	 */
+	public Instance getSource()
+	{
+		return source;
+	}
+
+	/**
+	 * @param feature
+	 *            index of the feature
+	 * @return value of the specified feature
+	 */
+	public double getFeature( int feature )
+	{
+		return Utils.getFeature( source, feature );
+	}
+
+	@Override
+	public double[] getData()
+	{
+		return source.getData();
+	}
+
+	@Override
+	public String getInstanceName()
+	{
+		return source.getInstanceName();
+	}
+
+	@Override
+	public String getNodeId()
+	{
+		return nodeId;
+	}
+
+	@Override
+	public void setNodeId( String nodeId )
+	{
+		this.nodeId = nodeId;
+	}
+
+	@Override
+	public String getTrueClass()
+	{
+		return source.getTrueClass();
+	}
+}
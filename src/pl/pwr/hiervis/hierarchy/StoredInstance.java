@@ -0,0 +1,90 @@
+package pl.pwr.hiervis.hierarchy;
+
+import basic_hierarchy.interfaces.Instance;
+
+
+/**
+ * A view of a single row of an {@link InstanceStore}, allowing it to be used wherever an {@link Instance} is expected.
+ *
+ * <p>
+ * {@link #getData()} creates a new array on each call, so changes made to it are not written back to the store.
+ * Code that only needs some of the features should use {@link #getFeature(int)} instead, or
+ * {@link pl.pwr.hiervis.util.Utils#getFeature(Instance, int)} when dealing with arbitrary instances.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class StoredInstance implements Instance
+{
+	private final InstanceStore store;
+	private final int row;
+
+
+	/**
+	 * @param store
+	 *            the store containing this instance
+	 * @param row
+	 *            index of this instance's row in the store
+	 */
+	public StoredInstance( InstanceStore store, int row )
+	{
+		this.store = store;
+		this.row = row;
+	}
+
+	/**
+	 * @return index of this instance's row in the {@link InstanceStore}
+	 */
+	public int getRow()
+	{
+		return row;
+	}
+
+	public InstanceStore getStore()
+	{
+		return store;
+	}
+
+	/**
+	 * @param feature
+	 *            index of the feature
+	 * @return value of the specified feature
+	 */
+	public double getFeature( int feature )
+	{
+		return store.get( feature, row );
+	}
+
+	@Override
+	public double[] getData()
+	{
+		double[] result = new double[store.getFeatureCount()];
+		store.getRow( row, result );
+		return result;
+	}
+
+	@Override
+	public String getInstanceName()
+	{
+		return store.getInstanceName( row );
+	}
+
+	@Override
+	public String getNodeId()
+	{
+		return store.getNodeId( row );
+	}
+
+	@Override
+	public void setNodeId( String nodeId )
+	{
+		store.setNodeId( row, nodeId );
+	}
+
+	@Override
+	public String getTrueClass()
+	{
+		return store.getTrueClass( row );
+	}
+}
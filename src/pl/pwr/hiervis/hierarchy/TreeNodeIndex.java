@@ -0,0 +1,96 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import pl.pwr.hiervis.core.HVConstants;
+import prefuse.data.Tree;
+
+
+/**
+ * Maps ids of hierarchy groups to rows of their nodes in a hierarchy {@link Tree}, so that
+ * nodes can be looked up by id without scanning the whole tree and comparing id strings.
+ *
+ * <p>
+ * The index is built once, alongside the tree, and has to be kept up to date with
+ * {@link #add(prefuse.data.Node)} whenever nodes are added to the tree afterwards.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class TreeNodeIndex
+{
+	private final Tree tree;
+	private final Map<String, Integer> rows;
+
+
+	/**
+	 * Creates an index of all nodes currently in the specified tree.
+	 *
+	 * @param tree
+	 *            the tree to index
+	 */
+	public TreeNodeIndex( Tree tree )
+	{
+		if ( tree == null )
+			throw new IllegalArgumentException( "Tree must not be null!" );
+
+		this.tree = tree;
+
+		int nodeCount = tree.getNodeCount();
+		this.rows = new HashMap<>( nodeCount * 4 / 3 + 1 );
+		for ( int i = 0; i < nodeCount; ++i ) {
+			add( tree.getNode( i ) );
+		}
+	}
+
+	/**
+	 * Adds the specified node to the index.
+	 *
+	 * @param node
+	 *            the node to add, must belong to the indexed tree
+	 */
+	public void add( prefuse.data.Node node )
+	{
+		rows.put( node.getString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME ), node.getRow() );
+	}
+
+	/**
+	 * @param nodeId
+	 *            id of the hierarchy group
+	 * @return row of the tree node representing the group, or -1 if not found.
+	 */
+	public int getRow( String nodeId )
+	{
+		Integer row = rows.get( nodeId );
+		return row == null ? -1 : row;
+	}
+
+	/**
+	 * @param nodeId
+	 *            id of the hierarchy group
+	 * @return the tree node representing the group, or null if not found.
+	 */
+	public prefuse.data.Node getNode( String nodeId )
+	{
+		int row = getRow( nodeId );
+		return row < 0 ? null : tree.getNode( row );
+	}
+
+	/**
+	 * @return the indexed tree
+	 */
+	public Tree getTree()
+	{
+		return tree;
+	}
+
+	/**
+	 * @return number of indexed nodes
+	 */
+	public int size()
+	{
+		return rows.size();
+	}
+}
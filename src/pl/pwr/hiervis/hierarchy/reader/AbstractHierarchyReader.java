@@ -0,0 +1,344 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import basic_hierarchy.common.Constants;
+import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.implementation.BasicHierarchy;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Node;
+import basic_hierarchy.reader.GeneratedCSVReader;
+import pl.pwr.hiervis.core.HVConstants;
+
+
+/**
+ * Base class for {@link HierarchyReader}s implemented in this application.
+ * Takes care of progress reporting, and of the final stage of the loading process, ie. turning
+ * the parsed nodes into a complete {@link Hierarchy}, in exactly the same way as {@link GeneratedCSVReader} does.
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public abstract class AbstractHierarchyReader implements HierarchyReader
+{
+	private static final Pattern nodeIdPattern = Pattern.compile( "gen(\\.\\d+)+" );
+
+	private volatile HierarchyBuilder hb = null;
+
+	protected volatile int progress = 0;
+	protected volatile String statusMsg = "";
+	protected long expectedRowCount = -1;
+
+
+	@Override
+	public int getProgress()
+	{
+		HierarchyBuilder builder = hb;
+		return builder == null ? progress : builder.getProgress();
+	}
+
+	@Override
+	public String getStatusMessage()
+	{
+		HierarchyBuilder builder = hb;
+		return builder == null ? statusMsg : builder.getStatusMessage();
+	}
+
+	@Override
+	public void setExpectedRowCount( long rowCount )
+	{
+		expectedRowCount = rowCount;
+	}
+
+	/**
+	 * @return status message reported while the file is being parsed
+	 */
+	protected String getParsingStatus()
+	{
+		return expectedRowCount > 0
+			? String.format( "Parsing file (~%,d rows)...", expectedRowCount )
+			: "Parsing file...";
+	}
+
+	/**
+	 * Resets the progress reporting state of this reader, and sets the status message to the specified one.
+	 *
+	 * @param status
+	 *            the new status message
+	 */
+	protected void reset( String status )
+	{
+		hb = null;
+		progress = 0;
+		statusMsg = status;
+	}
+
+	/**
+	 * Builds the complete hierarchy out of the specified nodes, fixing depth (and optionally breadth) gaps,
+	 * and recalculating centroids.
+	 *
+	 * @param nodes
+	 *            map of all nodes that were read from the input, sorted by their ids
+	 * @param dataNames
+	 *            names of instance features, or null if the input had no header
+	 * @param classCounts
+	 *            map of true class ids to number of instances belonging to that class
+	 * @param instanceCount
+	 *            total number of instances that were read
+	 * @param fillBreadthGaps
+	 *            if true, the {@link HierarchyBuilder} will attempt to fix the raw hierarchy built from the file.
+	 * @param useSubtree
+	 *            whether the centroid calculation should also include child groups' instances.
+	 * @return the complete hierarchy
+	 */
+	protected Hierarchy buildHierarchy(
+		Map<String, BasicNode> nodes, String[] dataNames,
+		Map<String, Integer> classCounts, int instanceCount,
+		boolean fillBreadthGaps, boolean useSubtree )
+	{
+		HierarchyBuilder builder = new HierarchyBuilder();
+		hb = builder;
+		progress = 100;
+
+		BasicNode root = nodes.get( Constants.ROOT_ID );
+		List<BasicNode> nodeList = new ArrayList<>( nodes.values() );
+		List<? extends Node> allNodes = builder.buildCompleteHierarchy( root, nodeList, fillBreadthGaps, useSubtree );
+
+		if ( root == null ) {
+			// Root was created artificially by the builder.
+			for ( Node n : allNodes ) {
+				if ( n.getId().equals( Constants.ROOT_ID ) ) {
+					root = (BasicNode)n;
+					break;
+				}
+			}
+		}
+
+		return new BasicHierarchy( root, allNodes, dataNames, classCounts, instanceCount );
+	}
+
+	/**
+	 * @param filePath
+	 *            path to the file to check
+	 * @return the file, if it exists and is not a directory
+	 * @throws RuntimeException
+	 *             if the file does not exist, or is a directory
+	 */
+	protected static File checkFile( String filePath )
+	{
+		File file = new File( filePath );
+		if ( !file.exists() || file.isDirectory() ) {
+			throw new RuntimeException(
+				String.format(
+					"Cannot access file: '%s'. Does it exist, and is it a %s-separated text file?",
+					filePath, HVConstants.CSV_FILE_SEPARATOR
+				)
+			);
+		}
+		return file;
+	}
+
+	/**
+	 * @param id
+	 *            the string to test
+	 * @return true if the string is a valid node id (eg. gen.0.1.2), false otherwise.
+	 */
+	protected static boolean isValidNodeId( String id )
+	{
+		return nodeIdPattern.matcher( id ).matches();
+	}
+
+
+	/**
+	 * Describes the column layout of a hierarchy CSV file, and parses its rows
+	 * with the same validation rules that {@link GeneratedCSVReader} uses.
+	 */
+	protected static final class ColumnLayout
+	{
+		public final boolean withInstanceName;
+		public final boolean withTrueClass;
+		/** Index of the first feature column */
+		public final int featureOffset;
+		/** Total number of columns in each row */
+		public final int columnCount;
+		/** Number of feature columns in each row */
+		public final int featureCount;
+
+
+		private ColumnLayout( boolean withInstanceName, boolean withTrueClass, int columnCount )
+		{
+			this.withInstanceName = withInstanceName;
+			this.withTrueClass = withTrueClass;
+			this.featureOffset = 1 + ( withTrueClass ? 1 : 0 ) + ( withInstanceName ? 1 : 0 );
+			this.columnCount = columnCount;
+			this.featureCount = columnCount - featureOffset;
+		}
+
+		/**
+		 * Creates a column layout based on the first line of the file.
+		 *
+		 * @param firstLine
+		 *            the first line of the file
+		 * @param withInstanceName
+		 *            whether the file includes a column containing instance names
+		 * @param withTrueClass
+		 *            whether the file includes a column containing true class
+		 * @return the column layout
+		 * @throws RuntimeException
+		 *             if the line does not have enough columns
+		 */
+		public static ColumnLayout of( String firstLine, boolean withInstanceName, boolean withTrueClass )
+		{
+			int columnCount = firstLine.split( HVConstants.CSV_FILE_SEPARATOR ).length;
+			return of( firstLine, columnCount, withInstanceName, withTrueClass );
+		}
+
+		/**
+		 * Creates a column layout for a file with the specified number of columns.
+		 *
+		 * @param firstLine
+		 *            the first line of the file, used in error messages
+		 * @param columnCount
+		 *            number of columns in the first line
+		 * @param withInstanceName
+		 *            whether the file includes a column containing instance names
+		 * @param withTrueClass
+		 *            whether the file includes a column containing true class
+		 * @return the column layout
+		 * @throws RuntimeException
+		 *             if the line does not have enough columns
+		 */
+		public static ColumnLayout of( String firstLine, int columnCount, boolean withInstanceName, boolean withTrueClass )
+		{
+			ColumnLayout result = new ColumnLayout( withInstanceName, withTrueClass, columnCount );
+			if ( columnCount <= result.featureOffset ) {
+				throw new RuntimeException(
+					String.format(
+						"Input data is not formatted correctly. Each line should contain at least a node ID columm " +
+							"and a value column (and optionally class attribute and/or instance name).%nLine: %s",
+						firstLine
+					)
+				);
+			}
+			return result;
+		}
+
+		/**
+		 * @param header
+		 *            values of the header row
+		 * @return names of feature columns
+		 */
+		public String[] getDataNames( String[] header )
+		{
+			String[] dataNames = new String[featureCount];
+			System.arraycopy( header, featureOffset, dataNames, 0, featureCount );
+			return dataNames;
+		}
+
+		/**
+		 * Parses a single data row of the file.
+		 *
+		 * @param line
+		 *            the line being parsed, used in error messages
+		 * @param values
+		 *            the line split into columns
+		 * @param classCounts
+		 *            map of true class counts, updated if the file contains true class column
+		 * @return the parsed instance
+		 */
+		public BasicInstance parse( String line, String[] values, Map<String, Integer> classCounts )
+		{
+			checkColumnCount( line, values.length );
+
+			String nodeId = values[0];
+			checkAssignClass( line, nodeId );
+
+			String trueClass = null;
+			if ( withTrueClass ) {
+				trueClass = values[1];
+				checkTrueClass( line, trueClass );
+				classCounts.merge( trueClass, 1, Integer::sum );
+			}
+
+			String instanceName = null;
+			if ( withInstanceName ) {
+				instanceName = values[withTrueClass ? 2 : 1];
+			}
+
+			double[] data = new double[featureCount];
+			for ( int i = 0; i < featureCount; ++i ) {
+				String value = values[featureOffset + i];
+				try {
+					data[i] = Double.parseDouble( value );
+				}
+				catch ( NumberFormatException e ) {
+					throw invalidFeature( line, value );
+				}
+			}
+
+			return new BasicInstance( instanceName, nodeId, data, trueClass );
+		}
+
+		public void checkColumnCount( String line, int count )
+		{
+			if ( count != columnCount ) {
+				throw invalidColumnCount( line, count );
+			}
+		}
+
+		public void checkAssignClass( String line, String nodeId )
+		{
+			if ( !isValidNodeId( nodeId ) ) {
+				throw invalidAssignClass( line, nodeId );
+			}
+		}
+
+		public void checkTrueClass( String line, String trueClass )
+		{
+			if ( !isValidNodeId( trueClass ) ) {
+				throw invalidTrueClass( line, trueClass );
+			}
+		}
+
+		public RuntimeException invalidColumnCount( String line, int count )
+		{
+			return new RuntimeException(
+				String.format(
+					"Input data not formatted corectly - each line should contain a total of %s columns " +
+						"(this line has %s).%nLine: %s%n",
+					columnCount, count, line
+				)
+			);
+		}
+
+		public RuntimeException invalidAssignClass( String line, String nodeId )
+		{
+			return new RuntimeException(
+				String.format( "Assigned class is not a valid node id: '%s'%nLine:%s%n", nodeId, line )
+			);
+		}
+
+		public RuntimeException invalidTrueClass( String line, String trueClass )
+		{
+			return new RuntimeException(
+				String.format( "True class is not a valid node id: '%s'%nLine: %s%n", trueClass, line )
+			);
+		}
+
+		public NumberFormatException invalidFeature( String line, String value )
+		{
+			return new NumberFormatException(
+				String.format(
+					"Failed to parse '%s' as double. All instance features should be valid floating point numbers.%nLine: %s%n",
+					value, line
+				)
+			);
+		}
+	}
+}
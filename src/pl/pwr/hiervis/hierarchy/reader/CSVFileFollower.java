@@ -0,0 +1,333 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import basic_hierarchy.interfaces.Instance;
+import pl.pwr.hiervis.core.HVConstants;
+import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.hierarchy.reader.AbstractHierarchyReader.ColumnLayout;
+import pl.pwr.hiervis.util.Event;
+
+
+/**
+ * Watches a hierarchy CSV file that is being appended to, and parses rows that are added to it.
+ *
+ * <p>
+ * Only bytes past the last consumed position are read, and only complete lines are parsed - a partially
+ * written last line is left for the next read. Rows are parsed with the same validation rules as the readers use,
+ * and lines are split the same way: at \n, \r or \r\n.
+ * The file is watched with a {@link WatchService}, but its size is also checked periodically, since some
+ * platforms only deliver watch events with a considerable delay.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class CSVFileFollower
+{
+	private static final Logger log = LogManager.getLogger( CSVFileFollower.class );
+
+	/** Interval at which the file's size is checked, regardless of watch events */
+	private static final long pollIntervalMs = 1000;
+	/** Max number of bytes read at once */
+	private static final int maxChunkSize = 1 << 24;
+	/** Splits text at line breaks recognized by the readers. Line breaks split across reads yield an empty line. */
+	private static final String lineBreakRegex = "\r\n?|\n";
+
+	/**
+	 * Sent on the follower's thread when new rows have been parsed.
+	 * Carries the rows, and the position in the file (in bytes) right after the last of them.
+	 */
+	public final Event<Pair<List<Instance>, Long>> rowsAppended = new Event<>();
+	/** Sent on the follower's thread when the file could not be read. The follower stops afterwards. */
+	public final Event<Exception> errorOcurred = new Event<>();
+
+	private final Path path;
+	private final ColumnLayout layout;
+
+	private volatile long position;
+	/** Number of lines to skip before the first appended row, if the position is not known yet */
+	private long skippedLineCount = 0;
+	private volatile boolean running = false;
+	private WatchService watchService;
+	private Thread thread;
+
+
+	/**
+	 * @param file
+	 *            the file to follow
+	 * @param options
+	 *            options the file was loaded with
+	 * @param featureCount
+	 *            number of feature columns in the file
+	 * @param position
+	 *            position in the file (in bytes) from which to start reading appended rows.
+	 *            Must be at the start of a line.
+	 */
+	public CSVFileFollower( File file, LoadedHierarchy.Options options, int featureCount, long position )
+	{
+		this.path = file.toPath().toAbsolutePath();
+		this.position = position;
+
+		int columnCount = 1 + featureCount
+			+ ( options.hasTrueClassAttribute ? 1 : 0 )
+			+ ( options.hasInstanceNameAttribute ? 1 : 0 );
+		this.layout = ColumnLayout.of( file.getName(), columnCount, options.hasInstanceNameAttribute, options.hasTrueClassAttribute );
+	}
+
+	/**
+	 * Creates a follower that starts reading appended rows after the specified number of lines, ie. after the lines
+	 * of the file that have already been loaded. The position at which these lines end is found on the follower's
+	 * thread, or on the first call to {@link #readAppendedRows()}.
+	 *
+	 * @param file
+	 *            the file to follow
+	 * @param options
+	 *            options the file was loaded with
+	 * @param featureCount
+	 *            number of feature columns in the file
+	 * @param lineCount
+	 *            number of lines to skip, including the header, if any
+	 * @return the follower
+	 */
+	public static CSVFileFollower afterLines( File file, LoadedHierarchy.Options options, int featureCount, long lineCount )
+	{
+		CSVFileFollower result = new CSVFileFollower( file, options, featureCount, -1 );
+		result.skippedLineCount = lineCount;
+		return result;
+	}
+
+	/**
+	 * @return position in the file (in bytes) up to which rows have been read, or -1 if the follower
+	 *         was created with {@link #afterLines(File, LoadedHierarchy.Options, int, long)}
+	 *         and hasn't found the end of the skipped lines yet
+	 */
+	public long getPosition()
+	{
+		return position;
+	}
+
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	/**
+	 * Starts watching the file on a background thread.
+	 *
+	 * @throws IOException
+	 *             if the file's directory could not be watched
+	 */
+	public synchronized void start() throws IOException
+	{
+		if ( running ) {
+			throw new IllegalStateException( "Follower is already running." );
+		}
+
+		watchService = FileSystems.getDefault().newWatchService();
+		path.getParent().register( watchService, StandardWatchEventKinds.ENTRY_MODIFY );
+
+		running = true;
+		thread = new Thread( this::run, "CSVFileFollower" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/**
+	 * Stops watching the file. Rows that have been parsed, but not yet broadcast, are discarded.
+	 */
+	public synchronized void stop()
+	{
+		if ( !running ) {
+			return;
+		}
+
+		running = false;
+		try {
+			watchService.close();
+		}
+		catch ( IOException e ) {
+			log.error( "Error while closing watch service: ", e );
+		}
+		thread.interrupt();
+	}
+
+	/**
+	 * Reads and parses all complete rows that have been appended to the file since the last call.
+	 *
+	 * @return the parsed rows, in the order in which they appear in the file
+	 * @throws IOException
+	 *             if the file could not be read, or has been truncated
+	 */
+	public List<Instance> readAppendedRows() throws IOException
+	{
+		List<Instance> result = new ArrayList<>();
+		Map<String, Integer> classCounts = new HashMap<>();
+
+		if ( position < 0 ) {
+			position = findLinesEnd( path.toFile(), skippedLineCount );
+		}
+
+		try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+			long size = channel.size();
+			if ( size < position ) {
+				throw new IOException( "File has been truncated: " + path );
+			}
+
+			while ( position < size ) {
+				ByteBuffer buf = ByteBuffer.allocate( (int)Math.min( maxChunkSize, size - position ) );
+				while ( buf.hasRemaining() ) {
+					if ( channel.read( buf, position + buf.position() ) < 0 ) {
+						break;
+					}
+				}
+
+				int end = buf.position() - 1;
+				while ( end >= 0 && !isLineBreak( buf.get( end ) ) ) {
+					--end;
+				}
+
+				if ( end < 0 ) {
+					if ( buf.position() == maxChunkSize ) {
+						throw new IOException( "Appended line is too long." );
+					}
+					// Last line is still being written.
+					break;
+				}
+
+				String text = new String( buf.array(), 0, end + 1, StandardCharsets.UTF_8 );
+				for ( String line : text.split( lineBreakRegex ) ) {
+					// Also skips the \n of a \r\n line break whose \r ended the previous read.
+					if ( !line.isEmpty() ) {
+						result.add( layout.parse( line, line.split( HVConstants.CSV_FILE_SEPARATOR ), classCounts ) );
+					}
+				}
+
+				position += end + 1;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Finds the position in the file at which the specified number of lines ends, ie. the position at which
+	 * a reader that has consumed that many lines stopped reading. Used to start following a file from the point
+	 * up to which it has been loaded, since rows might have been appended while the file was being loaded.
+	 * Lines end at \n, \r or \r\n, same as in the readers.
+	 *
+	 * @param file
+	 *            the file to scan
+	 * @param lineCount
+	 *            number of lines, including the header, if any
+	 * @return position in the file (in bytes) right after the line break that ends the specified line,
+	 *         or the size of the file if it has fewer line breaks
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public static long findLinesEnd( File file, long lineCount ) throws IOException
+	{
+		if ( lineCount <= 0 ) {
+			return 0;
+		}
+
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			ByteBuffer buf = ByteBuffer.allocate( 1 << 16 );
+			long position = 0;
+			long remaining = lineCount;
+			boolean afterCarriageReturn = false;
+			// End of the last line, if it ended with \r - a \n right after it belongs to the same line break.
+			long carriageReturnEnd = -1;
+
+			while ( true ) {
+				buf.clear();
+				int read = channel.read( buf, position );
+				if ( read < 0 ) {
+					return carriageReturnEnd >= 0 ? carriageReturnEnd : position;
+				}
+
+				for ( int i = 0; i < read; ++i ) {
+					byte b = buf.get( i );
+					if ( carriageReturnEnd >= 0 ) {
+						return b == '\n' ? carriageReturnEnd + 1 : carriageReturnEnd;
+					}
+
+					if ( b == '\n' && afterCarriageReturn ) {
+						// Second half of a \r\n line break.
+						afterCarriageReturn = false;
+						continue;
+					}
+
+					afterCarriageReturn = b == '\r';
+					if ( isLineBreak( b ) && --remaining == 0 ) {
+						if ( b == '\n' ) {
+							return position + i + 1;
+						}
+						carriageReturnEnd = position + i + 1;
+					}
+				}
+				position += read;
+			}
+		}
+	}
+
+	private static boolean isLineBreak( byte b )
+	{
+		return b == '\n' || b == '\r';
+	}
+
+	private void run()
+	{
+		log.trace( "Following " + path );
+
+		try {
+			while ( running ) {
+				WatchKey key = watchService.poll( pollIntervalMs, TimeUnit.MILLISECONDS );
+				if ( key != null ) {
+					// Events for other files in the directory are of no interest, and the size check below
+					// covers our file regardless of whether its event was delivered or overflowed.
+					key.pollEvents();
+					key.reset();
+				}
+
+				if ( path.toFile().length() != position ) {
+					List<Instance> rows = readAppendedRows();
+					if ( !rows.isEmpty() && running ) {
+						// Position is read on this thread, before the next batch advances it.
+						rowsAppended.broadcast( Pair.of( rows, position ) );
+					}
+				}
+			}
+		}
+		catch ( InterruptedException | ClosedWatchServiceException e ) {
+			// Stopped.
+		}
+		catch ( Exception e ) {
+			log.error( "Error while following " + path + "\n", e );
+			stop();
+			errorOcurred.broadcast( e );
+		}
+
+		log.trace( "Stopped following " + path );
+	}
+}
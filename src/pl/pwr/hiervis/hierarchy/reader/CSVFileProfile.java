@@ -0,0 +1,530 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pl.pwr.hiervis.core.HVConstants;
+import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+
+
+/**
+ * Describes the layout of a hierarchy CSV file, inferred from a sample of its rows.
+ *
+ * <p>
+ * Rows are sampled from blocks spread evenly across the whole file, read with positional reads,
+ * so profiling takes roughly the same time regardless of the file's size, and is not fooled by
+ * atypical rows at the start of the file. Row count is estimated based on the average length
+ * of the sampled rows.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class CSVFileProfile
+{
+	/** Number of blocks sampled after the first one */
+	private static final int sampleBlockCount = 16;
+	/** Size of the block read at the start of the file */
+	private static final int headBlockSize = 1 << 16;
+	/** Size of each of the blocks sampled from the rest of the file */
+	private static final int sampleBlockSize = 1 << 14;
+	/** Number of decompressed bytes sampled from the start of compressed files */
+	private static final int compressedHeadSize = 1 << 20;
+	/** Max length of a single line */
+	private static final int maxLineLength = 1 << 24;
+
+
+	/**
+	 * Type of values found in a feature column.
+	 */
+	public enum ColumnType
+	{
+		/** All sampled values are whole numbers */
+		INTEGER,
+		/** All sampled values are floating point numbers */
+		REAL,
+		/** Some of the sampled values are not numbers, so the file cannot be loaded with this layout */
+		TEXT
+	}
+
+
+	private final long fileSize;
+	private final boolean hasHeader;
+	private final boolean hasTrueClass;
+	private final boolean hasInstanceName;
+	private final int columnCount;
+	private final ColumnType[] featureTypes;
+	private final int sampledRowCount;
+	private final long estimatedRowCount;
+
+
+	private CSVFileProfile(
+		long fileSize,
+		boolean hasHeader, boolean hasTrueClass, boolean hasInstanceName,
+		int columnCount, ColumnType[] featureTypes,
+		int sampledRowCount, long estimatedRowCount )
+	{
+		this.fileSize = fileSize;
+		this.hasHeader = hasHeader;
+		this.hasTrueClass = hasTrueClass;
+		this.hasInstanceName = hasInstanceName;
+		this.columnCount = columnCount;
+		this.featureTypes = featureTypes;
+		this.sampledRowCount = sampledRowCount;
+		this.estimatedRowCount = estimatedRowCount;
+	}
+
+	/**
+	 * Samples rows of the specified file, and infers its layout.
+	 * Compressed files (see {@link CompressionType}) can only be sampled from their beginning.
+	 *
+	 * @param file
+	 *            a hierarchy file in CSV format
+	 * @return the profile of the file
+	 * @throws IOException
+	 *             if the file could not be read, or is empty
+	 */
+	public static CSVFileProfile sample( File file ) throws IOException
+	{
+		CompressionType compression = CompressionType.of( file );
+		if ( compression != CompressionType.NONE ) {
+			return sampleCompressed( file, compression );
+		}
+
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			final long fileSize = channel.size();
+
+			Sample head = readBlock( channel, 0, headBlockSize, fileSize, false );
+			List<Sample> blocks = new ArrayList<>();
+
+			long sampled = head.end;
+			for ( int i = 1; i <= sampleBlockCount && sampled < fileSize; ++i ) {
+				// Blocks must not overlap, otherwise some rows would be counted twice.
+				long pos = Math.max( sampled, fileSize * i / ( sampleBlockCount + 1 ) );
+				if ( pos >= fileSize ) {
+					break;
+				}
+
+				Sample block = readBlock( channel, pos, sampleBlockSize, fileSize, true );
+				blocks.add( block );
+				sampled = block.end;
+			}
+
+			return profile( file, fileSize, head, blocks, head.end == fileSize );
+		}
+	}
+
+	private static CSVFileProfile sampleCompressed( File file, CompressionType compression ) throws IOException
+	{
+		byte[] bytes = new byte[compressedHeadSize];
+		int length = 0;
+		boolean atEnd = false;
+
+		try ( InputStream in = compression.decompress( new FileInputStream( file ) ) ) {
+			while ( length < bytes.length ) {
+				int read = in.read( bytes, length, bytes.length - length );
+				if ( read < 0 ) {
+					atEnd = true;
+					break;
+				}
+				length += read;
+			}
+		}
+
+		int end = atEnd ? length : lastIndexOf( bytes, length ) + 1;
+		if ( end == 0 && !atEnd ) {
+			throw new IOException( "First line of the file is too long: " + file );
+		}
+
+		Sample head = new Sample();
+		head.end = end;
+		splitLines( bytes, 0, end, head );
+
+		long dataSize = atEnd ? length : compression.getUncompressedSize( file );
+		if ( dataSize < length ) {
+			// Size stored in the file is clearly wrong, eg. it has overflowed.
+			dataSize = -1;
+		}
+
+		return profile( file, dataSize, head, Collections.emptyList(), atEnd );
+	}
+
+	/**
+	 * @param file
+	 *            the sampled file
+	 * @param dataSize
+	 *            size of the file's (decompressed) contents, or -1 if unknown
+	 * @param head
+	 *            sample from the start of the file
+	 * @param blocks
+	 *            samples from the rest of the file
+	 * @param complete
+	 *            whether the samples cover the whole file
+	 */
+	private static CSVFileProfile profile(
+		File file, long dataSize,
+		Sample head, List<Sample> blocks, boolean complete ) throws IOException
+	{
+		if ( head.lines.isEmpty() ) {
+			throw new IOException( "File is empty: " + file );
+		}
+
+		String firstLine = head.lines.get( 0 );
+		String[] firstValues = firstLine.split( HVConstants.CSV_FILE_SEPARATOR );
+		boolean hasHeader = !AbstractHierarchyReader.isValidNodeId( firstValues[0] );
+		long headerBytes = hasHeader ? head.lineBytes.get( 0 ) : 0;
+
+		List<String[]> rows = new ArrayList<>();
+		long rowBytes = 0;
+		for ( int i = hasHeader ? 1 : 0; i < head.lines.size(); ++i ) {
+			rows.add( head.lines.get( i ).split( HVConstants.CSV_FILE_SEPARATOR ) );
+			rowBytes += head.lineBytes.get( i );
+		}
+		for ( Sample block : blocks ) {
+			for ( int i = 0; i < block.lines.size(); ++i ) {
+				rows.add( block.lines.get( i ).split( HVConstants.CSV_FILE_SEPARATOR ) );
+				rowBytes += block.lineBytes.get( i );
+			}
+		}
+
+		long estimatedRowCount = -1;
+		if ( complete ) {
+			// Whole file has been read, no need to guess.
+			estimatedRowCount = rows.size();
+		}
+		else if ( dataSize >= 0 && rowBytes > 0 ) {
+			estimatedRowCount = Math.round( ( dataSize - headerBytes ) / ( (double)rowBytes / rows.size() ) );
+		}
+
+		return infer( file.length(), hasHeader, firstValues, rows, estimatedRowCount );
+	}
+
+	private static CSVFileProfile infer(
+		long fileSize, boolean hasHeader, String[] firstValues,
+		List<String[]> rows, long estimatedRowCount )
+	{
+		int columnCount = rows.isEmpty() ? firstValues.length : mostCommonColumnCount( rows );
+
+		// Columns that could be true class / instance name have to leave at least one feature column.
+		boolean hasTrueClass = columnCount > 2 && !rows.isEmpty();
+		for ( String[] values : rows ) {
+			if ( values.length == columnCount && !AbstractHierarchyReader.isValidNodeId( values[1] ) ) {
+				hasTrueClass = false;
+				break;
+			}
+		}
+
+		int nameIndex = hasTrueClass ? 2 : 1;
+		boolean hasInstanceName = false;
+		if ( columnCount > nameIndex + 1 ) {
+			for ( String[] values : rows ) {
+				if ( values.length == columnCount && !isNumber( values[nameIndex] ) ) {
+					// Some of the values are not numbers, so this is very likely an instance name column.
+					// The reverse is not true - names can be numeric, which is why all rows need to be checked.
+					hasInstanceName = true;
+					break;
+				}
+			}
+		}
+
+		int featureOffset = 1 + ( hasTrueClass ? 1 : 0 ) + ( hasInstanceName ? 1 : 0 );
+		ColumnType[] featureTypes = new ColumnType[Math.max( 0, columnCount - featureOffset )];
+		for ( int i = 0; i < featureTypes.length; ++i ) {
+			featureTypes[i] = ColumnType.INTEGER;
+			for ( String[] values : rows ) {
+				if ( values.length != columnCount ) {
+					continue;
+				}
+
+				ColumnType type = typeOf( values[featureOffset + i] );
+				if ( type.ordinal() > featureTypes[i].ordinal() ) {
+					featureTypes[i] = type;
+					if ( type == ColumnType.TEXT ) {
+						break;
+					}
+				}
+			}
+		}
+
+		return new CSVFileProfile(
+			fileSize,
+			hasHeader, hasTrueClass, hasInstanceName,
+			columnCount, featureTypes,
+			rows.size(), estimatedRowCount
+		);
+	}
+
+	/**
+	 * Reads complete lines from a block of the file.
+	 *
+	 * @param channel
+	 *            the channel to read from
+	 * @param pos
+	 *            position of the block in the file
+	 * @param size
+	 *            size of the block. If no line ends within the block, it is extended until one does.
+	 * @param fileSize
+	 *            size of the file
+	 * @param skipFirst
+	 *            if true, the first line of the block is skipped, since the block might have started in
+	 *            the middle of it
+	 * @return lines read from the block, without line terminators. Empty lines are skipped.
+	 */
+	private static Sample readBlock( FileChannel channel, long pos, int size, long fileSize, boolean skipFirst )
+		throws IOException
+	{
+		while ( true ) {
+			ByteBuffer buf = ByteBuffer.allocate( (int)Math.min( fileSize - pos, size ) );
+			while ( buf.hasRemaining() ) {
+				if ( channel.read( buf, pos + buf.position() ) < 0 ) {
+					break;
+				}
+			}
+
+			byte[] bytes = buf.array();
+			int length = buf.position();
+			boolean atEnd = pos + length >= fileSize;
+
+			int start = 0;
+			if ( skipFirst ) {
+				start = indexOf( bytes, 0, length ) + 1;
+			}
+
+			// Last line of the file doesn't need to be terminated.
+			int end = atEnd ? length : lastIndexOf( bytes, length ) + 1;
+
+			if ( !atEnd && ( end == 0 || end <= start ) ) {
+				// No complete line within the block.
+				if ( size >= maxLineLength ) {
+					throw new IOException( "Line starting near byte " + pos + " is too long." );
+				}
+				size *= 2;
+				continue;
+			}
+
+			Sample result = new Sample();
+			result.end = pos + end;
+
+			if ( skipFirst && start == 0 ) {
+				// Block is the tail of the file, and contains no line break.
+				return result;
+			}
+
+			splitLines( bytes, start, end, result );
+			return result;
+		}
+	}
+
+	/**
+	 * Splits the specified range of bytes into lines, and adds them to the sample.
+	 * Lines are terminated with \n or \r\n, empty lines are skipped.
+	 */
+	private static void splitLines( byte[] bytes, int start, int end, Sample result )
+	{
+		int lineStart = start;
+		while ( lineStart < end ) {
+			int lineEnd = indexOf( bytes, lineStart, end );
+			int next = lineEnd < 0 ? end : lineEnd + 1;
+			int textEnd = lineEnd < 0 ? end : lineEnd;
+			if ( textEnd > lineStart && bytes[textEnd - 1] == '\r' ) {
+				--textEnd;
+			}
+
+			if ( textEnd > lineStart ) {
+				result.lines.add( new String( bytes, lineStart, textEnd - lineStart, StandardCharsets.UTF_8 ) );
+				result.lineBytes.add( next - lineStart );
+			}
+
+			lineStart = next;
+		}
+	}
+
+	/**
+	 * @return index of the first line feed in range [from, to), or -1 if there is none
+	 */
+	private static int indexOf( byte[] bytes, int from, int to )
+	{
+		for ( int i = from; i < to; ++i ) {
+			if ( bytes[i] == '\n' ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return index of the last line feed in range [0, to), or -1 if there is none
+	 */
+	private static int lastIndexOf( byte[] bytes, int to )
+	{
+		for ( int i = to - 1; i >= 0; --i ) {
+			if ( bytes[i] == '\n' ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int mostCommonColumnCount( List<String[]> rows )
+	{
+		Map<Integer, Integer> counts = new HashMap<>();
+		int result = 0;
+		int resultCount = 0;
+		for ( String[] values : rows ) {
+			int count = counts.merge( values.length, 1, Integer::sum );
+			if ( count > resultCount ) {
+				result = values.length;
+				resultCount = count;
+			}
+		}
+		return result;
+	}
+
+	private static boolean isNumber( String value )
+	{
+		return typeOf( value ) != ColumnType.TEXT;
+	}
+
+	private static ColumnType typeOf( String value )
+	{
+		try {
+			double d = Double.parseDouble( value );
+			boolean whole = d == Math.rint( d ) && !Double.isInfinite( d )
+				&& value.indexOf( '.' ) < 0 && value.indexOf( 'e' ) < 0 && value.indexOf( 'E' ) < 0;
+			return whole ? ColumnType.INTEGER : ColumnType.REAL;
+		}
+		catch ( NumberFormatException e ) {
+			return ColumnType.TEXT;
+		}
+	}
+
+	/**
+	 * @return loading options matching the file's layout, with default values for options
+	 *         that cannot be inferred from the file
+	 */
+	public LoadedHierarchy.Options toOptions()
+	{
+		return toOptions( LoadedHierarchy.Options.DEFAULT.isFillBreadthGaps, LoadedHierarchy.Options.DEFAULT.isUseSubtree );
+	}
+
+	/**
+	 * @param fillBreadthGaps
+	 *            if true, the {@link basic_hierarchy.common.HierarchyBuilder HierarchyBuilder} will attempt
+	 *            to fix the raw hierarchy built from the file.
+	 * @param useSubtree
+	 *            whether the centroid calculation should also include child groups' instances.
+	 * @return loading options matching the file's layout
+	 */
+	public LoadedHierarchy.Options toOptions( boolean fillBreadthGaps, boolean useSubtree )
+	{
+		return new LoadedHierarchy.Options( hasInstanceName, hasTrueClass, hasHeader, fillBreadthGaps, useSubtree );
+	}
+
+	public long getFileSize()
+	{
+		return fileSize;
+	}
+
+	public boolean hasHeader()
+	{
+		return hasHeader;
+	}
+
+	public boolean hasTrueClass()
+	{
+		return hasTrueClass;
+	}
+
+	public boolean hasInstanceName()
+	{
+		return hasInstanceName;
+	}
+
+	/**
+	 * @return total number of columns in each row, as found in most of the sampled rows
+	 */
+	public int getColumnCount()
+	{
+		return columnCount;
+	}
+
+	public int getFeatureCount()
+	{
+		return featureTypes.length;
+	}
+
+	/**
+	 * @param index
+	 *            index of the feature column, excluding node id, true class and instance name columns
+	 * @return type of values found in the specified feature column
+	 */
+	public ColumnType getFeatureType( int index )
+	{
+		return featureTypes[index];
+	}
+
+	/**
+	 * @return number of data rows that the profile is based on
+	 */
+	public int getSampledRowCount()
+	{
+		return sampledRowCount;
+	}
+
+	/**
+	 * @return estimated number of data rows in the file, or -1 if it could not be estimated (eg. for
+	 *         compressed files whose decompressed size is unknown). Exact if the file was small enough to be read whole.
+	 */
+	public long getEstimatedRowCount()
+	{
+		return estimatedRowCount;
+	}
+
+	/**
+	 * @return a short, human-readable description of the file's contents
+	 */
+	public String getSummary()
+	{
+		int integerCount = 0;
+		int textCount = 0;
+		for ( ColumnType type : featureTypes ) {
+			if ( type == ColumnType.INTEGER )
+				++integerCount;
+			else if ( type == ColumnType.TEXT )
+				++textCount;
+		}
+
+		StringBuilder buf = new StringBuilder();
+		if ( estimatedRowCount >= 0 ) {
+			buf.append( String.format( "~%,d rows, ", estimatedRowCount ) );
+		}
+		buf.append( String.format( "%d features", featureTypes.length ) );
+		if ( integerCount > 0 ) {
+			buf.append( String.format( " (%d integer)", integerCount ) );
+		}
+		if ( textCount > 0 ) {
+			buf.append( String.format( ", %d non-numeric", textCount ) );
+		}
+		return buf.toString();
+	}
+
+
+	private static class Sample
+	{
+		private final List<String> lines = new ArrayList<>();
+		private final List<Integer> lineBytes = new ArrayList<>();
+		/** Position in the file after the last complete line of the block */
+		private long end;
+	}
+}
@@ -0,0 +1,182 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import basic_hierarchy.common.AlphanumComparator;
+import basic_hierarchy.common.Utils;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.reader.GeneratedCSVReader;
+import pl.pwr.hiervis.core.HVConstants;
+
+
+/**
+ * A CSV hierarchy reader for compressed files (see {@link CompressionType}).
+ * Uncompressed files are read as well, though other readers handle them more efficiently.
+ *
+ * <p>
+ * The file is decompressed on a separate thread, which hands buffers of decompressed data over to
+ * the parsing thread (see {@link PipelinedInputStream}), so that decompression and parsing overlap.
+ * The resulting {@link Hierarchy} is exactly the same as the one created by {@link GeneratedCSVReader}
+ * from the decompressed file.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class CompressedCSVReader extends AbstractHierarchyReader
+{
+	/** Number of lines after which progress is updated, and interrupt status is checked */
+	private static final int progressInterval = 4096;
+
+	private final int bufferSize;
+	private final int bufferCount;
+
+
+	public CompressedCSVReader()
+	{
+		this( 1 << 20, 4 );
+	}
+
+	/**
+	 * @param bufferSize
+	 *            size of a single buffer of decompressed data, in bytes
+	 * @param bufferCount
+	 *            max number of buffers that can be decompressed ahead of the parser
+	 */
+	public CompressedCSVReader( int bufferSize, int bufferCount )
+	{
+		this.bufferSize = bufferSize;
+		this.bufferCount = bufferCount;
+	}
+
+	@Override
+	public Hierarchy load(
+		String filePath,
+		boolean withInstanceNameAttribute, boolean withTrueClassAttribute, boolean withHeader,
+		boolean fillBreadthGaps, boolean useSubtree ) throws IOException
+	{
+		reset( getParsingStatus() );
+		File file = checkFile( filePath );
+		CompressionType compression = CompressionType.of( file );
+
+		Map<String, BasicNode> nodes = new TreeMap<>( new AlphanumComparator() );
+		Map<String, Integer> classCounts = new HashMap<>();
+		String[] dataNames = null;
+		int instanceCount = 0;
+
+		final long fileSize = file.length();
+		CountingInputStream compressed = new CountingInputStream( new FileInputStream( file ) );
+		InputStream decompressed = null;
+		try {
+			decompressed = compression.decompress( compressed );
+		}
+		catch ( IOException e ) {
+			compressed.close();
+			throw e;
+		}
+
+		try ( BufferedReader reader = new BufferedReader(
+			new InputStreamReader( new PipelinedInputStream( decompressed, bufferSize, bufferCount ), StandardCharsets.UTF_8 )
+		) ) {
+			String line = reader.readLine();
+
+			if ( line != null ) {
+				ColumnLayout layout = ColumnLayout.of( line, withInstanceNameAttribute, withTrueClassAttribute );
+				if ( withHeader ) {
+					dataNames = layout.getDataNames( line.split( HVConstants.CSV_FILE_SEPARATOR ) );
+					line = reader.readLine();
+				}
+
+				BasicNode node = null;
+				int linesSinceReport = 0;
+
+				for ( ; line != null; line = reader.readLine() ) {
+					Instance instance = layout.parse( line, line.split( HVConstants.CSV_FILE_SEPARATOR ), classCounts );
+
+					if ( node == null || !node.getId().equals( instance.getNodeId() ) ) {
+						node = nodes.get( instance.getNodeId() );
+						if ( node == null ) {
+							node = new BasicNode( instance.getNodeId(), null, useSubtree );
+							nodes.put( node.getId(), node );
+						}
+					}
+
+					// Share a single id string between all instances in the node
+					instance.setNodeId( node.getId() );
+					node.addInstance( instance );
+					++instanceCount;
+
+					if ( ++linesSinceReport == progressInterval ) {
+						linesSinceReport = 0;
+						// Compressed bytes consumed by the decompressing thread, which runs slightly ahead.
+						progress = (int)( 100.0 * compressed.getCount() / fileSize );
+						Utils.checkInterruptStatus();
+					}
+				}
+			}
+		}
+
+		return buildHierarchy( nodes, dataNames, classCounts, instanceCount, fillBreadthGaps, useSubtree );
+	}
+
+
+	/**
+	 * Counts bytes read from the underlying stream, so that progress can be reported
+	 * in terms of the compressed file's size.
+	 */
+	private static class CountingInputStream extends FilterInputStream
+	{
+		private volatile long count = 0;
+
+
+		public CountingInputStream( InputStream in )
+		{
+			super( in );
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int result = super.read();
+			if ( result >= 0 ) {
+				++count;
+			}
+			return result;
+		}
+
+		@Override
+		public int read( byte[] b, int off, int len ) throws IOException
+		{
+			int result = super.read( b, off, len );
+			if ( result > 0 ) {
+				count += result;
+			}
+			return result;
+		}
+
+		@Override
+		public long skip( long n ) throws IOException
+		{
+			long result = super.skip( n );
+			count += result;
+			return result;
+		}
+	}
+}
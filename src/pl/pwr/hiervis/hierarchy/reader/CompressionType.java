@@ -0,0 +1,189 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Enumerates compression formats that hierarchy files can be read from and written to.
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public enum CompressionType
+{
+	NONE( null )
+	{
+		@Override
+		public InputStream decompress( InputStream in )
+		{
+			return in;
+		}
+
+		@Override
+		public OutputStream compress( OutputStream out )
+		{
+			return out;
+		}
+
+		@Override
+		public long getUncompressedSize( File file )
+		{
+			return file.length();
+		}
+	},
+
+	GZIP( "gz" )
+	{
+		@Override
+		public InputStream decompress( InputStream in ) throws IOException
+		{
+			return new GZIPInputStream( in, bufferSize );
+		}
+
+		@Override
+		public OutputStream compress( OutputStream out ) throws IOException
+		{
+			return new GZIPOutputStream( out, bufferSize );
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * <p>
+		 * Read from the gzip trailer, which stores the size modulo 2^32, and only describes the last
+		 * member of the file - so the value is only reliable for single-member files smaller than 4 GB.
+		 * </p>
+		 */
+		@Override
+		public long getUncompressedSize( File file ) throws IOException
+		{
+			try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+				long size = channel.size();
+				if ( size < 18 ) {
+					return -1;
+				}
+
+				ByteBuffer buf = ByteBuffer.allocate( 4 ).order( ByteOrder.LITTLE_ENDIAN );
+				while ( buf.hasRemaining() ) {
+					if ( channel.read( buf, size - 4 + buf.position() ) < 0 ) {
+						return -1;
+					}
+				}
+				return buf.getInt( 0 ) & 0xFFFFFFFFL;
+			}
+		}
+	};
+
+	private static final int bufferSize = 1 << 16;
+
+	private static final byte[] gzipMagic = { (byte)0x1F, (byte)0x8B };
+	private static final byte[] zstdMagic = { (byte)0x28, (byte)0xB5, (byte)0x2F, (byte)0xFD };
+
+	private final String extension;
+
+
+	private CompressionType( String extension )
+	{
+		this.extension = extension;
+	}
+
+	/**
+	 * @return file name extension (without the leading dot) used by files compressed with this format,
+	 *         or null for {@link #NONE}.
+	 */
+	public String getExtension()
+	{
+		return extension;
+	}
+
+	/**
+	 * @param in
+	 *            stream of compressed data
+	 * @return stream of decompressed data
+	 */
+	public abstract InputStream decompress( InputStream in ) throws IOException;
+
+	/**
+	 * @param out
+	 *            stream to write compressed data to
+	 * @return stream that compresses data written to it. Closing it finishes the compressed stream.
+	 */
+	public abstract OutputStream compress( OutputStream out ) throws IOException;
+
+	/**
+	 * @param file
+	 *            a file compressed with this format
+	 * @return size of the file's contents after decompression, or -1 if it cannot be determined without
+	 *         decompressing the whole file.
+	 */
+	public abstract long getUncompressedSize( File file ) throws IOException;
+
+	/**
+	 * Detects compression format of the specified file based on its contents.
+	 *
+	 * @param file
+	 *            the file to check
+	 * @return compression format of the file, or {@link #NONE} if the file is not compressed.
+	 * @throws IOException
+	 *             if the file could not be read, or is compressed with an unsupported format
+	 */
+	public static CompressionType of( File file ) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate( zstdMagic.length );
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			while ( buf.hasRemaining() && channel.read( buf, buf.position() ) > 0 ) {
+				// Keep reading
+			}
+		}
+
+		if ( startsWith( buf, gzipMagic ) ) {
+			return GZIP;
+		}
+		if ( startsWith( buf, zstdMagic ) ) {
+			throw new IOException(
+				"Zstandard-compressed files are not supported. Decompress the file, or recompress it with gzip: " + file
+			);
+		}
+		return NONE;
+	}
+
+	/**
+	 * Picks the compression format to use for a file based on its name.
+	 *
+	 * @param path
+	 *            path to the file
+	 * @return compression format matching the file's extension, or {@link #NONE} if none matches.
+	 */
+	public static CompressionType forPath( String path )
+	{
+		String name = path.toLowerCase( Locale.ENGLISH );
+		for ( CompressionType type : values() ) {
+			if ( type.extension != null && name.endsWith( "." + type.extension ) ) {
+				return type;
+			}
+		}
+		return NONE;
+	}
+
+	private static boolean startsWith( ByteBuffer buf, byte[] magic )
+	{
+		if ( buf.position() < magic.length ) {
+			return false;
+		}
+		for ( int i = 0; i < magic.length; ++i ) {
+			if ( buf.get( i ) != magic[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
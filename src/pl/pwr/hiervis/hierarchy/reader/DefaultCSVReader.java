@@ -0,0 +1,16 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import basic_hierarchy.reader.GeneratedCSVReader;
+
+
+/**
+ * The original, single-threaded CSV reader from the basic_hierarchy library, adapted
+ * to the {@link HierarchyReader} interface.
+ * 
+ * @author Tomasz Bachmiński
+ *
+ */
+public class DefaultCSVReader extends GeneratedCSVReader implements HierarchyReader
+{
+	// GeneratedCSVReader already implements all methods we need.
+}
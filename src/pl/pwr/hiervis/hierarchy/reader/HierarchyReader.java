@@ -0,0 +1,39 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import basic_hierarchy.interfaces.DataReader;
+import pl.pwr.hiervis.hierarchy.HierarchyLoaderThread;
+
+
+/**
+ * A {@link DataReader} that is able to report the progress of the loading operation,
+ * so that it can be displayed to the user by the {@link HierarchyLoaderThread}.
+ * 
+ * @author Tomasz Bachmiński
+ *
+ */
+public interface HierarchyReader extends DataReader
+{
+	/**
+	 * @return progress of the current loading stage, in range [0, 100], or a negative
+	 *         value if the progress cannot be determined.
+	 */
+	public int getProgress();
+
+	/**
+	 * @return message describing the current loading stage.
+	 */
+	public String getStatusMessage();
+
+	/**
+	 * Informs the reader about the expected number of rows in the file that is about to be loaded,
+	 * so that it can pre-size its data structures and report more accurate progress.
+	 * Readers are free to ignore this hint.
+	 * 
+	 * @param rowCount
+	 *            the expected number of data rows, eg. as estimated by {@link CSVFileProfile}.
+	 *            Negative if unknown.
+	 */
+	public default void setExpectedRowCount( long rowCount )
+	{
+	}
+}
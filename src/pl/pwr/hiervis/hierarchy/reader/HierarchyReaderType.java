@@ -0,0 +1,71 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+/**
+ * Enumerates {@link HierarchyReader} implementations that can be selected to load hierarchy files.
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public enum HierarchyReaderType
+{
+	DEFAULT( "Default (single-threaded)" )
+	{
+		@Override
+		public HierarchyReader createReader()
+		{
+			return new DefaultCSVReader();
+		}
+	},
+
+	PARALLEL( "Parallel" )
+	{
+		@Override
+		public HierarchyReader createReader()
+		{
+			return new ParallelCSVReader();
+		}
+	},
+
+	MAPPED( "Memory-mapped" )
+	{
+		@Override
+		public HierarchyReader createReader()
+		{
+			return new MappedCSVReader();
+		}
+	};
+
+	private final String displayName;
+
+
+	private HierarchyReaderType( String displayName )
+	{
+		this.displayName = displayName;
+	}
+
+	/**
+	 * @return a new instance of the reader represented by this type
+	 */
+	public abstract HierarchyReader createReader();
+
+	@Override
+	public String toString()
+	{
+		return displayName;
+	}
+
+	/**
+	 * @param name
+	 *            name of the enum constant
+	 * @return the reader type with the specified name, or {@link #PARALLEL} if no such type exists.
+	 */
+	public static HierarchyReaderType fromName( String name )
+	{
+		for ( HierarchyReaderType type : values() ) {
+			if ( type.name().equalsIgnoreCase( name ) ) {
+				return type;
+			}
+		}
+		return PARALLEL;
+	}
+}
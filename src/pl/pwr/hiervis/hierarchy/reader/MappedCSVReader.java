@@ -0,0 +1,454 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import basic_hierarchy.common.AlphanumComparator;
+import basic_hierarchy.common.Utils;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.reader.GeneratedCSVReader;
+import pl.pwr.hiervis.core.HVConstants;
+
+
+/**
+ * A CSV hierarchy reader that memory-maps the input file, and tokenizes it directly from the
+ * mapped bytes, without creating an intermediate String for every cell.
+ *
+ * <p>
+ * Feature values are parsed straight into each instance's {@code double[]}. Values that cannot
+ * be parsed exactly by the fast path (eg. more than 16 significant digits) fall back to
+ * {@link Double#parseDouble(String)}, so the resulting {@link Hierarchy} is exactly the same as
+ * the one created by {@link GeneratedCSVReader}.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class MappedCSVReader extends AbstractHierarchyReader
+{
+	/** Number of lines after which progress is updated, and interrupt status is checked */
+	private static final int progressInterval = 4096;
+
+
+	@Override
+	public Hierarchy load(
+		String filePath,
+		boolean withInstanceNameAttribute, boolean withTrueClassAttribute, boolean withHeader,
+		boolean fillBreadthGaps, boolean useSubtree ) throws IOException
+	{
+		reset( getParsingStatus() );
+		File file = checkFile( filePath );
+
+		Map<String, BasicNode> nodes = new TreeMap<>( new AlphanumComparator() );
+		Map<String, Integer> classCounts = new HashMap<>();
+		String[] dataNames = null;
+		int instanceCount = 0;
+
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			final long fileSize = channel.size();
+			LineScanner scanner = new LineScanner( channel, fileSize );
+
+			if ( scanner.nextLine() ) {
+				String firstLine = scanner.getLine();
+				ColumnLayout layout = ColumnLayout.of( firstLine, withInstanceNameAttribute, withTrueClassAttribute );
+
+				boolean hasLine = true;
+				if ( withHeader ) {
+					dataNames = layout.getDataNames( firstLine.split( HVConstants.CSV_FILE_SEPARATOR ) );
+					hasLine = scanner.nextLine();
+				}
+
+				final int trueClassIndex = 1;
+				final int instanceNameIndex = withTrueClassAttribute ? 2 : 1;
+
+				// Consecutive lines usually belong to the same node, so remember the last one
+				// and skip decoding / lookup if the id column hasn't changed.
+				BasicNode node = null;
+				String trueClass = null;
+				int linesSinceReport = 0;
+
+				for ( ; hasLine; hasLine = scanner.nextLine() ) {
+					int count = scanner.getColumnCount();
+					if ( count != layout.columnCount ) {
+						throw layout.invalidColumnCount( scanner.getLine(), count );
+					}
+
+					if ( node == null || !scanner.fieldEquals( 0, node.getId() ) ) {
+						String nodeId = scanner.getString( 0 );
+						if ( !isValidNodeId( nodeId ) ) {
+							throw layout.invalidAssignClass( scanner.getLine(), nodeId );
+						}
+
+						node = nodes.get( nodeId );
+						if ( node == null ) {
+							node = new BasicNode( nodeId, null, useSubtree );
+							nodes.put( nodeId, node );
+						}
+					}
+
+					if ( withTrueClassAttribute ) {
+						if ( trueClass == null || !scanner.fieldEquals( trueClassIndex, trueClass ) ) {
+							trueClass = scanner.getString( trueClassIndex );
+							if ( !isValidNodeId( trueClass ) ) {
+								throw layout.invalidTrueClass( scanner.getLine(), trueClass );
+							}
+						}
+						classCounts.merge( trueClass, 1, Integer::sum );
+					}
+
+					String instanceName = null;
+					if ( withInstanceNameAttribute ) {
+						instanceName = scanner.getString( instanceNameIndex );
+					}
+
+					double[] data = new double[layout.featureCount];
+					for ( int i = 0; i < data.length; ++i ) {
+						int field = layout.featureOffset + i;
+						try {
+							data[i] = scanner.getDouble( field );
+						}
+						catch ( NumberFormatException e ) {
+							throw layout.invalidFeature( scanner.getLine(), scanner.getString( field ) );
+						}
+					}
+
+					node.addInstance( new BasicInstance( instanceName, node.getId(), data, trueClass ) );
+					++instanceCount;
+
+					if ( ++linesSinceReport == progressInterval ) {
+						linesSinceReport = 0;
+						progress = (int)( 100.0 * scanner.getPosition() / fileSize );
+						Utils.checkInterruptStatus();
+					}
+				}
+			}
+		}
+
+		return buildHierarchy( nodes, dataNames, classCounts, instanceCount, fillBreadthGaps, useSubtree );
+	}
+
+
+	/**
+	 * Iterates over lines of a file through a memory-mapped window, and records the
+	 * bounds of each column in the current line.
+	 */
+	private static final class LineScanner
+	{
+		/** Max size of a single mapped region of the file */
+		private static final long maxWindowSize = 1L << 30;
+		private static final byte separator = (byte)HVConstants.CSV_FILE_SEPARATOR.charAt( 0 );
+
+		private static final double[] powersOfTen = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+		};
+		/** Largest integer such that all smaller integers are exactly representable as doubles */
+		private static final long maxExactMantissa = 1L << 53;
+
+		private final FileChannel channel;
+		private final long fileSize;
+
+		private MappedByteBuffer buf = null;
+		/** Offset of the mapped window in the file */
+		private long bufOffset = 0;
+		private int bufLimit = 0;
+		/** Start of the next line, relative to the mapped window */
+		private int pos = 0;
+
+		private int lineStart = 0;
+		private int lineEnd = 0;
+		private int fieldCount = 0;
+		private int[] fieldStarts = new int[16];
+		private int[] fieldEnds = new int[16];
+
+		private byte[] scratch = new byte[64];
+
+
+		public LineScanner( FileChannel channel, long fileSize ) throws IOException
+		{
+			this.channel = channel;
+			this.fileSize = fileSize;
+
+			map( 0 );
+		}
+
+		/**
+		 * @return position of the scanner in the file, in bytes
+		 */
+		public long getPosition()
+		{
+			return bufOffset + pos;
+		}
+
+		/**
+		 * Advances the scanner to the next line in the file.
+		 *
+		 * @return true if a line was read, false if the end of the file has been reached.
+		 */
+		public boolean nextLine() throws IOException
+		{
+			while ( bufOffset + pos < fileSize ) {
+				if ( scanLine() ) {
+					return true;
+				}
+
+				// The line crosses the end of the mapped window.
+				if ( pos == 0 ) {
+					throw new IOException( "Line starting at byte " + bufOffset + " is too long." );
+				}
+				map( bufOffset + pos );
+			}
+
+			return false;
+		}
+
+		/**
+		 * @return number of columns in the current line, following the semantics of {@link String#split(String)},
+		 *         ie. trailing empty columns are not counted.
+		 */
+		public int getColumnCount()
+		{
+			if ( lineStart == lineEnd ) {
+				return 1;
+			}
+
+			int result = fieldCount;
+			while ( result > 0 && fieldStarts[result - 1] == fieldEnds[result - 1] ) {
+				--result;
+			}
+			return result;
+		}
+
+		/**
+		 * @return the current line, decoded as a string
+		 */
+		public String getLine()
+		{
+			return decode( lineStart, lineEnd );
+		}
+
+		/**
+		 * @return the specified column of the current line, decoded as a string
+		 */
+		public String getString( int field )
+		{
+			return decode( fieldStarts[field], fieldEnds[field] );
+		}
+
+		/**
+		 * @return true if the specified column of the current line is equal to the specified ASCII string.
+		 */
+		public boolean fieldEquals( int field, String value )
+		{
+			int start = fieldStarts[field];
+			int len = fieldEnds[field] - start;
+			if ( len != value.length() ) {
+				return false;
+			}
+
+			for ( int i = 0; i < len; ++i ) {
+				if ( buf.get( start + i ) != value.charAt( i ) ) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Parses the specified column of the current line as a double.
+		 *
+		 * @throws NumberFormatException
+		 *             if the column is not a valid floating point number
+		 */
+		public double getDouble( int field )
+		{
+			final int start = fieldStarts[field];
+			final int end = fieldEnds[field];
+
+			int i = start;
+			boolean negative = false;
+			if ( i < end ) {
+				byte b = buf.get( i );
+				if ( b == '-' || b == '+' ) {
+					negative = b == '-';
+					++i;
+				}
+			}
+
+			long mantissa = 0;
+			int digits = 0;
+			int exponent = 0;
+			boolean fraction = false;
+
+			for ( ; i < end; ++i ) {
+				byte b = buf.get( i );
+				if ( b >= '0' && b <= '9' ) {
+					if ( ++digits > 18 ) {
+						// Would overflow the mantissa
+						return parseDoubleSlow( start, end );
+					}
+					mantissa = mantissa * 10 + ( b - '0' );
+					if ( fraction ) {
+						--exponent;
+					}
+				}
+				else if ( b == '.' && !fraction ) {
+					fraction = true;
+				}
+				else {
+					break;
+				}
+			}
+
+			if ( digits == 0 ) {
+				return parseDoubleSlow( start, end );
+			}
+
+			if ( i < end && ( buf.get( i ) == 'e' || buf.get( i ) == 'E' ) ) {
+				++i;
+				boolean negativeExp = false;
+				if ( i < end && ( buf.get( i ) == '-' || buf.get( i ) == '+' ) ) {
+					negativeExp = buf.get( i ) == '-';
+					++i;
+				}
+
+				int exp = 0;
+				int expDigits = 0;
+				for ( ; i < end && buf.get( i ) >= '0' && buf.get( i ) <= '9'; ++i ) {
+					if ( ++expDigits > 4 ) {
+						return parseDoubleSlow( start, end );
+					}
+					exp = exp * 10 + ( buf.get( i ) - '0' );
+				}
+
+				if ( expDigits == 0 ) {
+					return parseDoubleSlow( start, end );
+				}
+				exponent += negativeExp ? -exp : exp;
+			}
+
+			if ( i != end ) {
+				// Trailing characters - whitespace, type suffix, or simply an invalid value.
+				return parseDoubleSlow( start, end );
+			}
+
+			double result;
+			if ( mantissa == 0 ) {
+				result = 0;
+			}
+			else if ( mantissa <= maxExactMantissa && exponent >= -22 && exponent <= 22 ) {
+				// Both operands are exact, so a single IEEE operation yields a correctly rounded result,
+				// same as Double.parseDouble.
+				result = exponent < 0
+					? mantissa / powersOfTen[-exponent]
+					: mantissa * powersOfTen[exponent];
+			}
+			else {
+				return parseDoubleSlow( start, end );
+			}
+
+			return negative ? -result : result;
+		}
+
+		private double parseDoubleSlow( int start, int end )
+		{
+			return Double.parseDouble( decode( start, end ) );
+		}
+
+		private String decode( int start, int end )
+		{
+			int len = end - start;
+			if ( scratch.length < len ) {
+				scratch = new byte[Math.max( len, scratch.length * 2 )];
+			}
+
+			for ( int i = 0; i < len; ++i ) {
+				scratch[i] = buf.get( start + i );
+			}
+			return new String( scratch, 0, len, StandardCharsets.UTF_8 );
+		}
+
+		private void map( long offset ) throws IOException
+		{
+			long size = Math.min( maxWindowSize, fileSize - offset );
+			buf = channel.map( MapMode.READ_ONLY, offset, size );
+			bufOffset = offset;
+			bufLimit = (int)size;
+			pos = 0;
+		}
+
+		/**
+		 * Scans the line starting at the current position.
+		 *
+		 * @return true if the whole line was found within the mapped window, false otherwise.
+		 */
+		private boolean scanLine()
+		{
+			final boolean lastWindow = bufOffset + bufLimit == fileSize;
+
+			fieldCount = 0;
+			int fieldStart = pos;
+
+			for ( int i = pos; i < bufLimit; ++i ) {
+				byte b = buf.get( i );
+				if ( b == separator ) {
+					addField( fieldStart, i );
+					fieldStart = i + 1;
+				}
+				else if ( b == '\n' || b == '\r' ) {
+					int next = i + 1;
+					if ( b == '\r' ) {
+						if ( next < bufLimit ) {
+							if ( buf.get( next ) == '\n' ) {
+								++next;
+							}
+						}
+						else if ( !lastWindow ) {
+							// Can't tell whether this is a \r\n line break.
+							return false;
+						}
+					}
+
+					addField( fieldStart, i );
+					lineStart = pos;
+					lineEnd = i;
+					pos = next;
+					return true;
+				}
+			}
+
+			if ( !lastWindow ) {
+				return false;
+			}
+
+			addField( fieldStart, bufLimit );
+			lineStart = pos;
+			lineEnd = bufLimit;
+			pos = bufLimit;
+			return true;
+		}
+
+		private void addField( int start, int end )
+		{
+			if ( fieldCount == fieldStarts.length ) {
+				fieldStarts = Arrays.copyOf( fieldStarts, fieldCount * 2 );
+				fieldEnds = Arrays.copyOf( fieldEnds, fieldCount * 2 );
+			}
+
+			fieldStarts[fieldCount] = start;
+			fieldEnds[fieldCount] = end;
+			++fieldCount;
+		}
+	}
+}
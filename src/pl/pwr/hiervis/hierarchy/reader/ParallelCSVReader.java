@@ -0,0 +1,415 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import basic_hierarchy.common.AlphanumComparator;
+import basic_hierarchy.common.Utils.RuntimeInterruptedException;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.reader.GeneratedCSVReader;
+import pl.pwr.hiervis.core.HVConstants;
+import pl.pwr.hiervis.util.Utils;
+
+
+/**
+ * A CSV hierarchy reader that splits the file into byte ranges aligned on line breaks,
+ * and parses them concurrently on a {@link ForkJoinPool}.
+ *
+ * <p>
+ * Instances parsed from each chunk are merged into nodes in the order in which the chunks
+ * appear in the file, so the resulting {@link Hierarchy} is exactly the same as the one
+ * created by {@link GeneratedCSVReader}.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class ParallelCSVReader extends AbstractHierarchyReader
+{
+	private static final int minChunkSize = 1 << 20; // 1 MB
+	private static final int maxChunkSize = 1 << 26; // 64 MB
+	/** Number of lines after which chunk tasks report their progress */
+	private static final int progressInterval = 4096;
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+
+	/**
+	 * Creates a reader that parses the file on the common fork-join pool.
+	 */
+	public ParallelCSVReader()
+	{
+		this( ForkJoinPool.commonPool(), -1 );
+	}
+
+	/**
+	 * @param pool
+	 *            the pool on which chunks of the file will be parsed
+	 * @param chunkSize
+	 *            size of a single chunk in bytes. Chunks are extended to the nearest line break.
+	 *            If negative, chunk size is picked based on file size and the pool's parallelism.
+	 */
+	public ParallelCSVReader( ForkJoinPool pool, int chunkSize )
+	{
+		if ( pool == null ) {
+			throw new IllegalArgumentException( "Pool must not be null!" );
+		}
+
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public Hierarchy load(
+		String filePath,
+		boolean withInstanceNameAttribute, boolean withTrueClassAttribute, boolean withHeader,
+		boolean fillBreadthGaps, boolean useSubtree ) throws IOException
+	{
+		reset( getParsingStatus() );
+		File file = checkFile( filePath );
+
+		Map<String, BasicNode> nodes = new TreeMap<>( new AlphanumComparator() );
+		Map<String, Integer> classCounts = new HashMap<>();
+		String[] dataNames = null;
+		int instanceCount = 0;
+
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			final long fileSize = channel.size();
+
+			if ( fileSize > 0 ) {
+				long dataStart = 0;
+				long firstLineEnd = findNextLineStart( channel, 0, fileSize );
+				String firstLine = trimLineBreak( readString( channel, 0, firstLineEnd ) );
+
+				ColumnLayout layout = ColumnLayout.of( firstLine, withInstanceNameAttribute, withTrueClassAttribute );
+				if ( withHeader ) {
+					dataNames = layout.getDataNames( firstLine.split( HVConstants.CSV_FILE_SEPARATOR ) );
+					dataStart = firstLineEnd;
+				}
+
+				List<ChunkResult> results = parseChunks( channel, dataStart, fileSize, layout );
+
+				statusMsg = "Merging parsed chunks...";
+				progress = -1;
+
+				for ( ChunkResult chunk : results ) {
+					for ( InstanceGroup group : chunk.groups.values() ) {
+						BasicNode node = nodes.get( group.id );
+						if ( node == null ) {
+							node = new BasicNode( group.id, null, useSubtree );
+							nodes.put( group.id, node );
+						}
+
+						String nodeId = node.getId();
+						for ( Instance instance : group.instances ) {
+							if ( instance.getNodeId() != nodeId ) {
+								// Share a single id string between all instances in the node
+								instance.setNodeId( nodeId );
+							}
+							node.addInstance( instance );
+						}
+					}
+
+					chunk.classCounts.forEach( ( k, v ) -> classCounts.merge( k, v, Integer::sum ) );
+					instanceCount += chunk.instanceCount;
+				}
+			}
+		}
+
+		return buildHierarchy( nodes, dataNames, classCounts, instanceCount, fillBreadthGaps, useSubtree );
+	}
+
+	/**
+	 * Splits the specified range of the file into chunks, and parses them in parallel.
+	 *
+	 * @return list of parse results, in the same order as the chunks appear in the file.
+	 */
+	private List<ChunkResult> parseChunks( FileChannel channel, long start, long end, ColumnLayout layout )
+		throws IOException
+	{
+		Thread caller = Thread.currentThread();
+		AtomicLong bytesRead = new AtomicLong( start );
+		LoadState state = new LoadState( caller, bytesRead, end );
+
+		double rowsPerByte = expectedRowCount > 0 ? expectedRowCount / (double)( end - start ) : 0;
+
+		List<ForkJoinTask<ChunkResult>> tasks = new ArrayList<>();
+		for ( long[] range : splitIntoChunks( channel, start, end ) ) {
+			int expectedRows = (int)Math.min( Integer.MAX_VALUE - 8, Math.round( ( range[1] - range[0] ) * rowsPerByte ) );
+			tasks.add( pool.submit( () -> parseChunk( channel, range[0], range[1], expectedRows, layout, state ) ) );
+		}
+
+		List<ChunkResult> results = new ArrayList<>( tasks.size() );
+		try {
+			// Collect results in file order, so that if multiple chunks fail, the error
+			// from the earliest line in the file is reported.
+			for ( ForkJoinTask<ChunkResult> task : tasks ) {
+				results.add( task.get() );
+			}
+		}
+		catch ( InterruptedException e ) {
+			state.aborted = true;
+			throw new RuntimeInterruptedException();
+		}
+		catch ( ExecutionException e ) {
+			state.aborted = true;
+
+			Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+				throw (IOException)cause;
+			if ( cause instanceof RuntimeException )
+				throw (RuntimeException)cause;
+			if ( cause instanceof Error )
+				throw (Error)cause;
+			throw new RuntimeException( cause );
+		}
+		finally {
+			if ( state.aborted ) {
+				tasks.forEach( t -> t.cancel( false ) );
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Splits the specified range of the file into chunks whose boundaries fall on line starts.
+	 *
+	 * @return list of [start, end) byte ranges
+	 */
+	private List<long[]> splitIntoChunks( FileChannel channel, long start, long end ) throws IOException
+	{
+		long length = end - start;
+		long size = chunkSize > 0
+			? chunkSize
+			: Utils.clamp( minChunkSize, length / ( pool.getParallelism() * 4L ), maxChunkSize );
+
+		List<long[]> result = new ArrayList<>();
+		long chunkStart = start;
+		while ( chunkStart < end ) {
+			long chunkEnd = chunkStart + size >= end
+				? end
+				: findNextLineStart( channel, chunkStart + size, end );
+			result.add( new long[] { chunkStart, chunkEnd } );
+			chunkStart = chunkEnd;
+		}
+
+		return result;
+	}
+
+	private ChunkResult parseChunk(
+		FileChannel channel, long start, long end, int expectedRows,
+		ColumnLayout layout, LoadState state ) throws IOException
+	{
+		String text = readString( channel, start, end );
+		ChunkResult result = new ChunkResult( expectedRows );
+
+		final int len = text.length();
+		int lineStart = 0;
+		int reportedPos = 0;
+		int linesSinceReport = 0;
+
+		while ( lineStart < len ) {
+			int lineEnd = lineStart;
+			char c = 0;
+			while ( lineEnd < len && ( c = text.charAt( lineEnd ) ) != '\n' && c != '\r' ) {
+				++lineEnd;
+			}
+
+			String line = text.substring( lineStart, lineEnd );
+			String[] values = line.split( HVConstants.CSV_FILE_SEPARATOR );
+			Instance instance = layout.parse( line, values, result.classCounts );
+			result.add( instance );
+
+			// Skip the line terminator, treating \r\n as a single line break
+			lineStart = lineEnd + 1;
+			if ( c == '\r' && lineStart < len && text.charAt( lineStart ) == '\n' ) {
+				++lineStart;
+			}
+
+			if ( ++linesSinceReport == progressInterval ) {
+				linesSinceReport = 0;
+				state.checkAborted();
+				// Characters are used as an approximation of bytes.
+				state.advance( Math.min( lineStart, len ) - reportedPos );
+				reportedPos = Math.min( lineStart, len );
+			}
+		}
+
+		state.advance( ( end - start ) - reportedPos );
+		return result;
+	}
+
+	/**
+	 * Finds the start of the line that follows the specified position.
+	 *
+	 * @param channel
+	 *            the channel to read from
+	 * @param pos
+	 *            position at which to start looking for a line break
+	 * @param end
+	 *            position at which to stop looking
+	 * @return position of the first byte after the nearest line break, or end if none was found.
+	 */
+	private static long findNextLineStart( FileChannel channel, long pos, long end ) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate( 8192 );
+
+		while ( pos < end ) {
+			buf.clear();
+			int read = channel.read( buf, pos );
+			if ( read <= 0 )
+				break;
+
+			for ( int i = 0; i < read; ++i ) {
+				byte b = buf.get( i );
+				if ( b == '\n' ) {
+					return Math.min( end, pos + i + 1 );
+				}
+				if ( b == '\r' ) {
+					if ( i + 1 < read ) {
+						return Math.min( end, pos + i + ( buf.get( i + 1 ) == '\n' ? 2 : 1 ) );
+					}
+					else {
+						// \r is the last byte in the buffer, need to peek at the next one.
+						ByteBuffer peek = ByteBuffer.allocate( 1 );
+						boolean crlf = channel.read( peek, pos + i + 1 ) == 1 && peek.get( 0 ) == '\n';
+						return Math.min( end, pos + i + ( crlf ? 2 : 1 ) );
+					}
+				}
+			}
+
+			pos += read;
+		}
+
+		return end;
+	}
+
+	private static String readString( FileChannel channel, long start, long end ) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate( (int)( end - start ) );
+		long pos = start;
+		while ( buf.hasRemaining() ) {
+			int read = channel.read( buf, pos );
+			if ( read < 0 )
+				break;
+			pos += read;
+		}
+
+		return new String( buf.array(), 0, buf.position(), StandardCharsets.UTF_8 );
+	}
+
+	private static String trimLineBreak( String line )
+	{
+		int end = line.length();
+		while ( end > 0 && ( line.charAt( end - 1 ) == '\n' || line.charAt( end - 1 ) == '\r' ) ) {
+			--end;
+		}
+		return line.substring( 0, end );
+	}
+
+
+	/**
+	 * State shared by all chunk tasks of a single load operation.
+	 */
+	private class LoadState
+	{
+		private final Thread caller;
+		private final AtomicLong bytesRead;
+		private final long totalBytes;
+
+		private volatile boolean aborted = false;
+
+
+		public LoadState( Thread caller, AtomicLong bytesRead, long totalBytes )
+		{
+			this.caller = caller;
+			this.bytesRead = bytesRead;
+			this.totalBytes = totalBytes;
+		}
+
+		public void advance( long bytes )
+		{
+			long total = bytesRead.addAndGet( bytes );
+			progress = (int)( 100.0 * total / totalBytes );
+		}
+
+		/**
+		 * Chunk tasks run on pool threads, so the loading thread's interrupt status
+		 * has to be checked explicitly.
+		 */
+		public void checkAborted()
+		{
+			if ( aborted || caller.isInterrupted() ) {
+				aborted = true;
+				throw new RuntimeInterruptedException();
+			}
+		}
+	}
+
+	/**
+	 * Instances read from a single chunk, grouped by the id of the node they belong to.
+	 */
+	private static class ChunkResult
+	{
+		/** Groups in order of their first appearance in the chunk */
+		private final Map<String, InstanceGroup> groups = new LinkedHashMap<>();
+		/** Insertion-ordered, so that merged counts are inserted in file order */
+		private final Map<String, Integer> classCounts = new LinkedHashMap<>();
+		/** Estimated number of rows in the chunk, or 0 if unknown */
+		private final int expectedCount;
+		private int instanceCount = 0;
+
+
+		public ChunkResult( int expectedCount )
+		{
+			this.expectedCount = expectedCount;
+		}
+
+		public void add( Instance instance )
+		{
+			InstanceGroup group = groups.get( instance.getNodeId() );
+			if ( group == null ) {
+				// Files are usually sorted by node id, so most of the chunk's rows tend to belong to its first group.
+				group = new InstanceGroup( instance.getNodeId(), groups.isEmpty() ? expectedCount : 0 );
+				groups.put( group.id, group );
+			}
+			else {
+				instance.setNodeId( group.id );
+			}
+
+			group.instances.add( instance );
+			++instanceCount;
+		}
+	}
+
+	private static class InstanceGroup
+	{
+		private final String id;
+		private final List<Instance> instances;
+
+
+		public InstanceGroup( String id, int capacity )
+		{
+			this.id = id;
+			this.instances = capacity > 0 ? new ArrayList<>( capacity ) : new ArrayList<>();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import basic_hierarchy.common.Utils.RuntimeInterruptedException;
+
+
+/**
+ * An input stream whose contents are read from the source stream by a separate thread, ahead of
+ * the consumer. Useful when reading the source stream is expensive (eg. it decompresses data),
+ * so that reading it overlaps with processing the data that has already been read.
+ *
+ * <p>
+ * Data is handed over in fixed-size buffers, which are recycled once the consumer is done with them,
+ * so the amount of data read ahead is bounded. If the consumer's thread is interrupted while waiting
+ * for data, {@link RuntimeInterruptedException} is thrown.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class PipelinedInputStream extends InputStream
+{
+	private final InputStream source;
+	private final BlockingQueue<Chunk> filled;
+	private final BlockingQueue<byte[]> free;
+	private final Thread producer;
+
+	private Chunk current = null;
+	private int pos = 0;
+	private boolean finished = false;
+
+
+	/**
+	 * @param source
+	 *            the stream to read from. It is closed when this stream is closed, or when its end is reached.
+	 * @param bufferSize
+	 *            size of a single buffer, in bytes
+	 * @param bufferCount
+	 *            max number of buffers that can be read ahead of the consumer
+	 */
+	public PipelinedInputStream( InputStream source, int bufferSize, int bufferCount )
+	{
+		if ( bufferSize <= 0 || bufferCount <= 0 ) {
+			throw new IllegalArgumentException( "Buffer size and count must be positive!" );
+		}
+
+		this.source = source;
+		this.filled = new ArrayBlockingQueue<>( bufferCount + 1 );
+		this.free = new ArrayBlockingQueue<>( bufferCount );
+		for ( int i = 0; i < bufferCount; ++i ) {
+			free.add( new byte[bufferSize] );
+		}
+
+		producer = new Thread( this::produce, "PipelinedInputStream" );
+		producer.setDaemon( true );
+		producer.start();
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if ( !fill() ) {
+			return -1;
+		}
+		return current.data[pos++] & 0xFF;
+	}
+
+	@Override
+	public int read( byte[] b, int off, int len ) throws IOException
+	{
+		if ( len == 0 ) {
+			return 0;
+		}
+		if ( !fill() ) {
+			return -1;
+		}
+
+		int count = Math.min( len, current.length - pos );
+		System.arraycopy( current.data, pos, b, off, count );
+		pos += count;
+		return count;
+	}
+
+	@Override
+	public int available()
+	{
+		return current == null ? 0 : current.length - pos;
+	}
+
+	/**
+	 * Stops the reading thread, and closes the source stream.
+	 */
+	@Override
+	public void close()
+	{
+		finished = true;
+		producer.interrupt();
+	}
+
+	/**
+	 * Makes sure that the current chunk has unread data, waiting for the next one if necessary.
+	 *
+	 * @return true if there is data to read, false if the end of the source stream has been reached.
+	 */
+	private boolean fill() throws IOException
+	{
+		while ( !finished && ( current == null || pos == current.length ) ) {
+			if ( current != null ) {
+				free.add( current.data );
+				current = null;
+			}
+
+			Chunk chunk;
+			try {
+				chunk = filled.take();
+			}
+			catch ( InterruptedException e ) {
+				throw new RuntimeInterruptedException();
+			}
+
+			if ( chunk.error != null ) {
+				finished = true;
+				throw new IOException( "Error while reading source stream: " + chunk.error.getMessage(), chunk.error );
+			}
+			if ( chunk.data == null ) {
+				finished = true;
+			}
+			else {
+				current = chunk;
+				pos = 0;
+			}
+		}
+
+		return !finished;
+	}
+
+	private void produce()
+	{
+		try {
+			while ( true ) {
+				byte[] buf = free.take();
+
+				int length = 0;
+				int read = 0;
+				while ( length < buf.length && ( read = source.read( buf, length, buf.length - length ) ) >= 0 ) {
+					length += read;
+				}
+
+				if ( length > 0 ) {
+					filled.put( new Chunk( buf, length, null ) );
+				}
+				if ( read < 0 ) {
+					filled.put( new Chunk( null, 0, null ) );
+					break;
+				}
+			}
+		}
+		catch ( InterruptedException e ) {
+			// Consumer closed the stream.
+		}
+		catch ( IOException | RuntimeException e ) {
+			// Queue has room for one chunk more than there are buffers, so this never blocks.
+			filled.add( new Chunk( null, 0, e ) );
+		}
+		finally {
+			try {
+				source.close();
+			}
+			catch ( IOException e ) {
+				// Nothing more can be done at this point.
+			}
+		}
+	}
+
+
+	private static class Chunk
+	{
+		/** Data read from the source stream, or null if its end has been reached */
+		private final byte[] data;
+		private final int length;
+		private final Exception error;
+
+
+		public Chunk( byte[] data, int length, Exception error )
+		{
+			this.data = data;
+			this.length = length;
+			this.error = error;
+		}
+	}
+}
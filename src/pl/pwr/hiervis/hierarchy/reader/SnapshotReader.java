@@ -0,0 +1,306 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import basic_hierarchy.common.Utils;
+import basic_hierarchy.implementation.BasicHierarchy;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Hierarchy;
+import pl.pwr.hiervis.hierarchy.FeatureColumnStore;
+import pl.pwr.hiervis.hierarchy.HierarchySnapshot;
+import pl.pwr.hiervis.hierarchy.LazyInstance;
+import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+
+
+/**
+ * Reads hierarchies saved in the {@link HierarchySnapshot binary snapshot format}.
+ *
+ * <p>
+ * The file is memory-mapped, and the hierarchy is rebuilt as it was saved, without any text parsing,
+ * calls to {@link basic_hierarchy.common.HierarchyBuilder HierarchyBuilder}, or centroid recalculation.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class SnapshotReader extends AbstractHierarchyReader
+{
+	/** Max size of a single mapped region of the file while verifying the checksum */
+	private static final long maxWindowSize = 1L << 30;
+
+	/** Memory budget for lazily loaded features, or a non-positive value to load features eagerly */
+	private final long featureMemoryBudget;
+
+	private volatile LoadedHierarchy.Options options = null;
+	private volatile FeatureColumnStore featureStore = null;
+
+
+	/**
+	 * Creates a reader which loads all feature values into memory.
+	 */
+	public SnapshotReader()
+	{
+		this( 0 );
+	}
+
+	/**
+	 * @param featureMemoryBudget
+	 *            if positive, instance features are not loaded into memory, but read from the snapshot file
+	 *            on demand, keeping at most this many bytes of feature values in memory (see {@link FeatureColumnStore}).
+	 *            Otherwise, all feature values are loaded into memory.
+	 */
+	public SnapshotReader( long featureMemoryBudget )
+	{
+		this.featureMemoryBudget = featureMemoryBudget;
+	}
+
+
+	/**
+	 * Loads the specified snapshot file.
+	 *
+	 * @param filePath
+	 *            path to the snapshot file
+	 * @return the hierarchy stored in the file
+	 * @throws IOException
+	 *             if an I/O error occurs, or the file is not a valid snapshot.
+	 */
+	public Hierarchy load( String filePath ) throws IOException
+	{
+		reset( "Verifying checksum..." );
+		featureStore = null;
+		File file = checkFile( filePath );
+
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			final long fileSize = channel.size();
+			if ( fileSize < HierarchySnapshot.HEADER_SIZE + HierarchySnapshot.CHECKSUM_SIZE ) {
+				throw new IOException( "Snapshot file is truncated." );
+			}
+
+			ByteBuffer header = channel.map( MapMode.READ_ONLY, 0, HierarchySnapshot.HEADER_SIZE );
+			HierarchySnapshot.checkHeader( header.getInt(), header.getInt() );
+			verifyChecksum( channel, fileSize - HierarchySnapshot.CHECKSUM_SIZE );
+
+			options = HierarchySnapshot.toOptions( header.getInt() );
+			final int featureCount = header.getInt();
+			final int nodeCount = header.getInt();
+			final int instanceCount = header.getInt();
+			final long featureBlockOffset = header.getLong();
+			final long centroidBlockOffset = header.getLong();
+
+			if ( featureBlockOffset > Integer.MAX_VALUE ) {
+				throw new IOException( "Snapshot structure section is too large." );
+			}
+
+			statusMsg = "Reading structure...";
+			progress = 0;
+
+			ByteBuffer buf = channel.map( MapMode.READ_ONLY, 0, featureBlockOffset );
+			buf.position( HierarchySnapshot.HEADER_SIZE );
+
+			String[] dataNames = null;
+			int dataNameCount = buf.getInt();
+			if ( dataNameCount >= 0 ) {
+				dataNames = new String[dataNameCount];
+				for ( int i = 0; i < dataNameCount; ++i ) {
+					dataNames[i] = getString( buf );
+				}
+			}
+
+			int classCount = buf.getInt();
+			String[] classes = new String[classCount];
+			int[] classCounts = new int[classCount];
+			for ( int i = 0; i < classCount; ++i ) {
+				classes[i] = getString( buf );
+				classCounts[i] = buf.getInt();
+			}
+
+			int rootIndex = buf.getInt();
+
+			List<BasicNode> nodes = new ArrayList<>( nodeCount );
+			int[] parents = new int[nodeCount];
+			int[][] children = new int[nodeCount][];
+			int[] instanceStarts = new int[nodeCount];
+			int[] instanceCounts = new int[nodeCount];
+			String[][] representations = new String[nodeCount][];
+			int[] representationLengths = new int[nodeCount];
+
+			for ( int i = 0; i < nodeCount; ++i ) {
+				nodes.add( new BasicNode( getString( buf ), null, options.isUseSubtree ) );
+				parents[i] = buf.getInt();
+
+				children[i] = new int[buf.getInt()];
+				for ( int j = 0; j < children[i].length; ++j ) {
+					children[i][j] = buf.getInt();
+				}
+
+				instanceStarts[i] = buf.getInt();
+				instanceCounts[i] = buf.getInt();
+
+				if ( buf.get() != 0 ) {
+					representations[i] = new String[] { getString( buf ), getString( buf ), getString( buf ) };
+					representationLengths[i] = buf.getInt();
+				}
+			}
+
+			for ( int i = 0; i < nodeCount; ++i ) {
+				BasicNode node = nodes.get( i );
+				if ( parents[i] >= 0 ) {
+					node.setParent( nodes.get( parents[i] ) );
+				}
+				for ( int child : children[i] ) {
+					node.addChild( nodes.get( child ) );
+				}
+			}
+
+			String[] instanceNames = new String[instanceCount];
+			String[] trueClasses = new String[instanceCount];
+			for ( int i = 0; i < instanceCount; ++i ) {
+				instanceNames[i] = getString( buf );
+				trueClasses[i] = getString( buf );
+			}
+
+			double[][] data = null;
+			FeatureColumnStore store = null;
+			if ( featureMemoryBudget > 0 ) {
+				store = new FeatureColumnStore(
+					file.toPath(), featureBlockOffset,
+					instanceCount, featureCount, featureMemoryBudget
+				);
+			}
+			else {
+				statusMsg = "Reading features...";
+				data = readFeatureBlock( channel, featureBlockOffset, instanceCount, featureCount );
+			}
+
+			statusMsg = "Creating instances...";
+			for ( int i = 0; i < nodeCount; ++i ) {
+				BasicNode node = nodes.get( i );
+				String nodeId = node.getId();
+
+				final int start = instanceStarts[i];
+				final int end = start + instanceCounts[i];
+				for ( int j = start; j < end; ++j ) {
+					if ( store == null ) {
+						node.addInstance( new BasicInstance( instanceNames[j], nodeId, data[j], trueClasses[j] ) );
+					}
+					else {
+						node.addInstance( new LazyInstance( store, j, instanceNames[j], nodeId, trueClasses[j] ) );
+					}
+				}
+			}
+
+			DoubleBuffer centroids = channel.map(
+				MapMode.READ_ONLY, centroidBlockOffset,
+				fileSize - HierarchySnapshot.CHECKSUM_SIZE - centroidBlockOffset
+			).asDoubleBuffer();
+
+			for ( int i = 0; i < nodeCount; ++i ) {
+				if ( representations[i] != null ) {
+					String[] attrs = representations[i];
+					double[] centroid = new double[representationLengths[i]];
+					centroids.get( centroid );
+					nodes.get( i ).setRepresentation( new BasicInstance( attrs[0], attrs[1], centroid, attrs[2] ) );
+				}
+			}
+
+			progress = 100;
+			featureStore = store;
+			return new BasicHierarchy( nodes.get( rootIndex ), nodes, dataNames, classes, classCounts, instanceCount );
+		}
+	}
+
+	/**
+	 * Loads the specified snapshot file. The CSV-specific options are ignored - the snapshot
+	 * is loaded with the options that were stored in it, which can be retrieved via {@link #getOptions()}.
+	 */
+	@Override
+	public Hierarchy load(
+		String filePath,
+		boolean withInstanceNameAttribute, boolean withTrueClassAttribute, boolean withHeader,
+		boolean fillBreadthGaps, boolean useSubtree ) throws IOException
+	{
+		return load( filePath );
+	}
+
+	/**
+	 * @return options stored in the last loaded snapshot, or null if no snapshot has been loaded yet.
+	 */
+	public LoadedHierarchy.Options getOptions()
+	{
+		return options;
+	}
+
+	/**
+	 * @return the store providing feature values of instances in the last loaded snapshot,
+	 *         or null if features were loaded eagerly.
+	 */
+	public FeatureColumnStore getFeatureStore()
+	{
+		return featureStore;
+	}
+
+	private void verifyChecksum( FileChannel channel, long length ) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		for ( long pos = 0; pos < length; pos += maxWindowSize ) {
+			crc.update( channel.map( MapMode.READ_ONLY, pos, Math.min( maxWindowSize, length - pos ) ) );
+			progress = (int)( 100.0 * pos / length );
+			Utils.checkInterruptStatus();
+		}
+
+		ByteBuffer stored = ByteBuffer.allocate( HierarchySnapshot.CHECKSUM_SIZE );
+		channel.read( stored, length );
+		if ( stored.getLong( 0 ) != crc.getValue() ) {
+			throw new IOException( "Snapshot file is corrupted (checksum mismatch)." );
+		}
+	}
+
+	/**
+	 * Reads the feature block, transposing its columns into per-instance rows.
+	 */
+	private double[][] readFeatureBlock( FileChannel channel, long offset, int instanceCount, int featureCount )
+		throws IOException
+	{
+		double[][] result = new double[instanceCount][featureCount];
+		double[] column = new double[instanceCount];
+		final long columnSize = (long)instanceCount * Double.BYTES;
+
+		for ( int f = 0; f < featureCount; ++f ) {
+			MappedByteBuffer mapped = channel.map( MapMode.READ_ONLY, offset + f * columnSize, columnSize );
+			mapped.asDoubleBuffer().get( column );
+
+			for ( int i = 0; i < instanceCount; ++i ) {
+				result[i][f] = column[i];
+			}
+
+			progress = (int)( 100.0 * ( f + 1 ) / featureCount );
+			Utils.checkInterruptStatus();
+		}
+
+		return result;
+	}
+
+	private static String getString( ByteBuffer buf )
+	{
+		int length = buf.getInt();
+		if ( length < 0 ) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		buf.get( bytes );
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+}
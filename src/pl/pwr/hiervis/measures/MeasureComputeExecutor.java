@@ -0,0 +1,475 @@
+package pl.pwr.hiervis.measures;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import pl.pwr.hiervis.util.Event;
+import pl.pwr.hiervis.util.SwingUIUtils;
+
+
+/**
+ * Executor performing calculations of hierarchy measures on a configurable number of worker threads.
+ *
+ * <p>
+ * Posted tasks are processed in order of their {@link Priority}, and in order in which they were posted
+ * within the same priority. Idle workers wait for new tasks to be posted, instead of polling the queue.
+ * </p>
+ *
+ * <p>
+ * A single {@link MeasureTask} is never computed by two workers at the same time (eg. for two different
+ * node hierarchies), since measure objects and script functions backing them are shared, and are not
+ * guaranteed to be thread-safe. Different measures are computed in parallel.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class MeasureComputeExecutor
+{
+	private static final Logger log = LogManager.getLogger( MeasureComputeExecutor.class );
+
+	/**
+	 * Priority of a posted task. Tasks with higher priority are started before tasks with lower priority.
+	 */
+	public enum Priority
+	{
+		/** Measures of the hierarchy or node that the user is looking at */
+		VISIBLE,
+		/** Measures requested without any particular urgency */
+		NORMAL,
+		/** Measures computed automatically in the background */
+		BACKGROUND
+	}
+
+
+	/** Sent when a measure task is posted for processing. */
+	public final Event<Pair<Hierarchy, MeasureTask>> taskPosted = new Event<>();
+	/** Sent when a measure task computation failed due to an exception. */
+	public final Event<Pair<Hierarchy, MeasureTask>> taskFailed = new Event<>();
+	/** Sent when a measure computation is started. */
+	public final Event<Pair<Hierarchy, MeasureTask>> measureComputing = new Event<>();
+	/** Sent when a measure computation is finished. */
+	public final Event<Triple<Hierarchy, MeasureTask, Object>> measureComputed = new Event<>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Signalled when a task becomes available for processing, or workers have to exit */
+	private final Condition taskAvailable = lock.newCondition();
+
+	private final TreeSet<QueuedTask> tasks = new TreeSet<>();
+	private final List<QueuedTask> currentTasks = new ArrayList<>();
+	private final List<Thread> workers = new ArrayList<>();
+
+	private int workerCount = 0;
+	private long postedTaskCount = 0;
+	private boolean shutdown = false;
+
+
+	/**
+	 * @param workerCount
+	 *            number of threads computing measures
+	 */
+	public MeasureComputeExecutor( int workerCount )
+	{
+		setWorkerCount( workerCount );
+	}
+
+	/**
+	 * Changes the number of threads computing measures. When the number is decreased, excess workers
+	 * exit after they finish computing their current tasks.
+	 *
+	 * @param workerCount
+	 *            number of threads computing measures, must be positive
+	 */
+	public void setWorkerCount( int workerCount )
+	{
+		if ( workerCount <= 0 ) {
+			throw new IllegalArgumentException( "Worker count must be positive: " + workerCount );
+		}
+
+		lock.lock();
+		try {
+			if ( shutdown ) {
+				return;
+			}
+
+			this.workerCount = workerCount;
+			while ( workers.size() < workerCount ) {
+				Thread worker = new Thread( this::runWorker, "MeasureComputeThread-" + workers.size() );
+				worker.setDaemon( true );
+				workers.add( worker );
+				worker.start();
+			}
+
+			// Wake up idle workers, so that excess ones can exit.
+			taskAvailable.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of threads computing measures
+	 */
+	public int getWorkerCount()
+	{
+		lock.lock();
+		try {
+			return workerCount;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private void runWorker()
+	{
+		log.trace( "Compute thread started." );
+
+		while ( true ) {
+			QueuedTask task = takeTask();
+			if ( task == null ) {
+				break;
+			}
+
+			try {
+				compute( task );
+			}
+			catch ( Throwable e ) {
+				log.error( "Unexpected error occurred while processing measures.", e );
+			}
+			finally {
+				lock.lock();
+				try {
+					currentTasks.remove( task );
+					// Tasks of the same measure might have been held back while this one was computed.
+					taskAvailable.signalAll();
+				}
+				finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		log.trace( "Compute thread terminated." );
+	}
+
+	/**
+	 * Waits until a task is available for processing, and marks it as being processed.
+	 *
+	 * @return the task to process, or null if the calling worker should exit
+	 */
+	private QueuedTask takeTask()
+	{
+		Thread self = Thread.currentThread();
+
+		lock.lock();
+		try {
+			while ( true ) {
+				if ( shutdown || self.isInterrupted() || workers.size() > workerCount ) {
+					workers.remove( self );
+					return null;
+				}
+
+				QueuedTask task = pollTask();
+				if ( task != null ) {
+					currentTasks.add( task );
+					return task;
+				}
+
+				taskAvailable.await();
+			}
+		}
+		catch ( InterruptedException e ) {
+			workers.remove( self );
+			return null;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the first queued task whose measure is not being computed at the moment. Has to be called
+	 * while holding the lock.
+	 *
+	 * @return the removed task, or null if there is no task that can be processed
+	 */
+	private QueuedTask pollTask()
+	{
+		for ( Iterator<QueuedTask> it = tasks.iterator(); it.hasNext(); ) {
+			QueuedTask task = it.next();
+			if ( !isMeasureRunning( task.measure ) ) {
+				it.remove();
+				return task;
+			}
+		}
+		return null;
+	}
+
+	private boolean isMeasureRunning( MeasureTask measure )
+	{
+		for ( QueuedTask task : currentTasks ) {
+			if ( task.measure == measure ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void compute( QueuedTask task )
+	{
+		try {
+			log.trace( String.format( "Computing measure '%s'...", task.measure.identifier ) );
+			measureComputing.broadcast( Pair.of( task.hierarchy, task.measure ) );
+
+			Object result = task.measure.computeFunction.apply( task.hierarchy );
+			task.holder.putMeasureResult( Pair.of( task.hierarchy, task.measure ), result );
+
+			log.trace( String.format( "Finished computing measure '%s'", task.measure.identifier ) );
+			measureComputed.broadcast( Triple.of( task.hierarchy, task.measure, result ) );
+		}
+		catch ( Throwable e ) {
+			taskFailed.broadcast( Pair.of( task.hierarchy, task.measure ) );
+			String msg = String.format( "An error occurred while computing measure '%s'", task.measure.identifier );
+			log.error( msg, e );
+			SwingUIUtils.showErrorDialog( msg + ":\n\n" + e.getMessage() + "\n\nCheck log for details." );
+		}
+	}
+
+	/**
+	 * Checks whether the measure with the specified name is scheduled for processing, or
+	 * currently being processed.
+	 *
+	 * @param hierarchy
+	 *            the hierarchy to check the measure for
+	 * @param measure
+	 *            the task to look for
+	 * @return true if a measure with the specified identifier is pending calculation, or
+	 *         is currently being calculated. False otherwise.
+	 */
+	public boolean isMeasurePending( Hierarchy hierarchy, MeasureTask measure )
+	{
+		lock.lock();
+		try {
+			for ( QueuedTask task : currentTasks ) {
+				if ( task.matches( hierarchy, measure ) ) {
+					return true;
+				}
+			}
+			for ( QueuedTask task : tasks ) {
+				if ( task.matches( hierarchy, measure ) ) {
+					return true;
+				}
+			}
+			return false;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Posts a new task for the executor to process, with {@link Priority#NORMAL} priority.
+	 *
+	 * @param holder
+	 *            the result holder in which the measure result will be saved
+	 * @param hierarchy
+	 *            the hierarchy for which the measure is to be computed
+	 * @param task
+	 *            the task to post
+	 */
+	public void postTask( MeasureResultHolder holder, Hierarchy hierarchy, MeasureTask task )
+	{
+		postTask( holder, hierarchy, task, Priority.NORMAL );
+	}
+
+	/**
+	 * Posts a new task for the executor to process.
+	 *
+	 * @param holder
+	 *            the result holder in which the measure result will be saved
+	 * @param hierarchy
+	 *            the hierarchy for which the measure is to be computed
+	 * @param task
+	 *            the task to post
+	 * @param priority
+	 *            priority of the task
+	 */
+	public void postTask( MeasureResultHolder holder, Hierarchy hierarchy, MeasureTask task, Priority priority )
+	{
+		if ( holder == null ) {
+			throw new IllegalArgumentException( "Holder must not be null!" );
+		}
+		if ( hierarchy == null ) {
+			throw new IllegalArgumentException( "Hierarchy must not be null!" );
+		}
+		if ( task == null ) {
+			throw new IllegalArgumentException( "Task must not be null!" );
+		}
+		if ( priority == null ) {
+			throw new IllegalArgumentException( "Priority must not be null!" );
+		}
+
+		lock.lock();
+		try {
+			tasks.add( new QueuedTask( holder, hierarchy, task, priority, postedTaskCount++ ) );
+			taskAvailable.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+
+		taskPosted.broadcast( Pair.of( hierarchy, task ) );
+	}
+
+	/**
+	 * Removes the task from processing queue, if it is not already being processed.
+	 *
+	 * @param hierarchy
+	 *            the hierarchy for which the measure is to be computed
+	 * @param task
+	 *            the task to remove.
+	 * @return true if the task was found and removed, false otherwise.
+	 */
+	public boolean removeTask( Hierarchy hierarchy, MeasureTask task )
+	{
+		if ( hierarchy == null ) {
+			throw new IllegalArgumentException( "Hierarchy must not be null!" );
+		}
+		if ( task == null ) {
+			throw new IllegalArgumentException( "Task must not be null!" );
+		}
+
+		lock.lock();
+		try {
+			return tasks.removeIf( t -> t.matches( hierarchy, task ) );
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Changes the priority of all tasks queued for the specified hierarchy, that haven't been started yet.
+	 * Tasks keep their order relative to other tasks posted with the same priority.
+	 *
+	 * @param hierarchy
+	 *            the hierarchy whose tasks are to be changed
+	 * @param priority
+	 *            the new priority of the tasks
+	 * @return number of tasks whose priority was changed
+	 */
+	public int reprioritizeTasks( Hierarchy hierarchy, Priority priority )
+	{
+		if ( hierarchy == null ) {
+			throw new IllegalArgumentException( "Hierarchy must not be null!" );
+		}
+		if ( priority == null ) {
+			throw new IllegalArgumentException( "Priority must not be null!" );
+		}
+
+		lock.lock();
+		try {
+			List<QueuedTask> changed = new ArrayList<>();
+			for ( Iterator<QueuedTask> it = tasks.iterator(); it.hasNext(); ) {
+				QueuedTask task = it.next();
+				if ( task.hierarchy.equals( hierarchy ) && task.priority != priority ) {
+					it.remove();
+					changed.add( task );
+				}
+			}
+
+			for ( QueuedTask task : changed ) {
+				tasks.add( new QueuedTask( task.holder, task.hierarchy, task.measure, priority, task.sequence ) );
+			}
+			return changed.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Clears any pending tasks that have been scheduled for computation, but haven't been started yet.
+	 */
+	public void clearPendingTasks()
+	{
+		lock.lock();
+		try {
+			tasks.clear();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Shuts down the executor. Tasks that are currently being computed are interrupted.
+	 */
+	public void shutdown()
+	{
+		log.trace( "Shutting down..." );
+
+		lock.lock();
+		try {
+			shutdown = true;
+			tasks.clear();
+			workers.forEach( Thread::interrupt );
+			taskAvailable.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+
+		taskPosted.clearListeners();
+		taskFailed.clearListeners();
+		measureComputing.clearListeners();
+		measureComputed.clearListeners();
+	}
+
+
+	private static final class QueuedTask implements Comparable<QueuedTask>
+	{
+		private final MeasureResultHolder holder;
+		private final Hierarchy hierarchy;
+		private final MeasureTask measure;
+		private final Priority priority;
+		/** Sequence number, keeping tasks with the same priority in the order they were posted */
+		private final long sequence;
+
+
+		private QueuedTask(
+			MeasureResultHolder holder, Hierarchy hierarchy, MeasureTask measure,
+			Priority priority, long sequence )
+		{
+			this.holder = holder;
+			this.hierarchy = hierarchy;
+			this.measure = measure;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		private boolean matches( Hierarchy hierarchy, MeasureTask measure )
+		{
+			return this.hierarchy.equals( hierarchy ) && this.measure.equals( measure );
+		}
+
+		@Override
+		public int compareTo( QueuedTask o )
+		{
+			int result = priority.compareTo( o.priority );
+			return result != 0 ? result : Long.compare( sequence, o.sequence );
+		}
+	}
+}
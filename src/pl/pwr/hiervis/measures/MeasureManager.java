@@ -9,8 +9,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -41,22 +45,47 @@ public class MeasureManager
 	/** Sent when a measure computation is finished. */
 	public final Event<Triple<Hierarchy, MeasureTask, Object>> measureComputed = new Event<>();
 
-	private MeasureComputeThread computeThread = null;
+	private MeasureComputeExecutor computeExecutor = null;
 	private Map<String, Collection<MeasureTask>> measureGroupMap = null;
 
 
+	/**
+	 * Creates a new manager, computing measures on one thread per available processor.
+	 */
 	public MeasureManager()
 	{
+		this( new MeasureComputeExecutor( Runtime.getRuntime().availableProcessors() ) );
+	}
+
+	/**
+	 * @param computeExecutor
+	 *            the executor to compute measures with. The manager takes ownership of the executor,
+	 *            and shuts it down when it is disposed.
+	 */
+	public MeasureManager( MeasureComputeExecutor computeExecutor )
+	{
+		if ( computeExecutor == null ) {
+			throw new IllegalArgumentException( "Executor must not be null!" );
+		}
+
 		measureGroupMap = new HashMap<>();
 
-		computeThread = new MeasureComputeThread();
+		this.computeExecutor = computeExecutor;
 
-		computeThread.taskPosted.addListener( this::onTaskPosted );
-		computeThread.taskFailed.addListener( this::onTaskFailed );
-		computeThread.measureComputing.addListener( this::onMeasureComputing );
-		computeThread.measureComputed.addListener( this::onMeasureComputed );
+		computeExecutor.taskPosted.addListener( this::onTaskPosted );
+		computeExecutor.taskFailed.addListener( this::onTaskFailed );
+		computeExecutor.measureComputing.addListener( this::onMeasureComputing );
+		computeExecutor.measureComputed.addListener( this::onMeasureComputed );
+	}
 
-		computeThread.start();
+	/**
+	 * @param workerCount
+	 *            number of threads computing measures
+	 * @see MeasureComputeExecutor#setWorkerCount(int)
+	 */
+	public void setWorkerCount( int workerCount )
+	{
+		computeExecutor.setWorkerCount( workerCount );
 	}
 
 	/**
@@ -72,11 +101,11 @@ public class MeasureManager
 	 */
 	public boolean isMeasurePending( Hierarchy h, MeasureTask measure )
 	{
-		return computeThread.isMeasurePending( h, measure );
+		return computeExecutor.isMeasurePending( h, measure );
 	}
 
 	/**
-	 * Posts a new task for the thread to process.
+	 * Posts a new task for the executor to process, with {@link MeasureComputeExecutor.Priority#NORMAL} priority.
 	 * 
 	 * @param holder
 	 *            the result holder in which the measure result will be saved
@@ -87,11 +116,28 @@ public class MeasureManager
 	 */
 	public void postTask( MeasureResultHolder holder, Hierarchy h, MeasureTask measure )
 	{
-		computeThread.postTask( holder, h, measure );
+		computeExecutor.postTask( holder, h, measure );
 	}
 
 	/**
-	 * Posts a new task for the thread to process.
+	 * Posts a new task for the executor to process.
+	 * 
+	 * @param holder
+	 *            the result holder in which the measure result will be saved
+	 * @param h
+	 *            the hierarchy to compute the measure for
+	 * @param measure
+	 *            the measure to post
+	 * @param priority
+	 *            priority of the task
+	 */
+	public void postTask( MeasureResultHolder holder, Hierarchy h, MeasureTask measure, MeasureComputeExecutor.Priority priority )
+	{
+		computeExecutor.postTask( holder, h, measure, priority );
+	}
+
+	/**
+	 * Posts a new task for the executor to process.
 	 * 
 	 * @param task
 	 *            the task to post
@@ -102,7 +148,23 @@ public class MeasureManager
 	}
 
 	/**
-	 * Posts all measure tasks that have been defined as auto-compute for the specified hierarchy.
+	 * Changes the priority of all tasks queued for the specified hierarchy, that haven't been started yet.
+	 * 
+	 * @param h
+	 *            the hierarchy whose tasks are to be changed
+	 * @param priority
+	 *            the new priority of the tasks
+	 * @see MeasureComputeExecutor#reprioritizeTasks(Hierarchy, MeasureComputeExecutor.Priority)
+	 */
+	public void reprioritizeTasks( Hierarchy h, MeasureComputeExecutor.Priority priority )
+	{
+		computeExecutor.reprioritizeTasks( h, priority );
+	}
+
+	/**
+	 * Posts all measure tasks that have been defined as auto-compute for the specified hierarchy,
+	 * with {@link MeasureComputeExecutor.Priority#BACKGROUND} priority.
+	 * Measures that have already been computed, or are pending computation, are skipped.
 	 * 
 	 * @param holder
 	 *            the result holder in which the measure result will be saved
@@ -110,11 +172,27 @@ public class MeasureManager
 	 *            the hierarchy to compute the measures for
 	 */
 	public void postAutoComputeTasksFor( MeasureResultHolder holder, Hierarchy h )
+	{
+		postAutoComputeTasksFor( holder, h, MeasureComputeExecutor.Priority.BACKGROUND );
+	}
+
+	/**
+	 * Posts all measure tasks that have been defined as auto-compute for the specified hierarchy.
+	 * Measures that have already been computed, or are pending computation, are skipped.
+	 * 
+	 * @param holder
+	 *            the result holder in which the measure result will be saved
+	 * @param h
+	 *            the hierarchy to compute the measures for
+	 * @param priority
+	 *            priority of the posted tasks
+	 */
+	public void postAutoComputeTasksFor( MeasureResultHolder holder, Hierarchy h, MeasureComputeExecutor.Priority priority )
 	{
 		for ( MeasureTask task : getAllMeasureTasks() ) {
 			if ( task.autoCompute && task.applicabilityFunction.apply( h )
-				&& !holder.isMeasureComputed( h, task ) ) {
-				postTask( holder, h, task );
+				&& !holder.isMeasureComputed( h, task ) && !isMeasurePending( h, task ) ) {
+				postTask( holder, h, task, priority );
 			}
 		}
 	}
@@ -130,7 +208,7 @@ public class MeasureManager
 	 */
 	public boolean removeTask( Hierarchy lh, MeasureTask measure )
 	{
-		return computeThread.removeTask( lh, measure );
+		return computeExecutor.removeTask( lh, measure );
 	}
 
 	/**
@@ -142,7 +220,7 @@ public class MeasureManager
 	 */
 	public boolean removeTask( Pair<Hierarchy, MeasureTask> task )
 	{
-		return computeThread.removeTask( task.getLeft(), task.getRight() );
+		return computeExecutor.removeTask( task.getLeft(), task.getRight() );
 	}
 
 	/**
@@ -150,7 +228,7 @@ public class MeasureManager
 	 */
 	public void clearPendingTasks()
 	{
-		computeThread.clearPendingTasks();
+		computeExecutor.clearPendingTasks();
 	}
 
 	/**
@@ -238,10 +316,108 @@ public class MeasureManager
 
 	public void dispose()
 	{
-		computeThread.shutdown();
+		computeExecutor.shutdown();
 	}
 
-	public void dumpMeasures( Path destinationFile, LoadedHierarchy hierarchy )
+	/**
+	 * Requests the result of the specified measure, posting a task to compute it if it has not been computed yet,
+	 * or if its result has been evicted, unless the measure is already pending computation.
+	 * 
+	 * @param holder
+	 *            the result holder in which the measure result will be saved
+	 * @param h
+	 *            the hierarchy to compute the measure for
+	 * @param measure
+	 *            the measure whose result is requested
+	 * @param priority
+	 *            priority of the task, if one has to be posted
+	 * @return future completed with the measure's result, or with null if its computation failed
+	 */
+	public CompletableFuture<Object> requestMeasureResult(
+		MeasureResultHolder holder, Hierarchy h, MeasureTask measure,
+		MeasureComputeExecutor.Priority priority )
+	{
+		CompletableFuture<Object> result = new CompletableFuture<>();
+
+		Consumer<Triple<Hierarchy, MeasureTask, Object>> computedListener = computed -> {
+			if ( computed.getLeft().equals( h ) && computed.getMiddle().equals( measure ) ) {
+				result.complete( computed.getRight() );
+			}
+		};
+		Consumer<Pair<Hierarchy, MeasureTask>> failedListener = failed -> {
+			if ( failed.getLeft().equals( h ) && failed.getRight().equals( measure ) ) {
+				result.complete( null );
+			}
+		};
+		computeExecutor.measureComputed.addListener( computedListener );
+		computeExecutor.taskFailed.addListener( failedListener );
+		result.whenComplete(
+			( value, ex ) -> {
+				computeExecutor.measureComputed.removeListener( computedListener );
+				computeExecutor.taskFailed.removeListener( failedListener );
+			}
+		);
+
+		// Check for the result only after the listeners are in place, so that it can't be computed unnoticed in between.
+		Object value = holder.getMeasureResult( h, measure );
+		if ( value != null ) {
+			result.complete( value );
+		}
+		else if ( !computeExecutor.isMeasurePending( h, measure ) ) {
+			computeExecutor.postTask( holder, h, measure, priority );
+		}
+
+		return result;
+	}
+
+	/**
+	 * Writes results of all measures computed for the main hierarchy of the specified hierarchy into a CSV file.
+	 * 
+	 * <p>
+	 * Results are only retrieved from the hierarchy's result holder once, so that all parts of the file are
+	 * consistent, even if results are evicted in the meantime. Results that have been evicted are computed again
+	 * before the file is written, with {@link MeasureComputeExecutor.Priority#VISIBLE} priority.
+	 * </p>
+	 * 
+	 * @param destinationFile
+	 *            the file to write to
+	 * @param hierarchy
+	 *            the hierarchy whose measures are to be written
+	 * @return future completed once the file has been written
+	 */
+	public CompletableFuture<Void> dumpMeasures( Path destinationFile, LoadedHierarchy hierarchy )
+	{
+		Hierarchy h = hierarchy.getMainHierarchy();
+		Collection<MeasureTask> measures = getAllMeasureTasks();
+
+		Map<MeasureTask, Object> results = new ConcurrentHashMap<>();
+		List<CompletableFuture<Void>> recomputed = new ArrayList<>();
+		for ( MeasureTask task : measures ) {
+			Object result = hierarchy.measureHolder.getMeasureResult( h, task );
+			if ( result != null ) {
+				results.put( task, result );
+			}
+			else if ( hierarchy.measureHolder.isMeasureEvicted( h, task ) ) {
+				recomputed.add(
+					requestMeasureResult( hierarchy.measureHolder, h, task, MeasureComputeExecutor.Priority.VISIBLE )
+						.thenAccept(
+							r -> {
+								if ( r != null ) {
+									results.put( task, r );
+								}
+							}
+						)
+				);
+			}
+		}
+
+		return CompletableFuture.allOf( recomputed.toArray( new CompletableFuture<?>[0] ) )
+			.thenRun( () -> dumpMeasures( destinationFile, hierarchy, measures, results ) );
+	}
+
+	private static void dumpMeasures(
+		Path destinationFile, LoadedHierarchy hierarchy,
+		Collection<MeasureTask> measures, Map<MeasureTask, Object> results )
 	{
 		final Function<Object, String> resultToCSV = data -> {
 			if ( data instanceof Number ) {
@@ -258,9 +434,7 @@ public class MeasureManager
 
 		final Function<MeasureTask, String> dumpHistogram = task -> {
 			StringBuilder buf2 = new StringBuilder();
-			Object measureResult = hierarchy.measureHolder.getMeasureResultOrDefault(
-				hierarchy.getMainHierarchy(), task, new double[0]
-			);
+			Object measureResult = results.getOrDefault( task, new double[0] );
 
 			if ( measureResult instanceof double[] == false )
 				throw new IllegalArgumentException( "Not a histogram measure: " + task.identifier );
@@ -289,13 +463,9 @@ public class MeasureManager
 		// Measures
 		buf.append( "Use subtree for internal measures?;" );
 
-		Collection<MeasureTask> measures = getAllMeasureTasks();
-
 		measures.forEach(
 			task -> {
-				Object measureResult = hierarchy.measureHolder.getMeasureResult(
-					hierarchy.getMainHierarchy(), task
-				);
+				Object measureResult = results.get( task );
 
 				if ( measureResult instanceof Number || measureResult instanceof AvgWithStdev )
 					buf.append( task.identifier ).append( ";stdev;" );
@@ -308,9 +478,7 @@ public class MeasureManager
 
 		measures.forEach(
 			task -> {
-				Object measureResult = hierarchy.measureHolder.getMeasureResult(
-					hierarchy.getMainHierarchy(), task
-				);
+				Object measureResult = results.get( task );
 
 				if ( measureResult instanceof Number || measureResult instanceof AvgWithStdev )
 					buf.append( resultToCSV.apply( measureResult ) );
@@ -323,9 +491,7 @@ public class MeasureManager
 		// Histograms
 		measures.forEach(
 			task -> {
-				Object measureResult = hierarchy.measureHolder.getMeasureResult(
-					hierarchy.getMainHierarchy(), task
-				);
+				Object measureResult = results.get( task );
 
 				if ( measureResult instanceof double[] )
 					buf.append( dumpHistogram.apply( task ) );
@@ -336,9 +502,7 @@ public class MeasureManager
 		// String measures
 		measures.forEach(
 			task -> {
-				Object measureResult = hierarchy.measureHolder.getMeasureResult(
-					hierarchy.getMainHierarchy(), task
-				);
+				Object measureResult = results.get( task );
 
 				if ( measureResult instanceof String ) {
 					buf.append( task.identifier ).append( '\n' )
@@ -1,7 +1,7 @@
 package pl.pwr.hiervis.measures;
 
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -10,22 +10,56 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import basic_hierarchy.interfaces.Hierarchy;
 import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.util.LruCache;
 
 
 /**
  * Holder class for results of measures that have been computed for a {@link LoadedHierarchy}.
- * 
+ *
+ * <p>
+ * Results are kept in caches bounded by estimated size of the results in bytes, and held through soft references,
+ * since they can always be computed again. Results evicted from the cache are no longer reported as computed,
+ * but are reported as {@link #isMeasureEvicted(Hierarchy, MeasureTask) evicted} instead, so that they can be
+ * recomputed when they are needed again.
+ * </p>
+ *
  * @author Tomasz Bachmiński
  *
  */
 public class MeasureResultHolder
 {
-	private final Map<Pair<Hierarchy, MeasureTask>, Object> computedMeasureMap;
+	/** Default limit of estimated size of computed results, in bytes */
+	public static final long DEFAULT_MAX_RESULT_BYTES = 32L * 1024 * 1024;
+	/** Number of evicted results remembered for recomputation */
+	private static final int evictedKeysCacheSize = 1024;
+	/** Estimated size of a cache entry, including the key pair */
+	private static final long entryOverheadBytes = 96;
+
+	private final LruCache<Pair<Hierarchy, MeasureTask>, Object> computedMeasureMap;
+	/** Results computed for an earlier version of a hierarchy, which has since been modified */
+	private final LruCache<Pair<Hierarchy, MeasureTask>, Object> staleMeasureMap;
+	/** Keys of results that have been evicted from {@link #computedMeasureMap} */
+	private final LruCache<Pair<Hierarchy, MeasureTask>, Boolean> evictedMeasureMap;
 
 
 	public MeasureResultHolder()
 	{
-		computedMeasureMap = new HashMap<>();
+		this( DEFAULT_MAX_RESULT_BYTES );
+	}
+
+	/**
+	 * @param maxResultBytes
+	 *            limit of estimated size of computed results, in bytes. Stale results have a separate limit
+	 *            of the same size.
+	 */
+	public MeasureResultHolder( long maxResultBytes )
+	{
+		evictedMeasureMap = new LruCache<>( evictedKeysCacheSize );
+		computedMeasureMap = new LruCache<>(
+			maxResultBytes, MeasureResultHolder::estimateSize, true,
+			( key, value ) -> evictedMeasureMap.put( key, Boolean.TRUE )
+		);
+		staleMeasureMap = new LruCache<>( maxResultBytes, MeasureResultHolder::estimateSize, true, null );
 	}
 
 	// -------------------------------------------------------------------------
@@ -34,19 +68,18 @@ public class MeasureResultHolder
 	/**
 	 * Returns a set of measures that have been computed thus far for the currently loaded hierarchy.
 	 * <p>
-	 * This method is not particularly thread-safe, as the map of measures might be updated with new entries
-	 * while you are processing the set, resulting in missed entries.
+	 * The returned set is a snapshot, and does not reflect results computed or evicted afterwards.
 	 * </p>
 	 * <p>
 	 * For a thread-safe alternative, see {@link #forComputedMeasures(Consumer)}
 	 * </p>
-	 * 
+	 *
 	 * @see #forComputedMeasures(Consumer)
 	 */
 	public Set<Map.Entry<Pair<Hierarchy, MeasureTask>, Object>> getComputedMeasures()
 	{
 		synchronized ( computedMeasureMap ) {
-			return Collections.unmodifiableMap( computedMeasureMap ).entrySet();
+			return Collections.unmodifiableMap( computedMeasureMap.snapshot() ).entrySet();
 		}
 	}
 
@@ -80,7 +113,7 @@ public class MeasureResultHolder
 	public void forComputedMeasures( Consumer<Set<Map.Entry<Pair<Hierarchy, MeasureTask>, Object>>> function )
 	{
 		synchronized ( computedMeasureMap ) {
-			function.accept( Collections.unmodifiableMap( computedMeasureMap ).entrySet() );
+			function.accept( Collections.unmodifiableMap( computedMeasureMap.snapshot() ).entrySet() );
 		}
 	}
 
@@ -91,9 +124,8 @@ public class MeasureResultHolder
 
 	public Object getMeasureResultOrDefault( Pair<Hierarchy, MeasureTask> pair, Object defaultValue )
 	{
-		synchronized ( computedMeasureMap ) {
-			return computedMeasureMap.getOrDefault( pair, defaultValue );
-		}
+		Object result = getMeasureResult( pair );
+		return result == null ? defaultValue : result;
 	}
 
 	public Object getMeasureResult( Hierarchy hierarchy, MeasureTask measure )
@@ -117,6 +149,154 @@ public class MeasureResultHolder
 	{
 		synchronized ( computedMeasureMap ) {
 			computedMeasureMap.put( pair, value );
+			staleMeasureMap.remove( pair );
+			evictedMeasureMap.remove( pair );
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// Stale results
+
+	/**
+	 * Marks all results computed for the specified hierarchy as stale, and associates them with its replacement.
+	 * Stale results are no longer reported as computed, so that they get recomputed for the replacement hierarchy,
+	 * but can still be retrieved via {@link #getStaleMeasureResult(Hierarchy, MeasureTask)} until that happens.
+	 *
+	 * @param hierarchy
+	 *            the hierarchy whose data has changed
+	 * @param replacement
+	 *            the hierarchy that replaces it, containing up-to-date data. Can be the same as {@code hierarchy}.
+	 */
+	public void markStale( Hierarchy hierarchy, Hierarchy replacement )
+	{
+		synchronized ( computedMeasureMap ) {
+			// Results that were already stale stay stale, but have to follow the hierarchy too.
+			Map<Pair<Hierarchy, MeasureTask>, Object> moved = removeEntries( staleMeasureMap, hierarchy );
+			moved.putAll( removeEntries( computedMeasureMap, hierarchy ) );
+			removeEntries( evictedMeasureMap, hierarchy );
+
+			moved.forEach( ( key, value ) -> staleMeasureMap.put( Pair.of( replacement, key.getRight() ), value ) );
+		}
+	}
+
+	/**
+	 * @return true if the specified measure has a stale result for the specified hierarchy
+	 * @see #markStale(Hierarchy, Hierarchy)
+	 */
+	public boolean isMeasureStale( Hierarchy hierarchy, MeasureTask measure )
+	{
+		synchronized ( computedMeasureMap ) {
+			return staleMeasureMap.containsKey( Pair.of( hierarchy, measure ) );
+		}
+	}
+
+	/**
+	 * @return the stale result of the specified measure for the specified hierarchy, or null if there is none.
+	 * @see #markStale(Hierarchy, Hierarchy)
+	 */
+	public Object getStaleMeasureResult( Hierarchy hierarchy, MeasureTask measure )
+	{
+		synchronized ( computedMeasureMap ) {
+			return staleMeasureMap.get( Pair.of( hierarchy, measure ) );
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// Evicted results
+
+	/**
+	 * @return true if the specified measure has been computed for the specified hierarchy, but its result
+	 *         has since been evicted to free up memory, and has to be computed again.
+	 */
+	public boolean isMeasureEvicted( Hierarchy hierarchy, MeasureTask measure )
+	{
+		synchronized ( computedMeasureMap ) {
+			return evictedMeasureMap.containsKey( Pair.of( hierarchy, measure ) );
+		}
+	}
+
+	/**
+	 * Removes all results, including stale ones, computed for the specified hierarchy.
+	 *
+	 * @param hierarchy
+	 *            the hierarchy whose results are to be removed
+	 */
+	public void removeResults( Hierarchy hierarchy )
+	{
+		synchronized ( computedMeasureMap ) {
+			removeEntries( computedMeasureMap, hierarchy );
+			removeEntries( staleMeasureMap, hierarchy );
+			removeEntries( evictedMeasureMap, hierarchy );
+		}
+	}
+
+	/**
+	 * @return description of sizes, and hit / miss / eviction statistics of caches holding the results
+	 */
+	public String getCacheStats()
+	{
+		synchronized ( computedMeasureMap ) {
+			return String.format( "computed: %s, stale: %s", computedMeasureMap, staleMeasureMap );
+		}
+	}
+
+	/**
+	 * Removes entries of the specified hierarchy from the specified cache.
+	 *
+	 * @return the removed entries
+	 */
+	private static <V> Map<Pair<Hierarchy, MeasureTask>, V> removeEntries(
+		LruCache<Pair<Hierarchy, MeasureTask>, V> source, Hierarchy hierarchy )
+	{
+		Map<Pair<Hierarchy, MeasureTask>, V> result = source.snapshot();
+		result.keySet().removeIf( key -> key.getLeft() != hierarchy );
+		result.keySet().forEach( source::remove );
+		return result;
+	}
+
+	/**
+	 * Estimates the amount of memory taken up by the specified measure result, and its cache entry.
+	 *
+	 * @param result
+	 *            the measure result
+	 * @return estimated size in bytes
+	 */
+	public static long estimateSize( Object result )
+	{
+		return entryOverheadBytes + estimateObjectSize( result );
+	}
+
+	private static long estimateObjectSize( Object o )
+	{
+		if ( o == null ) {
+			return 0;
+		}
+		else if ( o instanceof double[] ) {
+			return 16 + 8L * ( (double[])o ).length;
+		}
+		else if ( o instanceof int[] ) {
+			return 16 + 4L * ( (int[])o ).length;
+		}
+		else if ( o instanceof String ) {
+			return 40 + 2L * ( (String)o ).length();
+		}
+		else if ( o instanceof Object[] ) {
+			long result = 16 + 8L * ( (Object[])o ).length;
+			for ( Object element : (Object[])o ) {
+				result += estimateObjectSize( element );
+			}
+			return result;
+		}
+		else if ( o instanceof Collection ) {
+			long result = 48;
+			for ( Object element : (Collection<?>)o ) {
+				result += 32 + estimateObjectSize( element );
+			}
+			return result;
+		}
+		else {
+			// Boxed numbers, and small objects like AvgWithStdev
+			return 32;
 		}
 	}
 
@@ -125,6 +305,10 @@ public class MeasureResultHolder
 	 */
 	public void clear()
 	{
-		computedMeasureMap.clear();
+		synchronized ( computedMeasureMap ) {
+			computedMeasureMap.clear();
+			staleMeasureMap.clear();
+			evictedMeasureMap.clear();
+		}
 	}
 }
@@ -0,0 +1,85 @@
+package pl.pwr.hiervis.prefuse;
+
+import pl.pwr.hiervis.hierarchy.FeatureColumnStore;
+import prefuse.data.DataTypeException;
+import prefuse.data.column.AbstractColumn;
+
+
+/**
+ * A read-only prefuse column of doubles, which reads its values from a {@link FeatureColumnStore}
+ * on demand, instead of holding a copy of them.
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class FeatureStoreColumn extends AbstractColumn
+{
+	private final FeatureColumnStore store;
+	private final int feature;
+	/** Maps table rows to rows in the store */
+	private final int[] storeRows;
+	private int size;
+
+
+	/**
+	 * @param store
+	 *            the store to read values from
+	 * @param feature
+	 *            index of the feature represented by this column
+	 * @param storeRows
+	 *            array mapping table rows to rows in the store. Shared between all columns of the table.
+	 */
+	public FeatureStoreColumn( FeatureColumnStore store, int feature, int[] storeRows )
+	{
+		super( double.class, Double.valueOf( 0 ) );
+
+		this.store = store;
+		this.feature = feature;
+		this.storeRows = storeRows;
+		this.size = storeRows.length;
+
+		setReadOnly( true );
+	}
+
+	@Override
+	public int getRowCount()
+	{
+		return size;
+	}
+
+	@Override
+	public void setMaximumRow( int nrows )
+	{
+		if ( nrows > storeRows.length ) {
+			throw new IllegalArgumentException( "Feature store column cannot grow beyond " + storeRows.length + " rows." );
+		}
+		size = nrows;
+	}
+
+	@Override
+	public Object get( int row )
+	{
+		return getDouble( row );
+	}
+
+	@Override
+	public void set( Object val, int row ) throws DataTypeException
+	{
+		throw new DataTypeException( "Column is read-only." );
+	}
+
+	@Override
+	public boolean canGetDouble()
+	{
+		return true;
+	}
+
+	@Override
+	public double getDouble( int row ) throws DataTypeException
+	{
+		if ( row < 0 || row >= size ) {
+			throw new IllegalArgumentException( "Row index out of bounds: " + row );
+		}
+		return store.get( feature, storeRows[row] );
+	}
+}
@@ -4,11 +4,40 @@ import java.lang.reflect.Field;
 
 import prefuse.data.CascadedTable;
 import prefuse.data.Table;
+import prefuse.data.column.Column;
 import prefuse.data.event.TableListener;
 
 
 public class TableEx extends Table
 {
+	public TableEx()
+	{
+		super();
+	}
+
+	/**
+	 * Creates a table pre-sized to the specified number of rows and columns.
+	 * 
+	 * @param nrows
+	 *            number of rows the table is created with
+	 * @param ncols
+	 *            expected number of columns
+	 */
+	public TableEx( int nrows, int ncols )
+	{
+		super( nrows, ncols );
+	}
+
+	/**
+	 * Adds a column with a custom implementation to this table.
+	 * Exposed publicly, so that columns not backed by prefuse's own storage can be used.
+	 */
+	@Override
+	public void addColumn( String name, Column col )
+	{
+		super.addColumn( name, col );
+	}
+
 	public void dispose()
 	{
 		if ( m_listeners != null )
@@ -1,30 +1,30 @@
 package pl.pwr.hiervis.prefuse.action;
 
-import java.awt.Color;
-
 import pl.pwr.hiervis.core.HVConfig;
 import pl.pwr.hiervis.core.HVConstants;
 import pl.pwr.hiervis.core.HVContext;
 import pl.pwr.hiervis.hierarchy.ElementRole;
+import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.hierarchy.NodeRoleTracker;
 import prefuse.action.assignment.ColorAction;
-import prefuse.data.Schema;
-import prefuse.data.Tuple;
-import prefuse.data.expression.AbstractExpression;
-import prefuse.data.expression.ComparisonPredicate;
-import prefuse.data.expression.Literal;
+import prefuse.data.Table;
 import prefuse.visual.VisualItem;
 
 
 public class InstanceColorAction extends ColorAction
 {
-	private static final ComparisonPredicate pCurrent = getPredicateFor( ElementRole.CURRENT );
-	private static final ComparisonPredicate pParent = getPredicateFor( ElementRole.DIRECT_PARENT );
-	private static final ComparisonPredicate pAncestor = getPredicateFor( ElementRole.INDIRECT_PARENT );
-	private static final ComparisonPredicate pChild = getPredicateFor( ElementRole.CHILD );
-	private static final ComparisonPredicate pOther = getPredicateFor( ElementRole.OTHER );
-
 	private HVContext context;
 	private transient HVConfig tmp = null;
+	/** Colors of instances, indexed by their node's role */
+	private transient int[] palette = null;
+	/** Role numbers of tree nodes, indexed by tree rows */
+	private transient int[] roles = null;
+
+	/** State of the last run, used to decide whether only items affected by a selection change need recoloring */
+	private transient HVConfig lastConfig = null;
+	private transient NodeRoleTracker lastTracker = null;
+	private transient int lastRevision = -1;
+	private transient int lastItemCount = -1;
 
 
 	public InstanceColorAction( HVContext context, String group, String field )
@@ -33,73 +33,57 @@ public class InstanceColorAction extends ColorAction
 		this.context = context;
 	}
 
+	/**
+	 * Only items of instances whose node's role has changed since the last run are recolored, as long as that's
+	 * the only thing that has changed (see {@link NodeRoleTracker}). Otherwise, all items are recolored.
+	 */
 	@Override
 	public void run( double frac )
 	{
 		tmp = context.getConfig();
-		super.run( frac );
-	}
+		palette = NodeColorAction.createPalette( tmp );
 
-	@Override
-	public int getColor( VisualItem item )
-	{
-		if ( pCurrent.getBoolean( item ) ) {
-			return tmp.getCurrentGroupColor().getRGB();
-		}
-		else if ( pParent.getBoolean( item ) ) {
-			return tmp.getParentGroupColor().getRGB();
-		}
-		else if ( pAncestor.getBoolean( item ) ) {
-			return tmp.getAncestorGroupColor().getRGB();
-		}
-		else if ( pChild.getBoolean( item ) ) {
-			return tmp.getChildGroupColor().getRGB();
-		}
-		else if ( pOther.getBoolean( item ) ) {
-			return tmp.getOtherGroupColor().getRGB();
+		NodeRoleTracker tracker = context.isHierarchyDataLoaded() ? context.getHierarchy().getNodeRoleTracker() : null;
+		roles = tracker == null ? new int[0] : tracker.getRoles();
+		int itemCount = m_vis.getGroup( m_group ).getTupleCount();
+
+		if ( tracker != null && tracker == lastTracker && tmp == lastConfig
+			&& tracker.getRevision() == lastRevision + 1 && itemCount == lastItemCount ) {
+			runIncremental( tracker, frac );
 		}
 		else {
-			return Color.magenta.getRGB();
+			super.run( frac );
 		}
-	}
 
-	/**
-	 * @param elementRole
-	 *            the {@link ElementRole} to test for
-	 * @return creates and returns a predicate which returns true for instances whose node's
-	 *         {@link ElementRole} is the same as the one passed in argument.
-	 */
-	public static ComparisonPredicate getPredicateFor( ElementRole elementRole )
-	{
-		return new ComparisonPredicate(
-			ComparisonPredicate.EQ,
-			new InstanceNodeExpression(),
-			Literal.getLiteral( elementRole.getNumber() )
-		);
+		lastConfig = tmp;
+		lastTracker = tracker;
+		lastRevision = tracker == null ? -1 : tracker.getRevision();
+		lastItemCount = itemCount;
 	}
 
-
-	/**
-	 * Given a row from the instance data table, extracts the node to which that instance belongs and returns
-	 * its {@link ElementRole}.
-	 */
-	@SuppressWarnings("rawtypes")
-	private static class InstanceNodeExpression extends AbstractExpression
+	private void runIncremental( NodeRoleTracker tracker, double frac )
 	{
-		public Class getType( Schema s )
-		{
-			return int.class;
+		LoadedHierarchy lh = context.getHierarchy();
+		Table table = lh.getInstanceTable();
+		for ( int treeRow : tracker.getChangedRows() ) {
+			for ( int row : lh.getInstanceRows( treeRow ) ) {
+				processIfMatching( m_vis.getVisualItem( m_group, table.getTuple( row ) ), frac );
+			}
 		}
+	}
 
-		public Object get( Tuple t )
-		{
-			return getInt( t );
+	private void processIfMatching( VisualItem item, double frac )
+	{
+		if ( item != null && m_predicate.getBoolean( item ) ) {
+			process( item, frac );
 		}
+	}
 
-		public int getInt( Tuple t )
-		{
-			prefuse.data.Node node = (prefuse.data.Node)t.get( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME );
-			return node.getInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME );
-		}
+	@Override
+	public int getColor( VisualItem item )
+	{
+		int treeRow = item.getInt( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME );
+		int role = treeRow >= 0 && treeRow < roles.length ? roles[treeRow] : ElementRole.OTHER.getNumber();
+		return NodeColorAction.getColor( palette, role );
 	}
 }
@@ -6,25 +6,24 @@ import pl.pwr.hiervis.core.HVConfig;
 import pl.pwr.hiervis.core.HVConstants;
 import pl.pwr.hiervis.core.HVContext;
 import pl.pwr.hiervis.hierarchy.ElementRole;
+import pl.pwr.hiervis.hierarchy.NodeRoleTracker;
 import prefuse.action.assignment.ColorAction;
-import prefuse.data.Schema;
-import prefuse.data.Tuple;
-import prefuse.data.expression.AbstractExpression;
-import prefuse.data.expression.ComparisonPredicate;
-import prefuse.data.expression.Literal;
+import prefuse.data.Tree;
 import prefuse.visual.VisualItem;
 
 
 public class NodeColorAction extends ColorAction
 {
-	private static final ComparisonPredicate pCurrent = getPredicateFor( ElementRole.CURRENT );
-	private static final ComparisonPredicate pParent = getPredicateFor( ElementRole.DIRECT_PARENT );
-	private static final ComparisonPredicate pAncestor = getPredicateFor( ElementRole.INDIRECT_PARENT );
-	private static final ComparisonPredicate pChild = getPredicateFor( ElementRole.CHILD );
-	private static final ComparisonPredicate pOther = getPredicateFor( ElementRole.OTHER );
-
 	private HVContext context;
 	private transient HVConfig tmp = null;
+	/** Colors of nodes, indexed by their role */
+	private transient int[] palette = null;
+
+	/** State of the last run, used to decide whether only items affected by a selection change need recoloring */
+	private transient HVConfig lastConfig = null;
+	private transient NodeRoleTracker lastTracker = null;
+	private transient int lastRevision = -1;
+	private transient int lastItemCount = -1;
 
 
 	public NodeColorAction( HVContext context, String group, String field )
@@ -33,71 +32,79 @@ public class NodeColorAction extends ColorAction
 		this.context = context;
 	}
 
+	/**
+	 * Only items of nodes whose role has changed since the last run are recolored, as long as that's the only
+	 * thing that has changed (see {@link NodeRoleTracker}). Otherwise, all items are recolored.
+	 */
 	@Override
 	public void run( double frac )
 	{
 		tmp = context.getConfig();
-		super.run( frac );
-	}
+		palette = createPalette( tmp );
 
-	@Override
-	public int getColor( VisualItem item )
-	{
-		if ( pCurrent.getBoolean( item ) ) {
-			return tmp.getCurrentGroupColor().getRGB();
-		}
-		else if ( pParent.getBoolean( item ) ) {
-			return tmp.getParentGroupColor().getRGB();
-		}
-		else if ( pAncestor.getBoolean( item ) ) {
-			return tmp.getAncestorGroupColor().getRGB();
+		NodeRoleTracker tracker = context.isHierarchyDataLoaded() ? context.getHierarchy().getNodeRoleTracker() : null;
+		int itemCount = m_vis.getGroup( m_group ).getTupleCount();
+
+		if ( tracker != null && tracker == lastTracker && tmp == lastConfig
+			&& tracker.getRevision() == lastRevision + 1 && itemCount == lastItemCount ) {
+			runIncremental( tracker, frac );
 		}
-		else if ( pChild.getBoolean( item ) ) {
-			return tmp.getChildGroupColor().getRGB();
+		else {
+			super.run( frac );
 		}
-		else if ( pOther.getBoolean( item ) ) {
-			return tmp.getOtherGroupColor().getRGB();
+
+		lastConfig = tmp;
+		lastTracker = tracker;
+		lastRevision = tracker == null ? -1 : tracker.getRevision();
+		lastItemCount = itemCount;
+	}
+
+	private void runIncremental( NodeRoleTracker tracker, double frac )
+	{
+		Tree tree = tracker.getTree();
+		for ( int row : tracker.getChangedRows() ) {
+			processIfMatching( m_vis.getVisualItem( m_group, tree.getNode( row ) ), frac );
 		}
-		else {
-			return Color.magenta.getRGB();
+	}
+
+	private void processIfMatching( VisualItem item, double frac )
+	{
+		if ( item != null && m_predicate.getBoolean( item ) ) {
+			process( item, frac );
 		}
 	}
 
+	@Override
+	public int getColor( VisualItem item )
+	{
+		return getColor( palette, item.getInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME ) );
+	}
+
 	/**
-	 * @param elementRole
-	 *            the {@link ElementRole} to test for
-	 * @return creates and returns a predicate which returns true for nodes whose
-	 *         {@link ElementRole} is the same as the one passed in argument.
+	 * @param config
+	 *            the config to take colors from
+	 * @return array of colors of elements (nodes and instances), indexed by {@link ElementRole#getNumber()}
 	 */
-	public static ComparisonPredicate getPredicateFor( ElementRole elementRole )
+	public static int[] createPalette( HVConfig config )
 	{
-		return new ComparisonPredicate(
-			ComparisonPredicate.EQ,
-			new NodeExpression(),
-			Literal.getLiteral( elementRole.getNumber() )
-		);
+		int[] result = new int[ElementRole.values().length];
+		result[ElementRole.CURRENT.getNumber()] = config.getCurrentGroupColor().getRGB();
+		result[ElementRole.DIRECT_PARENT.getNumber()] = config.getParentGroupColor().getRGB();
+		result[ElementRole.INDIRECT_PARENT.getNumber()] = config.getAncestorGroupColor().getRGB();
+		result[ElementRole.CHILD.getNumber()] = config.getChildGroupColor().getRGB();
+		result[ElementRole.OTHER.getNumber()] = config.getOtherGroupColor().getRGB();
+		return result;
 	}
 
-
 	/**
-	 * Given a node from the hierarchy tree graph, extracts its {@link ElementRole}.
+	 * @param palette
+	 *            palette created with {@link #createPalette(HVConfig)}
+	 * @param role
+	 *            number of the element's role
+	 * @return color of the element with the specified role
 	 */
-	@SuppressWarnings("rawtypes")
-	private static class NodeExpression extends AbstractExpression
+	public static int getColor( int[] palette, int role )
 	{
-		public Class getType( Schema s )
-		{
-			return int.class;
-		}
-
-		public Object get( Tuple t )
-		{
-			return getInt( t );
-		}
-
-		public int getInt( Tuple t )
-		{
-			return t.getInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME );
-		}
+		return role >= 0 && role < palette.length ? palette[role] : Color.magenta.getRGB();
 	}
 }
@@ -0,0 +1,77 @@
+package pl.pwr.hiervis.prefuse.visualization;
+
+import java.util.Iterator;
+
+import prefuse.action.layout.graph.NodeLinkTreeLayout;
+import prefuse.data.Graph;
+import prefuse.util.PrefuseLib;
+import prefuse.visual.VisualItem;
+
+
+/**
+ * {@link NodeLinkTreeLayout} that stores positions of nodes in a {@link TreeLayoutCache} once it has laid
+ * the tree out, and reuses them as long as they are valid, instead of laying the tree out again.
+ * 
+ * @author Tomasz Bachmiński
+ *
+ */
+public class CachedTreeLayout extends NodeLinkTreeLayout
+{
+	private final TreeLayoutData layoutData;
+	private final TreeLayoutCache cache;
+
+
+	/**
+	 * @param group
+	 *            the data group to lay out. Must be a tree.
+	 * @param layoutData
+	 *            the layout data to lay the tree out with
+	 * @param cache
+	 *            the cache holding positions of nodes of the tree
+	 */
+	public CachedTreeLayout( String group, TreeLayoutData layoutData, TreeLayoutCache cache )
+	{
+		super(
+			group,
+			layoutData.getTreeOrientation(),
+			layoutData.getDepthSpace(),
+			layoutData.getSiblingSpace(),
+			layoutData.getSubtreeSpace()
+		);
+
+		this.layoutData = layoutData;
+		this.cache = cache;
+	}
+
+	@Override
+	public void run( double frac )
+	{
+		Graph tree = (Graph)m_vis.getSourceData( m_group );
+		int rowCount = tree.getNodeTable().getMaximumRow() + 1;
+		String nodeGroup = PrefuseLib.getGroupName( m_group, Graph.NODES );
+
+		if ( cache.isValidFor( layoutData, rowCount ) ) {
+			Iterator<?> iter = m_vis.items( nodeGroup );
+			while ( iter.hasNext() ) {
+				VisualItem item = (VisualItem)iter.next();
+				int row = item.getSourceTuple().getRow();
+				setX( item, null, cache.getX( row ) );
+				setY( item, null, cache.getY( row ) );
+			}
+		}
+		else {
+			super.run( frac );
+
+			double[] x = new double[rowCount];
+			double[] y = new double[rowCount];
+			Iterator<?> iter = m_vis.items( nodeGroup );
+			while ( iter.hasNext() ) {
+				VisualItem item = (VisualItem)iter.next();
+				int row = item.getSourceTuple().getRow();
+				x[row] = item.getX();
+				y[row] = item.getY();
+			}
+			cache.store( layoutData, x, y );
+		}
+	}
+}
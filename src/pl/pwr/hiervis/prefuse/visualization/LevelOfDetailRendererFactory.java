@@ -0,0 +1,238 @@
+package pl.pwr.hiervis.prefuse.visualization;
+
+import java.awt.BasicStroke;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.function.IntUnaryOperator;
+
+import pl.pwr.hiervis.hierarchy.NodeIntervals;
+import prefuse.data.CascadedTable;
+import prefuse.render.Renderer;
+import prefuse.render.RendererFactory;
+import prefuse.util.ColorLib;
+import prefuse.visual.EdgeItem;
+import prefuse.visual.NodeItem;
+import prefuse.visual.VisualItem;
+
+
+/**
+ * Renderer factory for hierarchy tree visualizations, which draws subtrees that are too small on screen
+ * as single aggregate glyphs (showing the number of nodes and instances in the subtree), instead of drawing
+ * each of their nodes and edges. Subtrees expand back into nodes as the user zooms in.
+ * 
+ * <p>
+ * Level of detail is only reduced once nodes themselves become smaller than {@value #detailNodeSize} pixels
+ * on screen. Which subtrees are collapsed is then decided based on {@link SubtreeAggregates} computed from node
+ * positions held in a {@link TreeLayoutCache} - if the cache has no valid positions, all items are drawn as usual.
+ * </p>
+ * 
+ * @author Tomasz Bachmiński
+ *
+ */
+public class LevelOfDetailRendererFactory implements RendererFactory
+{
+	/** On-screen node size, in pixels, below which subtrees may be collapsed */
+	private static final double detailNodeSize = 3;
+	/** On-screen width or height, in pixels, below which subtrees are collapsed */
+	private static final double minSubtreeSize = 24;
+	/** Size of glyph labels, in pixels */
+	private static final float labelFontSize = 10;
+	/** Alpha of the glyph fill color, so that overlapping edges remain visible */
+	private static final int glyphAlpha = 160;
+
+	private final RendererFactory detailFactory;
+	private final NodeIntervals intervals;
+	private final TreeLayoutData layoutData;
+	private final TreeLayoutCache cache;
+	private final IntUnaryOperator instanceCounts;
+
+	private final Renderer nodeRenderer = new NodeLodRenderer();
+	private final Renderer edgeRenderer = new EdgeLodRenderer();
+
+	private SubtreeAggregates aggregates = null;
+	private int aggregatesRevision = -1;
+	/** Scale of the display the last time the tree was drawn, used when locating items */
+	private volatile double lastScale = 1;
+
+
+	/**
+	 * @param detailFactory
+	 *            the factory providing renderers used to draw items at full detail
+	 * @param intervals
+	 *            intervals of nodes of the visualized hierarchy tree
+	 * @param layoutData
+	 *            layout data the tree is laid out with
+	 * @param cache
+	 *            the cache holding positions of nodes of the tree
+	 * @param instanceCounts
+	 *            function returning the number of instances belonging to the node at the specified tree row
+	 *            (not including its subtree)
+	 */
+	public LevelOfDetailRendererFactory(
+		RendererFactory detailFactory,
+		NodeIntervals intervals, TreeLayoutData layoutData, TreeLayoutCache cache,
+		IntUnaryOperator instanceCounts )
+	{
+		this.detailFactory = detailFactory;
+		this.intervals = intervals;
+		this.layoutData = layoutData;
+		this.cache = cache;
+		this.instanceCounts = instanceCounts;
+	}
+
+	@Override
+	public Renderer getRenderer( VisualItem item )
+	{
+		if ( item instanceof EdgeItem ) {
+			return edgeRenderer;
+		}
+		if ( item instanceof NodeItem ) {
+			return nodeRenderer;
+		}
+		return detailFactory.getRenderer( item );
+	}
+
+	/**
+	 * @return aggregates computed from the current positions held by the cache, or null if the cache
+	 *         holds no positions, or if the tree is large enough on screen to be drawn at full detail.
+	 */
+	private SubtreeAggregates getAggregates( double scale )
+	{
+		if ( layoutData.getNodeSize() * scale >= detailNodeSize ) {
+			return null;
+		}
+
+		synchronized ( cache ) {
+			if ( aggregatesRevision != cache.getRevision() ) {
+				double[] x = cache.getXs();
+				double[] y = cache.getYs();
+				aggregates = x == null ? null : new SubtreeAggregates( intervals, x, y, layoutData.getNodeSize(), instanceCounts );
+				aggregatesRevision = cache.getRevision();
+			}
+			return aggregates;
+		}
+	}
+
+	private static int getTreeRow( VisualItem item )
+	{
+		return ( (CascadedTable)item.getTable() ).getParentRow( item.getRow() );
+	}
+
+	private boolean isHidden( VisualItem node, double scale )
+	{
+		SubtreeAggregates a = getAggregates( scale );
+		return a != null && a.isHidden( getTreeRow( node ), scale, minSubtreeSize );
+	}
+
+	private void renderGlyph( Graphics2D g, VisualItem item, SubtreeAggregates a, int row, double scale )
+	{
+		Rectangle2D box = new Rectangle2D.Double(
+			a.getMinX( row ), a.getMinY( row ),
+			a.getMaxX( row ) - a.getMinX( row ), a.getMaxY( row ) - a.getMinY( row )
+		);
+
+		int fill = item.getFillColor();
+		g.setPaint( ColorLib.getColor( ColorLib.setAlpha( fill, Math.min( glyphAlpha, ColorLib.alpha( fill ) ) ) ) );
+		g.fill( box );
+		g.setPaint( ColorLib.getColor( item.getStrokeColor() ) );
+		g.setStroke( new BasicStroke( (float)( 1 / scale ) ) );
+		g.draw( box );
+
+		// Label with node and instance counts, only if it fits in the glyph
+		Font font = item.getFont().deriveFont( (float)( labelFontSize / scale ) );
+		FontMetrics fm = g.getFontMetrics( font );
+		String[] lines = {
+			a.getNodeCount( row ) + " nodes",
+			a.getInstanceCount( row ) + " instances"
+		};
+
+		double lineHeight = fm.getHeight();
+		if ( lineHeight * lines.length > box.getHeight() ) {
+			return;
+		}
+
+		g.setFont( font );
+		g.setPaint( ColorLib.getColor( item.getTextColor() ) );
+		double y = box.getCenterY() - lineHeight * lines.length / 2 + fm.getAscent();
+		for ( String line : lines ) {
+			double width = fm.stringWidth( line );
+			if ( width <= box.getWidth() ) {
+				g.drawString( line, (float)( box.getCenterX() - width / 2 ), (float)y );
+			}
+			y += lineHeight;
+		}
+	}
+
+
+	/**
+	 * Draws nodes that aren't part of any collapsed subtree - as usual, or as glyphs if they are roots
+	 * of collapsed subtrees.
+	 */
+	private class NodeLodRenderer implements Renderer
+	{
+		@Override
+		public void render( Graphics2D g, VisualItem item )
+		{
+			double scale = g.getTransform().getScaleX();
+			lastScale = scale;
+
+			SubtreeAggregates a = getAggregates( scale );
+			if ( a != null ) {
+				int row = getTreeRow( item );
+				if ( a.isHidden( row, scale, minSubtreeSize ) ) {
+					return;
+				}
+				if ( a.isCollapsed( row, scale, minSubtreeSize ) ) {
+					renderGlyph( g, item, a, row, scale );
+					return;
+				}
+			}
+
+			detailFactory.getRenderer( item ).render( g, item );
+		}
+
+		@Override
+		public boolean locatePoint( Point2D p, VisualItem item )
+		{
+			return !isHidden( item, lastScale ) && detailFactory.getRenderer( item ).locatePoint( p, item );
+		}
+
+		@Override
+		public void setBounds( VisualItem item )
+		{
+			detailFactory.getRenderer( item ).setBounds( item );
+		}
+	}
+
+
+	/**
+	 * Draws edges leading to nodes that aren't part of any collapsed subtree.
+	 */
+	private class EdgeLodRenderer implements Renderer
+	{
+		@Override
+		public void render( Graphics2D g, VisualItem item )
+		{
+			double scale = g.getTransform().getScaleX();
+			if ( !isHidden( ( (EdgeItem)item ).getTargetItem(), scale ) ) {
+				detailFactory.getRenderer( item ).render( g, item );
+			}
+		}
+
+		@Override
+		public boolean locatePoint( Point2D p, VisualItem item )
+		{
+			return !isHidden( ( (EdgeItem)item ).getTargetItem(), lastScale )
+				&& detailFactory.getRenderer( item ).locatePoint( p, item );
+		}
+
+		@Override
+		public void setBounds( VisualItem item )
+		{
+			detailFactory.getRenderer( item ).setBounds( item );
+		}
+	}
+}
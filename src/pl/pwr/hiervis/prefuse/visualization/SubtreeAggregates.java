@@ -0,0 +1,165 @@
+package pl.pwr.hiervis.prefuse.visualization;
+
+import java.util.function.IntUnaryOperator;
+
+import pl.pwr.hiervis.hierarchy.NodeIntervals;
+
+
+/**
+ * Per-subtree summaries of a laid out hierarchy tree - number of nodes and instances in each subtree,
+ * and the area the subtree occupies in the layout - used to decide which subtrees are too small on screen
+ * to be drawn node by node, and to draw them as a single glyph instead.
+ * 
+ * <p>
+ * Since a subtree's area always contains the areas of its own subtrees, a subtree that is collapsed at some scale
+ * has all of its descendants collapsed, too. A node is therefore hidden exactly when its parent is collapsed.
+ * </p>
+ * 
+ * @author Tomasz Bachmiński
+ *
+ */
+public class SubtreeAggregates
+{
+	private final int[] parents;
+	private final int[] nodeCounts;
+	private final int[] instanceCounts;
+	private final double[] minX;
+	private final double[] minY;
+	private final double[] maxX;
+	private final double[] maxY;
+
+
+	/**
+	 * @param intervals
+	 *            intervals of nodes of the laid out tree
+	 * @param x
+	 *            x coordinates of nodes, indexed by tree rows
+	 * @param y
+	 *            y coordinates of nodes, indexed by tree rows
+	 * @param nodeSize
+	 *            size of nodes in the layout
+	 * @param instanceCounts
+	 *            function returning the number of instances belonging to the node at the specified tree row
+	 *            (not including its subtree)
+	 */
+	public SubtreeAggregates( NodeIntervals intervals, double[] x, double[] y, double nodeSize, IntUnaryOperator instanceCounts )
+	{
+		int count = Math.min( x.length, intervals.size() );
+
+		this.parents = new int[count];
+		this.nodeCounts = new int[count];
+		this.instanceCounts = new int[count];
+		this.minX = new double[count];
+		this.minY = new double[count];
+		this.maxX = new double[count];
+		this.maxY = new double[count];
+
+		// Reverse pre-order visits children before their parents
+		int[] preOrder = new int[intervals.size()];
+		for ( int row = 0; row < intervals.size(); ++row ) {
+			preOrder[intervals.getEnter( row )] = row;
+		}
+
+		double half = nodeSize * 0.5;
+		for ( int i = 0; i < count; ++i ) {
+			parents[i] = intervals.getParent( i );
+			nodeCounts[i] = 1;
+			this.instanceCounts[i] = instanceCounts.applyAsInt( i );
+			minX[i] = x[i] - half;
+			minY[i] = y[i] - half;
+			maxX[i] = x[i] + half;
+			maxY[i] = y[i] + half;
+		}
+
+		for ( int i = preOrder.length - 1; i >= 0; --i ) {
+			int row = preOrder[i];
+			int parent = row < count ? parents[row] : -1;
+			if ( parent < 0 || parent >= count ) {
+				continue;
+			}
+
+			nodeCounts[parent] += nodeCounts[row];
+			this.instanceCounts[parent] += this.instanceCounts[row];
+			minX[parent] = Math.min( minX[parent], minX[row] );
+			minY[parent] = Math.min( minY[parent], minY[row] );
+			maxX[parent] = Math.max( maxX[parent], maxX[row] );
+			maxY[parent] = Math.max( maxY[parent], maxY[row] );
+		}
+	}
+
+	/**
+	 * @return number of rows covered by the aggregates
+	 */
+	public int size()
+	{
+		return parents.length;
+	}
+
+	/**
+	 * @param row
+	 *            tree row of the subtree's root
+	 * @param scale
+	 *            current scale of the display
+	 * @param minSize
+	 *            smallest on-screen width and height, in pixels, at which subtrees are drawn node by node
+	 * @return true if the subtree should be drawn as a single glyph, ie. it has children, and is narrower
+	 *         or shorter than the specified size on screen
+	 */
+	public boolean isCollapsed( int row, double scale, double minSize )
+	{
+		if ( row < 0 || row >= parents.length || nodeCounts[row] == 1 ) {
+			return false;
+		}
+		return ( maxX[row] - minX[row] ) * scale < minSize || ( maxY[row] - minY[row] ) * scale < minSize;
+	}
+
+	/**
+	 * @param row
+	 *            tree row of the node
+	 * @param scale
+	 *            current scale of the display
+	 * @param minSize
+	 *            smallest on-screen width and height, in pixels, at which subtrees are drawn node by node
+	 * @return true if the node is part of a collapsed subtree, other than its root
+	 */
+	public boolean isHidden( int row, double scale, double minSize )
+	{
+		return row >= 0 && row < parents.length && isCollapsed( parents[row], scale, minSize );
+	}
+
+	/**
+	 * @return number of nodes in the subtree, including its root
+	 */
+	public int getNodeCount( int row )
+	{
+		return nodeCounts[row];
+	}
+
+	/**
+	 * @return number of instances in the subtree, including instances of its root
+	 */
+	public int getInstanceCount( int row )
+	{
+		return instanceCounts[row];
+	}
+
+	public double getMinX( int row )
+	{
+		return minX[row];
+	}
+
+	public double getMinY( int row )
+	{
+		return minY[row];
+	}
+
+	public double getMaxX( int row )
+	{
+		return maxX[row];
+	}
+
+	public double getMaxY( int row )
+	{
+		return maxY[row];
+	}
+}
@@ -0,0 +1,109 @@
+package pl.pwr.hiervis.prefuse.visualization;
+
+/**
+ * Holds positions of nodes of a hierarchy tree computed by a tree layout, so that the layout doesn't need
+ * to be computed again each time a visualization of the same tree is created.
+ * 
+ * <p>
+ * Positions are only valid for the {@link TreeLayoutData} they were computed with, and for the number of nodes
+ * the tree had at the time. Since nodes are never removed from hierarchy trees, and layout data is recreated
+ * whenever nodes are added, this is enough to tell whether the positions are stale.
+ * </p>
+ * 
+ * @author Tomasz Bachmiński
+ *
+ */
+public class TreeLayoutCache
+{
+	private TreeLayoutData layoutData = null;
+	private double[] x = null;
+	private double[] y = null;
+	private int revision = 0;
+
+
+	/**
+	 * @param layoutData
+	 *            the layout data the tree is about to be laid out with
+	 * @param nodeCount
+	 *            number of node rows in the tree
+	 * @return true if the cache holds positions of nodes computed with the specified layout data,
+	 *         for a tree with the specified number of rows.
+	 */
+	public synchronized boolean isValidFor( TreeLayoutData layoutData, int nodeCount )
+	{
+		return this.layoutData == layoutData && x != null && x.length == nodeCount;
+	}
+
+	/**
+	 * Replaces positions held by the cache.
+	 * 
+	 * @param layoutData
+	 *            the layout data the positions were computed with
+	 * @param x
+	 *            x coordinates of nodes, indexed by tree rows
+	 * @param y
+	 *            y coordinates of nodes, indexed by tree rows
+	 */
+	public synchronized void store( TreeLayoutData layoutData, double[] x, double[] y )
+	{
+		if ( x.length != y.length ) {
+			throw new IllegalArgumentException( "Coordinate arrays must have the same length!" );
+		}
+
+		this.layoutData = layoutData;
+		this.x = x;
+		this.y = y;
+		++revision;
+	}
+
+	/**
+	 * @return x coordinate of the node at the specified tree row
+	 */
+	public synchronized double getX( int row )
+	{
+		return x[row];
+	}
+
+	/**
+	 * @return y coordinate of the node at the specified tree row
+	 */
+	public synchronized double getY( int row )
+	{
+		return y[row];
+	}
+
+	/**
+	 * Discards all cached positions.
+	 */
+	public synchronized void clear()
+	{
+		layoutData = null;
+		x = null;
+		y = null;
+		++revision;
+	}
+
+	/**
+	 * @return number incremented each time positions held by the cache are replaced or cleared
+	 */
+	public synchronized int getRevision()
+	{
+		return revision;
+	}
+
+	/**
+	 * @return x coordinates of nodes, indexed by tree rows, or null if the cache is empty. Must not be modified.
+	 */
+	public synchronized double[] getXs()
+	{
+		return x;
+	}
+
+	/**
+	 * @return y coordinates of nodes, indexed by tree rows, or null if the cache is empty. Must not be modified.
+	 */
+	public synchronized double[] getYs()
+	{
+		return y;
+	}
+}
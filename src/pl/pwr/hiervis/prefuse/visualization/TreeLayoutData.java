@@ -11,6 +11,19 @@ import prefuse.data.Tree;
  */
 public class TreeLayoutData
 {
+	private static final double nodeSizeToDepthSpaceRatio = 2.0;
+	private static final double nodeSizeToSiblingsSpaceRatio = 4.0;
+
+	/** Size of the area the node size of {@link #adaptive(Tree, int, int) adaptive} layouts is derived from */
+	private static final int referenceLayoutSize = 2048;
+	/** Smallest node size of adaptive layouts, so that nodes of large trees remain visible */
+	private static final int minNodeSize = 8;
+	/** Largest node size of adaptive layouts, so that small trees aren't rendered at needlessly high resolution */
+	private static final int maxNodeSize = 64;
+
+	private int treeDepth;
+	private int treeWidth;
+
 	private int nodeSize;
 	private int treeOrientation;
 
@@ -30,8 +43,8 @@ public class TreeLayoutData
 		int treeDepth, int treeWidth,
 		int availableWidth, int availableHeight )
 	{
-		final double nodeSizeToDepthSpaceRatio = 2.0;
-		final double nodeSizeToSiblingsSpaceRatio = 4.0;
+		this.treeDepth = treeDepth;
+		this.treeWidth = treeWidth;
 
 		nodeSize = 0;
 		int widthBasedSizeOfNodes = 0;
@@ -74,6 +87,56 @@ public class TreeLayoutData
 		}
 	}
 
+	/**
+	 * Creates layout data for the specified tree, with the layout area sized to fit the tree, instead of
+	 * a fixed area. Node size is the size the nodes would have in a {@value #referenceLayoutSize}-pixel
+	 * square, clamped to [{@value #minNodeSize}, {@value #maxNodeSize}] - the area then grows or shrinks
+	 * to fit the tree with nodes of that size.
+	 * 
+	 * @param tree
+	 *            the tree to lay out
+	 * @param treeDepth
+	 *            depth of the tree
+	 * @param treeWidth
+	 *            number of nodes on the widest level of the tree
+	 * @return the layout data
+	 */
+	public static TreeLayoutData adaptive( Tree tree, int treeDepth, int treeWidth )
+	{
+		TreeLayoutData reference = new TreeLayoutData(
+			tree,
+			treeDepth, treeWidth,
+			referenceLayoutSize, referenceLayoutSize
+		);
+		int size = Math.max( minNodeSize, Math.min( maxNodeSize, reference.getNodeSize() ) );
+
+		// Inverse of the computations done in the constructor
+		int width = (int)Math.ceil( treeWidth * size + ( treeWidth - 1 ) * size / nodeSizeToSiblingsSpaceRatio );
+		int height = (int)Math.ceil( ( treeDepth + 1 ) * size + treeDepth * size / nodeSizeToDepthSpaceRatio );
+
+		return new TreeLayoutData(
+			tree,
+			treeDepth, treeWidth,
+			Math.max( size, width ), Math.max( size, height )
+		);
+	}
+
+	/**
+	 * Returns the depth of the tree the layout was computed for.
+	 */
+	public int getTreeDepth()
+	{
+		return treeDepth;
+	}
+
+	/**
+	 * Returns the number of nodes on the widest level of the tree the layout was computed for.
+	 */
+	public int getTreeWidth()
+	{
+		return treeWidth;
+	}
+
 	public int getNodeSize()
 	{
 		return nodeSize;
@@ -0,0 +1,193 @@
+package pl.pwr.hiervis.ui;
+
+import java.awt.Dimension;
+import java.awt.GridBagLayout;
+import java.awt.Window;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import pl.pwr.hiervis.hierarchy.BatchHierarchyLoader;
+import pl.pwr.hiervis.hierarchy.BatchHierarchyLoader.FileState;
+import pl.pwr.hiervis.util.SwingUIUtils;
+import pl.pwr.hiervis.util.ui.GridBagConstraintsBuilder;
+
+
+/**
+ * A non-modal dialog that reports the progress of a {@link BatchHierarchyLoader}, both for the whole
+ * batch and for each of its files, and allows the user to cancel any of the files.
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+@SuppressWarnings("serial")
+public class BatchLoadingDialog extends JDialog
+{
+	private static final int _refreshIntervalMs = 200;
+
+	private final BatchHierarchyLoader loader;
+	private final List<File> files;
+
+	private JLabel lblStatus;
+	private JProgressBar progressBar;
+	private JTable table;
+	private FileTableModel model;
+	private JButton btnCancelSelected;
+	private JButton btnCancelAll;
+
+	private Timer timer;
+
+
+	public BatchLoadingDialog( Window owner, BatchHierarchyLoader loader )
+	{
+		super( owner, "Loading " + loader.getFiles().size() + " files..." );
+
+		this.loader = loader;
+		this.files = loader.getFiles();
+
+		setDefaultCloseOperation( DISPOSE_ON_CLOSE );
+		setModal( false );
+		setMinimumSize( new Dimension( 400, 250 ) );
+
+		createGUI();
+
+		SwingUIUtils.addCloseCallback( this, loader::cancelAll );
+
+		timer = new Timer( _refreshIntervalMs, e -> refresh() );
+		timer.start();
+	}
+
+	private void createGUI()
+	{
+		GridBagLayout layout = new GridBagLayout();
+		layout.columnWidths = new int[] { 0, 0, 0 };
+		layout.rowHeights = new int[] { 0, 0, 0, 0 };
+		layout.columnWeights = new double[] { 1.0, 0.0, 0.0 };
+		layout.rowWeights = new double[] { 0.0, 0.0, 1.0, 0.0 };
+		getContentPane().setLayout( layout );
+
+		GridBagConstraintsBuilder builder = new GridBagConstraintsBuilder();
+
+		lblStatus = new JLabel( " " );
+		getContentPane().add( lblStatus, builder.position( 0, 0 ).spanHorizontal( 3 ).insets( 5, 5, 5, 5 ).fillHorizontal().build() );
+
+		progressBar = new JProgressBar();
+		getContentPane().add( progressBar, builder.position( 0, 1 ).spanHorizontal( 3 ).insets( 0, 5, 5, 5 ).fillHorizontal().build() );
+
+		model = new FileTableModel();
+		table = new JTable( model );
+		table.setSelectionMode( ListSelectionModel.MULTIPLE_INTERVAL_SELECTION );
+		table.getColumnModel().getColumn( 0 ).setPreferredWidth( 200 );
+		table.getSelectionModel().addListSelectionListener( e -> updateButtons() );
+
+		JScrollPane scrollPane = new JScrollPane( table );
+		getContentPane().add( scrollPane, builder.position( 0, 2 ).spanHorizontal( 3 ).insets( 0, 5, 5, 5 ).fill().build() );
+
+		btnCancelSelected = new JButton( "Cancel selected" );
+		btnCancelSelected.setEnabled( false );
+		btnCancelSelected.addActionListener( e -> cancelSelected() );
+		getContentPane().add( btnCancelSelected, builder.position( 1, 3 ).spanHorizontal( 1 ).insets( 0, 5, 5, 5 ).fillNone().anchorEast().build() );
+
+		btnCancelAll = new JButton( "Cancel all" );
+		btnCancelAll.addActionListener( e -> loader.cancelAll() );
+		getContentPane().add( btnCancelAll, builder.position( 2, 3 ).insets( 0, 0, 5, 5 ).build() );
+	}
+
+	private void cancelSelected()
+	{
+		List<File> selected = new ArrayList<>();
+		for ( int row : table.getSelectedRows() ) {
+			selected.add( files.get( table.convertRowIndexToModel( row ) ) );
+		}
+
+		loader.cancel( selected );
+		refresh();
+	}
+
+	private void updateButtons()
+	{
+		boolean finished = loader.isFinished();
+		btnCancelSelected.setEnabled( !finished && table.getSelectedRowCount() > 0 );
+		btnCancelAll.setEnabled( !finished );
+	}
+
+	private void refresh()
+	{
+		lblStatus.setText( loader.getStatusMessage() );
+		progressBar.setValue( loader.getProgress() );
+		model.fireTableRowsUpdated( 0, files.size() - 1 );
+		updateButtons();
+
+		if ( loader.isFinished() ) {
+			timer.stop();
+			setTitle( "Loading finished" );
+		}
+	}
+
+	@Override
+	public void dispose()
+	{
+		super.dispose();
+
+		timer.stop();
+	}
+
+
+	private class FileTableModel extends AbstractTableModel
+	{
+		private final String[] columnNames = { "File", "Size (MB)", "Status" };
+
+
+		@Override
+		public int getRowCount()
+		{
+			return files.size();
+		}
+
+		@Override
+		public int getColumnCount()
+		{
+			return columnNames.length;
+		}
+
+		@Override
+		public String getColumnName( int column )
+		{
+			return columnNames[column];
+		}
+
+		@Override
+		public Object getValueAt( int row, int column )
+		{
+			File file = files.get( row );
+
+			switch ( column ) {
+				case 0:
+					return file.getName();
+				case 1:
+					return String.format( "%.1f", file.length() / (double)( 1 << 20 ) );
+				case 2:
+					FileState state = loader.getState( file );
+					if ( state == FileState.LOADING ) {
+						return loader.getStatusMessage( file ) + " (" + loader.getProgress( file ) + "%)";
+					}
+					else if ( state == FileState.FAILED ) {
+						return state + ": " + loader.getError( file ).getMessage();
+					}
+					return state.toString();
+				default:
+					throw new IllegalArgumentException( "Column index out of range: " + column );
+			}
+		}
+	}
+}
@@ -12,12 +12,15 @@ import java.awt.event.MouseListener;
 import java.awt.event.WindowEvent;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
+import javax.swing.JSpinner;
 import javax.swing.JTabbedPane;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UIManager.LookAndFeelInfo;
@@ -25,6 +28,7 @@ import javax.swing.border.LineBorder;
 
 import pl.pwr.hiervis.core.HVConfig;
 import pl.pwr.hiervis.core.HVContext;
+import pl.pwr.hiervis.hierarchy.reader.HierarchyReaderType;
 import pl.pwr.hiervis.util.SwingUIUtils;
 import pl.pwr.hiervis.util.ui.GridBagConstraintsBuilder;
 import pl.pwr.hiervis.util.ui.SquareColorPickerDialog;
@@ -36,6 +40,10 @@ public class ConfigDialog extends JDialog
 	private JComboBox<String> listLAF;
 	private JSlider sldPointSize;
 	private JSlider sldPrecision;
+	private JComboBox<HierarchyReaderType> listReader;
+	private JSpinner spnFeatureBudget;
+	private JCheckBox cboxCompactInstances;
+	private JSpinner spnMeasureThreads;
 
 	private JLabel lblColorCurrentGroup;
 	private JLabel lblColorChildGroup;
@@ -80,9 +88,9 @@ public class ConfigDialog extends JDialog
 		cTabs.addTab( "General", null, cGeneral, null );
 		GridBagLayout gbl_cGeneral = new GridBagLayout();
 		gbl_cGeneral.columnWidths = new int[] { 200, 0 };
-		gbl_cGeneral.rowHeights = new int[] { 0, 0, 0, 0, 0, 0 };
+		gbl_cGeneral.rowHeights = new int[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
 		gbl_cGeneral.columnWeights = new double[] { 1.0, Double.MIN_VALUE };
-		gbl_cGeneral.rowWeights = new double[] { 0.0, 0.0, 0.0, 0.0, 0.0, 1.0 };
+		gbl_cGeneral.rowWeights = new double[] { 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 1.0 };
 		cGeneral.setLayout( gbl_cGeneral );
 
 		GridBagConstraintsBuilder builder = new GridBagConstraintsBuilder();
@@ -123,12 +131,63 @@ public class ConfigDialog extends JDialog
 		sldPrecision.setToolTipText( "Precision at which fractional measure values are displayed." );
 		cGeneral.add( sldPrecision, builder.fillHorizontal().insets( 0, 5, 10, 5 ).position( 0, 5 ).build() );
 
+		JLabel lblReader = new JLabel( "Hierarchy file reader:" );
+		cGeneral.add( lblReader, builder.fillHorizontal().insets( 5 ).position( 0, 6 ).build() );
+
+		listReader = new JComboBox<HierarchyReaderType>( HierarchyReaderType.values() );
+		listReader.setToolTipText(
+			SwingUIUtils.toHTML(
+				"Method used to read hierarchy files.\n" +
+					"Parallel reader parses the file using multiple threads.\n" +
+					"Memory-mapped reader uses less memory while parsing, which helps with files with many features."
+			)
+		);
+		cGeneral.add( listReader, builder.fillHorizontal().insets( 0, 5, 10, 5 ).position( 0, 7 ).build() );
+
+		JLabel lblFeatureBudget = new JLabel( "Feature memory budget (MB):" );
+		cGeneral.add( lblFeatureBudget, builder.fillHorizontal().insets( 5 ).position( 0, 8 ).build() );
+
+		spnFeatureBudget = new JSpinner( new SpinnerNumberModel( 0, 0, 1 << 20, 64 ) );
+		spnFeatureBudget.setToolTipText(
+			SwingUIUtils.toHTML(
+				"If greater than 0, instance features are not kept in memory, but loaded on demand\n" +
+					"from a cache file, keeping at most this many megabytes of them in memory.\n" +
+					"Useful for datasets with very many features. 0 loads all features into memory."
+			)
+		);
+		cGeneral.add( spnFeatureBudget, builder.fillHorizontal().insets( 0, 5, 10, 5 ).position( 0, 9 ).build() );
+
+		cboxCompactInstances = new JCheckBox( "Compact instances in memory" );
+		cboxCompactInstances.setToolTipText(
+			SwingUIUtils.toHTML(
+				"Holds instance features in a column-oriented store, which uses less memory,\n" +
+					"but makes measure computation slower. Has no effect if the feature memory budget is set."
+			)
+		);
+		cGeneral.add( cboxCompactInstances, builder.fillHorizontal().insets( 0, 5, 10, 5 ).position( 0, 10 ).build() );
+
+		JLabel lblMeasureThreads = new JLabel( "Measure computation threads:" );
+		cGeneral.add( lblMeasureThreads, builder.fillHorizontal().insets( 5 ).position( 0, 11 ).build() );
+
+		spnMeasureThreads = new JSpinner( new SpinnerNumberModel( 0, 0, 256, 1 ) );
+		spnMeasureThreads.setToolTipText(
+			SwingUIUtils.toHTML(
+				"Number of threads computing measures in parallel.\n" +
+					"0 uses one thread per available processor."
+			)
+		);
+		cGeneral.add( spnMeasureThreads, builder.fillHorizontal().insets( 0, 5, 10, 5 ).position( 0, 12 ).build() );
+
 		// Apply current config values
 		HVConfig cfg = context.getConfig();
 
 		listLAF.setSelectedItem( cfg.getPreferredLookAndFeel() );
 		sldPointSize.setValue( cfg.getPointSize() );
 		sldPrecision.setValue( cfg.getDoubleFormatPrecision() );
+		listReader.setSelectedItem( cfg.getHierarchyReader() );
+		spnFeatureBudget.setValue( cfg.getFeatureMemoryBudget() );
+		cboxCompactInstances.setSelected( cfg.isCompactInstances() );
+		spnMeasureThreads.setValue( cfg.getMeasureComputeThreads() );
 	}
 
 	private void createColorsTab( HVContext context, JTabbedPane cTabs )
@@ -308,6 +367,10 @@ public class ConfigDialog extends JDialog
 		newConfig.setPreferredLookAndFeel( listLAF.getSelectedItem().toString() );
 		newConfig.setPointSize( sldPointSize.getValue() );
 		newConfig.setDoubleFormatPrecision( sldPrecision.getValue() );
+		newConfig.setHierarchyReader( (HierarchyReaderType)listReader.getSelectedItem() );
+		newConfig.setFeatureMemoryBudget( (Integer)spnFeatureBudget.getValue() );
+		newConfig.setCompactInstances( cboxCompactInstances.isSelected() );
+		newConfig.setMeasureComputeThreads( (Integer)spnMeasureThreads.getValue() );
 	}
 
 	/**
@@ -17,6 +17,7 @@ import javax.swing.JPanel;
 
 import pl.pwr.hiervis.core.HVContext;
 import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.hierarchy.reader.CSVFileProfile;
 import pl.pwr.hiervis.util.SwingUIUtils;
 
 
@@ -34,6 +35,23 @@ public class FileLoadingOptionsDialog extends JDialog
 
 
 	public FileLoadingOptionsDialog( HVContext context, Window frame, LoadedHierarchy.Options initialOptions )
+	{
+		this( context, frame, initialOptions, null );
+	}
+
+	/**
+	 * @param context
+	 *            the application context
+	 * @param frame
+	 *            the window that owns this dialog
+	 * @param initialOptions
+	 *            options selected when the dialog is opened
+	 * @param profile
+	 *            profile of the file that is about to be loaded, summarized at the top of the dialog. Can be null.
+	 */
+	public FileLoadingOptionsDialog(
+		HVContext context, Window frame,
+		LoadedHierarchy.Options initialOptions, CSVFileProfile profile )
 	{
 		super( frame, "File Loading Options" );
 		setResizable( false );
@@ -47,7 +65,7 @@ public class FileLoadingOptionsDialog extends JDialog
 		gridBagLayout.rowWeights = new double[] { 1.0, 0.0, Double.MIN_VALUE };
 		getContentPane().setLayout( gridBagLayout );
 
-		createOptionsPanel( context, initialOptions );
+		createOptionsPanel( context, initialOptions, profile );
 		createButtonPanel( context );
 
 		SwingUIUtils.installEscapeCloseOperation( this );
@@ -55,7 +73,7 @@ public class FileLoadingOptionsDialog extends JDialog
 		pack();
 	}
 
-	private void createOptionsPanel( HVContext context, LoadedHierarchy.Options initialOptions )
+	private void createOptionsPanel( HVContext context, LoadedHierarchy.Options initialOptions, CSVFileProfile profile )
 	{
 		JPanel cOptions = new JPanel();
 
@@ -68,6 +86,18 @@ public class FileLoadingOptionsDialog extends JDialog
 		gbc_cOptions.gridy = 0;
 		getContentPane().add( cOptions, gbc_cOptions );
 
+		if ( profile != null ) {
+			JLabel lblProfile = new JLabel(
+				String.format(
+					"<html>Detected from %,d sampled rows: %s.</html>",
+					profile.getSampledRowCount(), profile.getSummary()
+				)
+			);
+			fixedWidthLabel( lblProfile, _prefWidth );
+			cOptions.add( lblProfile );
+			cOptions.add( Box.createVerticalStrut( 10 ) );
+		}
+
 		cboxTrueClass = new JCheckBox( "True Class" );
 		cOptions.add( cboxTrueClass );
 
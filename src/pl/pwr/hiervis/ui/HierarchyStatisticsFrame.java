@@ -58,6 +58,7 @@ import internal_measures.statistics.AvgWithStdev;
 import pl.pwr.hiervis.core.HVConfig;
 import pl.pwr.hiervis.core.HVContext;
 import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.measures.MeasureComputeExecutor.Priority;
 import pl.pwr.hiervis.measures.MeasureManager;
 import pl.pwr.hiervis.measures.MeasureTask;
 import pl.pwr.hiervis.util.HierarchyUtils;
@@ -90,6 +91,8 @@ public class HierarchyStatisticsFrame extends JFrame
 
 	private WindowListener ownerListener;
 	private int verticalScrollValue = 0;
+	/** Hierarchy of the node whose measures are shown in the node tab, and computed ahead of others */
+	private Hierarchy visibleNodeHierarchy = null;
 
 	private DecimalFormat format;
 
@@ -184,6 +187,7 @@ public class HierarchyStatisticsFrame extends JFrame
 		measureManager.taskFailed.addListener( this::onTaskFailed );
 		context.hierarchyChanging.addListener( this::onHierarchyChanging );
 		context.hierarchyChanged.addListener( this::onHierarchyChanged );
+		context.hierarchyUpdated.addListener( this::onHierarchyUpdated );
 		context.nodeSelectionChanging.addListener( this::nodeSelectionChanging );
 		context.nodeSelectionChanged.addListener( this::nodeSelectionChanged );
 		context.configChanged.addListener( this::onConfigChanged );
@@ -234,9 +238,15 @@ public class HierarchyStatisticsFrame extends JFrame
 				fileDialog.setSelectedFile( new File( "dump.csv" ) );
 
 				if ( fileDialog.showSaveDialog( this ) == JFileChooser.APPROVE_OPTION ) {
+					// Evicted results are computed again before the file is written
 					context.getMeasureManager().dumpMeasures(
 						Paths.get( fileDialog.getSelectedFile().getAbsolutePath() ),
 						context.getHierarchy()
+					).exceptionally(
+						ex -> {
+							log.error( "Failed to dump measures: ", ex );
+							return null;
+						}
 					);
 				}
 			}
@@ -442,11 +452,30 @@ public class HierarchyStatisticsFrame extends JFrame
 		cMeasure.setBorder( new TitledBorder( null, task.identifier, TitledBorder.LEADING, TitledBorder.TOP, null, null ) );
 		cMeasure.setLayout( new BorderLayout( 0, 0 ) );
 
-		if ( context.getHierarchy().measureHolder.isMeasureComputed( h, task ) ) {
+		// Results can be evicted at any time, so get the result only once.
+		Object result = context.getHierarchy().measureHolder.getMeasureResult( h, task );
+
+		if ( result != null ) {
+			cMeasure.add( createMeasureContent( task, result ), BorderLayout.NORTH );
+		}
+		else if ( context.getHierarchy().measureHolder.isMeasureEvicted( h, task ) ) {
+			// The result was evicted to free up memory - compute it again, as if it was never gone.
+			MeasureManager measureManager = context.getMeasureManager();
+			if ( !measureManager.isMeasurePending( h, task ) ) {
+				measureManager.postTask( context.getHierarchy().measureHolder, h, task, Priority.VISIBLE );
+			}
+			JButton button = createTaskButton( Pair.of( h, task ) );
+			updateTaskButton( button, true );
+			cMeasure.add( button, BorderLayout.NORTH );
+		}
+		else if ( context.getHierarchy().measureHolder.isMeasureStale( h, task ) ) {
+			// Keep showing the outdated result until it is recalculated.
 			cMeasure.add(
-				createMeasureContent( task, context.getHierarchy().measureHolder.getMeasureResult( h, task ) ),
+				createMeasureContent( task, context.getHierarchy().measureHolder.getStaleMeasureResult( h, task ) ),
 				BorderLayout.NORTH
 			);
+			cMeasure.add( new JLabel( "Outdated: the hierarchy has changed since this was calculated." ), BorderLayout.CENTER );
+			cMeasure.add( createTaskButton( Pair.of( h, task ) ), BorderLayout.SOUTH );
 		}
 		else {
 			cMeasure.add( createTaskButton( Pair.of( h, task ) ), BorderLayout.NORTH );
@@ -476,7 +505,7 @@ public class HierarchyStatisticsFrame extends JFrame
 				for ( MeasureTask task : tasks ) {
 					if ( !lh.measureHolder.isMeasureComputed( h, task )
 						&& !measureManager.isMeasurePending( h, task ) ) {
-						measureManager.postTask( lh.measureHolder, h, task );
+						measureManager.postTask( lh.measureHolder, h, task, Priority.VISIBLE );
 					}
 				}
 			}
@@ -511,7 +540,7 @@ public class HierarchyStatisticsFrame extends JFrame
 				else {
 					measureManager.postTask(
 						context.getHierarchy().measureHolder,
-						task.getLeft(), task.getRight()
+						task.getLeft(), task.getRight(), Priority.VISIBLE
 					);
 				}
 			}
@@ -648,7 +677,27 @@ public class HierarchyStatisticsFrame extends JFrame
 		addPanels( panel, cSubtree );
 
 		createMeasurePanels( nh );
-		context.getMeasureManager().postAutoComputeTasksFor( lh.measureHolder, nh );
+		// The node is shown to the user, so its measures go ahead of those auto-computed in the background.
+		if ( nh != visibleNodeHierarchy ) {
+			demoteNodeTasks();
+		}
+		MeasureManager measureManager = context.getMeasureManager();
+		measureManager.postAutoComputeTasksFor( lh.measureHolder, nh, Priority.VISIBLE );
+		// Tasks still pending from when the node was shown before have been demoted, so promote them back.
+		measureManager.reprioritizeTasks( nh, Priority.VISIBLE );
+		visibleNodeHierarchy = nh;
+	}
+
+	/**
+	 * Moves tasks queued for the node that was last shown in the node tab behind the tasks of the
+	 * currently shown hierarchies, since the user is no longer waiting for them.
+	 */
+	private void demoteNodeTasks()
+	{
+		if ( visibleNodeHierarchy != null ) {
+			context.getMeasureManager().reprioritizeTasks( visibleNodeHierarchy, Priority.BACKGROUND );
+			visibleNodeHierarchy = null;
+		}
 	}
 
 	private JPanel getPanel( Hierarchy h )
@@ -824,6 +873,7 @@ public class HierarchyStatisticsFrame extends JFrame
 		p.removeAll();
 		p = getPanel( 1 );
 		p.removeAll();
+		demoteNodeTasks();
 
 		tabPane.revalidate();
 		tabPane.repaint();
@@ -849,6 +899,15 @@ public class HierarchyStatisticsFrame extends JFrame
 		tabPane.repaint();
 	}
 
+	private void onHierarchyUpdated( LoadedHierarchy h )
+	{
+		if ( h == context.getHierarchy() ) {
+			// Hierarchies that measures are computed for might have been replaced, so recreate the panels.
+			onHierarchyChanging( h );
+			onHierarchyChanged( h );
+		}
+	}
+
 	private void nodeSelectionChanging( int selectedRow )
 	{
 		// Store the current scroll before the hierarchy is changed, so that we can
@@ -858,6 +917,7 @@ public class HierarchyStatisticsFrame extends JFrame
 
 		JPanel p = getPanel( 1 );
 		p.removeAll();
+		demoteNodeTasks();
 
 		tabPane.revalidate();
 		tabPane.repaint();
@@ -116,6 +116,7 @@ public class InstanceVisualizationsFrame extends JFrame
 
 		context.hierarchyChanging.addListener( this::onHierarchyChanging );
 		context.hierarchyChanged.addListener( this::onHierarchyChanged );
+		context.hierarchyUpdated.addListener( this::onHierarchyUpdated );
 		context.nodeSelectionChanged.addListener( this::onNodeSelectionChanged );
 		context.configChanged.addListener( this::onConfigChanged );
 
@@ -722,8 +723,8 @@ public class InstanceVisualizationsFrame extends JFrame
 				public int score( VisualItem item )
 				{
 					if ( item.isInGroup( HVConstants.INSTANCE_DATA_NAME ) ) {
-						prefuse.data.Node node = (prefuse.data.Node)item.get( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME );
-						int roleId = node.getInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME );
+						int treeRow = item.getInt( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME );
+						int roleId = context.getHierarchy().getNodeRoleTracker().getRole( treeRow );
 
 						// Sort the nodes so that instances belonging to the currently selected node are always topmost.
 						// Direct parents next, then indirect parents, then children, then other unrelated instances.
@@ -753,8 +754,9 @@ public class InstanceVisualizationsFrame extends JFrame
 								.append( "</b>" ).append( "<br/>" );
 						}
 
-						prefuse.data.Node node = (prefuse.data.Node)item.get( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME );
-						String assignId = node.getString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME );
+						int treeRow = item.getInt( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME );
+						String assignId = context.getHierarchy().getTree().getNode( treeRow )
+							.getString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME );
 						buf.append( "Assign class: " ).append( assignId ).append( "<br/>" );
 
 						if ( item.canGetString( HVConstants.PREFUSE_INSTANCE_TRUENODE_ID_COLUMN_NAME ) ) {
@@ -1201,6 +1203,15 @@ public class InstanceVisualizationsFrame extends JFrame
 		repaint();
 	}
 
+	private void onHierarchyUpdated( LoadedHierarchy h )
+	{
+		if ( h == context.getHierarchy() ) {
+			// Bounds of the data might have changed, so the displays have to be recreated.
+			onHierarchyChanging( h );
+			onHierarchyChanged( h );
+		}
+	}
+
 	private void onNodeSelectionChanged( int row )
 	{
 		forEachDisplay( this::redrawDisplayIfVisible );
@@ -11,10 +11,14 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.function.Consumer;
 
 import javax.swing.AbstractButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
@@ -33,6 +37,7 @@ import pl.pwr.hiervis.core.HVConfig;
 import pl.pwr.hiervis.core.HVConstants;
 import pl.pwr.hiervis.core.HVContext;
 import pl.pwr.hiervis.hierarchy.HierarchyProcessor;
+import pl.pwr.hiervis.hierarchy.HierarchySnapshot;
 import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
 import pl.pwr.hiervis.hk.ui.HKOptionsFrame;
 import pl.pwr.hiervis.prefuse.DisplayEx;
@@ -76,6 +81,7 @@ public class VisualizerFrame extends JFrame implements ActionListener
 	private JTabbedPane tabPane;
 	private JMenuItem mntmCloseFile;
 	private JMenuItem mntmSaveFile;
+	private JCheckBoxMenuItem mntmFollowFile;
 	private JMenuItem mntmFlatten;
 
 
@@ -95,10 +101,14 @@ public class VisualizerFrame extends JFrame implements ActionListener
 		createMenu();
 		createGUI();
 
-		createFileDrop( this, log, "csv", this::loadFile );
+		createMultiFileDrop(
+			this, log, new String[] { "csv", "csv.gz", HierarchySnapshot.FILE_EXTENSION },
+			files -> context.loadFiles( this, files )
+		);
 
 		context.hierarchyChanging.addListener( this::onHierarchyChanging );
 		context.hierarchyChanged.addListener( this::onHierarchyChanged );
+		context.hierarchyUpdated.addListener( this::onHierarchyUpdated );
 		context.nodeSelectionChanged.addListener( this::onNodeSelectionChanged );
 		context.configChanged.addListener( this::onConfigChanged );
 
@@ -321,6 +331,13 @@ public class VisualizerFrame extends JFrame implements ActionListener
 		mntmSaveFile.setEnabled( false );
 		mnFile.add( mntmSaveFile );
 
+		mntmFollowFile = new JCheckBoxMenuItem( "Follow file changes" );
+		mntmFollowFile.setMnemonic( 'L' );
+		mntmFollowFile.setToolTipText( "Add rows appended to the current hierarchy's CSV file as they are written" );
+		mntmFollowFile.addActionListener( e -> context.setFollowing( context.getHierarchy(), mntmFollowFile.isSelected() ) );
+		mntmFollowFile.setEnabled( false );
+		mnFile.add( mntmFollowFile );
+
 		mnFile.add( new JSeparator() );
 
 		JMenuItem mntmConfig = new JMenuItem( "Config" );
@@ -385,13 +402,25 @@ public class VisualizerFrame extends JFrame implements ActionListener
 	{
 		JFileChooser fileDialog = new JFileChooser();
 		fileDialog.setCurrentDirectory( new File( "." ) );
-		fileDialog.setDialogTitle( "Select a file to load" );
+		fileDialog.setDialogTitle( "Select files to load" );
 		fileDialog.setFileSelectionMode( JFileChooser.FILES_ONLY );
+		fileDialog.setMultiSelectionEnabled( true );
 		fileDialog.setAcceptAllFileFilterUsed( false );
-		fileDialog.setFileFilter( new FileNameExtensionFilter( "*.csv", "csv" ) );
+		fileDialog.addChoosableFileFilter(
+			new FileNameExtensionFilter(
+				"*.csv, *.csv.gz, *." + HierarchySnapshot.FILE_EXTENSION,
+				"csv", "gz", HierarchySnapshot.FILE_EXTENSION
+			)
+		);
+		fileDialog.addChoosableFileFilter( new FileNameExtensionFilter( "*.csv", "csv" ) );
+		fileDialog.addChoosableFileFilter( new FileNameExtensionFilter( "*.csv.gz", "gz" ) );
+		fileDialog.addChoosableFileFilter(
+			new FileNameExtensionFilter( "*." + HierarchySnapshot.FILE_EXTENSION, HierarchySnapshot.FILE_EXTENSION )
+		);
+		fileDialog.setFileFilter( fileDialog.getChoosableFileFilters()[0] );
 
 		if ( fileDialog.showOpenDialog( this ) == JFileChooser.APPROVE_OPTION ) {
-			loadFile( fileDialog.getSelectedFile() );
+			context.loadFiles( this, Arrays.asList( fileDialog.getSelectedFiles() ) );
 		}
 		else {
 			log.trace( "Loading aborted." );
@@ -409,19 +438,29 @@ public class VisualizerFrame extends JFrame implements ActionListener
 		fileDialog.setFileSelectionMode( JFileChooser.FILES_ONLY );
 		fileDialog.setAcceptAllFileFilterUsed( true );
 		fileDialog.addChoosableFileFilter( new FileNameExtensionFilter( "*.csv", "csv" ) );
+		fileDialog.addChoosableFileFilter( new FileNameExtensionFilter( "*.csv.gz", "gz" ) );
+		fileDialog.addChoosableFileFilter(
+			new FileNameExtensionFilter( "*." + HierarchySnapshot.FILE_EXTENSION, HierarchySnapshot.FILE_EXTENSION )
+		);
 
 		if ( fileDialog.showSaveDialog( this ) == JFileChooser.APPROVE_OPTION ) {
 			try {
 				LoadedHierarchy lh = context.getHierarchy();
+				String path = fileDialog.getSelectedFile().getAbsolutePath();
 
-				HierarchyUtils.save(
-					fileDialog.getSelectedFile().getAbsolutePath(),
-					lh.getMainHierarchy(),
-					true,
-					lh.options.hasTrueClassAttribute,
-					lh.options.hasInstanceNameAttribute,
-					true
-				);
+				if ( path.toLowerCase( Locale.ENGLISH ).endsWith( "." + HierarchySnapshot.FILE_EXTENSION ) ) {
+					HierarchyUtils.saveSnapshot( path, lh );
+				}
+				else {
+					HierarchyUtils.save(
+						path,
+						lh.getMainHierarchy(),
+						true,
+						lh.options.hasTrueClassAttribute,
+						lh.options.hasInstanceNameAttribute,
+						true
+					);
+				}
 			}
 			catch ( IOException e ) {
 				log.error( "Error while saving hierarchy: ", e );
@@ -491,11 +530,6 @@ public class VisualizerFrame extends JFrame implements ActionListener
 		);
 	}
 
-	private void loadFile( File file )
-	{
-		context.loadFile( this, file );
-	}
-
 	private Display getCurrentHierarchyDisplay()
 	{
 		int index = tabPane.getSelectedIndex();
@@ -516,6 +550,7 @@ public class VisualizerFrame extends JFrame implements ActionListener
 
 		mntmCloseFile.setEnabled( false );
 		mntmSaveFile.setEnabled( false );
+		mntmFollowFile.setEnabled( false );
 		mntmFlatten.setEnabled( false );
 	}
 
@@ -541,9 +576,36 @@ public class VisualizerFrame extends JFrame implements ActionListener
 			mntmCloseFile.setEnabled( true );
 			mntmSaveFile.setEnabled( true );
 			mntmFlatten.setEnabled( true );
+			updateFollowFileItem( newHierarchy );
+		}
+	}
+
+	private void onHierarchyUpdated( LoadedHierarchy h )
+	{
+		if ( h != context.getHierarchy() ) {
+			return;
+		}
+
+		updateFollowFileItem( h );
+
+		Display currentDisplay = getCurrentHierarchyDisplay();
+		if ( currentDisplay != null && currentDisplay.getVisualization() != HVConstants.EMPTY_VISUALIZATION ) {
+			// The tree has been updated in place, so the visualization already has items for new nodes.
+			// Only need to assign roles to them, and lay the tree out again.
+			HierarchyProcessor.updateNodeRoles( context, context.getSelectedRow() );
+			currentDisplay.getVisualization().run( "design" );
+			currentDisplay.getVisualization().run( "layout" );
+			currentDisplay.damageReport();
+			currentDisplay.repaint();
 		}
 	}
 
+	private void updateFollowFileItem( LoadedHierarchy h )
+	{
+		mntmFollowFile.setEnabled( context.canFollow( h ) );
+		mntmFollowFile.setSelected( context.isFollowing( h ) );
+	}
+
 	private void onNodeSelectionChanged( int row )
 	{
 		HierarchyProcessor.updateNodeRoles( context, context.getSelectedRow() );
@@ -638,4 +700,65 @@ public class VisualizerFrame extends JFrame implements ActionListener
 			}
 		);
 	}
+
+	/**
+	 * Creates a handler for file drag'n'drop, which accepts any number of files and directories.
+	 * Dropped directories are searched (non-recursively) for files with one of the accepted extensions.
+	 * 
+	 * @param c
+	 *            the component files can be dragged onto
+	 * @param log
+	 *            logger for logging of trace messages
+	 * @param fileExtensions
+	 *            file extensions that will be accepted for dragging (just the extensions, without dot)
+	 * @param filesConsumer
+	 *            the method to invoke with the list of accepted files, if there is at least one
+	 * @return the {@link FileDrop} object handling the drag'n'drop
+	 */
+	public static FileDrop createMultiFileDrop(
+		Component c, Logger log, String[] fileExtensions, Consumer<List<File>> filesConsumer )
+	{
+		return new FileDrop(
+			c, new FileDrop.Listener() {
+				public void filesDropped( File[] files )
+				{
+					List<File> accepted = new ArrayList<>();
+					for ( File file : files ) {
+						if ( file.isDirectory() ) {
+							File[] children = file.listFiles();
+							if ( children != null ) {
+								Arrays.sort( children );
+								for ( File child : children ) {
+									if ( child.isFile() && hasExtension( child, fileExtensions ) ) {
+										accepted.add( child );
+									}
+								}
+							}
+						}
+						else if ( hasExtension( file, fileExtensions ) ) {
+							accepted.add( file );
+						}
+					}
+
+					if ( accepted.isEmpty() ) {
+						log.trace( "Drag and drop: received no files with accepted extensions, ignoring." );
+					}
+					else {
+						filesConsumer.accept( accepted );
+					}
+				}
+			}
+		);
+	}
+
+	private static boolean hasExtension( File file, String[] fileExtensions )
+	{
+		String name = file.getName().toUpperCase( Locale.ENGLISH );
+		for ( String ext : fileExtensions ) {
+			if ( name.endsWith( "." + ext.toUpperCase( Locale.ENGLISH ) ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
 }
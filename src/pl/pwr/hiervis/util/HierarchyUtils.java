@@ -1,20 +1,33 @@
 package pl.pwr.hiervis.util;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Optional;
 import java.util.Queue;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import basic_hierarchy.common.Constants;
@@ -26,7 +39,15 @@ import basic_hierarchy.implementation.BasicNode;
 import basic_hierarchy.interfaces.Hierarchy;
 import basic_hierarchy.interfaces.Instance;
 import basic_hierarchy.interfaces.Node;
+import pl.pwr.hiervis.core.HVConstants;
+import pl.pwr.hiervis.hierarchy.CentroidCalculator;
+import pl.pwr.hiervis.hierarchy.HierarchySnapshot;
+import pl.pwr.hiervis.hierarchy.LazyInstance;
 import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.hierarchy.NodeIntervals;
+import pl.pwr.hiervis.hierarchy.RebasedInstance;
+import pl.pwr.hiervis.hierarchy.reader.CompressionType;
+import pl.pwr.hiervis.hierarchy.reader.SnapshotReader;
 
 
 public class HierarchyUtils
@@ -71,41 +92,106 @@ public class HierarchyUtils
 			);
 		}
 
+		// Centroids of the merged hierarchy follow the destination hierarchy's centroid calculation mode
+		LoadedHierarchy.Options options = new LoadedHierarchy.Options(
+			source.options.hasInstanceNameAttribute,
+			source.options.hasTrueClassAttribute,
+			source.options.hasColumnHeader,
+			source.options.isFillBreadthGaps,
+			dest.options.isUseSubtree
+		);
+
 		// Invoke the actual merging method...
 		return new LoadedHierarchy(
-			merge( source.getMainHierarchy(), dest.getMainHierarchy(), nodeId ),
-			source.options
+			merge(
+				source.getMainHierarchy(), dest.getMainHierarchy(), nodeId,
+				source.options.isUseSubtree, dest.options.isUseSubtree
+			),
+			options
 		);
 	}
 
 	public static Hierarchy merge( Hierarchy source, Hierarchy dest, String nodeId )
 	{
-		final boolean useSubtree = false;
+		return merge( source, dest, nodeId, false );
+	}
 
-		List<BasicNode> nodes = new LinkedList<>();
-		String rootId = source.getRoot().getId();
-		rebase( Arrays.stream( source.getGroups() ), rootId, nodeId, nodes, useSubtree );
+	/**
+	 * Merges the two hierarchies into a single, new hierarchy, with the specified merging node id.
+	 * 
+	 * <p>
+	 * Nodes of both hierarchies are copied, since a node can only belong to one tree, but the structure of
+	 * untouched subtrees is copied as it is, and the copies reuse centroids of the original nodes. Centroids are
+	 * only updated for ancestors of the merging point, and only if they include instances of child nodes.
+	 * </p>
+	 * 
+	 * @param source
+	 *            the source hierarchy that is to be merged into destination hierarchy
+	 * @param dest
+	 *            the destination hierarchy that will receive nodes from source hierarchy
+	 * @param nodeId
+	 *            id of the node in the destination hierarchy that will serve as the merging point for the two hierarchies.
+	 *            Nodes from the source hierarchy will be rebased to have this id as root.
+	 * @param useSubtree
+	 *            whether centroids of both hierarchies include instances of child nodes
+	 * @return the new, merged hierarchy
+	 */
+	public static Hierarchy merge( Hierarchy source, Hierarchy dest, String nodeId, boolean useSubtree )
+	{
+		return merge( source, dest, nodeId, useSubtree, useSubtree );
+	}
 
-		if ( Constants.ROOT_ID.equals( nodeId ) ) {
+	/**
+	 * Merges the two hierarchies, whose centroids might have been calculated differently.
+	 * Centroids of nodes copied from the source hierarchy are recalculated to match the destination hierarchy,
+	 * if necessary.
+	 * 
+	 * @param sourceUseSubtree
+	 *            whether centroids of the source hierarchy include instances of child nodes
+	 * @param useSubtree
+	 *            whether centroids of the destination hierarchy include instances of child nodes
+	 * @see #merge(Hierarchy, Hierarchy, String, boolean)
+	 */
+	private static Hierarchy merge(
+		Hierarchy source, Hierarchy dest, String nodeId,
+		boolean sourceUseSubtree, boolean useSubtree )
+	{
+		BasicNode subtree = copySubtree( source.getRoot(), source.getRoot().getId(), nodeId, null );
+		if ( sourceUseSubtree != useSubtree ) {
+			CentroidCalculator.recalculateCentroids( subtree, useSubtree );
+		}
+
+		Node[] groups = dest.getGroups();
+		int index = indexOf( groups, nodeId );
+		Node mergePoint = index < 0 ? null : groups[index];
+
+		if ( Constants.ROOT_ID.equals( nodeId ) || mergePoint == dest.getRoot() ) {
 			// No point in replacing the root, just substitute the entire hierarchy.
-			return buildHierarchy( nodes, source.getDataNames(), useSubtree );
+			return createHierarchy(
+				subtree, source.getDataNames(),
+				getClassCountMap( source ), source.getOverallNumberOfInstances()
+			);
 		}
-		else {
-			// Remove the merging point node from the dest hierarchy to replace it with the one from source
-			Optional<Node> optNode = Arrays.stream( dest.getGroups() )
-				.filter( n -> n.getId().equals( nodeId ) )
-				.findAny();
-			if ( optNode.isPresent() ) {
-				dest = remove( dest, nodeId );
-			}
-			else {
-				dest = clone( dest, useSubtree, null );
-			}
 
-			Arrays.stream( dest.getGroups() ).forEach( n -> nodes.add( (BasicNode)n ) );
+		// Replace the merging point node from the dest hierarchy with the one from source
+		BasicNode root = copySubtree( dest.getRoot(), null, null, mergePoint );
+
+		Map<String, Integer> classCounts = getClassCountMap( dest );
+		int instanceCount = dest.getOverallNumberOfInstances();
+		int removedCount = 0;
+		if ( mergePoint != null ) {
+			removedCount = subtractClassCounts( mergePoint, classCounts );
+			instanceCount -= removedCount;
+		}
+		getClassCountMap( source ).forEach( ( c, count ) -> classCounts.merge( c, count, Integer::sum ) );
+		instanceCount += source.getOverallNumberOfInstances();
 
-			return buildHierarchy( nodes, dest.getDataNames(), useSubtree );
+		List<BasicNode> ancestors = attach( root, subtree, useSubtree );
+		if ( useSubtree ) {
+			CentroidCalculator.updateCentroids( ancestors, subtree, mergePoint, removedCount );
 		}
+
+		return createHierarchy( root, dest.getDataNames(), classCounts, instanceCount );
 	}
 
 	/**
@@ -193,8 +279,48 @@ public class HierarchyUtils
 	 */
 	public static Hierarchy remove( Hierarchy source, String nodeId )
 	{
-		final boolean useSubtree = false;
-		return clone( source, useSubtree, n -> !n.getId().startsWith( nodeId ) );
+		return remove( source, nodeId, false );
+	}
+
+	/**
+	 * Creates a new Hierarchy (a deep copy) that doesn't contain the node with the specified id.
+	 * Copies of the remaining nodes reuse centroids of the original nodes. Centroids are only updated for
+	 * ancestors of the removed node, and only if they include instances of child nodes.
+	 * 
+	 * @param source
+	 *            the source hierarchy
+	 * @param nodeId
+	 *            the node id to remove
+	 * @param useSubtree
+	 *            whether centroids of the hierarchy include instances of child nodes
+	 * @return the hierarchy without the specified node (deep copy)
+	 * @throws IllegalArgumentException
+	 *             if the node to remove is the root of the hierarchy
+	 */
+	public static Hierarchy remove( Hierarchy source, String nodeId, boolean useSubtree )
+	{
+		Node[] groups = source.getGroups();
+		int index = indexOf( groups, nodeId );
+		if ( index < 0 ) {
+			return clone( source, useSubtree, null );
+		}
+
+		Node removed = groups[index];
+		if ( removed == source.getRoot() ) {
+			throw new IllegalArgumentException( "Cannot remove the root node of a hierarchy." );
+		}
+
+		BasicNode root = copySubtree( source.getRoot(), null, null, removed );
+
+		Map<String, Integer> classCounts = getClassCountMap( source );
+		int removedCount = subtractClassCounts( removed, classCounts );
+		int instanceCount = source.getOverallNumberOfInstances() - removedCount;
+
+		if ( useSubtree ) {
+			CentroidCalculator.updateCentroids( getPath( root, removed.getParent().getId() ), null, removed, removedCount );
+		}
+
+		return createHierarchy( root, source.getDataNames(), classCounts, instanceCount );
 	}
 
 	/**
@@ -214,9 +340,16 @@ public class HierarchyUtils
 		List<BasicNode> nodes = new LinkedList<>();
 
 		if ( withSubtree ) {
-			Arrays.stream( source.getGroups() )
-				.filter( n -> n.getId().startsWith( node.getId() ) )
-				.forEach( n -> nodes.add( clone( n, false ) ) );
+			Node[] groups = source.getGroups();
+			int index = Arrays.asList( groups ).indexOf( node );
+			if ( index >= 0 ) {
+				NodeIntervals intervals = NodeIntervals.of( source );
+				for ( int i = 0; i < groups.length; ++i ) {
+					if ( intervals.isInSubtree( i, index ) ) {
+						nodes.add( clone( groups[i], false ) );
+					}
+				}
+			}
 		}
 		else {
 			Arrays.stream( source.getGroups() )
@@ -233,6 +366,16 @@ public class HierarchyUtils
 		return new BasicHierarchy( nodes, source.getDataNames() );
 	}
 
+	private static int indexOf( Node[] groups, String nodeId )
+	{
+		for ( int i = 0; i < groups.length; ++i ) {
+			if ( groups[i].getId().equals( nodeId ) ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	/**
 	 * Checks whether the specified hierarchy contains the specified node (by reference).
 	 * 
@@ -266,16 +409,20 @@ public class HierarchyUtils
 	 */
 	public static Hierarchy subHierarchy( Hierarchy source, String nodeId, String destNodeId )
 	{
-		final boolean useSubtree = false;
-
 		if ( nodeId == null )
 			nodeId = Constants.ROOT_ID;
 		if ( destNodeId == null )
 			destNodeId = Constants.ROOT_ID;
 
-		List<BasicNode> nodes = new LinkedList<>();
-		rebase( Arrays.stream( source.getGroups() ), nodeId, destNodeId, nodes, useSubtree );
-		return buildHierarchy( nodes, source.getDataNames(), useSubtree );
+		Node[] groups = source.getGroups();
+		int index = indexOf( groups, nodeId );
+		if ( index < 0 ) {
+			throw new NoSuchElementException( "The hierarchy does not contain a node with id " + nodeId );
+		}
+
+		// The subtree is copied as a whole, so centroids of its nodes stay valid regardless of how they were computed.
+		BasicNode root = copySubtree( groups[index], nodeId, destNodeId, null );
+		return new BasicHierarchy( getGroupsInOrder( root ), source.getDataNames() );
 	}
 
 	/**
@@ -336,6 +483,10 @@ public class HierarchyUtils
 	 * One exception is that {@link Instance}s are not cloned 100% deeply -- the feature values array is copied
 	 * by reference, since it is never modified, at least for now.
 	 * 
+	 * When all nodes are included, the structure of the hierarchy is copied as it is, and copies of nodes reuse
+	 * centroids of the original nodes. Otherwise, the hierarchy is rebuilt from the included nodes, and all
+	 * centroids are recalculated.
+	 * 
 	 * @param source
 	 *            the hierarchy to clone.
 	 * @param useSubtree
@@ -347,11 +498,18 @@ public class HierarchyUtils
 	 */
 	public static Hierarchy clone( Hierarchy source, boolean useSubtree, Predicate<Node> nodeInclusionPredicate )
 	{
+		if ( nodeInclusionPredicate == null ) {
+			return createHierarchy(
+				copySubtree( source.getRoot(), null, null, null ), source.getDataNames(),
+				getClassCountMap( source ), source.getOverallNumberOfInstances()
+			);
+		}
+
 		List<BasicNode> nodes = new LinkedList<>();
 
 		Arrays.stream( source.getGroups() ).forEach(
 			n -> {
-				if ( nodeInclusionPredicate != null && !nodeInclusionPredicate.test( n ) ) {
+				if ( !nodeInclusionPredicate.test( n ) ) {
 					return;
 				}
 
@@ -406,6 +564,15 @@ public class HierarchyUtils
 	 */
 	public static Node findGroup( LoadedHierarchy h, int row )
 	{
+		if ( h.getTree() != null ) {
+			// Rows of groups appended to the hierarchy after it was processed don't follow breadth-first order,
+			// so go by the id stored in the tree.
+			if ( row < 0 || row >= h.getTree().getNodeCount() ) {
+				return null;
+			}
+			return findGroup( h, h.getTree().getNode( row ).getString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME ) );
+		}
+
 		Node group = h.getMainHierarchy().getRoot();
 
 		if ( row == 0 ) {
@@ -445,22 +612,262 @@ public class HierarchyUtils
 	 */
 	public static Node findGroup( LoadedHierarchy lh, String nodeId )
 	{
-		for ( Node n : lh.getMainHierarchy().getGroups() ) {
-			if ( n.getId().equals( nodeId ) )
-				return n;
+		return lh.getGroup( nodeId );
+	}
+
+	/**
+	 * Copies the subtree of the specified node, preserving its structure. Copies of nodes get copies of the
+	 * original nodes' instances and centroids, so no centroids need to be recalculated.
+	 * Children of the copied nodes are sorted by id.
+	 * 
+	 * @param sourceRoot
+	 *            root of the subtree to copy
+	 * @param oldPrefix
+	 *            id prefix to replace in ids of copied nodes, or null to keep the ids
+	 * @param newPrefix
+	 *            the replacement id prefix
+	 * @param skipped
+	 *            node whose subtree is to be left out of the copy, or null
+	 * @return copy of the subtree's root, without a parent
+	 */
+	private static BasicNode copySubtree( Node sourceRoot, String oldPrefix, String newPrefix, Node skipped )
+	{
+		NodeIdComparator comparator = new NodeIdComparator();
+		BasicNode rootCopy = copyNode( sourceRoot, null, oldPrefix, newPrefix );
+
+		Deque<Node> pending = new ArrayDeque<>();
+		Deque<BasicNode> pendingCopies = new ArrayDeque<>();
+		pending.push( sourceRoot );
+		pendingCopies.push( rootCopy );
+
+		while ( !pending.isEmpty() ) {
+			Node node = pending.pop();
+			BasicNode copy = pendingCopies.pop();
+
+			for ( Node child : node.getChildren() ) {
+				if ( child != skipped ) {
+					BasicNode childCopy = copyNode( child, copy, oldPrefix, newPrefix );
+					copy.addChild( childCopy );
+					pending.push( child );
+					pendingCopies.push( childCopy );
+				}
+			}
+
+			// Children are usually sorted already, and replacing a common prefix of ids doesn't change their order
+			if ( !isSorted( copy.getChildren(), comparator ) ) {
+				copy.getChildren().sort( comparator );
+			}
 		}
 
+		return rootCopy;
+	}
+
+	private static BasicNode copyNode( Node source, BasicNode parent, String oldPrefix, String newPrefix )
+	{
+		String id = oldPrefix == null ? source.getId() : newPrefix + source.getId().substring( oldPrefix.length() );
+
+		LinkedList<Instance> instances = new LinkedList<>();
+		for ( Instance in : source.getNodeInstances() ) {
+			instances.add( copyInstance( in, id ) );
+		}
+
+		Instance centroid = source.getNodeRepresentation();
+		if ( centroid != null ) {
+			double[] data = centroid.getData();
+			centroid = new BasicInstance(
+				centroid.getInstanceName(), centroid.getNodeId(),
+				Arrays.copyOf( data, data.length ), centroid.getTrueClass()
+			);
+		}
+
+		return new BasicNode( id, parent, new LinkedList<>(), instances, centroid );
+	}
+
+	/**
+	 * Copies the instance, assigning it to the node with the specified id.
+	 * 
+	 * Instances whose features are loaded on demand are copied with their feature values, since the source
+	 * hierarchy closes its feature store when it is disposed, while the copy might still be in use.
+	 * Other instances are wrapped, sharing their feature values with the original.
+	 */
+	private static Instance copyInstance( Instance in, String nodeId )
+	{
+		Instance source = in instanceof RebasedInstance ? ( (RebasedInstance)in ).getSource() : in;
+		if ( source instanceof LazyInstance ) {
+			return new BasicInstance( source.getInstanceName(), nodeId, source.getData(), source.getTrueClass() );
+		}
+		return new RebasedInstance( source, nodeId );
+	}
+
+	private static boolean isSorted( List<Node> nodes, Comparator<Node> comparator )
+	{
+		Node previous = null;
+		for ( Node n : nodes ) {
+			if ( previous != null && comparator.compare( previous, n ) > 0 ) {
+				return false;
+			}
+			previous = n;
+		}
+		return true;
+	}
+
+	/**
+	 * Attaches the specified node to the tree under the node whose id is its parent id, creating
+	 * empty nodes for missing ancestors.
+	 * 
+	 * @param root
+	 *            root of the tree
+	 * @param node
+	 *            the node to attach
+	 * @param useSubtree
+	 *            whether the centroid calculation of created nodes should also include child nodes' instances
+	 * @return ancestors of the attached node, starting with its parent and ending with the root
+	 */
+	private static List<BasicNode> attach( BasicNode root, BasicNode node, boolean useSubtree )
+	{
+		String id = node.getId();
+		if ( !HierarchyBuilder.areIdsAncestorAndDescendant( root.getId(), id ) ) {
+			throw new IllegalArgumentException(
+				String.format( "Node '%s' cannot be attached to a hierarchy with root '%s'.", id, root.getId() )
+			);
+		}
+
+		List<BasicNode> result = new ArrayList<>();
+		result.add( root );
+
+		BasicNode current = root;
+		for ( int end = id.indexOf( '.', root.getId().length() + 1 ); end >= 0; end = id.indexOf( '.', end + 1 ) ) {
+			String ancestorId = id.substring( 0, end );
+			BasicNode ancestor = findChild( current, ancestorId );
+			if ( ancestor == null ) {
+				ancestor = new BasicNode( ancestorId, current, useSubtree );
+				insertChild( current, ancestor );
+			}
+			result.add( ancestor );
+			current = ancestor;
+		}
+
+		node.setParent( current );
+		insertChild( current, node );
+
+		Collections.reverse( result );
+		return result;
+	}
+
+	/**
+	 * @return nodes on the path from the specified node up to the root, or an empty list if the node is not found
+	 */
+	private static List<BasicNode> getPath( BasicNode root, String nodeId )
+	{
+		List<BasicNode> result = new ArrayList<>();
+
+		BasicNode current = root;
+		while ( current != null ) {
+			result.add( current );
+			if ( current.getId().equals( nodeId ) ) {
+				Collections.reverse( result );
+				return result;
+			}
+
+			BasicNode next = null;
+			for ( Node child : current.getChildren() ) {
+				if ( child.getId().equals( nodeId ) || HierarchyBuilder.areIdsAncestorAndDescendant( child.getId(), nodeId ) ) {
+					next = (BasicNode)child;
+					break;
+				}
+			}
+			current = next;
+		}
+
+		return Collections.emptyList();
+	}
+
+	private static BasicNode findChild( Node parent, String childId )
+	{
+		for ( Node child : parent.getChildren() ) {
+			if ( child.getId().equals( childId ) ) {
+				return (BasicNode)child;
+			}
+		}
 		return null;
 	}
 
+	/**
+	 * Inserts the child into the parent's children list, keeping the list sorted by id.
+	 */
+	private static void insertChild( Node parent, Node child )
+	{
+		NodeIdComparator comparator = new NodeIdComparator();
+		ListIterator<Node> it = parent.getChildren().listIterator();
+		while ( it.hasNext() ) {
+			if ( comparator.compare( it.next(), child ) > 0 ) {
+				it.previous();
+				break;
+			}
+		}
+		it.add( child );
+	}
+
+	/**
+	 * Subtracts classes of instances in the specified node's subtree from the class count map.
+	 * 
+	 * @return number of instances in the subtree
+	 */
+	private static int subtractClassCounts( Node subtreeRoot, Map<String, Integer> classCounts )
+	{
+		int result = 0;
+
+		Deque<Node> pending = new ArrayDeque<>();
+		pending.push( subtreeRoot );
+		while ( !pending.isEmpty() ) {
+			Node n = pending.pop();
+			for ( Instance in : n.getNodeInstances() ) {
+				if ( in.getTrueClass() != null ) {
+					classCounts.computeIfPresent( in.getTrueClass(), ( c, count ) -> count == 1 ? null : count - 1 );
+				}
+			}
+			result += n.getNodeInstances().size();
+			n.getChildren().forEach( pending::push );
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return nodes of the specified tree in pre-order, which - with children sorted by id - is the same order
+	 *         as sorting all nodes by id.
+	 */
+	private static List<BasicNode> getGroupsInOrder( BasicNode root )
+	{
+		List<BasicNode> result = new ArrayList<>();
+
+		Deque<Node> pending = new ArrayDeque<>();
+		pending.push( root );
+		while ( !pending.isEmpty() ) {
+			Node n = pending.pop();
+			result.add( (BasicNode)n );
+			for ( Iterator<Node> it = n.getChildren().descendingIterator(); it.hasNext(); ) {
+				pending.push( it.next() );
+			}
+		}
+
+		return result;
+	}
+
+	private static Hierarchy createHierarchy(
+		BasicNode root, String[] dataNames, Map<String, Integer> classCounts, int instanceCount )
+	{
+		return new BasicHierarchy( root, getGroupsInOrder( root ), dataNames, classCounts, instanceCount );
+	}
+
 	public static Hierarchy buildHierarchy( List<BasicNode> nodes, String[] dataNames, boolean useSubtree )
 	{
 		nodes.sort( new NodeIdComparator() );
 		BasicNode root = nodes.get( 0 );
 		HierarchyBuilder.createParentChildRelations( nodes, null );
 		nodes.addAll( HierarchyBuilder.fixDepthGaps( nodes, root.getId(), useSubtree, null ) );
-		HierarchyBuilder.recalculateCentroids( nodes, useSubtree, null );
 		HierarchyBuilder.sortAllChildren( root );
+		CentroidCalculator.recalculateCentroids( root, useSubtree );
 
 		return new BasicHierarchy( nodes, dataNames );
 	}
@@ -470,6 +877,7 @@ public class HierarchyUtils
 	/**
 	 * Serializes the specified hierarchy into CSV format with the specified settings, and saves it
 	 * in the specified file with UTF-8 encoding.
+	 * If the file's extension denotes a compression format (eg. .csv.gz), the file is compressed.
 	 * 
 	 * @param path
 	 *            the file to save the hierarchy in
@@ -491,15 +899,97 @@ public class HierarchyUtils
 		Hierarchy h,
 		boolean withAssignClass, boolean withTrueClass, boolean withInstanceNames, boolean withHeader ) throws IOException
 	{
-		// Via: http://stackoverflow.com/a/9853261
-		OutputStreamWriter writer = new OutputStreamWriter(
-			new FileOutputStream( path ),
-			Charset.forName( "UTF-8" ).newEncoder()
-		);
+		CompressionType compression = CompressionType.forPath( path );
+		if ( compression != CompressionType.NONE ) {
+			try ( OutputStream out = compression.compress( Files.newOutputStream( Paths.get( path ) ) ) ) {
+				writeCSV( Channels.newChannel( out ), h, withAssignClass, withTrueClass, withInstanceNames, withHeader );
+			}
+			return;
+		}
+
+		try ( FileChannel channel = FileChannel.open(
+			Paths.get( path ),
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+		) ) {
+			writeCSV( channel, h, withAssignClass, withTrueClass, withInstanceNames, withHeader );
+		}
+	}
+
+	/**
+	 * Serializes the specified hierarchy into CSV format with the specified settings, and writes it
+	 * to the specified channel with UTF-8 encoding, one node at a time.
+	 * Unlike {@link #toCSV(Hierarchy, boolean, boolean, boolean, boolean)}, this method never
+	 * holds the whole serialized form in memory.
+	 * 
+	 * @param out
+	 *            the channel to write to. The channel is not closed by this method.
+	 * @param h
+	 *            the hierarchy to serialize
+	 * @param withAssignClass
+	 *            whether the serialized form should include assign class attribute
+	 * @param withTrueClass
+	 *            whether the serialized form should include true class attribute
+	 * @param withInstanceNames
+	 *            whether the serialized form should include instance name attribute
+	 * @param withHeader
+	 *            whether the serialized CSV should include a header with column names
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static void writeCSV(
+		WritableByteChannel out,
+		Hierarchy h,
+		boolean withAssignClass, boolean withTrueClass, boolean withInstanceNames, boolean withHeader ) throws IOException
+	{
+		CSVChannelWriter writer = new CSVChannelWriter( out );
+		StringBuilder buf = writer.getBuffer();
+
+		if ( withHeader ) {
+			appendCSVHeader( buf, h, withAssignClass, withTrueClass, withInstanceNames );
+			buf.append( '\n' );
+		}
+
+		for ( Node node : getSortedGroups( h ) ) {
+			for ( Instance instance : node.getNodeInstances() ) {
+				appendInstance( buf, instance, withAssignClass, withTrueClass, withInstanceNames );
+				buf.append( '\n' );
+				writer.flushIfFull();
+			}
+		}
 
-		writer.write( toCSV( h, withAssignClass, withTrueClass, withInstanceNames, withHeader ) );
 		writer.flush();
-		writer.close();
+	}
+
+	/**
+	 * Saves the specified hierarchy in the binary {@link HierarchySnapshot snapshot format}, which can
+	 * be reloaded much faster than CSV, since no text parsing or centroid recalculation is necessary.
+	 * 
+	 * @param path
+	 *            the file to save the hierarchy in
+	 * @param lh
+	 *            the hierarchy to save. Its load options are stored in the snapshot as well.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public static void saveSnapshot( String path, LoadedHierarchy lh ) throws IOException
+	{
+		HierarchySnapshot.save( Paths.get( path ), lh.getMainHierarchy(), lh.options );
+	}
+
+	/**
+	 * Loads a hierarchy saved with {@link #saveSnapshot(String, LoadedHierarchy)}.
+	 * 
+	 * @param path
+	 *            the snapshot file to load
+	 * @return the loaded hierarchy, with the load options stored in the snapshot
+	 * @throws IOException
+	 *             if an I/O error occurs, or the file is not a valid snapshot.
+	 */
+	public static LoadedHierarchy loadSnapshot( String path ) throws IOException
+	{
+		SnapshotReader reader = new SnapshotReader();
+		Hierarchy h = reader.load( path );
+		return new LoadedHierarchy( h, reader.getOptions() );
 	}
 
 	/**
@@ -523,10 +1013,11 @@ public class HierarchyUtils
 	{
 		int capacity = 0;
 		try {
-			estimateBufferSize( h, withAssignClass, withTrueClass, withInstanceNames );
+			capacity = estimateBufferSize( h, withAssignClass, withTrueClass, withInstanceNames );
 		}
 		catch ( ArithmeticException e ) {
-			capacity = Integer.MAX_VALUE;
+			// Too large to estimate, let the buffer grow on its own.
+			capacity = 16;
 		}
 
 		StringBuilder buf = new StringBuilder( capacity );
@@ -536,12 +1027,7 @@ public class HierarchyUtils
 			buf.append( '\n' );
 		}
 
-		List<Node> nodes = new ArrayList<>();
-		for ( Node n : h.getGroups() )
-			nodes.add( n );
-		nodes.sort( new NodeIdComparator() );
-
-		for ( Node node : nodes ) {
+		for ( Node node : getSortedGroups( h ) ) {
 			for ( Instance instance : node.getNodeInstances() ) {
 				appendInstance( buf, instance, withAssignClass, withTrueClass, withInstanceNames );
 				buf.append( '\n' );
@@ -551,6 +1037,16 @@ public class HierarchyUtils
 		return buf.toString();
 	}
 
+	/**
+	 * @return groups of the specified hierarchy, sorted by their ids
+	 */
+	private static List<Node> getSortedGroups( Hierarchy h )
+	{
+		List<Node> nodes = new ArrayList<>( Arrays.asList( h.getGroups() ) );
+		nodes.sort( new NodeIdComparator() );
+		return nodes;
+	}
+
 	/**
 	 * @param h
 	 *            the hierarchy to get the instance from
@@ -594,11 +1090,11 @@ public class HierarchyUtils
 		int instances = h.getOverallNumberOfInstances();
 		int dims = getFeatureCount( h );
 
-		int result = instances * dims * charsForFeatureValue;
+		int result = Math.multiplyExact( Math.multiplyExact( instances, dims ), charsForFeatureValue );
 
-		if ( withAssignClass ) result = Math.addExact( result, charsForNodeId );
-		if ( withTrueClass ) result = Math.addExact( result, charsForNodeId );
-		if ( withInstanceNames ) result = Math.addExact( result, instances * charsForInstanceName );
+		if ( withAssignClass ) result = Math.addExact( result, Math.multiplyExact( instances, charsForNodeId ) );
+		if ( withTrueClass ) result = Math.addExact( result, Math.multiplyExact( instances, charsForNodeId ) );
+		if ( withInstanceNames ) result = Math.addExact( result, Math.multiplyExact( instances, charsForInstanceName ) );
 
 		return result;
 	}
@@ -624,7 +1120,10 @@ public class HierarchyUtils
 				dataNames[i] = "dimension_" + i;
 		}
 
-		buf.append( Arrays.stream( dataNames ).collect( Collectors.joining( ";" ) ) );
+		for ( int i = 0; i < dataNames.length; ++i ) {
+			if ( i > 0 ) buf.append( ';' );
+			buf.append( dataNames[i] );
+		}
 	}
 
 	/**
@@ -639,11 +1138,83 @@ public class HierarchyUtils
 		if ( withTrueClass ) buf.append( instance.getTrueClass() ).append( ';' );
 		if ( withInstanceNames ) buf.append( instance.getInstanceName() ).append( ';' );
 
-		buf.append(
-			Arrays.stream( instance.getData() )
-				.mapToObj( d -> Double.toString( d ) )
-				.collect( Collectors.joining( ";" ) )
-		);
+		// StringBuilder.append( double ) produces the same text as Double.toString( double ),
+		// without creating an intermediate String for each value.
+		double[] data = instance.getData();
+		for ( int i = 0; i < data.length; ++i ) {
+			if ( i > 0 ) buf.append( ';' );
+			buf.append( data[i] );
+		}
+	}
+
+
+	/**
+	 * Buffers serialized CSV text, and writes it to a channel in UTF-8 encoding
+	 * whenever the buffer fills up.
+	 */
+	private static final class CSVChannelWriter
+	{
+		private static final int bufferSize = 1 << 16;
+
+		private final WritableByteChannel out;
+		private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+		private final StringBuilder buf = new StringBuilder( bufferSize + 1024 );
+		private final ByteBuffer bytes = ByteBuffer.allocate( bufferSize * 2 );
+
+
+		public CSVChannelWriter( WritableByteChannel out )
+		{
+			this.out = out;
+		}
+
+		/**
+		 * @return the buffer that serialized text should be appended to
+		 */
+		public StringBuilder getBuffer()
+		{
+			return buf;
+		}
+
+		public void flushIfFull() throws IOException
+		{
+			if ( buf.length() >= bufferSize ) {
+				flush();
+			}
+		}
+
+		public void flush() throws IOException
+		{
+			CharBuffer chars = CharBuffer.wrap( buf );
+			encoder.reset();
+
+			CoderResult result;
+			do {
+				result = encoder.encode( chars, bytes, true );
+				if ( result.isOverflow() ) {
+					write();
+				}
+				else if ( result.isError() ) {
+					result.throwException();
+				}
+			}
+			while ( result.isOverflow() );
+
+			while ( encoder.flush( bytes ).isOverflow() ) {
+				write();
+			}
+			write();
+
+			buf.setLength( 0 );
+		}
+
+		private void write() throws IOException
+		{
+			bytes.flip();
+			while ( bytes.hasRemaining() ) {
+				out.write( bytes );
+			}
+			bytes.clear();
+		}
 	}
 }
 
@@ -0,0 +1,373 @@
+package pl.pwr.hiervis.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+
+/**
+ * A cache holding entries up to the specified total weight. When adding an entry makes the total weight
+ * exceed that limit, least recently used entries are evicted until it fits again.
+ *
+ * <p>
+ * By default each entry weighs 1, so that the limit is the maximum number of entries. A weigher function
+ * can be specified to estimate size of values instead, eg. in bytes.
+ * </p>
+ *
+ * <p>
+ * Values can also be held through {@link SoftReference}s, allowing the garbage collector to reclaim them
+ * when memory runs low. This is only suitable for values that can be recreated when needed. Entries whose
+ * values have been reclaimed are removed from the cache, and count as evictions.
+ * </p>
+ *
+ * <p>
+ * Checking for or getting an entry marks it as recently used. Only {@link #get(Object)} counts towards
+ * hit / miss statistics.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe, all access has to be synchronized externally.
+ * </p>
+ *
+ * @author Tomasz Bachmiński
+ *
+ * @param <K>
+ *            type of keys
+ * @param <V>
+ *            type of values
+ */
+public class LruCache<K, V>
+{
+	private final LinkedHashMap<K, Entry<K, V>> entries = new LinkedHashMap<>( 16, 0.75f, true );
+	private final ReferenceQueue<V> reclaimedValues;
+
+	private final long maxWeight;
+	private final ToLongFunction<? super V> weigher;
+	private final BiConsumer<K, V> evictionListener;
+
+	private long weight = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+
+	/**
+	 * @param maxSize
+	 *            maximum number of entries held by the cache
+	 */
+	public LruCache( int maxSize )
+	{
+		this( maxSize, null );
+	}
+
+	/**
+	 * @param maxSize
+	 *            maximum number of entries held by the cache
+	 * @param evictionListener
+	 *            function invoked with key and value of each entry evicted from the cache, can be null.
+	 *            Not invoked for entries removed explicitly.
+	 */
+	public LruCache( int maxSize, BiConsumer<K, V> evictionListener )
+	{
+		this( maxSize, v -> 1, false, evictionListener );
+	}
+
+	/**
+	 * @param maxWeight
+	 *            maximum total weight of entries held by the cache
+	 * @param weigher
+	 *            function estimating weight of a value. Weight of a value must not change while it is in the cache.
+	 * @param softValues
+	 *            whether values should be held through soft references
+	 * @param evictionListener
+	 *            function invoked with key and value of each entry evicted from the cache, can be null.
+	 *            Not invoked for entries removed explicitly. The value is null if it has been reclaimed by
+	 *            the garbage collector.
+	 */
+	public LruCache( long maxWeight, ToLongFunction<? super V> weigher, boolean softValues, BiConsumer<K, V> evictionListener )
+	{
+		if ( maxWeight <= 0 ) {
+			throw new IllegalArgumentException( "Max weight must be positive: " + maxWeight );
+		}
+		if ( weigher == null ) {
+			throw new IllegalArgumentException( "Weigher must not be null!" );
+		}
+
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.reclaimedValues = softValues ? new ReferenceQueue<>() : null;
+		this.evictionListener = evictionListener;
+	}
+
+	/**
+	 * @return the value associated with the specified key, or null if there is none
+	 */
+	public V get( Object key )
+	{
+		V result = peek( key );
+		if ( result == null ) {
+			++missCount;
+		}
+		else {
+			++hitCount;
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if the cache holds a value for the specified key
+	 */
+	public boolean containsKey( Object key )
+	{
+		return peek( key ) != null;
+	}
+
+	/**
+	 * @return true if the cache holds the specified value (compared with {@code equals()})
+	 */
+	public boolean containsValue( Object value )
+	{
+		expungeReclaimed();
+		for ( Entry<K, V> entry : entries.values() ) {
+			V v = entry.getValue();
+			if ( v != null && v.equals( value ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Associates the specified value with the specified key, evicting least recently used entries if needed.
+	 * The new entry itself is never evicted by this call, even if it exceeds the maximum weight on its own.
+	 *
+	 * @return the value previously associated with the key, or null if there was none
+	 */
+	public V put( K key, V value )
+	{
+		if ( value == null ) {
+			throw new IllegalArgumentException( "Value must not be null!" );
+		}
+
+		expungeReclaimed();
+
+		Entry<K, V> entry = new Entry<>( key, value, weigher.applyAsLong( value ), reclaimedValues );
+		Entry<K, V> previous = entries.put( key, entry );
+		weight += entry.weight;
+		if ( previous != null ) {
+			weight -= previous.weight;
+		}
+
+		Iterator<Map.Entry<K, Entry<K, V>>> it = entries.entrySet().iterator();
+		while ( weight > maxWeight && entries.size() > 1 ) {
+			Entry<K, V> eldest = it.next().getValue();
+			it.remove();
+			weight -= eldest.weight;
+			onEvicted( eldest.key, eldest.getValue() );
+		}
+
+		return previous == null ? null : previous.getValue();
+	}
+
+	/**
+	 * @return the value previously associated with the key, or null if there was none
+	 */
+	public V remove( Object key )
+	{
+		expungeReclaimed();
+
+		Entry<K, V> previous = entries.remove( key );
+		if ( previous == null ) {
+			return null;
+		}
+		weight -= previous.weight;
+		return previous.getValue();
+	}
+
+	/**
+	 * Performs the specified action on each entry, without marking it as recently used.
+	 * The action must not modify the cache.
+	 */
+	public void forEach( BiConsumer<? super K, ? super V> action )
+	{
+		expungeReclaimed();
+		for ( Entry<K, V> entry : entries.values() ) {
+			V value = entry.getValue();
+			if ( value != null ) {
+				action.accept( entry.key, value );
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of contents of the cache, from least to most recently used
+	 */
+	public Map<K, V> snapshot()
+	{
+		Map<K, V> result = new LinkedHashMap<>();
+		forEach( result::put );
+		return result;
+	}
+
+	/**
+	 * Removes all entries from the cache. Statistics are not reset.
+	 */
+	public void clear()
+	{
+		entries.clear();
+		weight = 0;
+		if ( reclaimedValues != null ) {
+			while ( reclaimedValues.poll() != null ) {
+				// Drain the queue, entries are gone already.
+			}
+		}
+	}
+
+	/**
+	 * @return number of entries in the cache, possibly including entries whose values have been
+	 *         reclaimed, but not yet removed.
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * @return total weight of entries in the cache
+	 */
+	public long getWeight()
+	{
+		return weight;
+	}
+
+	/**
+	 * @return maximum total weight of entries held by the cache
+	 */
+	public long getMaxWeight()
+	{
+		return maxWeight;
+	}
+
+	/**
+	 * @return number of {@link #get(Object)} calls that found a value
+	 */
+	public long getHitCount()
+	{
+		return hitCount;
+	}
+
+	/**
+	 * @return number of {@link #get(Object)} calls that did not find a value
+	 */
+	public long getMissCount()
+	{
+		return missCount;
+	}
+
+	/**
+	 * @return number of entries evicted from the cache, or whose values were reclaimed by the garbage collector
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format(
+			"%s[size=%d, weight=%d/%d, hits=%d, misses=%d, evictions=%d]",
+			getClass().getSimpleName(), entries.size(), weight, maxWeight, hitCount, missCount, evictionCount
+		);
+	}
+
+	private V peek( Object key )
+	{
+		expungeReclaimed();
+		Entry<K, V> entry = entries.get( key );
+		if ( entry == null ) {
+			return null;
+		}
+
+		V result = entry.getValue();
+		if ( result == null ) {
+			// The value has been reclaimed, but its reference hasn't been enqueued yet.
+			// Once it is, the entry is gone already, so it won't be evicted twice.
+			entries.remove( key );
+			weight -= entry.weight;
+			onEvicted( entry.key, null );
+		}
+		return result;
+	}
+
+	/**
+	 * Removes entries whose values have been reclaimed by the garbage collector.
+	 */
+	private void expungeReclaimed()
+	{
+		if ( reclaimedValues == null ) {
+			return;
+		}
+
+		Reference<? extends V> ref;
+		while ( ( ref = reclaimedValues.poll() ) != null ) {
+			@SuppressWarnings("unchecked")
+			K key = ( (SoftValue<K, V>)ref ).key;
+			Entry<K, V> entry = entries.get( key );
+			// The key might have been associated with a different value since.
+			if ( entry != null && entry.soft == ref ) {
+				entries.remove( key );
+				weight -= entry.weight;
+				onEvicted( key, null );
+			}
+		}
+	}
+
+	private void onEvicted( K key, V value )
+	{
+		++evictionCount;
+		if ( evictionListener != null ) {
+			evictionListener.accept( key, value );
+		}
+	}
+
+
+	private static final class Entry<K, V>
+	{
+		private final K key;
+		private final V strong;
+		private final SoftValue<K, V> soft;
+		private final long weight;
+
+
+		private Entry( K key, V value, long weight, ReferenceQueue<V> queue )
+		{
+			this.key = key;
+			this.strong = queue == null ? value : null;
+			this.soft = queue == null ? null : new SoftValue<>( key, value, queue );
+			this.weight = weight;
+		}
+
+		private V getValue()
+		{
+			return soft == null ? strong : soft.get();
+		}
+	}
+
+	private static final class SoftValue<K, V> extends SoftReference<V>
+	{
+		private final K key;
+
+
+		private SoftValue( K key, V value, ReferenceQueue<V> queue )
+		{
+			super( value, queue );
+			this.key = key;
+		}
+	}
+}
@@ -19,6 +19,9 @@ import org.apache.logging.log4j.Logger;
 
 import basic_hierarchy.interfaces.Instance;
 import basic_hierarchy.interfaces.Node;
+import pl.pwr.hiervis.hierarchy.LazyInstance;
+import pl.pwr.hiervis.hierarchy.RebasedInstance;
+import pl.pwr.hiervis.hierarchy.StoredInstance;
 import prefuse.Display;
 import prefuse.Visualization;
 import prefuse.activity.ActivityManager;
@@ -168,6 +171,59 @@ public class Utils
 		return ColorLib.rgba( c.getRed(), c.getGreen(), c.getBlue(), c.getAlpha() );
 	}
 
+	/**
+	 * Returns the value of a single feature of the specified instance. Unlike {@code instance.getData()[feature]},
+	 * this does not load all features of {@link LazyInstance}s, nor copy them out of {@link StoredInstance}s.
+	 * 
+	 * @param instance
+	 *            the instance to get the value from
+	 * @param feature
+	 *            index of the feature
+	 * @return value of the feature
+	 */
+	public static double getFeature( Instance instance, int feature )
+	{
+		if ( instance instanceof StoredInstance ) {
+			return ( (StoredInstance)instance ).getFeature( feature );
+		}
+		if ( instance instanceof LazyInstance ) {
+			return ( (LazyInstance)instance ).getFeature( feature );
+		}
+		if ( instance instanceof RebasedInstance ) {
+			return ( (RebasedInstance)instance ).getFeature( feature );
+		}
+		return instance.getData()[feature];
+	}
+
+	/**
+	 * Copies all feature values of the specified instance into the array. Unlike {@code instance.getData()},
+	 * this does not create a new array, and reads features of {@link LazyInstance}s and {@link StoredInstance}s
+	 * with a single access to their store, instead of one access per feature.
+	 * 
+	 * @param instance
+	 *            the instance to get the values from
+	 * @param dest
+	 *            the array to copy values into. Must be at least as long as the number of features.
+	 */
+	public static void getFeatures( Instance instance, double[] dest )
+	{
+		if ( instance instanceof RebasedInstance ) {
+			getFeatures( ( (RebasedInstance)instance ).getSource(), dest );
+		}
+		else if ( instance instanceof StoredInstance ) {
+			StoredInstance stored = (StoredInstance)instance;
+			stored.getStore().getRow( stored.getRow(), dest );
+		}
+		else if ( instance instanceof LazyInstance ) {
+			LazyInstance lazy = (LazyInstance)instance;
+			lazy.getStore().getRow( lazy.getIndex(), dest );
+		}
+		else {
+			double[] data = instance.getData();
+			System.arraycopy( data, 0, dest, 0, data.length );
+		}
+	}
+
 	/**
 	 * Returns a rectangle containing the smallest and largest values for each dimension in the specified node.
 	 * 
@@ -187,8 +243,8 @@ public class Utils
 		double maxY = Double.MIN_VALUE;
 
 		for ( Instance i : node.getSubtreeInstances() ) {
-			double x = i.getData()[dimX];
-			double y = i.getData()[dimY];
+			double x = getFeature( i, dimX );
+			double y = getFeature( i, dimY );
 
 			minX = Math.min( minX, x );
 			minY = Math.min( minY, y );
@@ -4,6 +4,7 @@ import java.awt.Dimension;
 import java.awt.GridBagLayout;
 import java.awt.Window;
 import java.awt.event.ActionListener;
+import java.util.Objects;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.function.Supplier;
@@ -29,6 +30,9 @@ import javax.swing.SwingConstants;
 @SuppressWarnings("serial")
 public class OperationProgressFrame extends JDialog
 {
+	/** Time after which the remaining time starts being estimated, so that the estimate isn't wildly off */
+	private static final long _minEstimateTimeMs = 1000;
+
 	private JLabel status;
 	private JProgressBar progressBar;
 	private JButton button;
@@ -37,6 +41,11 @@ public class OperationProgressFrame extends JDialog
 	private Supplier<String> statusCallback;
 	private Timer timer;
 
+	private boolean showRemainingTime = false;
+	private String stageStatus = null;
+	private long stageStartTime = 0;
+	private int stageStartProgress = 0;
+
 
 	public OperationProgressFrame( Window owner, String title )
 	{
@@ -113,6 +122,17 @@ public class OperationProgressFrame extends JDialog
 		statusCallback = statusSupplier;
 	}
 
+	/**
+	 * @param show
+	 *            if true, the status message is followed by the estimated time remaining until the operation's
+	 *            current stage is finished. The estimate is based on the rate at which progress has advanced since
+	 *            the status message last changed.
+	 */
+	public void setShowRemainingTime( boolean show )
+	{
+		showRemainingTime = show;
+	}
+
 	/**
 	 * Sets the interval at which to poll the {@code updateCallback} and update the progress bar.
 	 * 
@@ -149,8 +169,9 @@ public class OperationProgressFrame extends JDialog
 		if ( progressCallback != null || statusCallback != null ) {
 			SwingUtilities.invokeLater(
 				() -> {
+					int value = -1;
 					if ( progressCallback != null ) {
-						int value = progressCallback.get();
+						value = progressCallback.get();
 						if ( value < 0 ) {
 							progressBar.setIndeterminate( true );
 						}
@@ -160,13 +181,39 @@ public class OperationProgressFrame extends JDialog
 					}
 
 					if ( statusCallback != null ) {
-						status.setText( statusCallback.get() );
+						String text = statusCallback.get();
+						status.setText( showRemainingTime ? appendRemainingTime( text, value ) : text );
 					}
 				}
 			);
 		}
 	}
 
+	private String appendRemainingTime( String stage, int progress )
+	{
+		long now = System.currentTimeMillis();
+		if ( !Objects.equals( stage, stageStatus ) || progress < stageStartProgress ) {
+			// New stage of the operation started.
+			stageStatus = stage;
+			stageStartTime = now;
+			stageStartProgress = progress;
+			return stage;
+		}
+
+		long elapsed = now - stageStartTime;
+		int done = progress - stageStartProgress;
+		if ( progress >= 100 || done <= 0 || elapsed < _minEstimateTimeMs ) {
+			return stage;
+		}
+
+		long remainingSec = elapsed * ( 100 - progress ) / done / 1000;
+		String remaining = remainingSec < 60
+			? String.format( "%d s", remainingSec )
+			: String.format( "%d min %d s", remainingSec / 60, remainingSec % 60 );
+
+		return String.format( "<html><center>%s<br/>About %s remaining</center></html>", stage, remaining );
+	}
+
 	private void cleanupTimer()
 	{
 		if ( timer != null ) {
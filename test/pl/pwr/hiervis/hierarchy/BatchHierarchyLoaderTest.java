@@ -0,0 +1,93 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import pl.pwr.hiervis.hierarchy.BatchHierarchyLoader.FileState;
+import pl.pwr.hiervis.hierarchy.reader.DefaultCSVReader;
+import pl.pwr.hiervis.hierarchy.reader.HierarchyReadersTest;
+import pl.pwr.hiervis.hierarchy.reader.ParallelCSVReader;
+import pl.pwr.hiervis.util.HierarchyUtils;
+
+
+public class BatchHierarchyLoaderTest
+{
+	private static final LoadedHierarchy.Options options = new LoadedHierarchy.Options( true, true, true, false, false );
+
+	List<File> files = new ArrayList<>();
+
+
+	@Before
+	public void setup() throws IOException
+	{
+		for ( int i = 0; i < 4; ++i ) {
+			Hierarchy h = HierarchyReadersTest.generateHierarchy( 1000 * ( i + 1 ), 2 + i, "gen.0", "gen.0.0", "gen.0.1" );
+			File file = File.createTempFile( "hiervis-batch", ".csv" );
+			HierarchyUtils.save( file.getAbsolutePath(), h, true, true, true, true );
+			files.add( file );
+		}
+	}
+
+	@After
+	public void cleanup()
+	{
+		for ( File file : files ) {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testBatchLoad() throws InterruptedException, IOException
+	{
+		Map<File, LoadedHierarchy> results = new ConcurrentHashMap<>();
+
+		BatchHierarchyLoader loader = new BatchHierarchyLoader( files, options, ParallelCSVReader::new, 2 );
+		loader.fileLoaded.addListener( args -> results.put( args.getLeft(), args.getRight() ) );
+		loader.start();
+
+		Assert.assertTrue( loader.awaitFinished( 30, TimeUnit.SECONDS ) );
+		Assert.assertTrue( loader.isFinished() );
+		Assert.assertEquals( 100, loader.getProgress() );
+		Assert.assertEquals( files.size(), loader.getCount( FileState.LOADED ) );
+
+		for ( int i = 0; i < files.size(); ++i ) {
+			Hierarchy expected = new DefaultCSVReader().load( files.get( i ).getAbsolutePath(), true, true, true, false, false );
+			HierarchyReadersTest.compareHierarchies( expected, results.get( files.get( i ) ).getMainHierarchy() );
+		}
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException
+	{
+		Map<File, LoadedHierarchy> results = new ConcurrentHashMap<>();
+
+		BatchHierarchyLoader loader = new BatchHierarchyLoader( files, options, ParallelCSVReader::new, 1 );
+		loader.fileLoaded.addListener( args -> results.put( args.getLeft(), args.getRight() ) );
+
+		Assert.assertTrue( loader.cancel( files.get( 1 ) ) );
+		Assert.assertEquals( 1, loader.cancel( files.subList( 1, 3 ) ) );
+		loader.start();
+
+		Assert.assertTrue( loader.awaitFinished( 30, TimeUnit.SECONDS ) );
+		Assert.assertFalse( loader.cancel( files.get( 0 ) ) );
+
+		Assert.assertEquals( FileState.LOADED, loader.getState( files.get( 0 ) ) );
+		Assert.assertEquals( FileState.CANCELLED, loader.getState( files.get( 1 ) ) );
+		Assert.assertEquals( FileState.CANCELLED, loader.getState( files.get( 2 ) ) );
+		Assert.assertEquals( FileState.LOADED, loader.getState( files.get( 3 ) ) );
+
+		Assert.assertEquals( 2, results.size() );
+		Assert.assertFalse( results.containsKey( files.get( 1 ) ) );
+	}
+}
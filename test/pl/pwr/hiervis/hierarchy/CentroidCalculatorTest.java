@@ -0,0 +1,59 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.BasicNode;
+import pl.pwr.hiervis.util.HierarchyUtilsTest;
+
+
+public class CentroidCalculatorTest
+{
+	@Test
+	public void testMatchesNodeCentroids()
+	{
+		testMatchesNodeCentroids( false );
+		testMatchesNodeCentroids( true );
+	}
+
+	@Test
+	public void testDeepTree()
+	{
+		// A chain of nodes deep enough to overflow the call stack, if the tree was processed recursively.
+		// Ids don't matter to the calculator, and full ids of such a deep chain would take up too much memory.
+		final int depth = 100000;
+		BasicNode root = new BasicNode( "gen.0", null, false );
+		BasicNode current = root;
+		for ( int i = 0; i < depth; ++i ) {
+			current.addInstance( new BasicInstance( null, current.getId(), new double[] { i }, null ) );
+			BasicNode child = new BasicNode( "n" + i, current, false );
+			current.addChild( child );
+			current = child;
+		}
+
+		CentroidCalculator.recalculateCentroids( root, true, new ForkJoinPool( 1 ) );
+		Assert.assertArrayEquals( new double[] { ( depth - 1 ) / 2.0 }, root.getNodeRepresentation().getData(), 1e-9 );
+
+		CentroidCalculator.recalculateCentroids( root, true, new ForkJoinPool( 4 ) );
+		Assert.assertArrayEquals( new double[] { ( depth - 1 ) / 2.0 }, root.getNodeRepresentation().getData(), 1e-9 );
+	}
+
+	private static void testMatchesNodeCentroids( boolean useSubtree )
+	{
+		List<BasicNode> nodes = HierarchyUtilsTest.generateRandomTree( 2000, 5, 2, 0 );
+		CentroidCalculator.recalculateCentroids( nodes.get( 0 ), useSubtree, new ForkJoinPool( 4 ) );
+
+		for ( BasicNode n : nodes ) {
+			double[] actual = n.getNodeRepresentation().getData();
+			n.recalculateCentroid( useSubtree );
+			double[] expected = n.getNodeRepresentation().getData();
+
+			Assert.assertEquals( "centroid", n.getNodeRepresentation().getInstanceName() );
+			Assert.assertArrayEquals( n.getId(), expected, actual, 1e-9 );
+		}
+	}
+}
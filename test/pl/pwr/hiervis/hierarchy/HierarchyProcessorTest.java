@@ -0,0 +1,307 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import pl.pwr.hiervis.core.HVConstants;
+import pl.pwr.hiervis.hierarchy.reader.DefaultCSVReader;
+import pl.pwr.hiervis.hierarchy.reader.HierarchyReadersTest;
+import pl.pwr.hiervis.prefuse.TableEx;
+import pl.pwr.hiervis.prefuse.visualization.TreeLayoutData;
+import pl.pwr.hiervis.util.HierarchyUtils;
+import prefuse.data.Tree;
+
+
+public class HierarchyProcessorTest
+{
+	private static final LoadedHierarchy.Options options = new LoadedHierarchy.Options( true, true, true, false, false );
+
+	File file = null;
+
+
+	@Before
+	public void setup() throws IOException
+	{
+		Hierarchy h = HierarchyReadersTest.generateHierarchy( 5000, 3, "gen.0", "gen.0.0", "gen.0.1", "gen.0.1.0", "gen.0.1.1" );
+		file = File.createTempFile( "hiervis-processor", ".csv" );
+		HierarchyUtils.save( file.getAbsolutePath(), h, true, true, true, true );
+	}
+
+	@After
+	public void cleanup()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void testCreateInstanceTable() throws IOException
+	{
+		Hierarchy h = new DefaultCSVReader().load( file.getAbsolutePath(), true, true, true, false, false );
+		LoadedHierarchy lh = new LoadedHierarchy( h, options );
+		lh.compactInstances();
+
+		TreeNodeIndex index = new TreeNodeIndex( HierarchyProcessor.buildHierarchyTree( h.getRoot(), 100, 100 ).getLeft() );
+		TableEx actual = HierarchyProcessor.createInstanceTable( null, lh, index );
+
+		// Reference table, filled one row at a time
+		String[] dataNames = HierarchyProcessor.getFeatureNames( lh );
+		TableEx expected = new TableEx();
+		for ( String name : dataNames ) {
+			expected.addColumn( name, double.class );
+		}
+		expected.addColumn( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME, int.class, -1 );
+		expected.addColumn( HVConstants.PREFUSE_INSTANCE_TRUENODE_ID_COLUMN_NAME, String.class );
+		expected.addColumn( HVConstants.PREFUSE_INSTANCE_LABEL_COLUMN_NAME, String.class );
+		HierarchyProcessor.appendInstanceData( lh, h.getRoot().getSubtreeInstances(), index, expected );
+
+		Assert.assertEquals( expected.getRowCount(), actual.getRowCount() );
+		Assert.assertEquals( expected.getColumnCount(), actual.getColumnCount() );
+		for ( int col = 0; col < expected.getColumnCount(); ++col ) {
+			Assert.assertEquals( expected.getColumnName( col ), actual.getColumnName( col ) );
+			Assert.assertEquals( expected.getColumnType( col ), actual.getColumnType( col ) );
+
+			for ( int row = 0; row < expected.getRowCount(); ++row ) {
+				Assert.assertEquals( expected.get( row, col ), actual.get( row, col ) );
+			}
+		}
+
+		// Rows appended after the bulk fill go to the end of the table
+		HierarchyProcessor.appendInstanceData( lh, h.getRoot().getNodeInstances(), index, actual );
+		Assert.assertEquals( expected.getRowCount() + h.getRoot().getNodeInstances().size(), actual.getRowCount() );
+	}
+
+	@Test
+	public void testBackgroundProcessing() throws IOException
+	{
+		Hierarchy h = new DefaultCSVReader().load( file.getAbsolutePath(), true, true, true, false, false );
+		LoadedHierarchy lh = new LoadedHierarchy( h, options );
+
+		ExecutorService executor = Executors.newFixedThreadPool( 2 );
+		try {
+			lh.startProcessing( null, executor ).join();
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		Assert.assertTrue( lh.isProcessed() );
+		Assert.assertEquals( h.getOverallNumberOfInstances(), lh.getInstanceTable().getRowCount() );
+		Assert.assertEquals( h.getGroups().length, lh.getTree().getNodeCount() );
+
+		FeatureExtents extents = lh.getFeatureExtents();
+		for ( int feature = 0; feature < extents.getFeatureCount(); ++feature ) {
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for ( Instance instance : h.getRoot().getSubtreeInstances() ) {
+				min = Math.min( min, instance.getData()[feature] );
+				max = Math.max( max, instance.getData()[feature] );
+			}
+			Assert.assertEquals( min, extents.getMin( feature ), 0 );
+			Assert.assertEquals( max, extents.getMax( feature ), 0 );
+		}
+
+		// Already processed - waits for nothing, and does not rebuild anything
+		TableEx table = lh.getInstanceTable();
+		lh.processHierarchy( null );
+		Assert.assertSame( table, lh.getInstanceTable() );
+	}
+
+	@Test
+	public void testBuildHierarchyTree()
+	{
+		Hierarchy h = HierarchyReadersTest.generateHierarchy(
+			100, 2,
+			"gen.0", "gen.0.0", "gen.0.1", "gen.0.2", "gen.0.0.0", "gen.0.1.0", "gen.0.1.1", "gen.0.1.2",
+			"gen.0.1.1.0", "gen.0.1.1.1", "gen.0.2.0", "gen.0.2.0.0", "gen.0.2.0.0.0"
+		);
+
+		Pair<Tree, TreeLayoutData> actual = HierarchyProcessor.buildHierarchyTree( h.getRoot(), 800, 600 );
+		Pair<Tree, TreeLayoutData> expected = buildReferenceTree( h.getRoot(), 800, 600 );
+
+		Tree expectedTree = expected.getLeft();
+		Tree actualTree = actual.getLeft();
+		Assert.assertEquals( expectedTree.getNodeCount(), actualTree.getNodeCount() );
+		Assert.assertEquals( expectedTree.getRoot().getRow(), actualTree.getRoot().getRow() );
+		for ( int row = 0; row < expectedTree.getNodeCount(); ++row ) {
+			prefuse.data.Node e = expectedTree.getNode( row );
+			prefuse.data.Node a = actualTree.getNode( row );
+			Assert.assertEquals( e.getString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME ), a.getString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME ) );
+			Assert.assertEquals( e.getInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME ), a.getInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME ) );
+			Assert.assertEquals( expectedTree.getParent( row ), actualTree.getParent( row ) );
+			Assert.assertEquals( expectedTree.getChildCount( row ), actualTree.getChildCount( row ) );
+			for ( int i = 0; i < expectedTree.getChildCount( row ); ++i ) {
+				Assert.assertEquals( expectedTree.getChildRow( row, i ), actualTree.getChildRow( row, i ) );
+			}
+		}
+
+		assertLayoutDataEquals( expected.getRight(), actual.getRight() );
+		assertLayoutDataEquals( expected.getRight(), HierarchyProcessor.createTreeLayoutData( actualTree, NodeIntervals.of( actualTree ), 800, 600 ) );
+
+		// Nodes can still be added to the tree after it has been built
+		prefuse.data.Node added = actualTree.addChild( actualTree.getNode( 3 ) );
+		Assert.assertEquals( 3, actualTree.getParent( added.getRow() ) );
+	}
+
+	private static void assertLayoutDataEquals( TreeLayoutData expected, TreeLayoutData actual )
+	{
+		Assert.assertEquals( expected.getNodeSize(), actual.getNodeSize() );
+		Assert.assertEquals( expected.getLayoutWidth(), actual.getLayoutWidth() );
+		Assert.assertEquals( expected.getLayoutHeight(), actual.getLayoutHeight() );
+		Assert.assertEquals( expected.getDepthSpace(), actual.getDepthSpace(), 0 );
+		Assert.assertEquals( expected.getSiblingSpace(), actual.getSiblingSpace(), 0 );
+		Assert.assertEquals( expected.getSubtreeSpace(), actual.getSubtreeSpace(), 0 );
+	}
+
+	/**
+	 * Builds the hierarchy tree the way it was done before nodes were queued in arrays.
+	 */
+	static Pair<Tree, TreeLayoutData> buildReferenceTree( Node sourceRoot, int availableWidth, int availableHeight )
+	{
+		Tree tree = new Tree();
+		tree.addColumn( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME, String.class );
+		tree.addColumn( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, int.class );
+
+		prefuse.data.Node treeRoot = tree.addRoot();
+		treeRoot.setString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME, sourceRoot.getId() );
+		treeRoot.setInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME, ElementRole.OTHER.getNumber() );
+
+		int maxTreeDepth = 0;
+		Map<Integer, Integer> treeLevelToWidth = new HashMap<>();
+		treeLevelToWidth.put( 0, 1 );
+
+		Queue<Map.Entry<prefuse.data.Node, Node>> queue = new LinkedList<>();
+		for ( Node sourceChild : sourceRoot.getChildren() ) {
+			queue.add( new AbstractMap.SimpleEntry<prefuse.data.Node, Node>( treeRoot, sourceChild ) );
+		}
+
+		while ( !queue.isEmpty() ) {
+			Map.Entry<prefuse.data.Node, Node> entry = queue.remove();
+			prefuse.data.Node newNode = HierarchyProcessor.addTreeNode( tree, entry.getKey(), entry.getValue() );
+
+			int depth = newNode.getDepth();
+			maxTreeDepth = Math.max( maxTreeDepth, depth );
+			treeLevelToWidth.merge( depth, 1, Integer::sum );
+
+			for ( Node child : entry.getValue().getChildren() ) {
+				queue.add( new AbstractMap.SimpleEntry<prefuse.data.Node, Node>( newNode, child ) );
+			}
+		}
+
+		int maxTreeWidth = Collections.max( treeLevelToWidth.values() );
+		return Pair.of( tree, new TreeLayoutData( tree, maxTreeDepth, maxTreeWidth, availableWidth, availableHeight ) );
+	}
+
+	@Test
+	public void testNodeRoles()
+	{
+		Hierarchy h = HierarchyReadersTest.generateHierarchy( 100, 2, "gen.0", "gen.0.0", "gen.0.1", "gen.0.1.0", "gen.0.1.1", "gen.0.1.1.0" );
+		Tree tree = HierarchyProcessor.buildHierarchyTree( h.getRoot(), 100, 100 ).getLeft();
+		NodeRoleTracker tracker = new NodeRoleTracker( tree, NodeIntervals.of( tree ) );
+
+		int[] selections = { 3, 0, 5, -1, 2, 2, tree.getNodeCount() - 1 };
+		int[] previous = getRoles( tree );
+		for ( int selection : selections ) {
+			tracker.select( selection );
+
+			int[] roles = getRoles( tree );
+			for ( int row = 0; row < roles.length; ++row ) {
+				Assert.assertEquals( "row " + row, getExpectedRole( tree, selection, row ).getNumber(), roles[row] );
+			}
+
+			int[] changed = tracker.getChangedRows().clone();
+			Arrays.sort( changed );
+			int changedCount = 0;
+			for ( int row = 0; row < roles.length; ++row ) {
+				if ( roles[row] != previous[row] ) {
+					++changedCount;
+					Assert.assertTrue( Arrays.binarySearch( changed, row ) >= 0 );
+				}
+			}
+			Assert.assertEquals( changedCount, changed.length );
+
+			previous = roles;
+		}
+	}
+
+	@Test
+	public void testNodeHierarchy()
+	{
+		Hierarchy h = HierarchyReadersTest.generateHierarchy( 500, 2, "gen.0", "gen.0.1", "gen.0.1.0", "gen.0.1.0.0", "gen.0.10" );
+		LoadedHierarchy lh = new LoadedHierarchy( h, options );
+		Node node = lh.getGroup( "gen.0.1" );
+
+		for ( boolean withSubtree : new boolean[] { true, false } ) {
+			Hierarchy view = lh.getNodeHierarchy( node, withSubtree );
+			Hierarchy copy = HierarchyUtils.wrapNode( h, node, withSubtree );
+			Assert.assertSame( view, lh.getNodeHierarchy( node, withSubtree ) );
+			Assert.assertTrue( lh.isOwnerOf( view ) );
+
+			Assert.assertEquals(
+				Arrays.stream( copy.getGroups() ).map( Node::getId ).collect( Collectors.toList() ),
+				Arrays.stream( view.getGroups() ).map( Node::getId ).collect( Collectors.toList() )
+			);
+			Assert.assertEquals( copy.getOverallNumberOfInstances(), view.getOverallNumberOfInstances() );
+			Assert.assertArrayEquals( copy.getClasses(), view.getClasses() );
+			Assert.assertArrayEquals( copy.getClassesCount(), view.getClassesCount() );
+			for ( String c : copy.getClasses() ) {
+				Assert.assertEquals( copy.getParticularClassCount( c, true ), view.getParticularClassCount( c, true ) );
+			}
+
+			// Instances are shared with the source hierarchy
+			Assert.assertSame( node.getNodeInstances(), view.getRoot().getNodeInstances() );
+			Assert.assertNull( view.getRoot().getParent() );
+			Assert.assertEquals( withSubtree ? 1 : 0, view.getRoot().getChildren().size() );
+			Assert.assertEquals(
+				withSubtree ? node.getSubtreeInstances().size() : node.getNodeInstances().size(),
+				view.getRoot().getSubtreeInstances().size()
+			);
+		}
+	}
+
+	private static int[] getRoles( Tree tree )
+	{
+		int[] result = new int[tree.getNodeCount()];
+		for ( int row = 0; row < result.length; ++row ) {
+			result[row] = tree.getNode( row ).getInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME );
+		}
+		return result;
+	}
+
+	private static ElementRole getExpectedRole( Tree tree, int selection, int row )
+	{
+		if ( selection < 0 )
+			return ElementRole.OTHER;
+		if ( row == selection )
+			return ElementRole.CURRENT;
+		if ( row == tree.getParent( selection ) )
+			return ElementRole.DIRECT_PARENT;
+		for ( int r = tree.getParent( selection ); r >= 0; r = tree.getParent( r ) ) {
+			if ( r == row )
+				return ElementRole.INDIRECT_PARENT;
+		}
+		for ( int r = tree.getParent( row ); r >= 0; r = tree.getParent( r ) ) {
+			if ( r == selection )
+				return ElementRole.CHILD;
+		}
+		return ElementRole.OTHER;
+	}
+}
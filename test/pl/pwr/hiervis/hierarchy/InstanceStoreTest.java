@@ -0,0 +1,102 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import pl.pwr.hiervis.hierarchy.reader.DefaultCSVReader;
+import pl.pwr.hiervis.hierarchy.reader.HierarchyReadersTest;
+import pl.pwr.hiervis.util.HierarchyUtils;
+
+
+public class InstanceStoreTest
+{
+	private static final LoadedHierarchy.Options options = new LoadedHierarchy.Options( true, true, true, false, false );
+
+	File file = null;
+
+
+	@Before
+	public void setup() throws IOException
+	{
+		Hierarchy h = HierarchyReadersTest.generateHierarchy( 3000, 4, "gen.0", "gen.0.0", "gen.0.1", "gen.0.1.0" );
+		file = File.createTempFile( "hiervis-store", ".csv" );
+		HierarchyUtils.save( file.getAbsolutePath(), h, true, true, true, true );
+	}
+
+	@After
+	public void cleanup()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void testCompact() throws IOException
+	{
+		Hierarchy expected = load();
+		LoadedHierarchy lh = new LoadedHierarchy( load(), options );
+		lh.compactInstances();
+
+		InstanceStore store = lh.getInstanceStore();
+		Assert.assertNotNull( store );
+		Assert.assertEquals( expected.getOverallNumberOfInstances(), store.size() );
+		Assert.assertEquals( 4, store.getFeatureCount() );
+
+		for ( Node n : lh.getMainHierarchy().getGroups() ) {
+			for ( Instance instance : n.getNodeInstances() ) {
+				Assert.assertTrue( instance instanceof StoredInstance );
+			}
+		}
+		HierarchyReadersTest.compareHierarchies( expected, lh.getMainHierarchy() );
+	}
+
+	@Test
+	public void testAppend() throws IOException
+	{
+		LoadedHierarchy lh = new LoadedHierarchy( load(), options );
+		lh.compactInstances();
+		InstanceStore store = lh.getInstanceStore();
+		int size = store.size();
+
+		lh.appendInstances(
+			Arrays.asList(
+				new BasicInstance( "a", "gen.0.0", new double[] { 1, 2, 3, 4 }, "gen.0.1" ),
+				new BasicInstance( null, "gen.0.2", new double[] { 5, 6, 7, 8 }, null )
+			)
+		);
+		Assert.assertEquals( size + 2, store.size() );
+
+		Node node = HierarchyUtils.findGroup( lh, "gen.0.2" );
+		Instance instance = node.getNodeInstances().getFirst();
+		Assert.assertTrue( instance instanceof StoredInstance );
+		Assert.assertArrayEquals( new double[] { 5, 6, 7, 8 }, instance.getData(), 0 );
+		Assert.assertEquals( "gen.0.2", instance.getNodeId() );
+		Assert.assertNull( instance.getInstanceName() );
+		Assert.assertNull( instance.getTrueClass() );
+
+		instance.setNodeId( "gen.0.1" );
+		Assert.assertEquals( "gen.0.1", instance.getNodeId() );
+
+		try {
+			store.add( new BasicInstance( null, "gen.0", new double[] { 1 }, null ) );
+			Assert.fail( "Instance with wrong number of features was added." );
+		}
+		catch ( IllegalArgumentException e ) {
+			// Expected
+		}
+	}
+
+	private Hierarchy load() throws IOException
+	{
+		return new DefaultCSVReader().load( file.getAbsolutePath(), true, true, true, false, false );
+	}
+}
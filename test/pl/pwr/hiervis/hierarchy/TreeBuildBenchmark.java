@@ -0,0 +1,54 @@
+package pl.pwr.hiervis.hierarchy;
+
+import java.util.function.Supplier;
+
+import basic_hierarchy.implementation.BasicNode;
+import pl.pwr.hiervis.util.HierarchyUtilsTest;
+
+
+/**
+ * Measures the time it takes to build the hierarchy tree of a large synthetic hierarchy, comparing
+ * {@link HierarchyProcessor#buildHierarchyTree(basic_hierarchy.interfaces.Node, int, int)} with the
+ * previous implementation, which queued map entries in a linked list.
+ *
+ * Not a unit test - run manually, optionally passing the number of nodes as the first argument.
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class TreeBuildBenchmark
+{
+	private static final int warmupRuns = 3;
+	private static final int measuredRuns = 5;
+
+
+	public static void main( String[] args )
+	{
+		int nodeCount = args.length > 0 ? Integer.parseInt( args[0] ) : 100000;
+
+		BasicNode root = HierarchyUtilsTest.generateRandomTree( nodeCount, 0, 0, 0 ).get( 0 );
+
+		double legacyTime = measure( () -> HierarchyProcessorTest.buildReferenceTree( root, 1024, 1024 ) );
+		double currentTime = measure( () -> HierarchyProcessor.buildHierarchyTree( root, 1024, 1024 ) );
+
+		System.out.printf( "Nodes: %d%n", nodeCount );
+		System.out.printf( "Linked list: %.1f ms%n", legacyTime );
+		System.out.printf( "Arrays:      %.1f ms%n", currentTime );
+	}
+
+	/**
+	 * @return average time of building the tree, in milliseconds
+	 */
+	private static double measure( Supplier<?> builder )
+	{
+		for ( int i = 0; i < warmupRuns; ++i ) {
+			builder.get();
+		}
+
+		long start = System.nanoTime();
+		for ( int i = 0; i < measuredRuns; ++i ) {
+			builder.get();
+		}
+		return ( System.nanoTime() - start ) / 1e6 / measuredRuns;
+	}
+}
@@ -0,0 +1,203 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import pl.pwr.hiervis.core.HVConfig;
+import pl.pwr.hiervis.core.HVConstants;
+import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.util.HierarchyUtils;
+
+
+public class CSVFileFollowerTest
+{
+	private static final LoadedHierarchy.Options options = new LoadedHierarchy.Options( true, true, true, false, false );
+
+	File file = null;
+
+
+	@Before
+	public void setup() throws IOException
+	{
+		Hierarchy h = HierarchyReadersTest.generateHierarchy( 500, 3, "gen.0", "gen.0.0", "gen.0.1" );
+		file = File.createTempFile( "hiervis-follow", ".csv" );
+		HierarchyUtils.save( file.getAbsolutePath(), h, true, true, true, true );
+	}
+
+	@After
+	public void cleanup()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void testFollow() throws IOException
+	{
+		LoadedHierarchy lh = load();
+		lh.processHierarchy( new HVConfig() );
+
+		int nodeCount = lh.getMainHierarchy().getNumberOfGroups();
+		int instanceCount = lh.getMainHierarchy().getOverallNumberOfInstances();
+
+		CSVFileFollower follower = new CSVFileFollower( file, options, 3, file.length() );
+		Assert.assertTrue( follower.readAppendedRows().isEmpty() );
+
+		// The last line is incomplete, and should not be read yet.
+		append( "gen.0.1;gen.0.0;new 1;0.5;0.5;0.5\ngen.0.2.1;gen.0.1;new 2;1;2;3\r\ngen.0.0;gen.0;new " );
+
+		// Lists that measures might be iterating in the background are replaced, not modified
+		Node root = lh.getMainHierarchy().getRoot();
+		List<Node> rootChildren = root.getChildren();
+		List<Instance> modifiedInstances = HierarchyUtils.findGroup( lh, "gen.0.1" ).getNodeInstances();
+		int modifiedInstanceCount = modifiedInstances.size();
+
+		List<Instance> rows = follower.readAppendedRows();
+		Assert.assertEquals( 2, rows.size() );
+		Assert.assertTrue( lh.appendInstances( rows ) );
+
+		Assert.assertEquals( 2, rootChildren.size() );
+		Assert.assertEquals( 3, root.getChildren().size() );
+		Assert.assertEquals( modifiedInstanceCount, modifiedInstances.size() );
+		Assert.assertEquals( modifiedInstanceCount + 1, HierarchyUtils.findGroup( lh, "gen.0.1" ).getNodeInstances().size() );
+
+		append( "3;-1;-2;-3\n" );
+
+		rows = follower.readAppendedRows();
+		Assert.assertEquals( 1, rows.size() );
+		Assert.assertEquals( "new 3", rows.get( 0 ).getInstanceName() );
+		Assert.assertFalse( lh.appendInstances( rows ) );
+		Assert.assertEquals( file.length(), follower.getPosition() );
+
+		Hierarchy h = lh.getMainHierarchy();
+		Assert.assertEquals( nodeCount + 2, h.getNumberOfGroups() );
+		Assert.assertEquals( instanceCount + 3, h.getOverallNumberOfInstances() );
+		Assert.assertEquals( instanceCount + 3, lh.getInstanceTable().getRowCount() );
+		int lastRow = instanceCount + 2;
+		Assert.assertEquals( -3, lh.getInstanceTable().getDouble( lastRow, 2 ), 0 );
+		Assert.assertEquals( "new 3", lh.getInstanceTable().getString( lastRow, HVConstants.PREFUSE_INSTANCE_LABEL_COLUMN_NAME ) );
+		Assert.assertEquals( nodeCount + 2, lh.getTree().getNodeCount() );
+
+		// Missing parent is created along with the node, and the tree mirrors the hierarchy.
+		Node created = HierarchyUtils.findGroup( lh, "gen.0.2.1" );
+		Assert.assertEquals( "gen.0.2", created.getParent().getId() );
+		Assert.assertArrayEquals( new double[] { 1, 2, 3 }, created.getNodeRepresentation().getData(), 0 );
+		for ( int row = 0; row < lh.getTree().getNodeCount(); ++row ) {
+			Assert.assertEquals(
+				lh.getTree().getNode( row ).getString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME ),
+				HierarchyUtils.findGroup( lh, row ).getId()
+			);
+		}
+
+		// Appended hierarchy has the same contents as the file loaded from scratch.
+		Hierarchy reloaded = load().getMainHierarchy();
+		Assert.assertEquals( reloaded.getOverallNumberOfInstances(), h.getOverallNumberOfInstances() );
+		Assert.assertEquals( reloaded.getNumberOfGroups(), h.getNumberOfGroups() );
+		for ( Node n : reloaded.getGroups() ) {
+			Node appended = HierarchyUtils.findGroup( lh, n.getId() );
+			Assert.assertEquals( n.getNodeInstances().size(), appended.getNodeInstances().size() );
+			Assert.assertArrayEquals( n.getNodeRepresentation().getData(), appended.getNodeRepresentation().getData(), 1e-9 );
+		}
+	}
+
+	@Test
+	public void testFindLinesEnd() throws IOException
+	{
+		long loadedLength = file.length();
+		long lineCount = load().getMainHierarchy().getOverallNumberOfInstances() + 1;
+		Assert.assertEquals( loadedLength, CSVFileFollower.findLinesEnd( file, lineCount ) );
+
+		// Rows appended after the file has been loaded are not counted as read
+		append( "gen.0.1;gen.0.0;new 1;0.5;0.5;0.5\ngen.0.0;gen.0;new " );
+		Assert.assertEquals( loadedLength, CSVFileFollower.findLinesEnd( file, lineCount ) );
+		Assert.assertEquals( file.length() - "gen.0.0;gen.0;new ".length(), CSVFileFollower.findLinesEnd( file, lineCount + 1 ) );
+		Assert.assertEquals( file.length(), CSVFileFollower.findLinesEnd( file, lineCount + 2 ) );
+	}
+
+	@Test
+	public void testLineBreaks() throws IOException
+	{
+		CSVFileFollower follower = new CSVFileFollower( file, options, 3, file.length() );
+
+		append( "gen.0.1;gen.0.0;cr 1;1;1;1\rgen.0.1;gen.0.0;cr 2;2;2;2\r" );
+		assertInstanceNames( follower.readAppendedRows(), "cr 1", "cr 2" );
+
+		// The \n completing the last line break of the previous read is not taken for a row
+		append( "\ngen.0.1;gen.0.0;crlf 1;3;3;3\r\ngen.0.1;gen.0.0;crlf 2;4;4;4\r\n" );
+		assertInstanceNames( follower.readAppendedRows(), "crlf 1", "crlf 2" );
+		Assert.assertEquals( file.length(), follower.getPosition() );
+	}
+
+	@Test
+	public void testFindLinesEndLineBreaks() throws IOException
+	{
+		Files.write( file.toPath(), "h\r\na\rb\r\nc\nd".getBytes( StandardCharsets.UTF_8 ) );
+		Assert.assertEquals( 3, CSVFileFollower.findLinesEnd( file, 1 ) );
+		Assert.assertEquals( 5, CSVFileFollower.findLinesEnd( file, 2 ) );
+		Assert.assertEquals( 8, CSVFileFollower.findLinesEnd( file, 3 ) );
+		Assert.assertEquals( 10, CSVFileFollower.findLinesEnd( file, 4 ) );
+		Assert.assertEquals( 11, CSVFileFollower.findLinesEnd( file, 5 ) );
+
+		// \r\n split between two reads of the file
+		char[] line = new char[( 1 << 16 ) - 1];
+		Arrays.fill( line, 'x' );
+		Files.write( file.toPath(), ( new String( line ) + "\r\ny\rz" ).getBytes( StandardCharsets.UTF_8 ) );
+		Assert.assertEquals( line.length + 2, CSVFileFollower.findLinesEnd( file, 1 ) );
+		Assert.assertEquals( line.length + 4, CSVFileFollower.findLinesEnd( file, 2 ) );
+	}
+
+	@Test
+	public void testFollowAfterLines() throws IOException
+	{
+		long lineCount = load().getMainHierarchy().getOverallNumberOfInstances() + 1;
+		CSVFileFollower follower = CSVFileFollower.afterLines( file, options, 3, lineCount );
+		Assert.assertEquals( -1, follower.getPosition() );
+
+		// Appended before the follower got to find where the loaded lines end
+		append( "gen.0.1;gen.0.0;new 1;0.5;0.5;0.5\n" );
+
+		List<Instance> rows = follower.readAppendedRows();
+		Assert.assertEquals( 1, rows.size() );
+		Assert.assertEquals( "new 1", rows.get( 0 ).getInstanceName() );
+		Assert.assertEquals( file.length(), follower.getPosition() );
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException
+	{
+		CSVFileFollower follower = new CSVFileFollower( file, options, 3, file.length() );
+		Files.write( file.toPath(), new byte[0] );
+		follower.readAppendedRows();
+	}
+
+	private LoadedHierarchy load() throws IOException
+	{
+		Hierarchy h = new DefaultCSVReader().load( file.getAbsolutePath(), true, true, true, false, false );
+		return new LoadedHierarchy( h, options );
+	}
+
+	private static void assertInstanceNames( List<Instance> rows, String... names )
+	{
+		Assert.assertEquals( names.length, rows.size() );
+		for ( int i = 0; i < names.length; ++i ) {
+			Assert.assertEquals( names[i], rows.get( i ).getInstanceName() );
+		}
+	}
+
+	private void append( String text ) throws IOException
+	{
+		Files.write( file.toPath(), text.getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+	}
+}
@@ -0,0 +1,113 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.hierarchy.reader.CSVFileProfile.ColumnType;
+import pl.pwr.hiervis.util.HierarchyUtils;
+
+
+public class CSVFileProfileTest
+{
+	private static final int instanceCount = 20000;
+
+	File file = null;
+
+
+	@Before
+	public void setup() throws IOException
+	{
+		file = File.createTempFile( "hiervis-profile", ".csv" );
+	}
+
+	@After
+	public void cleanup()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void testDetect() throws IOException
+	{
+		Hierarchy h = HierarchyReadersTest.generateHierarchy( instanceCount, 3, "gen.0", "gen.0.0", "gen.0.1" );
+
+		boolean[][] layouts = {
+			{ true, true, true },
+			{ false, false, false },
+			{ true, false, true },
+			{ false, true, false },
+		};
+
+		for ( boolean[] layout : layouts ) {
+			HierarchyUtils.save( file.getAbsolutePath(), h, true, layout[0], layout[1], layout[2] );
+
+			CSVFileProfile profile = CSVFileProfile.sample( file );
+			Assert.assertEquals(
+				new LoadedHierarchy.Options( layout[1], layout[0], layout[2], false, false ),
+				profile.toOptions()
+			);
+			Assert.assertEquals( 3, profile.getFeatureCount() );
+			Assert.assertEquals( ColumnType.REAL, profile.getFeatureType( 0 ) );
+			Assert.assertEquals( instanceCount, profile.getEstimatedRowCount(), instanceCount * 0.05 );
+		}
+	}
+
+	@Test
+	public void testAtypicalFirstRows() throws IOException
+	{
+		// Instance names in the first rows look like numbers, which would fool a detector that only looked at them.
+		StringBuilder buf = new StringBuilder();
+		for ( int i = 0; i < instanceCount; ++i ) {
+			String name = i < 1000 ? Integer.toString( i ) : "instance " + i;
+			buf.append( "gen.0;" ).append( name ).append( ';' ).append( i % 7 ).append( ';' ).append( i * 0.5 ).append( '\n' );
+		}
+		Files.write( file.toPath(), buf.toString().getBytes( StandardCharsets.UTF_8 ) );
+
+		CSVFileProfile profile = CSVFileProfile.sample( file );
+		Assert.assertFalse( profile.hasHeader() );
+		Assert.assertFalse( profile.hasTrueClass() );
+		Assert.assertTrue( profile.hasInstanceName() );
+		Assert.assertEquals( 2, profile.getFeatureCount() );
+		Assert.assertEquals( ColumnType.INTEGER, profile.getFeatureType( 0 ) );
+		Assert.assertEquals( ColumnType.REAL, profile.getFeatureType( 1 ) );
+	}
+
+	@Test
+	public void testCompressed() throws IOException
+	{
+		Hierarchy h = HierarchyReadersTest.generateHierarchy( instanceCount, 3, "gen.0", "gen.0.0", "gen.0.1" );
+		File compressedFile = File.createTempFile( "hiervis-profile", ".csv.gz" );
+		try {
+			HierarchyUtils.save( compressedFile.getAbsolutePath(), h, true, true, false, true );
+
+			CSVFileProfile profile = CSVFileProfile.sample( compressedFile );
+			Assert.assertEquals( new LoadedHierarchy.Options( false, true, true, false, false ), profile.toOptions() );
+			Assert.assertEquals( instanceCount, profile.getEstimatedRowCount(), instanceCount * 0.05 );
+		}
+		finally {
+			compressedFile.delete();
+		}
+	}
+
+	@Test
+	public void testSmallFile() throws IOException
+	{
+		Files.write( file.toPath(), "id;a;b\r\ngen.0;1;2\r\ngen.0.0;3;4".getBytes( StandardCharsets.UTF_8 ) );
+
+		CSVFileProfile profile = CSVFileProfile.sample( file );
+		Assert.assertTrue( profile.hasHeader() );
+		Assert.assertFalse( profile.hasTrueClass() );
+		Assert.assertFalse( profile.hasInstanceName() );
+		Assert.assertEquals( 2, profile.getEstimatedRowCount() );
+		Assert.assertEquals( 2, profile.getSampledRowCount() );
+	}
+}
@@ -0,0 +1,418 @@
+package pl.pwr.hiervis.hierarchy.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.common.HierarchyBuilder;
+import basic_hierarchy.common.NodeIdComparator;
+import basic_hierarchy.implementation.BasicHierarchy;
+import basic_hierarchy.implementation.BasicInstance;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Instance;
+import basic_hierarchy.interfaces.Node;
+import pl.pwr.hiervis.hierarchy.FeatureColumnStore;
+import pl.pwr.hiervis.hierarchy.HierarchyLoader;
+import pl.pwr.hiervis.hierarchy.HierarchySnapshot;
+import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.util.HierarchyUtils;
+
+
+public class HierarchyReadersTest
+{
+	private static final String[] ids = {
+		"gen.0", "gen.0.0", "gen.0.1", "gen.0.2", "gen.0.10", "gen.0.1.1", "gen.0.1.1.3"
+	};
+
+	File file = null;
+	Hierarchy alpha = null;
+
+
+	@Before
+	public void setup() throws IOException
+	{
+		alpha = generateHierarchy( 5000, 3, ids );
+		file = File.createTempFile( "hiervis", ".csv" );
+		saveShuffled( file, alpha, 0 );
+	}
+
+	@After
+	public void cleanup()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void testParallelReader() throws IOException
+	{
+		ForkJoinPool pool = new ForkJoinPool( 4 );
+		try {
+			// Small chunks, so that the file is split into many of them
+			testReader( new ParallelCSVReader( pool, 4096 ), true, true, true );
+			testReader( new ParallelCSVReader( pool, 1 ), true, true, true );
+			testReader( new ParallelCSVReader( pool, 4096 ), true, false, false );
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelReaderInstanceOrder() throws IOException
+	{
+		final int chunkSize = 4096;
+
+		// Instance names of each node in the order in which they appear in the file,
+		// and byte offsets of the node's first and last row.
+		Map<String, List<String>> expectedNames = new LinkedHashMap<>();
+		Map<String, long[]> spans = new LinkedHashMap<>();
+
+		List<String> lines = Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 );
+		long offset = lines.get( 0 ).length() + 1;
+		for ( String line : lines.subList( 1, lines.size() ) ) {
+			String[] columns = line.split( ";" );
+			expectedNames.computeIfAbsent( columns[0], id -> new ArrayList<>() ).add( columns[2] );
+			spans.computeIfAbsent( columns[0], id -> new long[] { Long.MAX_VALUE, 0 } );
+
+			long[] span = spans.get( columns[0] );
+			span[0] = Math.min( span[0], offset );
+			span[1] = offset;
+			offset += line.length() + 1;
+		}
+
+		for ( Map.Entry<String, long[]> e : spans.entrySet() ) {
+			long[] span = e.getValue();
+			Assert.assertTrue( "Instances of " + e.getKey() + " fit in a single chunk", span[1] - span[0] > chunkSize );
+		}
+
+		ForkJoinPool pool = new ForkJoinPool( 4 );
+		try {
+			Hierarchy h = new ParallelCSVReader( pool, chunkSize ).load(
+				file.getAbsolutePath(), true, true, true, true, true
+			);
+
+			int nodesWithInstances = 0;
+			for ( Node node : h.getGroups() ) {
+				List<String> actualNames = new ArrayList<>();
+				for ( Instance instance : node.getNodeInstances() ) {
+					actualNames.add( instance.getInstanceName() );
+				}
+				if ( !actualNames.isEmpty() ) {
+					Assert.assertEquals( expectedNames.get( node.getId() ), actualNames );
+					++nodesWithInstances;
+				}
+			}
+			Assert.assertEquals( expectedNames.size(), nodesWithInstances );
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testMappedReader() throws IOException
+	{
+		testReader( new MappedCSVReader(), true, true, true );
+		testReader( new MappedCSVReader(), true, false, false );
+	}
+
+	@Test
+	public void testMappedReaderNumberFormats() throws IOException
+	{
+		String[] values = {
+			"0", "-0", "1", "+1", "1.", ".5", "-.5", "0.1", "1e3", "1E-3", "-2.5e+10", "123456789012345678",
+			"1234567890.1234567890123", "0.12345678901234568", "4.9E-324", "1.7976931348623157E308",
+			"1e400", "1e-400", "1d", "2.5f", " 3.0", "NaN", "-Infinity", "0x1p3"
+		};
+
+		StringBuilder buf = new StringBuilder();
+		for ( int i = 0; i < values.length; ++i ) {
+			buf.append( "gen.0;" ).append( values[i] ).append( ';' ).append( i ).append( i % 2 == 0 ? "\r\n" : "\n" );
+		}
+		Files.write( file.toPath(), buf.toString().getBytes( StandardCharsets.UTF_8 ) );
+
+		Hierarchy expected = new DefaultCSVReader().load( file.getAbsolutePath(), false, false, false, false, false );
+		Hierarchy actual = new MappedCSVReader().load( file.getAbsolutePath(), false, false, false, false, false );
+		compareHierarchies( expected, actual );
+	}
+
+	@Test
+	public void testCompressedReader() throws IOException
+	{
+		File compressedFile = File.createTempFile( "hiervis", ".csv.gz" );
+		try {
+			try ( OutputStream out = CompressionType.GZIP.compress( Files.newOutputStream( compressedFile.toPath() ) ) ) {
+				Files.copy( file.toPath(), out );
+			}
+			Assert.assertEquals( CompressionType.GZIP, CompressionType.of( compressedFile ) );
+			Assert.assertEquals( CompressionType.NONE, CompressionType.of( file ) );
+			Assert.assertEquals( file.length(), CompressionType.GZIP.getUncompressedSize( compressedFile ) );
+
+			Hierarchy expected = new DefaultCSVReader().load( file.getAbsolutePath(), true, true, true, false, false );
+
+			// Small buffers, so that lines span multiple of them
+			HierarchyReader reader = new CompressedCSVReader( 100, 2 );
+			compareHierarchies( expected, reader.load( compressedFile.getAbsolutePath(), true, true, true, false, false ) );
+
+			reader = new CompressedCSVReader();
+			compareHierarchies( expected, reader.load( compressedFile.getAbsolutePath(), true, true, true, false, false ) );
+		}
+		finally {
+			compressedFile.delete();
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws IOException
+	{
+		LoadedHierarchy.Options options = new LoadedHierarchy.Options( true, true, true, true, false );
+		Hierarchy expected = new DefaultCSVReader().load( file.getAbsolutePath(), true, true, true, true, false );
+
+		File snapshotFile = File.createTempFile( "hiervis", "." + HierarchySnapshot.FILE_EXTENSION );
+		try {
+			HierarchySnapshot.save( snapshotFile.toPath(), expected, options );
+			Assert.assertTrue( HierarchySnapshot.isSnapshot( snapshotFile ) );
+			Assert.assertFalse( HierarchySnapshot.isSnapshot( file ) );
+
+			LoadedHierarchy actual = HierarchyUtils.loadSnapshot( snapshotFile.getAbsolutePath() );
+			Assert.assertEquals( options, actual.options );
+			compareHierarchies( expected, actual.getMainHierarchy() );
+
+			// Flip a single bit somewhere in the feature block
+			byte[] bytes = Files.readAllBytes( snapshotFile.toPath() );
+			bytes[bytes.length / 2] ^= 1;
+			Files.write( snapshotFile.toPath(), bytes );
+
+			try {
+				new SnapshotReader().load( snapshotFile.getAbsolutePath() );
+				Assert.fail( "Corrupted snapshot was loaded." );
+			}
+			catch ( IOException e ) {
+				// Expected
+			}
+		}
+		finally {
+			snapshotFile.delete();
+		}
+	}
+
+	@Test
+	public void testLazySnapshot() throws IOException
+	{
+		LoadedHierarchy.Options options = new LoadedHierarchy.Options( true, true, true, false, false );
+		Hierarchy expected = new DefaultCSVReader().load( file.getAbsolutePath(), true, true, true, false, false );
+
+		File snapshotFile = File.createTempFile( "hiervis", "." + HierarchySnapshot.FILE_EXTENSION );
+		try {
+			HierarchySnapshot.save( snapshotFile.toPath(), expected, options );
+
+			// Budget smaller than a single page, raised to a page of each column, so that pages are constantly evicted
+			SnapshotReader reader = new SnapshotReader( 1024 );
+			Hierarchy actual = reader.load( snapshotFile.getAbsolutePath() );
+
+			try ( FeatureColumnStore store = reader.getFeatureStore() ) {
+				Assert.assertNotNull( store );
+				compareHierarchies( expected, actual );
+
+				long pageSize = Math.min( FeatureColumnStore.PAGE_ROWS, store.getInstanceCount() ) * (long)Double.BYTES;
+				Assert.assertEquals( store.getFeatureCount() * pageSize, store.getMemoryBudget() );
+				Assert.assertTrue( store.getLoadedBytes() <= store.getMemoryBudget() );
+
+				// Pages of a whole row fit in the budget, and stay loaded after it has been read
+				int lastRow = store.getInstanceCount() - 1;
+				double[] row = new double[store.getFeatureCount()];
+				store.getRow( lastRow, row );
+				Assert.assertTrue( store.getLoadedBytes() >= store.getFeatureCount() * ( lastRow % FeatureColumnStore.PAGE_ROWS + 1L ) * Double.BYTES );
+				for ( int f = 0; f < row.length; ++f ) {
+					Assert.assertEquals( store.get( f, lastRow ), row[f], 0 );
+				}
+			}
+		}
+		finally {
+			snapshotFile.delete();
+		}
+	}
+
+	@Test
+	public void testFeatureCacheDeletedOnDispose() throws Exception
+	{
+		LoadedHierarchy.Options options = new LoadedHierarchy.Options( true, true, true, false, false );
+		HierarchyLoader loader = new HierarchyLoader( file, options, new DefaultCSVReader() );
+		loader.setFeatureMemoryBudget( 1024 );
+
+		LoadedHierarchy lh = loader.call();
+		Path cacheFile = lh.getFeatureStore().getFile();
+		Assert.assertTrue( Files.exists( cacheFile ) );
+
+		lh.dispose();
+		Assert.assertFalse( Files.exists( cacheFile ) );
+	}
+
+	@Test
+	public void testMergeOutlivesFeatureStore() throws IOException
+	{
+		LoadedHierarchy.Options options = new LoadedHierarchy.Options( true, true, true, false, false );
+		Hierarchy expected = new DefaultCSVReader().load( file.getAbsolutePath(), true, true, true, false, false );
+
+		File snapshotFile = File.createTempFile( "hiervis", "." + HierarchySnapshot.FILE_EXTENSION );
+		try {
+			HierarchySnapshot.save( snapshotFile.toPath(), expected, options );
+
+			SnapshotReader reader = new SnapshotReader( 1024 );
+			LoadedHierarchy source = new LoadedHierarchy( reader.load( snapshotFile.getAbsolutePath() ), options );
+			source.setFeatureStore( reader.getFeatureStore() );
+			LoadedHierarchy dest = new LoadedHierarchy( expected, options );
+
+			LoadedHierarchy merged = HierarchyUtils.merge( source, dest, "gen.0.2" );
+			// Closes the feature store
+			source.dispose();
+
+			List<Instance> expectedInstances = expected.getRoot().getSubtreeInstances();
+			Node mergePoint = HierarchyUtils.findGroup( merged, "gen.0.2" );
+			List<Instance> actualInstances = mergePoint.getSubtreeInstances();
+
+			Assert.assertEquals( expectedInstances.size(), actualInstances.size() );
+			for ( int i = 0; i < expectedInstances.size(); ++i ) {
+				Assert.assertArrayEquals( expectedInstances.get( i ).getData(), actualInstances.get( i ).getData(), 0 );
+			}
+		}
+		finally {
+			snapshotFile.delete();
+		}
+	}
+
+	// -------------------------------------------------------------
+
+	private void testReader( HierarchyReader reader, boolean withHeader, boolean fillGaps, boolean useSubtree )
+		throws IOException
+	{
+		Hierarchy expected = new DefaultCSVReader().load(
+			file.getAbsolutePath(), true, true, withHeader, fillGaps, useSubtree
+		);
+		Hierarchy actual = reader.load(
+			file.getAbsolutePath(), true, true, withHeader, fillGaps, useSubtree
+		);
+
+		compareHierarchies( expected, actual );
+	}
+
+	/**
+	 * Compares the two hierarchies for deep equality by value.
+	 * 
+	 * @param a
+	 *            the first hierarchy
+	 * @param b
+	 *            the second hierarchy
+	 */
+	public static void compareHierarchies( Hierarchy a, Hierarchy b )
+	{
+		Assert.assertEquals( a.getRoot().getId(), b.getRoot().getId() );
+		Assert.assertEquals( a.getOverallNumberOfInstances(), b.getOverallNumberOfInstances() );
+		Assert.assertArrayEquals( a.getClasses(), b.getClasses() );
+		Assert.assertArrayEquals( a.getClassesCount(), b.getClassesCount() );
+		Assert.assertArrayEquals( a.getDataNames(), b.getDataNames() );
+
+		Node[] aNodes = a.getGroups();
+		Node[] bNodes = b.getGroups();
+		Assert.assertEquals( aNodes.length, bNodes.length );
+
+		for ( int i = 0; i < aNodes.length; ++i ) {
+			Node aN = aNodes[i];
+			Node bN = bNodes[i];
+
+			Assert.assertEquals( aN.getId(), bN.getId() );
+			if ( aN.getParent() == null ) {
+				Assert.assertNull( bN.getParent() );
+			}
+			else {
+				Assert.assertEquals( aN.getParent().getId(), bN.getParent().getId() );
+			}
+			Assert.assertEquals( aN.getChildren().size(), bN.getChildren().size() );
+
+			compareInstances( aN.getNodeRepresentation(), bN.getNodeRepresentation() );
+
+			List<Instance> aIs = aN.getNodeInstances();
+			List<Instance> bIs = bN.getNodeInstances();
+			Assert.assertEquals( aIs.size(), bIs.size() );
+			for ( int j = 0; j < aIs.size(); ++j ) {
+				compareInstances( aIs.get( j ), bIs.get( j ) );
+			}
+		}
+	}
+
+	public static void compareInstances( Instance a, Instance b )
+	{
+		if ( a == null && b == null )
+			return;
+
+		Assert.assertEquals( a.getNodeId(), b.getNodeId() );
+		Assert.assertEquals( a.getTrueClass(), b.getTrueClass() );
+		Assert.assertEquals( a.getInstanceName(), b.getInstanceName() );
+		Assert.assertArrayEquals( a.getData(), b.getData(), 0 );
+	}
+
+	// -------------------------------------------------------------
+
+	/**
+	 * Saves the specified hierarchy as CSV with all attributes and a header, like
+	 * {@link HierarchyUtils#save(String, Hierarchy, boolean, boolean, boolean, boolean)}, except that rows are
+	 * written in random order, so that instances of each node are spread over many chunks of the file.
+	 */
+	public static void saveShuffled( File file, Hierarchy h, long seed ) throws IOException
+	{
+		String[] lines = HierarchyUtils.toCSV( h, true, true, true, true ).split( "\n" );
+
+		List<String> rows = new ArrayList<>();
+		Collections.addAll( rows, lines );
+		rows.remove( 0 );
+		Collections.shuffle( rows, new Random( seed ) );
+		rows.add( 0, lines[0] );
+
+		Files.write( file.toPath(), rows, StandardCharsets.UTF_8 );
+	}
+
+	public static BasicHierarchy generateHierarchy( int instanceCount, int dimCount, String... ids )
+	{
+		Random r = new Random( 0 );
+
+		List<BasicNode> nodes = new ArrayList<>();
+		for ( String id : ids ) {
+			nodes.add( new BasicNode( id, null, false ) );
+		}
+
+		for ( int i = 0; i < instanceCount; ++i ) {
+			BasicNode node = nodes.get( r.nextInt( nodes.size() ) );
+			String trueClass = ids[r.nextInt( ids.length )];
+
+			double[] data = new double[dimCount];
+			for ( int j = 0; j < dimCount; ++j ) {
+				data[j] = r.nextDouble() * 2 - 1;
+			}
+
+			node.addInstance( new BasicInstance( "instance " + i, node.getId(), data, trueClass ) );
+		}
+
+		nodes.sort( new NodeIdComparator() );
+
+		HierarchyBuilder hb = new HierarchyBuilder();
+		List<? extends Node> allNodes = hb.buildCompleteHierarchy( nodes.get( 0 ), nodes, false, false );
+
+		return new BasicHierarchy( allNodes, null );
+	}
+}
@@ -0,0 +1,154 @@
+package pl.pwr.hiervis.measures;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.implementation.BasicHierarchy;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Hierarchy;
+import pl.pwr.hiervis.measures.MeasureComputeExecutor.Priority;
+
+
+public class MeasureComputeExecutorTest
+{
+	private Hierarchy hierarchy;
+	private MeasureResultHolder holder;
+	private MeasureComputeExecutor executor;
+	private CountDownLatch release;
+
+
+	@Before
+	public void setup()
+	{
+		BasicNode root = new BasicNode( "gen.0", null, false );
+		hierarchy = new BasicHierarchy( root, Arrays.asList( root ), null, new HashMap<>(), 0 );
+		holder = new MeasureResultHolder();
+		release = new CountDownLatch( 1 );
+	}
+
+	@After
+	public void teardown()
+	{
+		release.countDown();
+		executor.shutdown();
+	}
+
+	@Test
+	public void testPriorityOrder() throws InterruptedException
+	{
+		executor = new MeasureComputeExecutor( 1 );
+
+		List<String> started = new CopyOnWriteArrayList<>();
+		CountDownLatch computed = new CountDownLatch( 4 );
+		executor.measureComputing.addListener( task -> started.add( task.getRight().identifier ) );
+		executor.measureComputed.addListener( result -> computed.countDown() );
+
+		MeasureTask blocking = createTask( "blocking", true );
+		executor.postTask( holder, hierarchy, blocking );
+		awaitStarted( started, 1 );
+
+		MeasureTask background = createTask( "background", false );
+		MeasureTask normal = createTask( "normal", false );
+		MeasureTask removed = createTask( "removed", false );
+		MeasureTask visible = createTask( "visible", false );
+		executor.postTask( holder, hierarchy, background, Priority.BACKGROUND );
+		executor.postTask( holder, hierarchy, normal );
+		executor.postTask( holder, hierarchy, removed );
+		executor.postTask( holder, hierarchy, visible, Priority.VISIBLE );
+
+		// The task being computed is pending, but can't be removed anymore
+		Assert.assertTrue( executor.isMeasurePending( hierarchy, blocking ) );
+		Assert.assertFalse( executor.removeTask( hierarchy, blocking ) );
+		Assert.assertTrue( executor.removeTask( hierarchy, removed ) );
+		Assert.assertFalse( executor.isMeasurePending( hierarchy, removed ) );
+
+		release.countDown();
+		Assert.assertTrue( computed.await( 10, TimeUnit.SECONDS ) );
+		Assert.assertEquals( Arrays.asList( "blocking", "visible", "normal", "background" ), started );
+
+		Assert.assertTrue( holder.isMeasureComputed( hierarchy, background ) );
+		Assert.assertFalse( holder.isMeasureComputed( hierarchy, removed ) );
+	}
+
+	@Test
+	public void testReprioritizeTasks() throws InterruptedException
+	{
+		executor = new MeasureComputeExecutor( 1 );
+
+		BasicNode root = new BasicNode( "gen.0", null, false );
+		Hierarchy other = new BasicHierarchy( root, Arrays.asList( root ), null, new HashMap<>(), 0 );
+
+		List<String> started = new CopyOnWriteArrayList<>();
+		CountDownLatch computed = new CountDownLatch( 4 );
+		executor.measureComputing.addListener( task -> started.add( task.getRight().identifier ) );
+		executor.measureComputed.addListener( result -> computed.countDown() );
+
+		executor.postTask( holder, hierarchy, createTask( "blocking", true ) );
+		awaitStarted( started, 1 );
+
+		executor.postTask( holder, hierarchy, createTask( "old a", false ), Priority.VISIBLE );
+		executor.postTask( holder, hierarchy, createTask( "old b", false ), Priority.VISIBLE );
+		executor.postTask( holder, other, createTask( "new", false ), Priority.VISIBLE );
+
+		Assert.assertEquals( 2, executor.reprioritizeTasks( hierarchy, Priority.BACKGROUND ) );
+		Assert.assertEquals( 0, executor.reprioritizeTasks( hierarchy, Priority.BACKGROUND ) );
+
+		release.countDown();
+		Assert.assertTrue( computed.await( 10, TimeUnit.SECONDS ) );
+		Assert.assertEquals( Arrays.asList( "blocking", "new", "old a", "old b" ), started );
+	}
+
+	@Test
+	public void testParallelWorkers() throws InterruptedException
+	{
+		executor = new MeasureComputeExecutor( 2 );
+
+		List<String> started = new CopyOnWriteArrayList<>();
+		executor.measureComputing.addListener( task -> started.add( task.getRight().identifier ) );
+
+		executor.postTask( holder, hierarchy, createTask( "a", true ) );
+		executor.postTask( holder, hierarchy, createTask( "b", true ) );
+
+		// Both tasks block until released, so they can only finish starting if they run in parallel.
+		awaitStarted( started, 2 );
+		Collections.sort( started );
+		Assert.assertEquals( Arrays.asList( "a", "b" ), started );
+	}
+
+	private MeasureTask createTask( String identifier, boolean blocking )
+	{
+		return new MeasureTask(
+			null, identifier, false, null,
+			h -> {
+				if ( blocking ) {
+					try {
+						release.await();
+					}
+					catch ( InterruptedException e ) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return identifier;
+			}
+		);
+	}
+
+	private static void awaitStarted( List<String> started, int count ) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 10000;
+		while ( started.size() < count ) {
+			Assert.assertTrue( "Timed out waiting for tasks to start", System.currentTimeMillis() < deadline );
+			Thread.sleep( 10 );
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package pl.pwr.hiervis.measures;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import basic_hierarchy.implementation.BasicHierarchy;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Hierarchy;
+import pl.pwr.hiervis.measures.MeasureComputeExecutor.Priority;
+
+
+public class MeasureManagerTest
+{
+	private Hierarchy hierarchy;
+	private MeasureResultHolder holder;
+	private MeasureManager manager;
+
+
+	@Before
+	public void setup()
+	{
+		BasicNode root = new BasicNode( "gen.0", null, false );
+		hierarchy = new BasicHierarchy( root, Arrays.asList( root ), null, new HashMap<>(), 0 );
+		holder = new MeasureResultHolder();
+		manager = new MeasureManager( new MeasureComputeExecutor( 1 ) );
+	}
+
+	@After
+	public void teardown()
+	{
+		manager.dispose();
+	}
+
+	@Test
+	public void testRequestMeasureResult() throws Exception
+	{
+		MeasureTask computed = new MeasureTask( null, "computed", false, null, h -> "computed" );
+		MeasureTask failing = new MeasureTask(
+			null, "failing", false, null,
+			h -> {
+				throw new IllegalStateException( "Expected failure" );
+			}
+		);
+
+		Assert.assertEquals(
+			"computed",
+			manager.requestMeasureResult( holder, hierarchy, computed, Priority.VISIBLE ).get( 10, TimeUnit.SECONDS )
+		);
+		Assert.assertTrue( holder.isMeasureComputed( hierarchy, computed ) );
+
+		// Already computed results are returned without posting a task
+		Assert.assertTrue( manager.requestMeasureResult( holder, hierarchy, computed, Priority.VISIBLE ).isDone() );
+
+		Assert.assertNull(
+			manager.requestMeasureResult( holder, hierarchy, failing, Priority.VISIBLE ).get( 10, TimeUnit.SECONDS )
+		);
+	}
+}
@@ -0,0 +1,191 @@
+package pl.pwr.hiervis.prefuse.action;
+
+import java.awt.Color;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import pl.pwr.hiervis.core.HVConfig;
+import pl.pwr.hiervis.core.HVConstants;
+import pl.pwr.hiervis.core.HVContext;
+import pl.pwr.hiervis.hierarchy.ElementRole;
+import pl.pwr.hiervis.hierarchy.HierarchyProcessor;
+import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.hierarchy.reader.HierarchyReadersTest;
+import prefuse.Visualization;
+import prefuse.action.assignment.ColorAction;
+import prefuse.data.Schema;
+import prefuse.data.Tree;
+import prefuse.data.Tuple;
+import prefuse.data.expression.AbstractExpression;
+import prefuse.data.expression.ComparisonPredicate;
+import prefuse.data.expression.Literal;
+import prefuse.visual.VisualItem;
+
+
+/**
+ * Measures the time it takes to recolor all items of an instance visualization, comparing
+ * {@link InstanceColorAction} with the previous implementation, which evaluated a predicate for each role.
+ *
+ * Not a unit test - run manually, optionally passing the number of instances as the first argument.
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class ColorActionBenchmark
+{
+	private static final int warmupRuns = 3;
+	private static final int measuredRuns = 5;
+
+
+	public static void main( String[] args )
+	{
+		int instanceCount = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+
+		Hierarchy h = HierarchyReadersTest.generateHierarchy(
+			instanceCount, 2,
+			"gen.0", "gen.0.0", "gen.0.1", "gen.0.1.0", "gen.0.1.1", "gen.0.2"
+		);
+
+		HVContext context = new HVContext();
+		LoadedHierarchy lh = new LoadedHierarchy( h, new LoadedHierarchy.Options( false, false, false, false, false ) );
+		lh.processHierarchy( context.getConfig() );
+		context.setHierarchy( lh );
+		HierarchyProcessor.updateNodeRoles( context, 2 );
+
+		Visualization vis = new Visualization();
+		vis.addTable( HVConstants.INSTANCE_DATA_NAME, lh.getInstanceTable() );
+
+		ColorAction legacy = new LegacyInstanceColorAction( context );
+		ColorAction current = new InstanceColorAction( context, HVConstants.INSTANCE_DATA_NAME, VisualItem.FILLCOLOR );
+		legacy.setVisualization( vis );
+		current.setVisualization( vis );
+
+		double legacyTime = measure( legacy );
+		double currentTime = measure( current );
+
+		double scale = 1000000.0 / instanceCount;
+		System.out.printf( "Instances: %d%n", instanceCount );
+		System.out.printf( "Predicates: %.1f ms per 1M items%n", legacyTime * scale );
+		System.out.printf( "Palette:    %.1f ms per 1M items%n", currentTime * scale );
+
+		context.getMeasureManager().dispose();
+	}
+
+	/**
+	 * @return average time of a full run of the action, in milliseconds
+	 */
+	private static double measure( ColorAction action )
+	{
+		for ( int i = 0; i < warmupRuns; ++i ) {
+			action.run( 1 );
+		}
+
+		long start = System.nanoTime();
+		for ( int i = 0; i < measuredRuns; ++i ) {
+			// Roles don't change between runs, so each run recolors all items.
+			action.run( 1 );
+		}
+		return ( System.nanoTime() - start ) / 1e6 / measuredRuns;
+	}
+
+
+	/**
+	 * Instance color action as it was implemented before palettes were introduced: roles are read from the node
+	 * table through a prefuse {@link prefuse.data.Node} of each item, and compared with one predicate per role.
+	 */
+	private static class LegacyInstanceColorAction extends ColorAction
+	{
+		private final ComparisonPredicate pCurrent;
+		private final ComparisonPredicate pParent;
+		private final ComparisonPredicate pAncestor;
+		private final ComparisonPredicate pChild;
+		private final ComparisonPredicate pOther;
+
+		private final HVConfig config;
+
+
+		public LegacyInstanceColorAction( HVContext context )
+		{
+			super( HVConstants.INSTANCE_DATA_NAME, VisualItem.FILLCOLOR );
+			this.config = context.getConfig();
+
+			pCurrent = getPredicateFor( context, ElementRole.CURRENT );
+			pParent = getPredicateFor( context, ElementRole.DIRECT_PARENT );
+			pAncestor = getPredicateFor( context, ElementRole.INDIRECT_PARENT );
+			pChild = getPredicateFor( context, ElementRole.CHILD );
+			pOther = getPredicateFor( context, ElementRole.OTHER );
+		}
+
+		@Override
+		public int getColor( VisualItem item )
+		{
+			if ( pCurrent.getBoolean( item ) ) {
+				return config.getCurrentGroupColor().getRGB();
+			}
+			else if ( pParent.getBoolean( item ) ) {
+				return config.getParentGroupColor().getRGB();
+			}
+			else if ( pAncestor.getBoolean( item ) ) {
+				return config.getAncestorGroupColor().getRGB();
+			}
+			else if ( pChild.getBoolean( item ) ) {
+				return config.getChildGroupColor().getRGB();
+			}
+			else if ( pOther.getBoolean( item ) ) {
+				return config.getOtherGroupColor().getRGB();
+			}
+			else {
+				return Color.magenta.getRGB();
+			}
+		}
+	}
+
+	/**
+	 * @param context
+	 *            the application context, whose current hierarchy's tree holds the roles of nodes
+	 * @param elementRole
+	 *            the {@link ElementRole} to test for
+	 * @return creates and returns a predicate which returns true for instances whose node's
+	 *         {@link ElementRole} is the same as the one passed in argument.
+	 */
+	private static ComparisonPredicate getPredicateFor( HVContext context, ElementRole elementRole )
+	{
+		return new ComparisonPredicate(
+			ComparisonPredicate.EQ,
+			new InstanceNodeExpression( context.getHierarchy().getTree() ),
+			Literal.getLiteral( elementRole.getNumber() )
+		);
+	}
+
+
+	/**
+	 * Given a row from the instance data table, extracts the node to which that instance belongs and returns
+	 * its {@link ElementRole}.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static class InstanceNodeExpression extends AbstractExpression
+	{
+		private final Tree tree;
+
+
+		public InstanceNodeExpression( Tree tree )
+		{
+			this.tree = tree;
+		}
+
+		public Class getType( Schema s )
+		{
+			return int.class;
+		}
+
+		public Object get( Tuple t )
+		{
+			return getInt( t );
+		}
+
+		public int getInt( Tuple t )
+		{
+			int treeRow = t.getInt( HVConstants.PREFUSE_INSTANCE_NODE_COLUMN_NAME );
+			return tree.getNode( treeRow ).getInt( HVConstants.PREFUSE_NODE_ROLE_COLUMN_NAME );
+		}
+	}
+}
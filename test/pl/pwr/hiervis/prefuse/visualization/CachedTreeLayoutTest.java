@@ -0,0 +1,99 @@
+package pl.pwr.hiervis.prefuse.visualization;
+
+import java.awt.geom.Point2D;
+import java.util.Iterator;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import basic_hierarchy.interfaces.Hierarchy;
+import pl.pwr.hiervis.core.HVConstants;
+import pl.pwr.hiervis.hierarchy.HierarchyProcessor;
+import pl.pwr.hiervis.hierarchy.NodeIntervals;
+import pl.pwr.hiervis.hierarchy.reader.HierarchyReadersTest;
+import prefuse.Visualization;
+import prefuse.data.Tree;
+import prefuse.visual.VisualItem;
+
+
+public class CachedTreeLayoutTest
+{
+	private static final String nodeGroup = HVConstants.HIERARCHY_DATA_NAME + ".nodes";
+
+
+	@Test
+	public void testPositionsReused()
+	{
+		Hierarchy h = HierarchyReadersTest.generateHierarchy( 100, 2, "gen.0", "gen.0.0", "gen.0.1", "gen.0.1.0", "gen.0.1.1" );
+		Pair<Tree, TreeLayoutData> treeData = HierarchyProcessor.buildHierarchyTree( h.getRoot() );
+		TreeLayoutCache cache = new TreeLayoutCache();
+
+		Visualization first = layOut( treeData, cache );
+		int rowCount = treeData.getLeft().getNodeCount();
+		Assert.assertTrue( cache.isValidFor( treeData.getRight(), rowCount ) );
+
+		// Positions computed by the layout are the ones in the cache
+		Iterator<?> iter = first.items( nodeGroup );
+		while ( iter.hasNext() ) {
+			VisualItem item = (VisualItem)iter.next();
+			Assert.assertEquals( cache.getX( item.getSourceTuple().getRow() ), item.getX(), 0 );
+			Assert.assertEquals( cache.getY( item.getSourceTuple().getRow() ), item.getY(), 0 );
+		}
+
+		// A new visualization takes positions from the cache, instead of laying the tree out again
+		double[] x = new double[rowCount];
+		double[] y = new double[rowCount];
+		for ( int row = 0; row < rowCount; ++row ) {
+			x[row] = row;
+			y[row] = -row;
+		}
+		cache.store( treeData.getRight(), x, y );
+
+		Visualization second = layOut( treeData, cache );
+		iter = second.items( nodeGroup );
+		while ( iter.hasNext() ) {
+			VisualItem item = (VisualItem)iter.next();
+			int row = item.getSourceTuple().getRow();
+			Assert.assertEquals( row, item.getX(), 0 );
+			Assert.assertEquals( -row, item.getY(), 0 );
+		}
+
+		// Different layout data invalidates the cache
+		Assert.assertFalse( cache.isValidFor( HierarchyProcessor.createTreeLayoutData( treeData.getLeft(), NodeIntervals.of( treeData.getLeft() ) ), rowCount ) );
+	}
+
+	@Test
+	public void testAdaptiveNodeSize()
+	{
+		Tree tree = new Tree();
+
+		// Small trees don't get huge nodes, and their layout area shrinks instead
+		TreeLayoutData small = TreeLayoutData.adaptive( tree, 2, 3 );
+		Assert.assertEquals( 64, small.getNodeSize() );
+		Assert.assertTrue( small.getLayoutWidth() < 2048 && small.getLayoutHeight() < 2048 );
+
+		// Wide trees don't get tiny nodes, and their layout area grows instead
+		TreeLayoutData wide = TreeLayoutData.adaptive( tree, 4, 10000 );
+		Assert.assertEquals( 8, wide.getNodeSize() );
+		Assert.assertTrue( wide.getLayoutWidth() >= 10000 * 8 );
+
+		// In between, node size is the same as in the fixed area
+		TreeLayoutData medium = TreeLayoutData.adaptive( tree, 5, 100 );
+		Assert.assertEquals( new TreeLayoutData( tree, 5, 100, 2048, 2048 ).getNodeSize(), medium.getNodeSize() );
+	}
+
+	private static Visualization layOut( Pair<Tree, TreeLayoutData> treeData, TreeLayoutCache cache )
+	{
+		Visualization vis = new Visualization();
+		vis.add( HVConstants.HIERARCHY_DATA_NAME, treeData.getLeft() );
+
+		CachedTreeLayout layout = new CachedTreeLayout( HVConstants.HIERARCHY_DATA_NAME, treeData.getRight(), cache );
+		layout.setVisualization( vis );
+		// Without a display, the layout can't pick an anchor on its own
+		layout.setLayoutAnchor( new Point2D.Double( 0, 0 ) );
+		layout.run( 0 );
+
+		return vis;
+	}
+}
@@ -0,0 +1,54 @@
+package pl.pwr.hiervis.prefuse.visualization;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import pl.pwr.hiervis.hierarchy.NodeIntervals;
+import prefuse.data.Node;
+import prefuse.data.Tree;
+
+
+public class SubtreeAggregatesTest
+{
+	@Test
+	public void testAggregates()
+	{
+		// 0 -> ( 1 -> ( 3, 4 ), 2 )
+		Tree tree = new Tree();
+		Node root = tree.addRoot();
+		Node a = tree.addChild( root );
+		tree.addChild( root );
+		tree.addChild( a );
+		tree.addChild( a );
+
+		double[] x = { 50, 20, 80, 10, 30 };
+		double[] y = { 0, 10, 10, 20, 20 };
+		int[] instances = { 1, 2, 3, 4, 5 };
+		SubtreeAggregates aggregates = new SubtreeAggregates( NodeIntervals.of( tree ), x, y, 2, row -> instances[row] );
+
+		Assert.assertEquals( 5, aggregates.getNodeCount( 0 ) );
+		Assert.assertEquals( 3, aggregates.getNodeCount( 1 ) );
+		Assert.assertEquals( 1, aggregates.getNodeCount( 2 ) );
+		Assert.assertEquals( 15, aggregates.getInstanceCount( 0 ) );
+		Assert.assertEquals( 11, aggregates.getInstanceCount( 1 ) );
+
+		Assert.assertEquals( 9, aggregates.getMinX( 0 ), 0 );
+		Assert.assertEquals( 81, aggregates.getMaxX( 0 ), 0 );
+		Assert.assertEquals( 9, aggregates.getMinX( 1 ), 0 );
+		Assert.assertEquals( 31, aggregates.getMaxX( 1 ), 0 );
+		Assert.assertEquals( 21, aggregates.getMaxY( 1 ), 0 );
+
+		// Subtree of node 1 is 22x12 units, the whole tree 72x22 units
+		Assert.assertFalse( aggregates.isCollapsed( 1, 1, 10 ) );
+		Assert.assertTrue( aggregates.isCollapsed( 1, 1, 15 ) );
+		Assert.assertFalse( aggregates.isCollapsed( 0, 1, 15 ) );
+		Assert.assertTrue( aggregates.isHidden( 3, 1, 15 ) );
+		Assert.assertFalse( aggregates.isHidden( 1, 1, 15 ) );
+		// Leaves are never collapsed
+		Assert.assertFalse( aggregates.isCollapsed( 2, 0.01, 15 ) );
+
+		// Zooming out collapses the whole tree
+		Assert.assertTrue( aggregates.isCollapsed( 0, 0.5, 15 ) );
+		Assert.assertTrue( aggregates.isHidden( 1, 0.5, 15 ) );
+	}
+}
@@ -0,0 +1,103 @@
+package pl.pwr.hiervis.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import basic_hierarchy.common.NodeIdComparator;
+import basic_hierarchy.implementation.BasicHierarchy;
+import basic_hierarchy.implementation.BasicNode;
+import basic_hierarchy.interfaces.Hierarchy;
+import basic_hierarchy.interfaces.Node;
+
+
+/**
+ * Measures the time it takes to merge a small hierarchy into a large synthetic hierarchy, comparing
+ * {@link HierarchyUtils#merge(Hierarchy, Hierarchy, String)} with the previous implementation, which rebuilt
+ * the merged hierarchy out of a list of rebased nodes.
+ *
+ * Not a unit test - run manually, optionally passing the number of nodes of the destination hierarchy
+ * as the first argument. The previous implementation is only measured for hierarchies of up to
+ * {@value #legacyNodeLimit} nodes.
+ *
+ * @author Tomasz Bachmiński
+ *
+ */
+public class HierarchyMergeBenchmark
+{
+	private static final int warmupRuns = 2;
+	private static final int measuredRuns = 3;
+	private static final int sourceNodeCount = 100;
+	/** The previous implementation scales quadratically, and takes hours for 100k nodes */
+	private static final int legacyNodeLimit = 1000;
+	private static final int maxInstancesPerNode = 4;
+	private static final String[] dataNames = { "x", "y" };
+
+
+	public static void main( String[] args )
+	{
+		int nodeCount = args.length > 0 ? Integer.parseInt( args[0] ) : 100000;
+
+		Hierarchy dest = generateHierarchy( nodeCount, 0 );
+		Hierarchy source = generateHierarchy( sourceNodeCount, 1 );
+		// Merge into an existing node with a small subtree, which is the common case
+		String nodeId = dest.getGroups()[dest.getGroups().length - 1].getId();
+
+		double legacyTime = nodeCount > legacyNodeLimit ? Double.NaN : measure( () -> legacyMerge( source, dest, nodeId ) );
+		double currentTime = measure( () -> HierarchyUtils.merge( source, dest, nodeId ) );
+		double currentSubtreeTime = measure( () -> HierarchyUtils.merge( source, dest, nodeId, true ) );
+
+		System.out.printf( "Nodes: %d + %d%n", nodeCount, sourceNodeCount );
+		System.out.printf( "Rebuild:                %.1f ms%n", legacyTime );
+		System.out.printf( "Copy:                   %.1f ms%n", currentTime );
+		System.out.printf( "Copy, subtree centroids: %.1f ms%n", currentSubtreeTime );
+	}
+
+	/**
+	 * The previous implementation of merging: rebases source nodes, clones the remaining destination nodes,
+	 * and builds the hierarchy from scratch, recalculating all centroids.
+	 */
+	private static Hierarchy legacyMerge( Hierarchy source, Hierarchy dest, String nodeId )
+	{
+		List<BasicNode> nodes = new LinkedList<>();
+		HierarchyUtils.rebase(
+			Arrays.stream( source.getGroups() ),
+			source.getRoot().getId(), nodeId, nodes, false
+		);
+
+		Hierarchy rest = HierarchyUtils.clone(
+			dest, false,
+			n -> !n.getId().equals( nodeId ) && !n.getId().startsWith( nodeId + "." )
+		);
+		for ( Node n : rest.getGroups() ) {
+			nodes.add( (BasicNode)n );
+		}
+
+		return HierarchyUtils.buildHierarchy( nodes, dest.getDataNames(), false );
+	}
+
+	private static Hierarchy generateHierarchy( int count, long seed )
+	{
+		List<BasicNode> nodes = HierarchyUtilsTest.generateRandomTree( count, maxInstancesPerNode, dataNames.length, seed );
+		nodes.sort( new NodeIdComparator() );
+		return new BasicHierarchy( new ArrayList<Node>( nodes ), dataNames );
+	}
+
+	/**
+	 * @return average time of merging, in milliseconds
+	 */
+	private static double measure( Supplier<?> merger )
+	{
+		for ( int i = 0; i < warmupRuns; ++i ) {
+			merger.get();
+		}
+
+		long start = System.nanoTime();
+		for ( int i = 0; i < measuredRuns; ++i ) {
+			merger.get();
+		}
+		return ( System.nanoTime() - start ) / 1e6 / measuredRuns;
+	}
+}
@@ -1,9 +1,14 @@
 package pl.pwr.hiervis.util;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -18,6 +23,11 @@ import basic_hierarchy.implementation.BasicNode;
 import basic_hierarchy.interfaces.Hierarchy;
 import basic_hierarchy.interfaces.Instance;
 import basic_hierarchy.interfaces.Node;
+import pl.pwr.hiervis.core.HVConstants;
+import pl.pwr.hiervis.hierarchy.CentroidCalculator;
+import pl.pwr.hiervis.hierarchy.HierarchyProcessor;
+import pl.pwr.hiervis.hierarchy.LoadedHierarchy;
+import pl.pwr.hiervis.hierarchy.TreeNodeIndex;
 
 
 public class HierarchyUtilsTest
@@ -64,8 +74,128 @@ public class HierarchyUtilsTest
 		testMerge( alpha, test, "gen.0.1.1" );
 	}
 
+	@Test
+	public void testMergeCreatesMissingAncestors()
+	{
+		CentroidCalculator.recalculateCentroids( alpha.getRoot(), true );
+		Hierarchy test = HierarchyUtils.subHierarchy( alpha, "gen.0.1", Constants.ROOT_ID );
+		Hierarchy merged = HierarchyUtils.merge( test, alpha, "gen.0.5.2", true );
+
+		Assert.assertEquals(
+			Arrays.asList( "gen.0", "gen.0.0", "gen.0.1", "gen.0.1.1", "gen.0.2", "gen.0.3", "gen.0.5", "gen.0.5.2", "gen.0.5.2.1" ),
+			Arrays.stream( merged.getGroups() ).map( Node::getId ).collect( Collectors.toList() )
+		);
+		Assert.assertEquals(
+			alpha.getOverallNumberOfInstances() + test.getOverallNumberOfInstances(),
+			merged.getOverallNumberOfInstances()
+		);
+
+		// Centroids along the merging path include instances of the merged subtree
+		for ( Node n : merged.getGroups() ) {
+			assertSubtreeCentroid( n );
+		}
+	}
+
+	@Test
+	public void testRemoveUpdatesAncestorCentroids()
+	{
+		CentroidCalculator.recalculateCentroids( alpha.getRoot(), true );
+		Hierarchy removed = HierarchyUtils.remove( alpha, "gen.0.1.1", true );
+
+		Assert.assertEquals(
+			Arrays.asList( "gen.0", "gen.0.0", "gen.0.1", "gen.0.2", "gen.0.3" ),
+			Arrays.stream( removed.getGroups() ).map( Node::getId ).collect( Collectors.toList() )
+		);
+		for ( Node n : removed.getGroups() ) {
+			assertSubtreeCentroid( n );
+		}
+	}
+
+	@Test
+	public void testWrapAndRemoveSubtree()
+	{
+		// "gen.0.10" shares a prefix with "gen.0.1", but is not part of its subtree
+		Hierarchy h = generateHierarchy( 500, 2, "gen.0", "gen.0.1", "gen.0.1.0", "gen.0.10" );
+		Node node = Arrays.stream( h.getGroups() ).filter( n -> n.getId().equals( "gen.0.1" ) ).findFirst().get();
+
+		Hierarchy wrapped = HierarchyUtils.wrapNode( h, node, true );
+		Assert.assertEquals(
+			Arrays.asList( "gen.0.1", "gen.0.1.0" ),
+			Arrays.stream( wrapped.getGroups() ).map( Node::getId ).collect( Collectors.toList() )
+		);
+
+		Hierarchy removed = HierarchyUtils.remove( h, "gen.0.1" );
+		Assert.assertEquals(
+			Arrays.asList( "gen.0", "gen.0.10" ),
+			Arrays.stream( removed.getGroups() ).map( Node::getId ).sorted().collect( Collectors.toList() )
+		);
+	}
+
+	@Test
+	public void testFindGroup()
+	{
+		LoadedHierarchy lh = new LoadedHierarchy( alpha, new LoadedHierarchy.Options( false, false, false, false, false ) );
+		TreeNodeIndex index = new TreeNodeIndex( HierarchyProcessor.buildHierarchyTree( alpha.getRoot(), 100, 100 ).getLeft() );
+
+		for ( Node n : alpha.getGroups() ) {
+			Assert.assertSame( n, HierarchyUtils.findGroup( lh, n.getId() ) );
+			Assert.assertEquals( n.getId(), index.getNode( n.getId() ).getString( HVConstants.PREFUSE_NODE_ID_COLUMN_NAME ) );
+		}
+		Assert.assertEquals( alpha.getGroups().length, index.size() );
+
+		Assert.assertNull( HierarchyUtils.findGroup( lh, "gen.0.9" ) );
+		Assert.assertNull( index.getNode( "gen.0.9" ) );
+	}
+
+	@Test
+	public void testSave() throws IOException
+	{
+		File file = File.createTempFile( "hiervis", ".csv" );
+		try {
+			HierarchyUtils.save( file.getAbsolutePath(), alpha, true, true, true, true );
+			String saved = new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 );
+
+			Assert.assertEquals( toCSVReference( alpha ), saved );
+			Assert.assertEquals( saved, HierarchyUtils.toCSV( alpha, true, true, true, true ) );
+		}
+		finally {
+			file.delete();
+		}
+	}
+
 	// -------------------------------------------------------------
 
+	/**
+	 * Straightforward CSV serialization, used as a reference for the output format.
+	 */
+	public static String toCSVReference( Hierarchy h )
+	{
+		StringBuilder buf = new StringBuilder( "class;true_class;instance_name;" );
+		int dims = HierarchyUtils.getFeatureCount( h );
+		for ( int i = 0; i < dims; ++i ) {
+			buf.append( i > 0 ? ";" : "" ).append( "dimension_" + i );
+		}
+		buf.append( '\n' );
+
+		List<Node> nodes = new ArrayList<>( Arrays.asList( h.getGroups() ) );
+		nodes.sort( new NodeIdComparator() );
+		for ( Node n : nodes ) {
+			for ( Instance i : n.getNodeInstances() ) {
+				buf.append( i.getNodeId() ).append( ';' )
+					.append( i.getTrueClass() ).append( ';' )
+					.append( i.getInstanceName() ).append( ';' )
+					.append(
+						Arrays.stream( i.getData() )
+							.mapToObj( d -> Double.toString( d ) )
+							.collect( Collectors.joining( ";" ) )
+					)
+					.append( '\n' );
+			}
+		}
+
+		return buf.toString();
+	}
+
 	public static void testSubHierarchy( Hierarchy alphaH, String srcId, String destId )
 	{
 		Hierarchy testH = HierarchyUtils.subHierarchy( alphaH, srcId, destId );
@@ -200,6 +330,21 @@ public class HierarchyUtilsTest
 
 	// -------------------------------------------------------------
 
+	/**
+	 * Asserts that the node's centroid is the mean of all instances in its subtree.
+	 */
+	private static void assertSubtreeCentroid( Node node )
+	{
+		List<Instance> instances = node.getSubtreeInstances();
+		double[] expected = new double[instances.isEmpty() ? 0 : instances.get( 0 ).getData().length];
+		for ( Instance in : instances ) {
+			for ( int i = 0; i < expected.length; ++i ) {
+				expected[i] += in.getData()[i] / instances.size();
+			}
+		}
+		Assert.assertArrayEquals( node.getId(), expected, node.getNodeRepresentation().getData(), 1e-9 );
+	}
+
 	public BasicHierarchy generateHierarchy( int instanceCount, int dimCount, String... ids )
 	{
 		Random r = new Random();
@@ -231,6 +376,50 @@ public class HierarchyUtilsTest
 		return new BasicHierarchy( allNodes, null );
 	}
 
+	/**
+	 * Generates a randomly shaped tree, where each node is attached to a random, earlier node.
+	 * Nodes are linked directly, since building a complete hierarchy of this size out of a list of ids is slow.
+	 * 
+	 * @param count
+	 *            number of nodes to generate
+	 * @param maxInstanceCount
+	 *            maximum number of instances in a single node. Each node holds a random number of instances,
+	 *            possibly none, with random features and one of a few true classes.
+	 * @param dimCount
+	 *            number of features of each instance
+	 * @param seed
+	 *            seed of the random generator
+	 * @return the generated nodes, in order in which they were created, starting with the root. Centroids
+	 *         of the nodes only include their own instances.
+	 */
+	public static List<BasicNode> generateRandomTree( int count, int maxInstanceCount, int dimCount, long seed )
+	{
+		Random r = new Random( seed );
+		List<BasicNode> nodes = new ArrayList<>( count );
+
+		for ( int i = 0; i < count; ++i ) {
+			BasicNode parent = i == 0 ? null : nodes.get( r.nextInt( i ) );
+			String id = parent == null ? Constants.ROOT_ID : parent.getId() + "." + parent.getChildren().size();
+			BasicNode node = new BasicNode( id, parent, false );
+			if ( parent != null ) {
+				parent.addChild( node );
+			}
+
+			int instanceCount = r.nextInt( maxInstanceCount + 1 );
+			for ( int j = 0; j < instanceCount; ++j ) {
+				double[] data = new double[dimCount];
+				for ( int k = 0; k < dimCount; ++k ) {
+					data[k] = r.nextDouble() * 2 - 1;
+				}
+				node.addInstance( new BasicInstance( null, id, data, "c" + r.nextInt( 4 ) ) );
+			}
+			node.recalculateCentroid( false );
+			nodes.add( node );
+		}
+
+		return nodes;
+	}
+
 	public BasicNode generateNode( String id, int instanceCount, int dimCount )
 	{
 		BasicNode node = new BasicNode( id, null, false );
@@ -0,0 +1,98 @@
+package pl.pwr.hiervis.util;
+
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class LruCacheTest
+{
+	@Test
+	public void testEvictsLeastRecentlyUsed()
+	{
+		List<String> evicted = new ArrayList<>();
+		LruCache<String, Integer> cache = new LruCache<>( 3, ( key, value ) -> evicted.add( key ) );
+
+		cache.put( "a", 1 );
+		cache.put( "b", 2 );
+		cache.put( "c", 3 );
+		Assert.assertEquals( Integer.valueOf( 1 ), cache.get( "a" ) );
+		cache.put( "d", 4 );
+
+		Assert.assertEquals( Arrays.asList( "b" ), evicted );
+		Assert.assertEquals( Arrays.asList( "c", "a", "d" ), new ArrayList<>( cache.snapshot().keySet() ) );
+		Assert.assertNull( cache.get( "b" ) );
+
+		Assert.assertEquals( 1, cache.getHitCount() );
+		Assert.assertEquals( 1, cache.getMissCount() );
+		Assert.assertEquals( 1, cache.getEvictionCount() );
+
+		// Explicit removal is not an eviction
+		Assert.assertEquals( Integer.valueOf( 4 ), cache.remove( "d" ) );
+		Assert.assertEquals( 1, cache.getEvictionCount() );
+		Assert.assertEquals( 2, cache.size() );
+	}
+
+	@Test
+	public void testWeight()
+	{
+		LruCache<String, double[]> cache = new LruCache<>( 100, v -> v.length, true, null );
+
+		cache.put( "a", new double[40] );
+		cache.put( "b", new double[40] );
+		Assert.assertEquals( 80, cache.getWeight() );
+
+		// Replacing a value updates the weight
+		cache.put( "a", new double[10] );
+		Assert.assertEquals( 50, cache.getWeight() );
+
+		cache.put( "c", new double[60] );
+		Assert.assertFalse( cache.containsKey( "b" ) );
+		Assert.assertTrue( cache.containsKey( "a" ) );
+		Assert.assertEquals( 70, cache.getWeight() );
+
+		// An entry heavier than the limit evicts everything else, but is kept itself
+		cache.put( "d", new double[200] );
+		Assert.assertEquals( 1, cache.size() );
+		Assert.assertEquals( 200, cache.getWeight() );
+		Assert.assertEquals( 200, cache.get( "d" ).length );
+	}
+
+	@Test
+	public void testClearedValueIsEvicted() throws ReflectiveOperationException
+	{
+		List<String> evicted = new ArrayList<>();
+		LruCache<String, double[]> cache = new LruCache<>( 100, v -> v.length, true, ( key, value ) -> evicted.add( key ) );
+
+		cache.put( "a", new double[10] );
+		cache.put( "b", new double[20] );
+		clearSoftValue( cache, "a" );
+
+		Assert.assertNull( cache.get( "a" ) );
+		Assert.assertEquals( Arrays.asList( "a" ), evicted );
+		Assert.assertEquals( 1, cache.getEvictionCount() );
+		Assert.assertEquals( 1, cache.size() );
+		Assert.assertEquals( 20, cache.getWeight() );
+	}
+
+	/**
+	 * Clears the soft reference holding the value, the way the garbage collector does before it gets
+	 * around to enqueueing the reference.
+	 */
+	private static void clearSoftValue( LruCache<?, ?> cache, Object key ) throws ReflectiveOperationException
+	{
+		Field entriesField = LruCache.class.getDeclaredField( "entries" );
+		entriesField.setAccessible( true );
+		Object entry = ( (Map<?, ?>)entriesField.get( cache ) ).get( key );
+
+		Field softField = entry.getClass().getDeclaredField( "soft" );
+		softField.setAccessible( true );
+		( (Reference<?>)softField.get( entry ) ).clear();
+	}
+}